@@ -0,0 +1,53 @@
+package com.researchspace.core.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of {@link DateRange#mergeAll(List)} for lists of randomly placed,
+ * partly overlapping ranges.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DateRangeBenchmark {
+
+	@Param({ "10", "1000" })
+	int rangeCount;
+
+	List<DateRange> ranges;
+
+	@Setup
+	public void setUp() {
+		Random random = new Random(42);
+		ranges = new ArrayList<>(rangeCount);
+		long span = rangeCount * 10_000L;
+		for (int i = 0; i < rangeCount; i++) {
+			long from = (long) (random.nextDouble() * span);
+			ranges.add(new DateRange(from, from + random.nextInt(20_000)));
+		}
+	}
+
+	@Benchmark
+	public List<DateRange> mergeAll() {
+		return DateRange.mergeAll(ranges);
+	}
+
+}
@@ -0,0 +1,36 @@
+package com.researchspace.core.util;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of {@link MediaUtils#getContentTypeForFileExtension(String)} for an
+ * extension matched early, one matched late, and an unknown extension.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MediaUtilsBenchmark {
+
+	@Param({ "txt", "PNG", "unknown" })
+	String extension;
+
+	@Benchmark
+	public String getContentTypeForFileExtension() {
+		return MediaUtils.getContentTypeForFileExtension(extension);
+	}
+
+}
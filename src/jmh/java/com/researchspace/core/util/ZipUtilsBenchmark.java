@@ -0,0 +1,86 @@
+package com.researchspace.core.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of zipping and unzipping a folder of files, half compressible text and
+ * half random bytes, in a temporary directory.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ZipUtilsBenchmark {
+
+	@Param({ "100" })
+	int fileCount;
+
+	@Param({ "65536" })
+	int fileSize;
+
+	File workDir;
+	File content;
+	File zipToCreate;
+	File existingZip;
+	File extractDir;
+
+	@Setup
+	public void setUp() throws IOException {
+		workDir = Files.createTempDirectory("zip-benchmark").toFile();
+		content = new File(workDir, "content");
+		content.mkdir();
+		Random random = new Random(42);
+		byte[] bytes = new byte[fileSize];
+		for (int i = 0; i < fileCount; i++) {
+			if (i % 2 == 0) {
+				random.nextBytes(bytes);
+			} else {
+				for (int j = 0; j < bytes.length; j++) {
+					bytes[j] = (byte) ('a' + j % 26);
+				}
+			}
+			FileUtils.writeByteArrayToFile(new File(content, "file" + i + ".dat"), bytes);
+		}
+		zipToCreate = new File(workDir, "created.zip");
+		existingZip = new File(workDir, "existing.zip");
+		ZipUtils.createZip(existingZip, content);
+		extractDir = new File(workDir, "extracted");
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		FileUtils.deleteDirectory(workDir);
+	}
+
+	@Benchmark
+	public long createZip() throws IOException {
+		ZipUtils.createZip(zipToCreate, content);
+		return zipToCreate.length();
+	}
+
+	@Benchmark
+	public String extractZip() throws IOException {
+		return ZipUtils.extractZip(existingZip, extractDir);
+	}
+
+}
@@ -0,0 +1,50 @@
+package com.researchspace.core.util.cache;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of reading a valid item from single-item time-limited caches. Reads of
+ * {@link DefaultTimeLimitedMemoryCache} are single-threaded, as it is not
+ * thread safe.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TimeLimitedMemoryCacheBenchmark {
+
+	DefaultTimeLimitedMemoryCache<String> defaultCache;
+	ConcurrentTimeLimitedMemoryCache<String> concurrentCache;
+
+	@Setup
+	public void setUp() {
+		defaultCache = new DefaultTimeLimitedMemoryCache<>();
+		defaultCache.cache("item");
+		concurrentCache = new ConcurrentTimeLimitedMemoryCache<>();
+		concurrentCache.cache("item");
+	}
+
+	@Benchmark
+	public String defaultCacheRead() {
+		return defaultCache.getCachedItem();
+	}
+
+	@Benchmark
+	public String concurrentCacheRead() {
+		return concurrentCache.getCachedItem();
+	}
+
+}
@@ -0,0 +1,73 @@
+package com.researchspace.core.util.imageutils;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares {@link ImageUtils#scaleBySampling(java.io.InputStream, int, String)}
+ * with {@link ImageUtils#scaleWithThumbnailator(java.io.InputStream, int)} on
+ * a generated image, encoded in memory so disk reads aren't measured.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ImageScalingBenchmark {
+
+	private static final int MAX_WIDTH = 250;
+
+	@Param({ "png", "jpg" })
+	String format;
+
+	@Param({ "4000" })
+	int width;
+
+	byte[] encoded;
+
+	@Setup
+	public void setUp() throws IOException {
+		int height = width * 3 / 4;
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		Graphics2D g = image.createGraphics();
+		for (int x = 0; x < width; x += 50) {
+			g.setColor(new Color(x * 255 / width, 128, 255 - x * 255 / width));
+			g.fillRect(x, 0, 50, height);
+		}
+		g.dispose();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ImageIO.write(image, format, out);
+		encoded = out.toByteArray();
+	}
+
+	@Benchmark
+	public BufferedImage scaleBySampling() throws IOException {
+		return ImageUtils.scaleBySampling(new ByteArrayInputStream(encoded), MAX_WIDTH, "benchmark");
+	}
+
+	@Benchmark
+	public BufferedImage scaleWithThumbnailator() throws IOException {
+		return ImageUtils.scaleWithThumbnailator(new ByteArrayInputStream(encoded), MAX_WIDTH);
+	}
+
+}
@@ -0,0 +1,108 @@
+package com.researchspace.core.util.throttling;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.joda.time.DateTime;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.researchspace.core.util.DefaultTimeSource;
+import com.researchspace.core.util.TimeSource;
+
+/**
+ * Throughput of throttlers when 4 threads make requests for the same client,
+ * and for a client per thread. Limits are high enough that no request is
+ * denied, so only the allow path is measured.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class TokenBucketThrottlerBenchmark {
+
+	/** Minimal concrete {@link AbstractTokenBucketThrottler}, as used by clients */
+	static class LegacyThrottler extends AbstractTokenBucketThrottler implements Throttler {
+
+		LegacyThrottler(TimeSource timeSource, ThrottleDefinitionSet definitions) {
+			super(timeSource, definitions, new AllowanceTrackerSourceImpl(timeSource, definitions));
+		}
+
+		@Override
+		public boolean proceed(String identifier, Double requestedResourceUnits) {
+			AllowanceTracker tracker = getAllowanceTrackerById(identifier);
+			DateTime current = timeSource.now();
+			long interval = getIntervalSinceLastRequest(tracker.getLastCheck(), current);
+			doProceed(tracker, current, interval, requestedResourceUnits);
+			return true;
+		}
+
+		@Override
+		protected void throwThrottleException(String msg) {
+			throw new TooManyRequestsException(msg);
+		}
+
+		@Override
+		protected String getThrottleLimitExceededMessage(Map.Entry<ThrottleInterval, ThrottleLimitDefinition> pair) {
+			return "Limit exceeded for " + pair.getKey();
+		}
+
+		@Override
+		public String getName() {
+			return "legacy";
+		}
+	}
+
+	@State(Scope.Benchmark)
+	public static class Throttlers {
+		LegacyThrottler legacy;
+		AtomicTokenBucketThrottler atomic;
+
+		@Setup
+		public void setUp() {
+			TimeSource timeSource = new DefaultTimeSource();
+			ThrottleDefinitionSet definitions = new ThrottleDefinitionSet()
+					.addDefinition(ThrottleInterval.QUARTER_MIN, Integer.MAX_VALUE)
+					.addDefinition(ThrottleInterval.DAY, Integer.MAX_VALUE);
+			legacy = new LegacyThrottler(timeSource, definitions);
+			atomic = new AtomicTokenBucketThrottler("atomic", timeSource, definitions);
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class Client {
+		String id = "client-" + Thread.currentThread().getId();
+	}
+
+	@Benchmark
+	public boolean legacySharedClient(Throttlers throttlers) {
+		return throttlers.legacy.proceed("shared", 1.0);
+	}
+
+	@Benchmark
+	public boolean legacyClientPerThread(Throttlers throttlers, Client client) {
+		return throttlers.legacy.proceed(client.id, 1.0);
+	}
+
+	@Benchmark
+	public boolean atomicSharedClient(Throttlers throttlers) {
+		return throttlers.atomic.proceed("shared", 1.0);
+	}
+
+	@Benchmark
+	public boolean atomicClientPerThread(Throttlers throttlers, Client client) {
+		return throttlers.atomic.proceed(client.id, 1.0);
+	}
+
+}
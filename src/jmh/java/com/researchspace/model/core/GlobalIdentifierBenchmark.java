@@ -0,0 +1,51 @@
+package com.researchspace.model.core;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of parsing {@link GlobalIdentifier}s from strings, and of comparing
+ * them.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class GlobalIdentifierBenchmark {
+
+	@Param({ "SD12345", "SD12345v12" })
+	String idString;
+
+	GlobalIdentifier id;
+	GlobalIdentifier other;
+
+	@Setup
+	public void setUp() {
+		id = new GlobalIdentifier(idString);
+		other = new GlobalIdentifier(GlobalIdPrefix.SD, 12345L, 13L);
+	}
+
+	@Benchmark
+	public GlobalIdentifier parse() {
+		return new GlobalIdentifier(idString);
+	}
+
+	@Benchmark
+	public int compareTo() {
+		return id.compareTo(other);
+	}
+
+}
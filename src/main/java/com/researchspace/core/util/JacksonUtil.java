@@ -3,23 +3,79 @@ package com.researchspace.core.util;
 import static java.util.function.UnaryOperator.identity;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
 import java.util.function.UnaryOperator;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
+import org.apache.commons.lang.Validate;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.fasterxml.jackson.annotation.JsonInclude.Include;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.MappingIterator;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SequenceWriter;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 
 /**
  * Some wrapper methods around Jackson functions
+ * <h5>Implementation</h5> Mappers are created once and shared, so Jackson's
+ * serializer and deserializer caches are kept between calls. Readers and
+ * writers are cached per class in {@link ClassValue}s, so they don't keep
+ * classes from being unloaded. Methods taking a configurer keep the mapper
+ * it creates, keyed by the configurer, for up to
+ * {@link #MAX_CONFIGURED_MAPPERS} configurers; beyond that a mapper is created
+ * per call. A configurer should therefore be a constant, not a lambda
+ * created per call; alternatively, create a mapper once with
+ * {@link #newMapper(UnaryOperator)} and keep it, e.g. in a static field.
+ * <p>
+ * Methods taking streams neither close them nor buffer more than Jackson's
+ * own buffers, so can be used to read and write payloads too large to hold
+ * as a string.
  */
 public class JacksonUtil {
 	
 	private static Logger log = LoggerFactory.getLogger(JacksonUtil.class);
+
+	/** Maximum number of characters of a payload to log */
+	public static final int MAX_LOGGED_PAYLOAD_CHARS = 200;
+
+	/** Maximum number of configurers whose mappers are kept */
+	public static final int MAX_CONFIGURED_MAPPERS = 64;
+
+	private static final UnaryOperator<ObjectMapper> IDENTITY = identity();
+	private static final ObjectMapper MAPPER = newMapper();
+	private static final ObjectMapper NON_EMPTY_MAPPER = newMapper().setSerializationInclusion(Include.NON_EMPTY);
+	private static final ObjectWriter WRITER = MAPPER.writer();
+	private static final ObjectWriter NON_EMPTY_WRITER = NON_EMPTY_MAPPER.writer();
+	private static final ClassValue<ObjectWriter> WRITERS = classValue(WRITER::forType);
+	private static final ClassValue<ObjectWriter> NON_EMPTY_WRITERS = classValue(NON_EMPTY_WRITER::forType);
+	private static final ClassValue<ObjectReader> READERS = classValue(MAPPER::readerFor);
+	private static final Map<UnaryOperator<ObjectMapper>, ObjectMapper> CONFIGURED_MAPPERS = new ConcurrentHashMap<>();
+
+	private static <T> ClassValue<T> classValue(Function<Class<?>, T> compute) {
+		return new ClassValue<T>() {
+			@Override
+			protected T computeValue(Class<?> type) {
+				return compute.apply(type);
+			}
+		};
+	}
 	
 	/**
 	 * Converts object to Json string using Jackson's object mapper without throwing a checked exception
@@ -27,14 +83,60 @@ public class JacksonUtil {
 	 * @return A Json string or empty string of a {@link JsonProcessingException} was thrown internally.
 	 */
 	public static String toJson (Object object) {
-		
+		return orLogged(tryToJson(object), object);
+	}
+
+	/**
+	 * Converts object to Json string, reporting any failure as a
+	 * {@link JsonError} rather than logging it.
+	 * 
+	 * @param object
+	 * @return the Json string, or the error
+	 */
+	public static JsonResult<String> tryToJson(Object object) {
+		return write(object, WRITER, WRITERS);
+	}
+
+	private static JsonResult<String> write(Object object, ObjectWriter untyped, ClassValue<ObjectWriter> writers) {
 		try {
-			return new ObjectMapper().writeValueAsString(object);
+			return JsonResult.success(writerFor(object, untyped, writers).writeValueAsString(object));
 		} catch (JsonProcessingException e) {
-			log.warn("couldn't convert object to json: " + object, e);
-			return "";
+			return JsonResult.failure(JsonError.of(e));
 		}
 	}
+
+	private static String orLogged(JsonResult<String> result, Object object) {
+		if (result.isSuccess()) {
+			return result.getValue();
+		}
+		log.warn("couldn't convert object to json: {} [{}]", result.getError(), abbreviated(object));
+		log.debug("json conversion failure", result.getError().getCause());
+		return "";
+	}
+
+	/**
+	 * Describes a payload for logging, without converting it to a string:
+	 * the start of a String, or the class and identity hash of any other
+	 * object, whose toString() may be as large and costly as the payload.
+	 */
+	private static Object abbreviated(Object payload) {
+		return new Object() {
+			@Override
+			public String toString() {
+				if (payload == null) {
+					return "null";
+				}
+				if (!(payload instanceof String)) {
+					return payload.getClass().getName() + "@" + Integer.toHexString(System.identityHashCode(payload));
+				}
+				String text = (String) payload;
+				if (text.length() <= MAX_LOGGED_PAYLOAD_CHARS) {
+					return text;
+				}
+				return text.substring(0, MAX_LOGGED_PAYLOAD_CHARS) + "... (" + text.length() + " chars)";
+			}
+		};
+	}
 	
 	/**
 	 * Converts object to Json string using Jackson's object mapper without throwing a checked exception.
@@ -44,14 +146,7 @@ public class JacksonUtil {
 	 * @return A Json string or empty string of a {@link JsonProcessingException} was thrown internally.
 	 */
 	public static String toJsonWithoutEmptyFields(Object object) {
-		try {
-			ObjectMapper mapper = new ObjectMapper();
-			mapper.setSerializationInclusion(Include.NON_EMPTY);
-			return mapper.writeValueAsString(object);
-		} catch (JsonProcessingException e) {
-			log.warn("couldn't convert object to json: " + object, e);
-			return "";
-		}
+		return orLogged(write(object, NON_EMPTY_WRITER, NON_EMPTY_WRITERS), object);
 	}
 	
 	/**
@@ -62,14 +157,100 @@ public class JacksonUtil {
 	 * @return An object or null if an internal exception was thrown from Jackson.
 	 */
 	public static <T> T fromJson (String json, Class<T>clazz, UnaryOperator<ObjectMapper> configurer) {
+		JsonResult<T> result = tryFromJson(json, clazz, configurer);
+		if (!result.isSuccess()) {
+			log.debug("couldn't parse json as {}: {} [{}]", clazz.getSimpleName(), result.getError(),
+					abbreviated(json));
+		}
+		return result.orElse(null);
+	}
+
+	/**
+	 * Converts Json to an object, reporting any failure as a
+	 * {@link JsonError} with the location and property path of the problem.
+	 * 
+	 * @param json
+	 * @param clazz
+	 * @return the object, or the error
+	 */
+	public static <T> JsonResult<T> tryFromJson(String json, Class<T> clazz) {
+		return tryFromJson(json, clazz, identity());
+	}
+
+	/**
+	 * As {@link #tryFromJson(String, Class)}, using a mapper customised by
+	 * <code>configurer</code>. The mapper is kept for later calls with the
+	 * same configurer, see the class comment.
+	 * 
+	 * @param json
+	 * @param clazz
+	 * @param configurer
+	 * @return the object, or the error
+	 * @see #tryFromJson(String, Class, ObjectMapper)
+	 */
+	public static <T> JsonResult<T> tryFromJson(String json, Class<T> clazz, UnaryOperator<ObjectMapper> configurer) {
+		Validate.notNull(json, "Json cannot be null");
+		return read(json, configurer == IDENTITY ? READERS.get(clazz) : configuredMapper(configurer).readerFor(clazz));
+	}
+
+	private static ObjectMapper configuredMapper(UnaryOperator<ObjectMapper> configurer) {
+		Validate.notNull(configurer, "Configurer cannot be null");
+		ObjectMapper mapper = CONFIGURED_MAPPERS.get(configurer);
+		if (mapper != null) {
+			return mapper;
+		}
+		if (CONFIGURED_MAPPERS.size() >= MAX_CONFIGURED_MAPPERS) {
+			log.debug("{} configured mappers already kept, creating a mapper per call", MAX_CONFIGURED_MAPPERS);
+			return newMapper(configurer);
+		}
+		return CONFIGURED_MAPPERS.computeIfAbsent(configurer, key -> newMapper(configurer));
+	}
+
+	/**
+	 * As {@link #tryFromJson(String, Class)}, using a mapper created by
+	 * {@link #newMapper(UnaryOperator)} and kept by the caller.
+	 * 
+	 * @param json
+	 * @param clazz
+	 * @param mapper
+	 * @return the object, or the error
+	 */
+	public static <T> JsonResult<T> tryFromJson(String json, Class<T> clazz, ObjectMapper mapper) {
+		Validate.notNull(json, "Json cannot be null");
+		Validate.notNull(mapper, "Mapper cannot be null");
+		return read(json, mapper.readerFor(clazz));
+	}
+
+	private static <T> JsonResult<T> read(String json, ObjectReader reader) {
 		try {
-			ObjectMapper oMapper = new ObjectMapper();
-			oMapper = configurer.apply(oMapper);
-			return oMapper.readValue(json, clazz);
+			return JsonResult.success(reader.readValue(json));
 		} catch (IOException e) {
-			return null;
+			return JsonResult.failure(JsonError.of(e));
 		}
 	}
+
+	/**
+	 * Creates a mapper customised by <code>configurer</code>, with the same
+	 * stream handling as the shared mappers. Mappers are costly to create, so
+	 * callers should keep and reuse it, and not modify it once in use.
+	 * 
+	 * @param configurer
+	 * @return a new mapper
+	 */
+	public static ObjectMapper newMapper(UnaryOperator<ObjectMapper> configurer) {
+		Validate.notNull(configurer, "Configurer cannot be null");
+		return configurer.apply(newMapper());
+	}
+
+	/** Creates a mapper that leaves closing streams to the caller */
+	private static ObjectMapper newMapper() {
+		return new ObjectMapper().disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+				.disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+	}
+
+	private static ObjectWriter writerFor(Object object, ObjectWriter untyped, ClassValue<ObjectWriter> writers) {
+		return object == null ? untyped : writers.get(object.getClass());
+	}
 	
 	/**
 	 * Converts Json to an object using Jackson's ObjectMapper without throwing a checked exception
@@ -106,7 +287,124 @@ public class JacksonUtil {
 	 * Creates a new empty Jackson {@link ObjectNode}
 	 */
 	public static ObjectNode createObjectNode() {
-		return new ObjectMapper().createObjectNode();
+		return MAPPER.createObjectNode();
+	}
+
+	/**
+	 * Writes object as Json to a stream, as UTF-8. The stream is flushed but
+	 * not closed.
+	 * 
+	 * @param object
+	 * @param out
+	 * @throws IOException
+	 *             if <code>object</code> can't be serialised or
+	 *             <code>out</code> can't be written to
+	 */
+	public static void toJson(Object object, OutputStream out) throws IOException {
+		writerFor(object, WRITER, WRITERS).writeValue(out, object);
+	}
+
+	/**
+	 * Reads Json from a stream, which is not closed.
+	 * 
+	 * @param in
+	 * @param clazz
+	 * @return the object read
+	 * @throws IOException
+	 *             if the Json can't be read or parsed as <code>clazz</code>
+	 */
+	public static <T> T fromJson(InputStream in, Class<T> clazz) throws IOException {
+		return READERS.get(clazz).readValue(in);
+	}
+
+	/**
+	 * Converts UTF-8 encoded Json to an object without throwing a checked
+	 * exception, and without first decoding it to a string.
+	 * 
+	 * @param json
+	 * @param clazz
+	 * @return An object or null if an internal exception was thrown from
+	 *         Jackson.
+	 */
+	public static <T> T fromJson(byte[] json, Class<T> clazz) {
+		try {
+			return READERS.get(clazz).<T>readValue(json);
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Writes values as a Json array, one at a time, so the values can be
+	 * produced lazily, e.g. from a {@link Stream#iterator()}. The stream is
+	 * flushed but not closed.
+	 * 
+	 * @param values
+	 * @param out
+	 * @throws IOException
+	 */
+	public static void toJsonArray(Iterator<?> values, OutputStream out) throws IOException {
+		try (SequenceWriter writer = WRITER.writeValuesAsArray(out)) {
+			writeAll(values, writer);
+		}
+	}
+
+	/**
+	 * Writes values as newline-delimited Json, one value per line. The stream
+	 * is flushed but not closed.
+	 * 
+	 * @param values
+	 * @param out
+	 * @throws IOException
+	 * @see #toJsonArray(Iterator, OutputStream)
+	 */
+	public static void toJsonLines(Iterator<?> values, OutputStream out) throws IOException {
+		int written;
+		try (SequenceWriter writer = WRITER.withRootValueSeparator("\n").writeValues(out)) {
+			written = writeAll(values, writer);
+		}
+		if (written > 0) {
+			out.write('\n');
+			out.flush();
+		}
+	}
+
+	private static int writeAll(Iterator<?> values, SequenceWriter writer) throws IOException {
+		int written = 0;
+		while (values.hasNext()) {
+			writer.write(values.next());
+			written++;
+		}
+		return written;
+	}
+
+	/**
+	 * Lazily reads a Json array, or a sequence of Json values such as
+	 * newline-delimited Json, from a stream. Values are parsed as the
+	 * returned stream is consumed, so only one is held at a time.
+	 * <p>
+	 * Closing the returned stream releases the parser, but does not close
+	 * <code>in</code>. Errors while parsing later values are thrown from the
+	 * returned stream as unchecked {@link RuntimeException}s.
+	 * 
+	 * @param in
+	 * @param clazz
+	 *            the type of each value
+	 * @return a sequential stream of values
+	 * @throws IOException
+	 *             if the start of the Json can't be read
+	 */
+	public static <T> Stream<T> fromJsonSequence(InputStream in, Class<T> clazz) throws IOException {
+		MappingIterator<T> values = READERS.get(clazz).readValues(in);
+		return StreamSupport
+				.stream(Spliterators.spliteratorUnknownSize(values, Spliterator.ORDERED), false)
+				.onClose(() -> {
+					try {
+						values.close();
+					} catch (IOException e) {
+						throw new UncheckedIOException(e);
+					}
+				});
 	}
 
 }
@@ -0,0 +1,95 @@
+package com.researchspace.core.util;
+
+import com.fasterxml.jackson.core.JsonLocation;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonMappingException;
+
+/**
+ * Describes why Json could not be parsed or written, without the payload
+ * itself.
+ */
+public final class JsonError {
+
+	public static final int UNKNOWN = -1;
+
+	private final String message;
+	private final int line;
+	private final int column;
+	private final String path;
+	private final Exception cause;
+
+	private JsonError(String message, int line, int column, String path, Exception cause) {
+		this.message = message;
+		this.line = line;
+		this.column = column;
+		this.path = path;
+		this.cause = cause;
+	}
+
+	/**
+	 * Creates an error from an exception thrown by Jackson, or while reading
+	 * or writing the underlying stream.
+	 * 
+	 * @param cause
+	 * @return
+	 */
+	static JsonError of(Exception cause) {
+		if (!(cause instanceof JsonProcessingException)) {
+			return new JsonError(cause.getMessage(), UNKNOWN, UNKNOWN, "", cause);
+		}
+		JsonProcessingException jpe = (JsonProcessingException) cause;
+		JsonLocation location = jpe.getLocation();
+		String path = cause instanceof JsonMappingException ? ((JsonMappingException) cause).getPathReference() : "";
+		return new JsonError(jpe.getOriginalMessage(), location != null ? location.getLineNr() : UNKNOWN,
+				location != null ? location.getColumnNr() : UNKNOWN, path, cause);
+	}
+
+	/**
+	 * Jackson's description of the problem, without location details
+	 */
+	public String getMessage() {
+		return message;
+	}
+
+	/**
+	 * 1-based line of the input where the problem was found, or
+	 * {@link #UNKNOWN}
+	 */
+	public int getLine() {
+		return line;
+	}
+
+	/**
+	 * 1-based column of the input where the problem was found, or
+	 * {@link #UNKNOWN}
+	 */
+	public int getColumn() {
+		return column;
+	}
+
+	/**
+	 * Path to the property being read or written, e.g.
+	 * <code>Order["items"]-&gt;java.util.ArrayList[2]</code>, or an empty string
+	 * if the problem was not in a property
+	 */
+	public String getPath() {
+		return path;
+	}
+
+	public Exception getCause() {
+		return cause;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder(message != null ? message : cause.getClass().getSimpleName());
+		if (line != UNKNOWN) {
+			sb.append(" at line ").append(line).append(", column ").append(column);
+		}
+		if (!path.isEmpty()) {
+			sb.append(" (path ").append(path).append(")");
+		}
+		return sb.toString();
+	}
+
+}
@@ -0,0 +1,77 @@
+package com.researchspace.core.util;
+
+import java.util.Optional;
+
+import org.apache.commons.lang.Validate;
+
+/**
+ * The outcome of parsing or writing Json: either a value, or a
+ * {@link JsonError}.
+ */
+public final class JsonResult<T> {
+
+	private final T value;
+	private final JsonError error;
+
+	private JsonResult(T value, JsonError error) {
+		this.value = value;
+		this.error = error;
+	}
+
+	static <T> JsonResult<T> success(T value) {
+		return new JsonResult<>(value, null);
+	}
+
+	static <T> JsonResult<T> failure(JsonError error) {
+		Validate.notNull(error, "Error cannot be null");
+		return new JsonResult<>(null, error);
+	}
+
+	public boolean isSuccess() {
+		return error == null;
+	}
+
+	/**
+	 * Gets the value, which may be <code>null</code> if the Json was
+	 * <code>null</code>
+	 * 
+	 * @return
+	 * @throws IllegalStateException
+	 *             if not successful
+	 */
+	public T getValue() {
+		if (error != null) {
+			throw new IllegalStateException("No value, Json failed with: " + error);
+		}
+		return value;
+	}
+
+	/**
+	 * @return the error, or <code>null</code> if successful
+	 */
+	public JsonError getError() {
+		return error;
+	}
+
+	/**
+	 * @param other
+	 * @return the value if successful, else <code>other</code>
+	 */
+	public T orElse(T other) {
+		return error == null ? value : other;
+	}
+
+	/**
+	 * @return the value, empty if not successful or the value is
+	 *         <code>null</code>
+	 */
+	public Optional<T> toOptional() {
+		return Optional.ofNullable(orElse(null));
+	}
+
+	@Override
+	public String toString() {
+		return error == null ? "JsonResult [value]" : "JsonResult [error=" + error + "]";
+	}
+
+}
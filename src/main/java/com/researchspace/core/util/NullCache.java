@@ -1,15 +1,21 @@
 package com.researchspace.core.util;
 
 import com.researchspace.core.util.cache.CacheState;
+import com.researchspace.core.util.cache.CacheStats;
+import com.researchspace.core.util.cache.CacheStatsProvider;
+import com.researchspace.core.util.cache.CacheStatsRecorder;
 import com.researchspace.core.util.cache.TimeLimitedMemoryCache;
 
 /**
  * Null implementation that never caches the License.
  */
-public class NullCache<T> implements TimeLimitedMemoryCache<T> {
+public class NullCache<T> implements TimeLimitedMemoryCache<T>, CacheStatsProvider {
+
+	private final CacheStatsRecorder stats = new CacheStatsRecorder();
 
 	@Override
 	public T getCachedItem() {
+		stats.recordLookup(CacheState.EMPTY);
 		return null;
 	}
 
@@ -46,4 +52,9 @@ public class NullCache<T> implements TimeLimitedMemoryCache<T> {
 		return false;
 	}
 
+	@Override
+	public CacheStats getStats() {
+		return stats.snapshot(0);
+	}
+
 }
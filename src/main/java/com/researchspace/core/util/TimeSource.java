@@ -14,4 +14,18 @@ public interface TimeSource {
 	 */
 	DateTime now();
 
+	/**
+	 * Gets a reading from a monotonic clock, in nanoseconds. <br/>
+	 * Values are only meaningful relative to other readings from the same
+	 * source, and should be used for measuring elapsed time, not wall-clock
+	 * time.
+	 * <h5>Implementation</h5> Default implementation returns
+	 * {@link System#nanoTime()}.
+	 * 
+	 * @return a monotonic time reading in nanoseconds
+	 */
+	default long nanoTime() {
+		return System.nanoTime();
+	}
+
 }
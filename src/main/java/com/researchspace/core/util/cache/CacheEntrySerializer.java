@@ -0,0 +1,76 @@
+package com.researchspace.core.util.cache;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Converts cache keys or values to and from a binary form for
+ * {@link CacheSnapshotStore}.
+ */
+public interface CacheEntrySerializer<T> {
+
+	int READ_CHUNK_BYTES = 1024 * 1024;
+
+	void write(T value, DataOutput out) throws IOException;
+
+	T read(DataInput in) throws IOException;
+
+	/**
+	 * Serializer for byte arrays, as a length followed by the bytes. A negative
+	 * length, or fewer bytes than the length, is reported as an
+	 * {@link IOException}. Bytes are read in chunks of up to
+	 * {@link #READ_CHUNK_BYTES}, so a corrupt length doesn't allocate more than
+	 * the data that is actually there.
+	 *
+	 * @return
+	 */
+	static CacheEntrySerializer<byte[]> byteArrays() {
+		return new CacheEntrySerializer<byte[]>() {
+			@Override
+			public void write(byte[] value, DataOutput out) throws IOException {
+				out.writeInt(value.length);
+				out.write(value);
+			}
+
+			@Override
+			public byte[] read(DataInput in) throws IOException {
+				int length = in.readInt();
+				if (length < 0) {
+					throw new IOException("Invalid byte array length " + length);
+				}
+				byte[] value = new byte[Math.min(length, READ_CHUNK_BYTES)];
+				for (int read = 0; read < length; read += READ_CHUNK_BYTES) {
+					if (read > 0) {
+						value = Arrays.copyOf(value, Math.min(length, read + READ_CHUNK_BYTES));
+					}
+					in.readFully(value, read, value.length - read);
+				}
+				return value;
+			}
+		};
+	}
+
+	/**
+	 * Serializer for strings of any length, as UTF-8 bytes.
+	 *
+	 * @return
+	 */
+	static CacheEntrySerializer<String> strings() {
+		CacheEntrySerializer<byte[]> bytes = byteArrays();
+		return new CacheEntrySerializer<String>() {
+			@Override
+			public void write(String value, DataOutput out) throws IOException {
+				bytes.write(value.getBytes(StandardCharsets.UTF_8), out);
+			}
+
+			@Override
+			public String read(DataInput in) throws IOException {
+				return new String(bytes.read(in), StandardCharsets.UTF_8);
+			}
+		};
+	}
+
+}
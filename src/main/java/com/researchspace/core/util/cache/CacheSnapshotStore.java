@@ -0,0 +1,212 @@
+package com.researchspace.core.util.cache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.researchspace.core.util.TimeSource;
+
+/**
+ * Saves the entries of a {@link KeyedTimeLimitedCache} to a local file, and
+ * restores them into a new cache, so that a restarted application can start
+ * with a warm cache.
+ * <p>
+ * Expiry times are saved as wall-clock times from {@link TimeSource#now()},
+ * so entries that became stale while the application was stopped are dropped
+ * when loading, and other entries keep their remaining cache time. Stale
+ * entries are not saved.
+ * <p>
+ * Snapshots are written to a temporary file which then replaces the previous
+ * snapshot, so a crash while saving leaves the previous snapshot intact.
+ */
+public class CacheSnapshotStore<K, V> {
+
+	private static final Logger log = LoggerFactory.getLogger(CacheSnapshotStore.class);
+
+	// 'RSCS'
+	private static final int MAGIC = 0x52534353;
+	private static final byte FORMAT_VERSION = 1;
+
+	private final Path file;
+	private final CacheEntrySerializer<K> keySerializer;
+	private final CacheEntrySerializer<V> valueSerializer;
+	private final TimeSource timeSource;
+
+	/**
+	 * @param file
+	 *            the snapshot file
+	 * @param keySerializer
+	 * @param valueSerializer
+	 * @param timeSource
+	 *            provides wall-clock time to convert entry expiry times
+	 */
+	public CacheSnapshotStore(Path file, CacheEntrySerializer<K> keySerializer,
+			CacheEntrySerializer<V> valueSerializer, TimeSource timeSource) {
+		Validate.notNull(file, "File cannot be null");
+		Validate.notNull(keySerializer, "Key serializer cannot be null");
+		Validate.notNull(valueSerializer, "Value serializer cannot be null");
+		Validate.notNull(timeSource, "Time source cannot be null");
+		this.file = file;
+		this.keySerializer = keySerializer;
+		this.valueSerializer = valueSerializer;
+		this.timeSource = timeSource;
+	}
+
+	/**
+	 * Writes a snapshot of the valid entries of <code>cache</code>, replacing
+	 * any previous snapshot.
+	 *
+	 * @param cache
+	 * @return the number of entries saved
+	 * @throws IOException
+	 */
+	public int save(KeyedTimeLimitedCache<K, V> cache) throws IOException {
+		Path tmp = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(), ".tmp");
+		int[] count = new int[1];
+		try {
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+				long nowMillis = timeSource.now().getMillis();
+				out.writeInt(MAGIC);
+				out.writeByte(FORMAT_VERSION);
+				cache.forEach((key, value, remainingMillis) -> {
+					if (remainingMillis <= 0) {
+						return;
+					}
+					try {
+						out.writeBoolean(true);
+						out.writeLong(nowMillis + remainingMillis);
+						keySerializer.write(key, out);
+						valueSerializer.write(value, out);
+						count[0]++;
+					} catch (IOException e) {
+						throw new UncheckedIOException(e);
+					}
+				});
+				out.writeBoolean(false);
+			} catch (UncheckedIOException e) {
+				throw e.getCause();
+			}
+			moveIntoPlace(tmp);
+		} finally {
+			Files.deleteIfExists(tmp);
+		}
+		log.debug("Saved {} cache entries to {}", count[0], file);
+		return count[0];
+	}
+
+	private void moveIntoPlace(Path tmp) throws IOException {
+		try {
+			Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/**
+	 * Puts entries from the snapshot file into <code>cache</code>, with their
+	 * remaining cache time. Entries that have expired are skipped.
+	 *
+	 * @param cache
+	 * @return the number of entries restored; 0 if there is no snapshot file
+	 * @throws IOException
+	 *             if the file can't be read or is not a valid snapshot
+	 */
+	public int load(KeyedTimeLimitedCache<K, V> cache) throws IOException {
+		if (!Files.exists(file)) {
+			return 0;
+		}
+		int count = 0;
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+			if (in.readInt() != MAGIC || in.readByte() != FORMAT_VERSION) {
+				throw new IOException(String.format("%s is not a cache snapshot in a supported format", file));
+			}
+			while (in.readBoolean()) {
+				long expiresAtMillis = in.readLong();
+				K key = keySerializer.read(in);
+				V value = valueSerializer.read(in);
+				long remainingMillis = expiresAtMillis - timeSource.now().getMillis();
+				if (remainingMillis > 0) {
+					cache.put(key, value, remainingMillis);
+					count++;
+				}
+			}
+		}
+		log.debug("Restored {} cache entries from {}", count, file);
+		return count;
+	}
+
+	/**
+	 * Loads the snapshot in the background, so that startup isn't delayed.
+	 * The cache can be used while loading; entries put by the application are
+	 * overwritten if they are also in the snapshot.
+	 *
+	 * @param cache
+	 * @param executor
+	 * @return a future for the number of entries restored, completed
+	 *         exceptionally if loading fails
+	 */
+	public CompletableFuture<Integer> loadAsync(KeyedTimeLimitedCache<K, V> cache, Executor executor) {
+		return CompletableFuture.supplyAsync(() -> {
+			try {
+				return load(cache);
+			} catch (IOException e) {
+				log.warn("Could not load cache snapshot from {}: {}", file, e.getMessage());
+				throw new UncheckedIOException(e);
+			}
+		}, executor);
+	}
+
+	/**
+	 * Saves a snapshot of <code>cache</code> periodically. Failures are logged
+	 * and do not stop subsequent saves.
+	 *
+	 * @param cache
+	 * @param scheduler
+	 * @param periodMillis
+	 * @return the scheduled task, which can be cancelled
+	 */
+	public ScheduledFuture<?> scheduleSaves(KeyedTimeLimitedCache<K, V> cache, ScheduledExecutorService scheduler,
+			long periodMillis) {
+		return scheduler.scheduleAtFixedRate(() -> saveQuietly(cache), periodMillis, periodMillis,
+				TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Registers a JVM shutdown hook that saves a snapshot of
+	 * <code>cache</code>.
+	 *
+	 * @param cache
+	 * @return the registered hook, e.g. to remove it with
+	 *         {@link Runtime#removeShutdownHook(Thread)}
+	 */
+	public Thread saveOnShutdown(KeyedTimeLimitedCache<K, V> cache) {
+		Thread hook = new Thread(() -> saveQuietly(cache), "cache-snapshot-" + file.getFileName());
+		Runtime.getRuntime().addShutdownHook(hook);
+		return hook;
+	}
+
+	private void saveQuietly(KeyedTimeLimitedCache<K, V> cache) {
+		try {
+			save(cache);
+		} catch (IOException | RuntimeException e) {
+			log.warn("Could not save cache snapshot to {}: {}", file, e.getMessage());
+		}
+	}
+
+}
@@ -13,7 +13,9 @@ public enum CacheState {
 	 */
 	VALID,
 	/**
-	 * Cache has an expired item.
+	 * Cache has an expired item. <br/>
+	 * A {@link LoadingTimeLimitedMemoryCache} continues to serve a stale item
+	 * while a single reload is in flight.
 	 */
 	STALE
 
@@ -0,0 +1,172 @@
+package com.researchspace.core.util.cache;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Immutable snapshot of the statistics of a cache, obtained from a
+ * {@link CacheStatsProvider}.
+ * <p>
+ * Counts are cumulative since the cache was created. Load latencies are
+ * grouped into buckets with upper bounds given by
+ * {@link #getLoadLatencyBucketBoundsMillis()}, plus a final bucket for loads
+ * taking longer than the largest bound.
+ */
+public final class CacheStats {
+
+	static final long[] LOAD_LATENCY_BUCKET_BOUNDS_MILLIS = { 1, 10, 100, 1000, 10000 };
+
+	private final long hitCount;
+	private final long missCount;
+	private final long staleHitCount;
+	private final long loadCount;
+	private final long loadFailureCount;
+	private final long totalLoadTimeNanos;
+	private final long[] loadLatencyHistogram;
+	private final long evictionCount;
+	private final long size;
+
+	/**
+	 * Gets the exclusive upper bounds, in milliseconds, of the load latency
+	 * histogram buckets.
+	 * 
+	 * @return
+	 */
+	public static long[] getLoadLatencyBucketBoundsMillis() {
+		return LOAD_LATENCY_BUCKET_BOUNDS_MILLIS.clone();
+	}
+
+	CacheStats(long hitCount, long missCount, long staleHitCount, long loadCount, long loadFailureCount,
+			long totalLoadTimeNanos, long[] loadLatencyHistogram, long evictionCount, long size) {
+		this.hitCount = hitCount;
+		this.missCount = missCount;
+		this.staleHitCount = staleHitCount;
+		this.loadCount = loadCount;
+		this.loadFailureCount = loadFailureCount;
+		this.totalLoadTimeNanos = totalLoadTimeNanos;
+		this.loadLatencyHistogram = loadLatencyHistogram;
+		this.evictionCount = evictionCount;
+		this.size = size;
+	}
+
+	/**
+	 * Number of lookups that found a valid item
+	 */
+	public long getHitCount() {
+		return hitCount;
+	}
+
+	/**
+	 * Number of lookups that found no item
+	 */
+	public long getMissCount() {
+		return missCount;
+	}
+
+	/**
+	 * Number of lookups that found an item whose cache time had expired
+	 */
+	public long getStaleHitCount() {
+		return staleHitCount;
+	}
+
+	/**
+	 * Total number of lookups, i.e. hits + stale hits + misses
+	 */
+	public long getRequestCount() {
+		return hitCount + staleHitCount + missCount;
+	}
+
+	/**
+	 * Ratio of valid hits to total lookups, or 1 if there have been no lookups
+	 */
+	public double getHitRate() {
+		long requests = getRequestCount();
+		return requests == 0 ? 1.0 : (double) hitCount / requests;
+	}
+
+	/**
+	 * Number of successful and failed loads of a fresh item
+	 */
+	public long getLoadCount() {
+		return loadCount;
+	}
+
+	/**
+	 * Number of loads that threw an exception
+	 */
+	public long getLoadFailureCount() {
+		return loadFailureCount;
+	}
+
+	public long getTotalLoadTimeNanos() {
+		return totalLoadTimeNanos;
+	}
+
+	/**
+	 * Mean time taken by a load, or 0 if there have been no loads
+	 */
+	public double getAverageLoadPenaltyNanos() {
+		return loadCount == 0 ? 0 : (double) totalLoadTimeNanos / loadCount;
+	}
+
+	/**
+	 * Gets the number of loads in each latency bucket
+	 * 
+	 * @return an array one longer than
+	 *         {@link #getLoadLatencyBucketBoundsMillis()}
+	 */
+	public long[] getLoadLatencyHistogram() {
+		return loadLatencyHistogram.clone();
+	}
+
+	/**
+	 * Number of entries removed to keep the cache within its size bound.
+	 */
+	public long getEvictionCount() {
+		return evictionCount;
+	}
+
+	/**
+	 * Number of entries held when the snapshot was taken
+	 */
+	public long getSize() {
+		return size;
+	}
+
+	/**
+	 * Flattens these statistics to name-value pairs, e.g. for export to a
+	 * metrics or monitoring system.
+	 * 
+	 * @return an ordered map of statistic names to values
+	 */
+	public Map<String, Number> toMap() {
+		Map<String, Number> rc = new LinkedHashMap<>();
+		rc.put("hits", hitCount);
+		rc.put("misses", missCount);
+		rc.put("staleHits", staleHitCount);
+		rc.put("hitRate", getHitRate());
+		rc.put("loads", loadCount);
+		rc.put("loadFailures", loadFailureCount);
+		rc.put("totalLoadTimeNanos", totalLoadTimeNanos);
+		for (int i = 0; i < loadLatencyHistogram.length; i++) {
+			String bucket = i < LOAD_LATENCY_BUCKET_BOUNDS_MILLIS.length
+					? "loadsUnder" + LOAD_LATENCY_BUCKET_BOUNDS_MILLIS[i] + "ms"
+					: "loadsOver" + LOAD_LATENCY_BUCKET_BOUNDS_MILLIS[i - 1] + "ms";
+			rc.put(bucket, loadLatencyHistogram[i]);
+		}
+		rc.put("evictions", evictionCount);
+		rc.put("size", size);
+		return rc;
+	}
+
+	@Override
+	public String toString() {
+		return "CacheStats [hits=" + hitCount + ", misses=" + missCount + ", staleHits=" + staleHitCount
+				+ ", loads=" + loadCount + ", loadFailures=" + loadFailureCount + ", totalLoadTimeNanos="
+				+ totalLoadTimeNanos + ", loadLatencyHistogram=" + Arrays.toString(loadLatencyHistogram)
+				+ ", evictions=" + evictionCount + ", size=" + size + "]";
+	}
+
+}
@@ -0,0 +1,27 @@
+package com.researchspace.core.util.cache;
+
+import java.util.function.Consumer;
+
+/**
+ * Mixin interface for a cache that records usage statistics.
+ */
+public interface CacheStatsProvider {
+
+	/**
+	 * Gets a snapshot of this cache's statistics.
+	 * 
+	 * @return
+	 */
+	CacheStats getStats();
+
+	/**
+	 * Passes a snapshot of this cache's statistics to <code>exporter</code>,
+	 * e.g. to publish to a metrics system on a schedule.
+	 * 
+	 * @param exporter
+	 */
+	default void exportStats(Consumer<CacheStats> exporter) {
+		exporter.accept(getStats());
+	}
+
+}
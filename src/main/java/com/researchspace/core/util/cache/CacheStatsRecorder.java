@@ -0,0 +1,96 @@
+package com.researchspace.core.util.cache;
+
+import static com.researchspace.core.util.cache.CacheStats.LOAD_LATENCY_BUCKET_BOUNDS_MILLIS;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Accumulates cache statistics. Counters are {@link LongAdder}s, so recording
+ * is cheap and does not contend between threads; reading a
+ * {@link #snapshot(long)} is comparatively expensive.
+ */
+public final class CacheStatsRecorder {
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder staleHits = new LongAdder();
+	private final LongAdder loads = new LongAdder();
+	private final LongAdder loadFailures = new LongAdder();
+	private final LongAdder totalLoadTimeNanos = new LongAdder();
+	private final LongAdder[] loadLatencyBuckets = new LongAdder[LOAD_LATENCY_BUCKET_BOUNDS_MILLIS.length + 1];
+	private final LongAdder evictions = new LongAdder();
+
+	public CacheStatsRecorder() {
+		for (int i = 0; i < loadLatencyBuckets.length; i++) {
+			loadLatencyBuckets[i] = new LongAdder();
+		}
+	}
+
+	/**
+	 * Records a lookup based on the state of the item that was found.
+	 * 
+	 * @param state
+	 */
+	public void recordLookup(CacheState state) {
+		switch (state) {
+		case VALID:
+			hits.increment();
+			break;
+		case STALE:
+			staleHits.increment();
+			break;
+		default:
+			misses.increment();
+		}
+	}
+
+	/**
+	 * Records a load of a fresh item.
+	 * 
+	 * @param loadTimeNanos
+	 *            the time the load took
+	 * @param succeeded
+	 *            <code>false</code> if the load threw an exception
+	 */
+	public void recordLoad(long loadTimeNanos, boolean succeeded) {
+		loads.increment();
+		if (!succeeded) {
+			loadFailures.increment();
+		}
+		totalLoadTimeNanos.add(loadTimeNanos);
+		loadLatencyBuckets[bucketFor(loadTimeNanos)].increment();
+	}
+
+	public void recordEviction() {
+		evictions.increment();
+	}
+
+	private static int bucketFor(long loadTimeNanos) {
+		long millis = TimeUnit.NANOSECONDS.toMillis(loadTimeNanos);
+		int i = 0;
+		while (i < LOAD_LATENCY_BUCKET_BOUNDS_MILLIS.length && millis >= LOAD_LATENCY_BUCKET_BOUNDS_MILLIS[i]) {
+			i++;
+		}
+		return i;
+	}
+
+	/**
+	 * Takes a snapshot of the current statistics. Counters are read
+	 * individually, so a snapshot taken while the cache is in use may not be
+	 * exactly consistent.
+	 * 
+	 * @param size
+	 *            the current size of the cache
+	 * @return
+	 */
+	public CacheStats snapshot(long size) {
+		long[] histogram = new long[loadLatencyBuckets.length];
+		for (int i = 0; i < histogram.length; i++) {
+			histogram[i] = loadLatencyBuckets[i].sum();
+		}
+		return new CacheStats(hits.sum(), misses.sum(), staleHits.sum(), loads.sum(), loadFailures.sum(),
+				totalLoadTimeNanos.sum(), histogram, evictions.sum(), size);
+	}
+
+}
@@ -0,0 +1,522 @@
+package com.researchspace.core.util.cache;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.ToIntBiFunction;
+
+import org.apache.commons.lang.Validate;
+
+import com.researchspace.core.util.DefaultTimeSource;
+import com.researchspace.core.util.TimeSource;
+
+/**
+ * Thread-safe, size-bounded {@link KeyedTimeLimitedCache}.
+ * <h5>Eviction</h5> The total weight of entries is bounded by
+ * <code>maximumWeight</code>; by default each entry weighs 1, so this is a
+ * bound on the number of entries. Entries are evicted using a segmented LRU
+ * policy: new entries enter a probationary segment and are promoted to a
+ * protected segment (80% of capacity) when read again, so that a burst of
+ * one-off lookups cannot flush frequently-used entries. Stale entries are
+ * retained, and retrievable, until evicted or replaced.
+ * <h5>Concurrency</h5> Entries are held in a {@link ConcurrentHashMap} so
+ * reads never block. Eviction order is kept in a number of independently
+ * locked stripes, and a put evicts from its own stripe first. Reads only
+ * update the eviction order if the stripe lock is free, so under contention
+ * some accesses are not recorded rather than making the reader wait.
+ * <p>
+ * Lookups by {@link #get(Object)} and {@link #getIfValid(Object)}, and
+ * evictions, are recorded in the cache {@link #getStats() statistics}.
+ */
+public class ConcurrentKeyedTimeLimitedCache<K, V> implements KeyedTimeLimitedCache<K, V>, CacheStatsProvider {
+
+	// 1 hour default cache;
+	private static final long DEFAULT_CACHE_TIME_MILLIS = 60 * 60 * 1000L;
+	private static final double PROTECTED_FRACTION = 0.8;
+	// don't split small caches into stripes too small to be useful
+	private static final long MIN_STRIPE_WEIGHT = 16;
+
+	private static final int NOT_LINKED = 0;
+	private static final int PROBATION = 1;
+	private static final int PROTECTED = 2;
+
+	private static final class Node<K, V> {
+		final K key;
+		final V value;
+		final int weight;
+		final long cachedAtNanos;
+		final long expiresAtNanos;
+		// guarded by the stripe lock
+		Node<K, V> prev;
+		Node<K, V> next;
+		int segment = NOT_LINKED;
+
+		Node(K key, V value, int weight, long cachedAtNanos, long cacheTimeNanos) {
+			this.key = key;
+			this.value = value;
+			this.weight = weight;
+			this.cachedAtNanos = cachedAtNanos;
+			// saturating add: cache time is never negative
+			long sum = cachedAtNanos + cacheTimeNanos;
+			this.expiresAtNanos = sum < cachedAtNanos ? Long.MAX_VALUE : sum;
+		}
+
+		Node() {
+			this(null, null, 0, 0, 0);
+		}
+
+		boolean isStaleAt(long nowNanos) {
+			return nowNanos - expiresAtNanos > 0;
+		}
+	}
+
+	/**
+	 * Circular doubly-linked list with a sentinel; most recently used entries
+	 * are at the head.
+	 */
+	private static final class AccessOrder<K, V> {
+		final Node<K, V> sentinel = new Node<>();
+		long weight;
+
+		AccessOrder() {
+			sentinel.prev = sentinel;
+			sentinel.next = sentinel;
+		}
+
+		void addFirst(Node<K, V> node, int segment) {
+			node.next = sentinel.next;
+			node.prev = sentinel;
+			sentinel.next.prev = node;
+			sentinel.next = node;
+			node.segment = segment;
+			weight += node.weight;
+		}
+
+		void unlink(Node<K, V> node) {
+			node.prev.next = node.next;
+			node.next.prev = node.prev;
+			node.prev = null;
+			node.next = null;
+			node.segment = NOT_LINKED;
+			weight -= node.weight;
+		}
+
+		Node<K, V> last() {
+			return sentinel.prev == sentinel ? null : sentinel.prev;
+		}
+	}
+
+	/**
+	 * Eviction order of the keys hashed to this stripe. Segments are guarded
+	 * by <code>lock</code>.
+	 */
+	private static final class Stripe<K, V> {
+		final ReentrantLock lock = new ReentrantLock();
+		final AccessOrder<K, V> probation = new AccessOrder<>();
+		final AccessOrder<K, V> protectedSegment = new AccessOrder<>();
+		final long protectedCapacity;
+		final ConcurrentHashMap<K, Node<K, V>> entries;
+		final AtomicLong totalWeight;
+		final Consumer<Node<K, V>> evictionHandler;
+
+		Stripe(long protectedCapacity, ConcurrentHashMap<K, Node<K, V>> entries, AtomicLong totalWeight,
+				Consumer<Node<K, V>> evictionHandler) {
+			this.protectedCapacity = protectedCapacity;
+			this.entries = entries;
+			this.totalWeight = totalWeight;
+			this.evictionHandler = evictionHandler;
+		}
+
+		void add(Node<K, V> node) {
+			probation.addFirst(node, PROBATION);
+			totalWeight.addAndGet(node.weight);
+		}
+
+		void unlink(Node<K, V> node) {
+			if (node.segment == PROBATION) {
+				probation.unlink(node);
+			} else if (node.segment == PROTECTED) {
+				protectedSegment.unlink(node);
+			} else {
+				return;
+			}
+			totalWeight.addAndGet(-node.weight);
+		}
+
+		void onAccess(Node<K, V> node) {
+			if (node.segment == NOT_LINKED) {
+				return; // removed since it was read
+			}
+			(node.segment == PROBATION ? probation : protectedSegment).unlink(node);
+			protectedSegment.addFirst(node, PROTECTED);
+			Node<K, V> demoted;
+			while (protectedSegment.weight > protectedCapacity && (demoted = protectedSegment.last()) != null) {
+				protectedSegment.unlink(demoted);
+				probation.addFirst(demoted, PROBATION);
+			}
+		}
+
+		/**
+		 * Evicts entries from this stripe until the total weight of the cache is
+		 * within <code>maximumWeight</code> or this stripe is empty.
+		 */
+		void evict(long maximumWeight) {
+			while (totalWeight.get() > maximumWeight) {
+				Node<K, V> victim = probation.last();
+				if (victim == null) {
+					victim = protectedSegment.last();
+				}
+				if (victim == null) {
+					return;
+				}
+				unlink(victim);
+				entries.remove(victim.key, victim);
+				evictionHandler.accept(victim);
+			}
+		}
+
+		void clear() {
+			clear(probation);
+			clear(protectedSegment);
+		}
+
+		private void clear(AccessOrder<K, V> segment) {
+			Node<K, V> node;
+			while ((node = segment.last()) != null) {
+				unlink(node);
+				entries.remove(node.key, node);
+			}
+		}
+	}
+
+	private final ConcurrentHashMap<K, Node<K, V>> entries = new ConcurrentHashMap<>();
+	private final Stripe<K, V>[] stripes;
+	private final AtomicLong totalWeight = new AtomicLong();
+	private final CacheStatsRecorder stats = new CacheStatsRecorder();
+	private final long maximumWeight;
+	private final ToIntBiFunction<? super K, ? super V> weigher;
+	private final TimeSource timeSource;
+	private volatile long cacheTimeNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_CACHE_TIME_MILLIS);
+	private volatile EvictionListener<? super K, ? super V> evictionListener;
+
+	/**
+	 * Creates a cache holding at most <code>maximumSize</code> entries, using
+	 * the system monotonic clock.
+	 *
+	 * @param maximumSize
+	 *            &gt; 0
+	 */
+	public ConcurrentKeyedTimeLimitedCache(long maximumSize) {
+		this(new DefaultTimeSource(), maximumSize, (k, v) -> 1);
+	}
+
+	/**
+	 * @param timeSource
+	 *            source of monotonic time readings, not <code>null</code>
+	 * @param maximumWeight
+	 *            maximum total weight of cached entries, &gt; 0
+	 * @param weigher
+	 *            calculates the weight (&ge; 0) of an entry, e.g. its size in
+	 *            bytes. Not <code>null</code>.
+	 */
+	@SuppressWarnings("unchecked")
+	public ConcurrentKeyedTimeLimitedCache(TimeSource timeSource, long maximumWeight,
+			ToIntBiFunction<? super K, ? super V> weigher) {
+		Validate.notNull(timeSource, "Time source cannot be null");
+		Validate.notNull(weigher, "Weigher cannot be null");
+		Validate.isTrue(maximumWeight > 0, "Maximum weight must be > 0 but was ", maximumWeight);
+		this.timeSource = timeSource;
+		this.weigher = weigher;
+		this.maximumWeight = maximumWeight;
+		int stripeCount = stripeCount(maximumWeight);
+		long protectedCapacity = (long) (maximumWeight * PROTECTED_FRACTION / stripeCount);
+		this.stripes = new Stripe[stripeCount];
+		for (int i = 0; i < stripeCount; i++) {
+			stripes[i] = new Stripe<>(protectedCapacity, entries, totalWeight, this::onEviction);
+		}
+	}
+
+	private static int stripeCount(long maximumWeight) {
+		int count = Integer.highestOneBit(Runtime.getRuntime().availableProcessors()) * 2;
+		while (count > 1 && maximumWeight / count < MIN_STRIPE_WEIGHT) {
+			count >>= 1;
+		}
+		return count;
+	}
+
+	@Override
+	public V get(K key) {
+		Node<K, V> node = entries.get(key);
+		stats.recordLookup(stateOf(node));
+		if (node == null) {
+			return null;
+		}
+		recordAccess(node);
+		return node.value;
+	}
+
+	@Override
+	public V getIfValid(K key) {
+		Node<K, V> node = entries.get(key);
+		CacheState state = stateOf(node);
+		stats.recordLookup(state);
+		if (state != CacheState.VALID) {
+			return null;
+		}
+		recordAccess(node);
+		return node.value;
+	}
+
+	@Override
+	public CacheState getState(K key) {
+		return stateOf(entries.get(key));
+	}
+
+	private CacheState stateOf(Node<K, V> node) {
+		if (node == null) {
+			return CacheState.EMPTY;
+		}
+		return node.isStaleAt(timeSource.nanoTime()) ? CacheState.STALE : CacheState.VALID;
+	}
+
+	@Override
+	public void put(K key, V item) {
+		putNanos(key, item, cacheTimeNanos);
+	}
+
+	@Override
+	public void put(K key, V item, long cacheTimeMillis) {
+		putNanos(key, item, TimeUnit.MILLISECONDS.toNanos(Math.max(0, cacheTimeMillis)));
+	}
+
+	private void putNanos(K key, V item, long ttlNanos) {
+		Validate.notNull(key, "Key cannot be null");
+		if (item == null) {
+			remove(key);
+			return;
+		}
+		Stripe<K, V> stripe = stripeFor(key);
+		stripe.lock.lock();
+		try {
+			putLocked(stripe, key, item, ttlNanos);
+		} finally {
+			stripe.lock.unlock();
+		}
+		if (totalWeight.get() > maximumWeight) {
+			evictFromOtherStripes(stripe);
+		}
+	}
+
+	/**
+	 * Gets the value for <code>key</code> if there is one and it is usable,
+	 * otherwise puts and returns a new value from <code>factory</code>.
+	 * Concurrent calls for the same key create at most one value. The factory
+	 * is called holding the lock of the key's stripe, so should be quick.
+	 *
+	 * @param key
+	 *            not <code>null</code>
+	 * @param isUsable
+	 *            whether an existing value can be returned
+	 * @param factory
+	 *            creates a new value for the key, not <code>null</code>
+	 * @return the existing or new value
+	 */
+	public V getOrPut(K key, Predicate<? super V> isUsable, Function<? super K, ? extends V> factory) {
+		Validate.notNull(key, "Key cannot be null");
+		Node<K, V> node = entries.get(key);
+		if (node != null && isUsable.test(node.value)) {
+			stats.recordLookup(stateOf(node));
+			recordAccess(node);
+			return node.value;
+		}
+		Stripe<K, V> stripe = stripeFor(key);
+		V created;
+		stripe.lock.lock();
+		try {
+			node = entries.get(key);
+			stats.recordLookup(stateOf(node));
+			if (node != null && isUsable.test(node.value)) {
+				stripe.onAccess(node);
+				return node.value;
+			}
+			created = factory.apply(key);
+			Validate.notNull(created, "Created value cannot be null");
+			putLocked(stripe, key, created, cacheTimeNanos);
+		} finally {
+			stripe.lock.unlock();
+		}
+		if (totalWeight.get() > maximumWeight) {
+			evictFromOtherStripes(stripe);
+		}
+		return created;
+	}
+
+	/** Must hold the stripe lock */
+	private void putLocked(Stripe<K, V> stripe, K key, V item, long ttlNanos) {
+		int weight = weigher.applyAsInt(key, item);
+		Validate.isTrue(weight >= 0, "Weight must be >= 0 but was ", weight);
+		Node<K, V> node = new Node<>(key, item, weight, timeSource.nanoTime(), ttlNanos);
+		Node<K, V> old;
+		if (weight > maximumWeight) {
+			// could never be retained, so just discard any earlier entry
+			old = entries.remove(key);
+		} else {
+			old = entries.put(key, node);
+		}
+		if (old != null) {
+			stripe.unlink(old);
+		}
+		if (weight <= maximumWeight) {
+			stripe.add(node);
+			stripe.evict(maximumWeight);
+		}
+	}
+
+	/*
+	 * Called when the stripe that was added to was emptied without bringing the
+	 * weight within bounds. Stripes are locked one at a time so there is no
+	 * lock ordering to worry about.
+	 */
+	private void evictFromOtherStripes(Stripe<K, V> exhausted) {
+		for (Stripe<K, V> stripe : stripes) {
+			if (totalWeight.get() <= maximumWeight) {
+				return;
+			}
+			if (stripe == exhausted) {
+				continue;
+			}
+			stripe.lock.lock();
+			try {
+				stripe.evict(maximumWeight);
+			} finally {
+				stripe.lock.unlock();
+			}
+		}
+	}
+
+	@Override
+	public void remove(K key) {
+		Stripe<K, V> stripe = stripeFor(key);
+		stripe.lock.lock();
+		try {
+			Node<K, V> old = entries.remove(key);
+			if (old != null) {
+				stripe.unlink(old);
+			}
+		} finally {
+			stripe.lock.unlock();
+		}
+	}
+
+	/**
+	 * Removes the entry for <code>key</code> only if its value is
+	 * <code>value</code>, compared by identity, and it still matches
+	 * <code>condition</code>.
+	 *
+	 * @return <code>true</code> if the entry was removed
+	 */
+	public boolean remove(K key, V value, Predicate<? super V> condition) {
+		Stripe<K, V> stripe = stripeFor(key);
+		stripe.lock.lock();
+		try {
+			Node<K, V> node = entries.get(key);
+			if (node == null || node.value != value || !condition.test(value)) {
+				return false;
+			}
+			entries.remove(key, node);
+			stripe.unlink(node);
+			return true;
+		} finally {
+			stripe.lock.unlock();
+		}
+	}
+
+	@Override
+	public void clear() {
+		for (Stripe<K, V> stripe : stripes) {
+			stripe.lock.lock();
+			try {
+				stripe.clear();
+			} finally {
+				stripe.lock.unlock();
+			}
+		}
+	}
+
+	@Override
+	public void setCacheTimeMillis(Long cacheTimeMillis) {
+		Validate.notNull(cacheTimeMillis, "Cache time cannot be null");
+		this.cacheTimeNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, cacheTimeMillis));
+	}
+
+	@Override
+	public long size() {
+		return entries.mappingCount();
+	}
+
+	@Override
+	public void forEach(TimedEntryVisitor<? super K, ? super V> visitor) {
+		for (Node<K, V> node : entries.values()) {
+			visitor.visit(node.key, node.value, remainingMillis(node.expiresAtNanos));
+		}
+	}
+
+	private long remainingMillis(long expiresAtNanos) {
+		return TimeUnit.NANOSECONDS.toMillis(expiresAtNanos - timeSource.nanoTime());
+	}
+
+	/**
+	 * Gets the current total weight of cached entries.
+	 *
+	 * @return
+	 */
+	public long weight() {
+		return totalWeight.get();
+	}
+
+	@Override
+	public CacheStats getStats() {
+		return stats.snapshot(size());
+	}
+
+	/**
+	 * Sets a listener to be notified of entries evicted to keep within the
+	 * maximum weight, e.g. to move them to a secondary cache.
+	 * 
+	 * @param evictionListener
+	 *            a listener, or <code>null</code> to remove the listener.
+	 */
+	public void setEvictionListener(EvictionListener<? super K, ? super V> evictionListener) {
+		this.evictionListener = evictionListener;
+	}
+
+	private void onEviction(Node<K, V> node) {
+		stats.recordEviction();
+		EvictionListener<? super K, ? super V> listener = evictionListener;
+		if (listener != null) {
+			listener.onEviction(node.key, node.value, remainingMillis(node.expiresAtNanos));
+		}
+	}
+
+	private void recordAccess(Node<K, V> node) {
+		Stripe<K, V> stripe = stripeFor(node.key);
+		if (stripe.lock.tryLock()) {
+			try {
+				stripe.onAccess(node);
+			} finally {
+				stripe.lock.unlock();
+			}
+		}
+	}
+
+	private Stripe<K, V> stripeFor(Object key) {
+		int h = key.hashCode();
+		h ^= (h >>> 16);
+		return stripes[h & (stripes.length - 1)];
+	}
+
+}
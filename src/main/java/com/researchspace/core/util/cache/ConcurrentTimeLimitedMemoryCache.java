@@ -0,0 +1,186 @@
+package com.researchspace.core.util.cache;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.commons.lang.Validate;
+
+import com.researchspace.core.util.DefaultTimeSource;
+import com.researchspace.core.util.TimeSource;
+
+/**
+ * Thread-safe cache that caches an item for a particular time. <br/>
+ * The cached item and its expiry deadline are held together in a single
+ * immutable snapshot, so readers always see a consistent pair without
+ * locking. Staleness is measured with the monotonic clock of the
+ * {@link TimeSource}, and reads do not allocate.
+ * <p>
+ * Each call to {@link #getCachedItem()} is recorded in the cache
+ * {@link #getStats() statistics} as a hit, stale hit or miss.
+ */
+public class ConcurrentTimeLimitedMemoryCache<T> implements TimeLimitedMemoryCache<T>, CacheStatsProvider {
+
+	// 1 hour default cache;
+	private static final long DEFAULT_CACHE_TIME_MILLIS = 60 * 60 * 1000L;
+
+	/**
+	 * Immutable pairing of a cached item with the time it was cached and the
+	 * time after which it is stale, both as readings of
+	 * {@link TimeSource#nanoTime()}.
+	 */
+	static final class Snapshot<T> {
+		final T item;
+		final long cachedAtNanos;
+		final long expiresAtNanos;
+
+		Snapshot(T item, long cachedAtNanos, long cacheTimeNanos) {
+			this.item = item;
+			this.cachedAtNanos = cachedAtNanos;
+			long expiresAtNanos = cachedAtNanos + cacheTimeNanos;
+			// cache time is >= 0, so a sum below the start has overflowed
+			this.expiresAtNanos = expiresAtNanos < cachedAtNanos ? Long.MAX_VALUE : expiresAtNanos;
+		}
+
+		boolean isStaleAt(long nowNanos) {
+			// difference comparison is safe against nanoTime overflow
+			return nowNanos - expiresAtNanos > 0;
+		}
+
+		long ageAt(long nowNanos) {
+			return nowNanos - cachedAtNanos;
+		}
+	}
+
+	private final AtomicReference<Snapshot<T>> snapshot = new AtomicReference<>();
+	private final TimeSource timeSource;
+	private final CacheStatsRecorder stats = new CacheStatsRecorder();
+	private volatile long cacheTimeNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_CACHE_TIME_MILLIS);
+
+	/**
+	 * Creates a cache using the system monotonic clock.
+	 */
+	public ConcurrentTimeLimitedMemoryCache() {
+		this(new DefaultTimeSource());
+	}
+
+	/**
+	 * @param timeSource
+	 *            source of monotonic time readings, not <code>null</code>
+	 */
+	public ConcurrentTimeLimitedMemoryCache(TimeSource timeSource) {
+		Validate.notNull(timeSource, "Time source cannot be null");
+		this.timeSource = timeSource;
+	}
+
+	/**
+	 * Sets cache time in milliseconds. Applies to any currently cached item
+	 * as well as items cached subsequently. Values &le; 0 mean items become
+	 * stale immediately.
+	 *
+	 * @param cacheTimeMillis
+	 */
+	@Override
+	public void setCacheTimeMillis(Long cacheTimeMillis) {
+		Validate.notNull(cacheTimeMillis, "Cache time cannot be null");
+		long nanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, cacheTimeMillis));
+		this.cacheTimeNanos = nanos;
+		snapshot.updateAndGet(curr -> curr == null ? null : new Snapshot<>(curr.item, curr.cachedAtNanos, nanos));
+	}
+
+	/**
+	 * Gets the cache time in milliseconds
+	 *
+	 * @return
+	 */
+	public long getCacheTimeMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(cacheTimeNanos);
+	}
+
+	/**
+	 * Gets the cached item, which may be stale, or <code>null</code> if the
+	 * cache is empty.
+	 */
+	@Override
+	public T getCachedItem() {
+		Snapshot<T> curr = snapshot.get();
+		stats.recordLookup(stateOf(curr));
+		return curr == null ? null : curr.item;
+	}
+
+	/**
+	 * Caches an item. Caching <code>null</code> is equivalent to
+	 * {@link #clear()}.
+	 */
+	@Override
+	public void cache(T item) {
+		if (item == null) {
+			clear();
+			return;
+		}
+		snapshot.set(new Snapshot<>(item, timeSource.nanoTime(), cacheTimeNanos));
+	}
+
+	@Override
+	public void clear() {
+		snapshot.set(null);
+	}
+
+	@Override
+	public CacheState getState() {
+		return stateOf(snapshot.get());
+	}
+
+	@Override
+	public boolean isValid() {
+		return getState() == CacheState.VALID;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return snapshot.get() == null;
+	}
+
+	@Override
+	public boolean isStale() {
+		return getState() == CacheState.STALE;
+	}
+
+	private CacheState stateOf(Snapshot<T> curr) {
+		if (curr == null) {
+			return CacheState.EMPTY;
+		}
+		return curr.isStaleAt(nanoTime()) ? CacheState.STALE : CacheState.VALID;
+	}
+
+	@Override
+	public CacheStats getStats() {
+		return stats.snapshot(isEmpty() ? 0 : 1);
+	}
+
+	CacheStatsRecorder getStatsRecorder() {
+		return stats;
+	}
+
+	Snapshot<T> getSnapshot() {
+		return snapshot.get();
+	}
+
+	long nanoTime() {
+		return timeSource.nanoTime();
+	}
+
+	long getCacheTimeNanos() {
+		return cacheTimeNanos;
+	}
+
+	@Override
+	public String toString() {
+		Snapshot<T> curr = snapshot.get();
+		if (curr == null) {
+			return String.format("Item never cached, cache time %d millis", getCacheTimeMillis());
+		}
+		long ageMillis = TimeUnit.NANOSECONDS.toMillis(curr.ageAt(nanoTime()));
+		return String.format("Item last cached %d millis ago for %d millis", ageMillis, getCacheTimeMillis());
+	}
+
+}
@@ -6,11 +6,13 @@ import java.util.Date;
 
 /**
  * A basic cache that caches an item for a particular time. <br/>
- * Not thread safe!
+ * Not thread safe! Use {@link ConcurrentTimeLimitedMemoryCache} if the cache is
+ * shared between threads.
  *
  */
-public class DefaultTimeLimitedMemoryCache<T> implements TimeLimitedMemoryCache<T> {
+public class DefaultTimeLimitedMemoryCache<T> implements TimeLimitedMemoryCache<T>, CacheStatsProvider {
 	private CacheState state;
+	private final CacheStatsRecorder stats = new CacheStatsRecorder();
 
 	public DefaultTimeLimitedMemoryCache() {
 		super();
@@ -43,11 +45,14 @@ public class DefaultTimeLimitedMemoryCache<T> implements TimeLimitedMemoryCache<
 	public T getCachedItem() {
 		if (cachedItem == null || lastCacheTime == null) {
 			setState(CacheState.EMPTY);
+			stats.recordLookup(CacheState.EMPTY);
 			return null;
 		} else {
-			if (checkStale()) {
+			boolean stale = checkStale();
+			if (stale) {
 				setState(CacheState.STALE);
 			}
+			stats.recordLookup(stale ? CacheState.STALE : CacheState.VALID);
 			return cachedItem;
 		}
 	}
@@ -112,6 +117,11 @@ public class DefaultTimeLimitedMemoryCache<T> implements TimeLimitedMemoryCache<
 		return CacheState.STALE.equals(state);
 	}
 	
+	@Override
+	public CacheStats getStats() {
+		return stats.snapshot(isEmpty() ? 0 : 1);
+	}
+
 	public String  toString (){
 		SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm");
 		return String.format("Item last cached at %s for %d millis" , (lastCacheTime!=null)?sdf.format(lastCacheTime):"never cached", cacheTimeMillis);
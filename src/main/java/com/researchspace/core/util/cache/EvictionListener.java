@@ -0,0 +1,22 @@
+package com.researchspace.core.util.cache;
+
+/**
+ * Callback notified when a cache evicts an entry to stay within its size
+ * bound. Not called for entries that are removed or replaced explicitly.
+ */
+@FunctionalInterface
+public interface EvictionListener<K, V> {
+
+	/**
+	 * Called synchronously by the thread that caused the eviction, so should
+	 * be quick, and must not call back into the evicting cache.
+	 * 
+	 * @param key
+	 * @param value
+	 * @param remainingCacheTimeMillis
+	 *            time until the entry would have become stale; &le; 0 if
+	 *            already stale.
+	 */
+	void onEviction(K key, V value, long remainingCacheTimeMillis);
+
+}
@@ -0,0 +1,90 @@
+package com.researchspace.core.util.cache;
+
+/**
+ * In memory cache of items keyed by <code>K</code>, where each entry has its
+ * own expiry time. Each entry has a {@link CacheState} with the same meaning
+ * as for a {@link TimeLimitedMemoryCache}.
+ */
+public interface KeyedTimeLimitedCache<K, V> {
+
+	/**
+	 * Gets the item cached for <code>key</code>, which may be stale.
+	 *
+	 * @param key
+	 * @return the cached item, or <code>null</code> if there is no entry for
+	 *         <code>key</code>
+	 */
+	V get(K key);
+
+	/**
+	 * Gets the item cached for <code>key</code> only if it has not expired.
+	 *
+	 * @param key
+	 * @return the cached item, or <code>null</code> if there is no entry for
+	 *         <code>key</code> or it is stale.
+	 */
+	V getIfValid(K key);
+
+	/**
+	 * Caches an item for the default cache time. Caching <code>null</code>
+	 * removes any entry for <code>key</code>.
+	 *
+	 * @param key
+	 * @param item
+	 */
+	void put(K key, V item);
+
+	/**
+	 * Caches an item that will remain VALID until <code>cacheTimeMillis</code>
+	 * millis have elapsed.
+	 *
+	 * @param key
+	 * @param item
+	 * @param cacheTimeMillis
+	 */
+	void put(K key, V item, long cacheTimeMillis);
+
+	/**
+	 * Removes any entry for <code>key</code>
+	 *
+	 * @param key
+	 */
+	void remove(K key);
+
+	/**
+	 * Removes all entries.
+	 */
+	void clear();
+
+	/**
+	 * Gets the state of the entry for <code>key</code>
+	 *
+	 * @param key
+	 * @return {@link CacheState#EMPTY} if there is no entry
+	 */
+	CacheState getState(K key);
+
+	/**
+	 * Sets the default cache time used by {@link #put(Object, Object)}.
+	 * Doesn't affect entries that are already cached.
+	 *
+	 * @param cacheTimeMillis
+	 */
+	void setCacheTimeMillis(Long cacheTimeMillis);
+
+	/**
+	 * Gets the number of cached entries, including stale entries.
+	 *
+	 * @return
+	 */
+	long size();
+
+	/**
+	 * Visits a weakly-consistent view of the cached entries, including stale
+	 * entries, without affecting eviction order or statistics.
+	 *
+	 * @param visitor
+	 */
+	void forEach(TimedEntryVisitor<? super K, ? super V> visitor);
+
+}
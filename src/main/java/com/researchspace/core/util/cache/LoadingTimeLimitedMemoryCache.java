@@ -0,0 +1,192 @@
+package com.researchspace.core.util.cache;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+import org.apache.commons.lang.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.researchspace.core.util.DefaultTimeSource;
+import com.researchspace.core.util.TimeSource;
+
+/**
+ * {@link ConcurrentTimeLimitedMemoryCache} that loads its item on demand via
+ * {@link #getOrLoad(Supplier)}, with at most one load in flight at a time.
+ * <ul>
+ * <li>If the cache is {@link CacheState#EMPTY}, one caller runs the loader
+ * and any concurrent callers wait for its result.
+ * <li>If the cache is {@link CacheState#STALE}, one caller triggers a reload
+ * on the refresh executor and all callers are served the stale item until
+ * the reload completes.
+ * <li>If the cache is {@link CacheState#VALID} but older than
+ * <code>refreshAheadFraction * cacheTimeMillis</code>, a reload is triggered
+ * on the refresh executor so that the item is replaced before it goes stale.
+ * </ul>
+ * By default the refresh executor runs reloads in the calling thread, in which
+ * case the caller that triggers a reload waits for it; supply an asynchronous
+ * executor so that no caller is blocked while a stale item is refreshed.
+ * <p>
+ * A failed background reload leaves the stale item in place; the next call
+ * will try again.
+ */
+public class LoadingTimeLimitedMemoryCache<T> extends ConcurrentTimeLimitedMemoryCache<T> {
+
+	private static final Logger log = LoggerFactory.getLogger(LoadingTimeLimitedMemoryCache.class);
+
+	private static final double NO_REFRESH_AHEAD = 1.0;
+
+	private final AtomicReference<CompletableFuture<T>> inFlight = new AtomicReference<>();
+	private final Executor refreshExecutor;
+	private volatile double refreshAheadFraction = NO_REFRESH_AHEAD;
+
+	/**
+	 * Creates a cache using the system monotonic clock, that reloads in the
+	 * calling thread.
+	 */
+	public LoadingTimeLimitedMemoryCache() {
+		this(new DefaultTimeSource(), Runnable::run);
+	}
+
+	/**
+	 * @param timeSource
+	 *            source of monotonic time readings, not <code>null</code>
+	 * @param refreshExecutor
+	 *            executor on which stale or refresh-ahead reloads are run, not
+	 *            <code>null</code>
+	 */
+	public LoadingTimeLimitedMemoryCache(TimeSource timeSource, Executor refreshExecutor) {
+		super(timeSource);
+		Validate.notNull(refreshExecutor, "Refresh executor cannot be null");
+		this.refreshExecutor = refreshExecutor;
+	}
+
+	/**
+	 * Sets the fraction of the cache time after which a still-valid item is
+	 * reloaded in the background. A value of 1 (the default) disables
+	 * refresh-ahead, so items are only reloaded once stale.
+	 *
+	 * @param refreshAheadFraction
+	 *            a value &gt; 0 and &le; 1
+	 * @throws IllegalArgumentException
+	 *             if out of range
+	 */
+	public void setRefreshAheadFraction(double refreshAheadFraction) {
+		Validate.isTrue(refreshAheadFraction > 0 && refreshAheadFraction <= 1,
+				"Refresh-ahead fraction must be > 0 and <= 1 but was ", refreshAheadFraction);
+		this.refreshAheadFraction = refreshAheadFraction;
+	}
+
+	public double getRefreshAheadFraction() {
+		return refreshAheadFraction;
+	}
+
+	/**
+	 * Gets the cached item, loading it with <code>loader</code> if needed.
+	 *
+	 * @param loader
+	 *            Supplies a fresh item. Only called by one thread at a time.
+	 * @return the cached item, which may be stale if a reload is in progress
+	 * @throws RuntimeException
+	 *             thrown by <code>loader</code> if the cache was empty and
+	 *             the load failed
+	 */
+	public T getOrLoad(Supplier<T> loader) {
+		Validate.notNull(loader, "Loader cannot be null");
+		Snapshot<T> curr = getSnapshot();
+		if (curr == null) {
+			getStatsRecorder().recordLookup(CacheState.EMPTY);
+			return await(load(loader, Runnable::run));
+		}
+		long now = nanoTime();
+		boolean stale = curr.isStaleAt(now);
+		getStatsRecorder().recordLookup(stale ? CacheState.STALE : CacheState.VALID);
+		if (stale || curr.ageAt(now) >= refreshAheadThresholdNanos()) {
+			load(loader, refreshExecutor);
+			// if the reload ran in this thread we can return its result
+			Snapshot<T> reloaded = getSnapshot();
+			if (reloaded != null) {
+				return reloaded.item;
+			}
+		}
+		return curr.item;
+	}
+
+	/**
+	 * Whether a load or reload is currently in progress.
+	 *
+	 * @return
+	 */
+	public boolean isRefreshing() {
+		return inFlight.get() != null;
+	}
+
+	private long refreshAheadThresholdNanos() {
+		return (long) (getCacheTimeNanos() * refreshAheadFraction);
+	}
+
+	private CompletableFuture<T> load(Supplier<T> loader, Executor executor) {
+		while (true) {
+			CompletableFuture<T> existing = inFlight.get();
+			if (existing != null) {
+				return existing;
+			}
+			CompletableFuture<T> pending = new CompletableFuture<>();
+			if (inFlight.compareAndSet(null, pending)) {
+				try {
+					executor.execute(() -> runLoad(loader, pending));
+				} catch (RejectedExecutionException e) {
+					log.warn("Cache reload rejected by executor: {}", e.getMessage());
+					inFlight.compareAndSet(pending, null);
+					pending.completeExceptionally(e);
+				}
+				return pending;
+			}
+		}
+	}
+
+	/**
+	 * Runs the loader and completes <code>pending</code> however it ends, so
+	 * callers waiting on it are never left blocked. An {@link Error} is
+	 * rethrown after completing it.
+	 */
+	private void runLoad(Supplier<T> loader, CompletableFuture<T> pending) {
+		long start = nanoTime();
+		try {
+			T item = loader.get();
+			getStatsRecorder().recordLoad(nanoTime() - start, true);
+			cache(item);
+			inFlight.compareAndSet(pending, null);
+			pending.complete(item);
+		} catch (RuntimeException e) {
+			getStatsRecorder().recordLoad(nanoTime() - start, false);
+			log.warn("Loading cache item failed: {}", e.getMessage());
+			pending.completeExceptionally(e);
+		} catch (Error e) {
+			getStatsRecorder().recordLoad(nanoTime() - start, false);
+			pending.completeExceptionally(e);
+			throw e;
+		} finally {
+			inFlight.compareAndSet(pending, null);
+		}
+	}
+
+	private T await(CompletableFuture<T> pending) {
+		try {
+			return pending.join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			if (e.getCause() instanceof Error) {
+				throw (Error) e.getCause();
+			}
+			throw e;
+		}
+	}
+
+}
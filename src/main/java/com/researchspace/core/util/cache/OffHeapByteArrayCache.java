@@ -0,0 +1,320 @@
+package com.researchspace.core.util.cache;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ObjLongConsumer;
+
+import org.apache.commons.lang.Validate;
+
+import com.researchspace.core.util.TimeSource;
+
+/**
+ * {@link KeyedTimeLimitedCache} of byte arrays (e.g. thumbnail images) that
+ * stores values outside the Java heap, so large cached values do not add to
+ * garbage collection work.
+ * <p>
+ * Values are copied into fixed-size pages of a single buffer, which is either
+ * a direct buffer ({@link #allocateDirect(TimeSource, int, int)}) or a
+ * memory-mapped file ({@link #mapFile(TimeSource, Path, int, int)}). Only the
+ * keys and page indexes are held on the heap. When there are not enough free
+ * pages for a new value, least-recently used entries are evicted. Values are
+ * copied back onto the heap by <code>get</code>.
+ * <p>
+ * Thread-safe; all operations synchronize on the cache, so this is intended
+ * as a second-level cache behind a {@link ConcurrentKeyedTimeLimitedCache},
+ * see {@link TieredByteArrayCache}.
+ */
+public class OffHeapByteArrayCache<K> implements KeyedTimeLimitedCache<K, byte[]>, CacheStatsProvider, Closeable {
+
+	public static final int DEFAULT_PAGE_SIZE = 4096;
+
+	// 1 hour default cache;
+	private static final long DEFAULT_CACHE_TIME_MILLIS = 60 * 60 * 1000L;
+	private static final int[] NO_PAGES = new int[0];
+
+	private static final class Entry {
+		final int[] pages;
+		final int length;
+		final long expiresAtNanos;
+
+		Entry(int[] pages, int length, long expiresAtNanos) {
+			this.pages = pages;
+			this.length = length;
+			this.expiresAtNanos = expiresAtNanos;
+		}
+
+		boolean isStaleAt(long nowNanos) {
+			return nowNanos - expiresAtNanos > 0;
+		}
+	}
+
+	private final ByteBuffer arena;
+	private final FileChannel channel;
+	private final int pageSize;
+	private final int pageCount;
+	private final int[] freePages;
+	private int freePageCount;
+	// access-ordered, so iteration starts with the least-recently used entry
+	private final LinkedHashMap<K, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+	private final TimeSource timeSource;
+	private final CacheStatsRecorder stats = new CacheStatsRecorder();
+	private volatile long cacheTimeNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_CACHE_TIME_MILLIS);
+
+	/**
+	 * Creates a cache backed by a direct buffer.
+	 *
+	 * @param timeSource
+	 *            source of monotonic time readings
+	 * @param capacityBytes
+	 *            size of the buffer; at least one page
+	 * @param pageSize
+	 *            size of the unit of allocation, e.g.
+	 *            {@link #DEFAULT_PAGE_SIZE}
+	 * @return
+	 */
+	public static <K> OffHeapByteArrayCache<K> allocateDirect(TimeSource timeSource, int capacityBytes,
+			int pageSize) {
+		validateSizes(capacityBytes, pageSize);
+		return new OffHeapByteArrayCache<>(timeSource, ByteBuffer.allocateDirect(capacityBytes), null, pageSize);
+	}
+
+	/**
+	 * Creates a cache backed by a memory-mapped file, created if need be. The
+	 * file is only used as backing storage; its contents are not reused by a
+	 * new cache. Call {@link #close()} to release the file.
+	 *
+	 * @param timeSource
+	 *            source of monotonic time readings
+	 * @param file
+	 *            path of the file to map
+	 * @param capacityBytes
+	 *            size of the mapped region; at least one page
+	 * @param pageSize
+	 *            size of the unit of allocation, e.g.
+	 *            {@link #DEFAULT_PAGE_SIZE}
+	 * @return
+	 * @throws IOException
+	 *             if the file can't be opened or mapped
+	 */
+	public static <K> OffHeapByteArrayCache<K> mapFile(TimeSource timeSource, Path file, int capacityBytes,
+			int pageSize) throws IOException {
+		validateSizes(capacityBytes, pageSize);
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		try {
+			ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacityBytes);
+			return new OffHeapByteArrayCache<>(timeSource, mapped, channel, pageSize);
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	private static void validateSizes(int capacityBytes, int pageSize) {
+		Validate.isTrue(pageSize > 0, "Page size must be > 0 but was ", pageSize);
+		Validate.isTrue(capacityBytes >= pageSize, "Capacity must be at least one page but was ", capacityBytes);
+	}
+
+	private OffHeapByteArrayCache(TimeSource timeSource, ByteBuffer arena, FileChannel channel, int pageSize) {
+		Validate.notNull(timeSource, "Time source cannot be null");
+		this.timeSource = timeSource;
+		this.arena = arena;
+		this.channel = channel;
+		this.pageSize = pageSize;
+		this.pageCount = arena.capacity() / pageSize;
+		this.freePages = new int[pageCount];
+		for (int i = 0; i < pageCount; i++) {
+			freePages[i] = pageCount - 1 - i;
+		}
+		this.freePageCount = pageCount;
+	}
+
+	@Override
+	public synchronized byte[] get(K key) {
+		Entry entry = entries.get(key);
+		stats.recordLookup(stateOf(entry));
+		return entry == null ? null : read(entry);
+	}
+
+	@Override
+	public synchronized byte[] getIfValid(K key) {
+		Entry entry = entries.get(key);
+		CacheState state = stateOf(entry);
+		stats.recordLookup(state);
+		return state == CacheState.VALID ? read(entry) : null;
+	}
+
+	@Override
+	public synchronized CacheState getState(K key) {
+		return stateOf(entries.get(key));
+	}
+
+	@Override
+	public void put(K key, byte[] item) {
+		putNanos(key, item, cacheTimeNanos);
+	}
+
+	@Override
+	public void put(K key, byte[] item, long cacheTimeMillis) {
+		putNanos(key, item, TimeUnit.MILLISECONDS.toNanos(Math.max(0, cacheTimeMillis)));
+	}
+
+	private synchronized void putNanos(K key, byte[] item, long ttlNanos) {
+		Validate.notNull(key, "Key cannot be null");
+		release(entries.remove(key));
+		if (item == null) {
+			return;
+		}
+		int needed = (item.length + pageSize - 1) / pageSize;
+		if (needed > pageCount) {
+			return; // could never be stored
+		}
+		while (freePageCount < needed) {
+			evictEldest();
+		}
+		int[] pages = needed == 0 ? NO_PAGES : new int[needed];
+		for (int i = 0; i < needed; i++) {
+			pages[i] = freePages[--freePageCount];
+			int offset = i * pageSize;
+			arena.position(pages[i] * pageSize);
+			arena.put(item, offset, Math.min(pageSize, item.length - offset));
+		}
+		entries.put(key, new Entry(pages, item.length, expiresAt(timeSource.nanoTime(), ttlNanos)));
+	}
+
+	/** Clamps to Long.MAX_VALUE rather than wrapping, as ttlNanos is &gt;= 0 */
+	private static long expiresAt(long nowNanos, long ttlNanos) {
+		long expiresAt = nowNanos + ttlNanos;
+		return expiresAt < nowNanos ? Long.MAX_VALUE : expiresAt;
+	}
+
+	/**
+	 * Removes the entry for <code>key</code>, if there is one, and passes its
+	 * value and remaining cache time in millis to <code>consumer</code>, e.g.
+	 * to promote it to a first-level cache.
+	 *
+	 * @return the removed value, or <code>null</code> if there was no entry
+	 */
+	byte[] take(K key, ObjLongConsumer<byte[]> consumer) {
+		byte[] value;
+		long remainingNanos;
+		synchronized (this) {
+			Entry entry = entries.remove(key);
+			stats.recordLookup(stateOf(entry));
+			if (entry == null) {
+				return null;
+			}
+			value = read(entry);
+			remainingNanos = entry.expiresAtNanos - timeSource.nanoTime();
+			release(entry);
+		}
+		consumer.accept(value, TimeUnit.NANOSECONDS.toMillis(remainingNanos));
+		return value;
+	}
+
+	@Override
+	public synchronized void remove(K key) {
+		release(entries.remove(key));
+	}
+
+	@Override
+	public synchronized void clear() {
+		entries.clear();
+		for (int i = 0; i < pageCount; i++) {
+			freePages[i] = pageCount - 1 - i;
+		}
+		freePageCount = pageCount;
+	}
+
+	@Override
+	public void setCacheTimeMillis(Long cacheTimeMillis) {
+		Validate.notNull(cacheTimeMillis, "Cache time cannot be null");
+		this.cacheTimeNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, cacheTimeMillis));
+	}
+
+	@Override
+	public synchronized long size() {
+		return entries.size();
+	}
+
+	/**
+	 * Copies each value back onto the heap to pass to <code>visitor</code>.
+	 * The cache is locked while visiting.
+	 */
+	@Override
+	public synchronized void forEach(TimedEntryVisitor<? super K, ? super byte[]> visitor) {
+		long now = timeSource.nanoTime();
+		for (Map.Entry<K, Entry> entry : entries.entrySet()) {
+			long remainingNanos = entry.getValue().expiresAtNanos - now;
+			visitor.visit(entry.getKey(), read(entry.getValue()), TimeUnit.NANOSECONDS.toMillis(remainingNanos));
+		}
+	}
+
+	/**
+	 * Gets the number of bytes of storage currently in use, in whole pages.
+	 *
+	 * @return
+	 */
+	public synchronized long usedBytes() {
+		return (long) (pageCount - freePageCount) * pageSize;
+	}
+
+	@Override
+	public CacheStats getStats() {
+		return stats.snapshot(size());
+	}
+
+	/**
+	 * Clears the cache and, if memory-mapped, closes the backing file.
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		clear();
+		if (channel != null) {
+			channel.close();
+		}
+	}
+
+	private void evictEldest() {
+		Iterator<Map.Entry<K, Entry>> it = entries.entrySet().iterator();
+		Entry eldest = it.next().getValue();
+		it.remove();
+		release(eldest);
+		stats.recordEviction();
+	}
+
+	private void release(Entry entry) {
+		if (entry == null) {
+			return;
+		}
+		for (int page : entry.pages) {
+			freePages[freePageCount++] = page;
+		}
+	}
+
+	private byte[] read(Entry entry) {
+		byte[] value = new byte[entry.length];
+		for (int i = 0; i < entry.pages.length; i++) {
+			int offset = i * pageSize;
+			arena.position(entry.pages[i] * pageSize);
+			arena.get(value, offset, Math.min(pageSize, entry.length - offset));
+		}
+		return value;
+	}
+
+	private CacheState stateOf(Entry entry) {
+		if (entry == null) {
+			return CacheState.EMPTY;
+		}
+		return entry.isStaleAt(timeSource.nanoTime()) ? CacheState.STALE : CacheState.VALID;
+	}
+
+}
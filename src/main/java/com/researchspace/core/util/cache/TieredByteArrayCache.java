@@ -0,0 +1,168 @@
+package com.researchspace.core.util.cache;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.commons.lang.Validate;
+
+/**
+ * Two-level {@link KeyedTimeLimitedCache} of byte arrays. Hot entries are held
+ * on the heap in a {@link ConcurrentKeyedTimeLimitedCache}; entries evicted
+ * from it move, with their remaining cache time, to an
+ * {@link OffHeapByteArrayCache}, and are moved back to the heap when next
+ * read.
+ * <p>
+ * An entry is held in at most one tier at a time. Promotion, demotion, puts and
+ * removals of a key are serialised by a lock striped by key, so a value read
+ * from the off-heap tier can't overwrite a newer value put concurrently, and
+ * an evicted value can't be moved off-heap while a newer one is put.
+ * Demotion runs in the heap tier's eviction listener, holding a lock of the
+ * heap tier that a put holding a key lock may be waiting for, so it doesn't
+ * wait for the key lock: if another thread holds it, the evicted entry is
+ * dropped rather than moved.
+ */
+public class TieredByteArrayCache<K> implements KeyedTimeLimitedCache<K, byte[]> {
+
+	private static final int LOCK_STRIPES = 64;
+
+	private final ConcurrentKeyedTimeLimitedCache<K, byte[]> heapTier;
+	private final OffHeapByteArrayCache<K> offHeapTier;
+	private final ReentrantLock[] locks = new ReentrantLock[LOCK_STRIPES];
+
+	/**
+	 * Registers this cache as the eviction listener of <code>heapTier</code>.
+	 *
+	 * @param heapTier
+	 *            first-level cache
+	 * @param offHeapTier
+	 *            second-level cache
+	 */
+	public TieredByteArrayCache(ConcurrentKeyedTimeLimitedCache<K, byte[]> heapTier,
+			OffHeapByteArrayCache<K> offHeapTier) {
+		Validate.notNull(heapTier, "Heap tier cannot be null");
+		Validate.notNull(offHeapTier, "Off-heap tier cannot be null");
+		this.heapTier = heapTier;
+		this.offHeapTier = offHeapTier;
+		heapTier.setEvictionListener(this::demote);
+		for (int i = 0; i < locks.length; i++) {
+			locks[i] = new ReentrantLock();
+		}
+	}
+
+	@Override
+	public byte[] get(K key) {
+		byte[] value = heapTier.get(key);
+		return value != null ? value : promote(key);
+	}
+
+	@Override
+	public byte[] getIfValid(K key) {
+		if (heapTier.getState(key) == CacheState.EMPTY) {
+			promote(key);
+		}
+		return heapTier.getIfValid(key);
+	}
+
+	private byte[] promote(K key) {
+		ReentrantLock lock = lockFor(key);
+		lock.lock();
+		try {
+			return offHeapTier.take(key, (value, remainingMillis) -> heapTier.put(key, value, remainingMillis));
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void demote(K key, byte[] value, long remainingCacheTimeMillis) {
+		ReentrantLock lock = lockFor(key);
+		if (!lock.tryLock()) {
+			// the key may be being put, so the value may already be stale
+			return;
+		}
+		try {
+			if (heapTier.getState(key) == CacheState.EMPTY) {
+				offHeapTier.put(key, value, remainingCacheTimeMillis);
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private ReentrantLock lockFor(Object key) {
+		int h = key.hashCode();
+		h ^= (h >>> 16);
+		return locks[h & (locks.length - 1)];
+	}
+
+	@Override
+	public CacheState getState(K key) {
+		CacheState state = heapTier.getState(key);
+		return state != CacheState.EMPTY ? state : offHeapTier.getState(key);
+	}
+
+	@Override
+	public void put(K key, byte[] item) {
+		ReentrantLock lock = lockFor(key);
+		lock.lock();
+		try {
+			offHeapTier.remove(key);
+			heapTier.put(key, item);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public void put(K key, byte[] item, long cacheTimeMillis) {
+		ReentrantLock lock = lockFor(key);
+		lock.lock();
+		try {
+			offHeapTier.remove(key);
+			heapTier.put(key, item, cacheTimeMillis);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public void remove(K key) {
+		ReentrantLock lock = lockFor(key);
+		lock.lock();
+		try {
+			heapTier.remove(key);
+			offHeapTier.remove(key);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public void clear() {
+		heapTier.clear();
+		offHeapTier.clear();
+	}
+
+	@Override
+	public void setCacheTimeMillis(Long cacheTimeMillis) {
+		heapTier.setCacheTimeMillis(cacheTimeMillis);
+	}
+
+	@Override
+	public long size() {
+		return heapTier.size() + offHeapTier.size();
+	}
+
+	@Override
+	public void forEach(TimedEntryVisitor<? super K, ? super byte[]> visitor) {
+		heapTier.forEach(visitor);
+		offHeapTier.forEach(visitor);
+	}
+
+	public ConcurrentKeyedTimeLimitedCache<K, byte[]> getHeapTier() {
+		return heapTier;
+	}
+
+	public OffHeapByteArrayCache<K> getOffHeapTier() {
+		return offHeapTier;
+	}
+
+}
@@ -0,0 +1,17 @@
+package com.researchspace.core.util.cache;
+
+/**
+ * Callback for visiting the entries of a {@link KeyedTimeLimitedCache}.
+ */
+@FunctionalInterface
+public interface TimedEntryVisitor<K, V> {
+
+	/**
+	 * @param key
+	 * @param value
+	 * @param remainingCacheTimeMillis
+	 *            time until the entry becomes stale; &le; 0 if already stale.
+	 */
+	void visit(K key, V value, long remainingCacheTimeMillis);
+
+}
@@ -0,0 +1,288 @@
+package com.researchspace.core.util.imageutils;
+
+import java.awt.Dimension;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.Optional;
+
+import javax.imageio.IIOException;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+import org.apache.commons.lang.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.coobird.thumbnailator.util.exif.ExifFilterUtils;
+import net.coobird.thumbnailator.util.exif.ExifUtils;
+import net.coobird.thumbnailator.util.exif.Orientation;
+
+/**
+ * Decodes images at reduced resolution, for thumbnails and previews of images
+ * too large to decode in full.
+ * <p>
+ * Only the image header is read to get the image size. The image is then
+ * decoded with ImageIO source subsampling, and optionally a source region, so
+ * that the decoded image is from {@link #OVERSAMPLING} to just under twice
+ * {@link #OVERSAMPLING} times the requested size, or the full image if that is
+ * smaller. The reduced image is scaled to fit the requested size and rotated
+ * according to any EXIF orientation.
+ * <p>
+ * If the reduced image would still have more pixels than the budget, an
+ * {@link ImageTooLargeException} is thrown before any pixels are decoded. At
+ * 4 bytes per pixel, the default budget of
+ * {@link #DEFAULT_MAX_DECODED_PIXELS} needs about 100MB of heap.
+ * <p>
+ * This class is thread-safe.
+ */
+public class BoundedImageDecoder {
+
+	private static final Logger log = LoggerFactory.getLogger(BoundedImageDecoder.class);
+
+	public static final long DEFAULT_MAX_DECODED_PIXELS = 25_000_000;
+
+	/**
+	 * Images are decoded at up to this multiple of the requested size, so that
+	 * scaling down smooths out subsampling artefacts.
+	 */
+	public static final int OVERSAMPLING = 2;
+
+	private final long maxDecodedPixels;
+
+	/**
+	 * Creates a decoder with a budget of {@link #DEFAULT_MAX_DECODED_PIXELS}
+	 */
+	public BoundedImageDecoder() {
+		this(DEFAULT_MAX_DECODED_PIXELS);
+	}
+
+	/**
+	 * @param maxDecodedPixels
+	 *            the most pixels to decode for one image, &gt; 0
+	 */
+	public BoundedImageDecoder(long maxDecodedPixels) {
+		Validate.isTrue(maxDecodedPixels > 0, "Max decoded pixels must be > 0 but was ", maxDecodedPixels);
+		this.maxDecodedPixels = maxDecodedPixels;
+	}
+
+	public long getMaxDecodedPixels() {
+		return maxDecodedPixels;
+	}
+
+	/**
+	 * Reads the size of an image from its header, without decoding any pixels.
+	 * The stream is not closed.
+	 *
+	 * @param is
+	 *            an open {@link InputStream} to an image resource
+	 * @return the stored width and height of the first image, or
+	 *         <code>Optional.empty</code> if there is no reader for the image
+	 * @throws IOException
+	 */
+	public static Optional<Dimension> readDimensions(InputStream is) throws IOException {
+		Validate.notNull(is, "Input stream must not be null");
+		ImageInputStream iis = ImageIO.createImageInputStream(is);
+		try {
+			Optional<ImageReader> reader = getReader(iis, true);
+			if (!reader.isPresent()) {
+				return Optional.empty();
+			}
+			try {
+				return Optional.of(new Dimension(reader.get().getWidth(0), reader.get().getHeight(0)));
+			} finally {
+				reader.get().dispose();
+			}
+		} finally {
+			closeQuietly(iis);
+		}
+	}
+
+	/**
+	 * Decodes an image to fit within <code>maxWidth</code> x
+	 * <code>maxHeight</code>, keeping its aspect ratio. Images already smaller
+	 * are not scaled up. The stream is not closed.
+	 *
+	 * @param is
+	 *            an open {@link InputStream} to an image resource
+	 * @param maxWidth
+	 *            &gt; 0
+	 * @param maxHeight
+	 *            &gt; 0
+	 * @return the reduced image, or <code>Optional.empty</code> if there is no
+	 *         reader for the image or it could not be decoded
+	 * @throws ImageTooLargeException
+	 *             if the reduced image would exceed the pixel budget
+	 * @throws IOException
+	 */
+	public Optional<BufferedImage> decode(InputStream is, int maxWidth, int maxHeight) throws IOException {
+		return decode(is, null, maxWidth, maxHeight);
+	}
+
+	/**
+	 * Decodes a region of an image to fit within <code>maxWidth</code> x
+	 * <code>maxHeight</code>, keeping its aspect ratio. Pixels outside the
+	 * region are not decoded.
+	 *
+	 * @param is
+	 *            an open {@link InputStream} to an image resource
+	 * @param sourceRegion
+	 *            the region to decode, in stored pixel coordinates (before
+	 *            EXIF orientation is applied), or <code>null</code> for the
+	 *            whole image
+	 * @param maxWidth
+	 *            &gt; 0
+	 * @param maxHeight
+	 *            &gt; 0
+	 * @return the reduced image, or <code>Optional.empty</code> if there is no
+	 *         reader for the image, it could not be decoded or the region does
+	 *         not intersect it
+	 * @throws ImageTooLargeException
+	 *             if the reduced image would exceed the pixel budget
+	 * @throws IOException
+	 * @see #decode(InputStream, int, int)
+	 */
+	public Optional<BufferedImage> decode(InputStream is, Rectangle sourceRegion, int maxWidth, int maxHeight)
+			throws IOException {
+		Validate.notNull(is, "Input stream must not be null");
+		ImageInputStream iis = ImageIO.createImageInputStream(is);
+		try {
+			return decode(iis, sourceRegion, maxWidth, maxHeight);
+		} finally {
+			closeQuietly(iis);
+		}
+	}
+
+	/**
+	 * @param iis
+	 *            an open {@link ImageInputStream}; not closed by this method
+	 * @see #decode(InputStream, Rectangle, int, int)
+	 */
+	public Optional<BufferedImage> decode(ImageInputStream iis, Rectangle sourceRegion, int maxWidth, int maxHeight)
+			throws IOException {
+		Validate.isTrue(maxWidth > 0 && maxHeight > 0,
+				String.format("Dimensions must be > 0 but were [%d,%d]", maxWidth, maxHeight));
+		Optional<ImageReader> found = getReader(iis, false);
+		if (!found.isPresent()) {
+			return Optional.empty();
+		}
+		ImageReader reader = found.get();
+		try {
+			Rectangle region = new Rectangle(0, 0, reader.getWidth(0), reader.getHeight(0));
+			if (sourceRegion != null) {
+				region = region.intersection(sourceRegion);
+				if (region.isEmpty()) {
+					return Optional.empty();
+				}
+			}
+			Orientation orientation = readOrientation(reader);
+			boolean transposed = isTransposed(orientation);
+			// the requested size is of the oriented image
+			int storedMaxWidth = transposed ? maxHeight : maxWidth;
+			int storedMaxHeight = transposed ? maxWidth : maxHeight;
+
+			int sampling = calculateSampling(region.width, region.height, storedMaxWidth, storedMaxHeight);
+			long pixels = (long) ceilDiv(region.width, sampling) * ceilDiv(region.height, sampling);
+			if (pixels > maxDecodedPixels) {
+				throw new ImageTooLargeException(String.format(
+						"Decoding %dx%d image at 1/%d resolution needs %d pixels, more than the limit of %d",
+						region.width, region.height, sampling, pixels, maxDecodedPixels), pixels, maxDecodedPixels);
+			}
+			ImageReadParam param = reader.getDefaultReadParam();
+			param.setSourceRegion(region);
+			param.setSourceSubsampling(sampling, sampling, 0, 0);
+			BufferedImage reduced;
+			try {
+				reduced = reader.read(0, param);
+			} catch (IIOException | IndexOutOfBoundsException e) {
+				log.warn("Couldn't decode image: {}", e.getMessage());
+				return Optional.empty();
+			}
+			BufferedImage scaled = ImageUtils.scaleToFit(reduced, storedMaxWidth, storedMaxHeight);
+			return Optional.of(orient(scaled, orientation));
+		} finally {
+			reader.dispose();
+		}
+	}
+
+	/**
+	 * Gets the largest subsampling that reduces an image to no less than
+	 * {@link #OVERSAMPLING} times the size that fits the target, or 1 if the
+	 * image is already small enough. As subsampling is by whole pixels, the
+	 * reduced image is less than twice that size.
+	 */
+	static int calculateSampling(int width, int height, int maxWidth, int maxHeight) {
+		double reduction = Math.max((double) width / maxWidth, (double) height / maxHeight);
+		return (int) Math.max(1, Math.floor(reduction / OVERSAMPLING));
+	}
+
+	/**
+	 * Gets the pixels decoded to fit an image to a target, in either
+	 * orientation, as EXIF orientation is only known once the image is read.
+	 */
+	static long decodedPixels(int width, int height, int maxWidth, int maxHeight) {
+		return Math.max(subsampledPixels(width, height, maxWidth, maxHeight),
+				subsampledPixels(width, height, maxHeight, maxWidth));
+	}
+
+	private static long subsampledPixels(int width, int height, int maxWidth, int maxHeight) {
+		int sampling = calculateSampling(width, height, maxWidth, maxHeight);
+		return (long) ceilDiv(width, sampling) * ceilDiv(height, sampling);
+	}
+
+	private static int ceilDiv(int value, int divisor) {
+		return (value + divisor - 1) / divisor;
+	}
+
+	private static Optional<ImageReader> getReader(ImageInputStream iis, boolean ignoreMetadata) {
+		if (iis == null) {
+			return Optional.empty();
+		}
+		Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+		if (!readers.hasNext()) {
+			return Optional.empty();
+		}
+		ImageReader reader = readers.next();
+		reader.setInput(iis, true, ignoreMetadata);
+		return Optional.of(reader);
+	}
+
+	private static Orientation readOrientation(ImageReader reader) {
+		try {
+			if ("jpeg".equalsIgnoreCase(reader.getFormatName())) {
+				return ExifUtils.getExifOrientation(reader, 0);
+			}
+		} catch (IOException | RuntimeException e) {
+			log.debug("Couldn't read EXIF orientation, ignoring: {}", e.getMessage());
+		}
+		return null;
+	}
+
+	private static boolean isTransposed(Orientation orientation) {
+		return orientation == Orientation.LEFT_TOP || orientation == Orientation.RIGHT_TOP
+				|| orientation == Orientation.RIGHT_BOTTOM || orientation == Orientation.LEFT_BOTTOM;
+	}
+
+	private static BufferedImage orient(BufferedImage image, Orientation orientation) {
+		if (orientation == null || orientation == Orientation.TOP_LEFT) {
+			return image;
+		}
+		return ExifFilterUtils.getFilterForOrientation(orientation).apply(image);
+	}
+
+	private static void closeQuietly(ImageInputStream iis) {
+		if (iis == null) {
+			return;
+		}
+		try {
+			iis.close();
+		} catch (IOException e) {
+			log.debug("Couldn't close image input stream: {}", e.getMessage());
+		}
+	}
+
+}
@@ -15,4 +15,13 @@ public interface IMultipartFile {
 
 	InputStream getInputStream() throws  IOException;
 
+	long UNKNOWN_SIZE = -1;
+
+	/**
+	 * @return the size of the file in bytes, or {@link #UNKNOWN_SIZE}
+	 */
+	default long getSize() {
+		return UNKNOWN_SIZE;
+	}
+
 }
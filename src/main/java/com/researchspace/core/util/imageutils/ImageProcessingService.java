@@ -0,0 +1,425 @@
+package com.researchspace.core.util.imageutils;
+
+import java.awt.Dimension;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.stream.ImageInputStream;
+
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.lang.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs image processing jobs on a dedicated pool, so that bursts of uploads
+ * don't tie up request threads or exceed a heap budget.
+ * <p>
+ * Each job gives an estimate of the pixels it will decode. A job starts when
+ * a thread is free and its pixels fit within the budget of pixels decoded at
+ * once; otherwise it waits in a first-in, first-out queue. When the queue is
+ * full, new jobs are shed: their futures complete exceptionally with a
+ * {@link RejectedExecutionException}, so callers can respond with e.g. 503
+ * and retry later. Jobs whose estimate exceeds the whole budget complete
+ * exceptionally with an {@link ImageTooLargeException}.
+ * <p>
+ * Cancelling a job's future before it starts withdraws it. Call
+ * {@link #shutdown()} when the service is no longer needed.
+ */
+public class ImageProcessingService {
+
+	private static final Logger log = LoggerFactory.getLogger(ImageProcessingService.class);
+
+	/** About 400MB of heap at 4 bytes per pixel */
+	public static final long DEFAULT_MAX_PIXELS_IN_FLIGHT = 100_000_000;
+
+	public static final int DEFAULT_MAX_QUEUED_JOBS = 100;
+
+	private static final class Job<T> {
+		final long pixels;
+		final Callable<T> task;
+		final CompletableFuture<T> future = new CompletableFuture<>();
+
+		Job(long pixels, Callable<T> task) {
+			this.pixels = pixels;
+			this.task = task;
+		}
+
+		/**
+		 * Runs the task, calling <code>release</code> before completing the
+		 * future so that jobs submitted on completion see the freed budget.
+		 */
+		void run(Runnable release) {
+			if (future.isDone()) {
+				release.run();
+				return;
+			}
+			T result;
+			try {
+				result = task.call();
+			} catch (Exception e) {
+				release.run();
+				future.completeExceptionally(e);
+				return;
+			} catch (Error e) {
+				release.run();
+				future.completeExceptionally(e);
+				throw e;
+			}
+			release.run();
+			future.complete(result);
+		}
+	}
+
+	private final ExecutorService executor;
+	private final int threads;
+	private final long maxPixelsInFlight;
+	private final int maxQueuedJobs;
+
+	// guarded by this
+	private final ArrayDeque<Job<?>> queue = new ArrayDeque<>();
+	private long pixelsInFlight;
+	private int runningJobs;
+	private boolean shutdown;
+
+	/**
+	 * Creates a service with a thread per core, a budget of
+	 * {@link #DEFAULT_MAX_PIXELS_IN_FLIGHT} and up to
+	 * {@link #DEFAULT_MAX_QUEUED_JOBS} waiting jobs.
+	 */
+	public ImageProcessingService() {
+		this(Runtime.getRuntime().availableProcessors(), DEFAULT_MAX_PIXELS_IN_FLIGHT, DEFAULT_MAX_QUEUED_JOBS);
+	}
+
+	/**
+	 * @param threads
+	 *            the most jobs to run at once, &gt; 0
+	 * @param maxPixelsInFlight
+	 *            the most pixels decoded by running jobs at once, &gt; 0
+	 * @param maxQueuedJobs
+	 *            the most jobs waiting to start, &ge; 0
+	 */
+	public ImageProcessingService(int threads, long maxPixelsInFlight, int maxQueuedJobs) {
+		Validate.isTrue(threads > 0, "Threads must be > 0 but was ", threads);
+		Validate.isTrue(maxPixelsInFlight > 0, "Max pixels in flight must be > 0 but was ", maxPixelsInFlight);
+		Validate.isTrue(maxQueuedJobs >= 0, "Max queued jobs must be >= 0 but was ", maxQueuedJobs);
+		this.threads = threads;
+		this.maxPixelsInFlight = maxPixelsInFlight;
+		this.maxQueuedJobs = maxQueuedJobs;
+		// jobs are only passed to the executor when a thread is free
+		this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+				new ImageThreadFactory());
+	}
+
+	private static final class ImageThreadFactory implements ThreadFactory {
+		private final AtomicInteger count = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "image-processing-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+
+	/**
+	 * Submits a job.
+	 *
+	 * @param estimatedPixels
+	 *            the most pixels the job will decode at once, &ge; 0
+	 * @param task
+	 *            the job
+	 * @return a future that completes with the job's result; or exceptionally
+	 *         with the job's exception, a {@link RejectedExecutionException} if
+	 *         the job was shed, or an {@link ImageTooLargeException} if
+	 *         <code>estimatedPixels</code> exceeds the budget
+	 */
+	public <T> CompletableFuture<T> submit(long estimatedPixels, Callable<T> task) {
+		Validate.isTrue(estimatedPixels >= 0, "Estimated pixels must be >= 0 but was ", estimatedPixels);
+		Validate.notNull(task, "Task cannot be null");
+		Job<T> job = new Job<>(estimatedPixels, task);
+		if (estimatedPixels > maxPixelsInFlight) {
+			job.future.completeExceptionally(new ImageTooLargeException(
+					String.format("Job needs %d pixels, more than the limit of %d", estimatedPixels, maxPixelsInFlight),
+					estimatedPixels, maxPixelsInFlight));
+			return job.future;
+		}
+		List<Job<?>> toStart = new ArrayList<>();
+		boolean queued = false;
+		synchronized (this) {
+			if (shutdown) {
+				job.future.completeExceptionally(new RejectedExecutionException("Image processing is shut down"));
+			} else if (queue.isEmpty() && canStart(job)) {
+				reserve(job);
+				toStart.add(job);
+			} else if (queue.size() < maxQueuedJobs) {
+				queue.add(job);
+				queued = true;
+			} else {
+				log.warn("Image processing queue is full ({} jobs), rejecting job for {} pixels", queue.size(),
+						estimatedPixels);
+				job.future.completeExceptionally(new RejectedExecutionException(
+						String.format("Image processing queue is full (%d jobs)", maxQueuedJobs)));
+			}
+		}
+		if (queued) {
+			// e.g. cancelled while waiting
+			job.future.whenComplete((result, e) -> withdraw(job));
+		}
+		toStart.forEach(this::start);
+		return job.future;
+	}
+
+	/**
+	 * Removes a job completed while waiting from the queue, so it no longer
+	 * takes a place in the queue or holds up the jobs behind it.
+	 */
+	private void withdraw(Job<?> job) {
+		List<Job<?>> toStart = new ArrayList<>();
+		synchronized (this) {
+			if (!queue.remove(job)) {
+				return;
+			}
+			startWaiting(toStart);
+		}
+		toStart.forEach(this::start);
+	}
+
+	private boolean canStart(Job<?> job) {
+		return runningJobs < threads && pixelsInFlight + job.pixels <= maxPixelsInFlight;
+	}
+
+	private void reserve(Job<?> job) {
+		runningJobs++;
+		pixelsInFlight += job.pixels;
+	}
+
+	private void start(Job<?> job) {
+		try {
+			executor.execute(() -> job.run(() -> finished(job)));
+		} catch (RejectedExecutionException e) {
+			job.future.completeExceptionally(e);
+			finished(job);
+		}
+	}
+
+	private void finished(Job<?> job) {
+		List<Job<?>> toStart = new ArrayList<>();
+		synchronized (this) {
+			runningJobs--;
+			pixelsInFlight -= job.pixels;
+			startWaiting(toStart);
+		}
+		toStart.forEach(this::start);
+	}
+
+	/**
+	 * Reserves waiting jobs from the head of the queue until one doesn't fit.
+	 * Must hold the lock.
+	 */
+	private void startWaiting(List<Job<?>> toStart) {
+		while (!queue.isEmpty()) {
+			Job<?> head = queue.peek();
+			if (!canStart(head)) {
+				break;
+			}
+			reserve(queue.poll());
+			toStart.add(head);
+		}
+	}
+
+	/**
+	 * Converts a TIFF file to PNG on the pool.
+	 *
+	 * @see ImageUtils#convertTiffToPng(File, File, String)
+	 */
+	public CompletableFuture<File> convertTiffToPng(File tiffFile, File destinationFolder, String newFileName) {
+		return submit(tiffFile, () -> ImageUtils.convertTiffToPng(tiffFile, destinationFolder, newFileName));
+	}
+
+	/**
+	 * Rotates a TIFF file on the pool.
+	 *
+	 * @see ImageUtils#rotateTiff(File, Integer, File)
+	 */
+	public CompletableFuture<Boolean> rotateTiff(File tiffFile, Integer rotation, File outfile) {
+		return submit(tiffFile, () -> ImageUtils.rotateTiff(tiffFile, rotation, outfile));
+	}
+
+	/**
+	 * Produces several sizes and formats of an image file on the pool.
+	 *
+	 * @see ImageUtils#scaleToTargets(InputStream, String, ImageTarget...)
+	 */
+	public CompletableFuture<Map<ImageTarget, byte[]>> scaleToTargets(File image, ImageTarget... targets) {
+		String extension = FilenameUtils.getExtension(image.getName());
+		return submit(image, targets, () -> {
+			try (InputStream is = new FileInputStream(image)) {
+				return ImageUtils.scaleToTargets(is, extension, targets);
+			}
+		});
+	}
+
+	private <T> CompletableFuture<T> submit(File image, Callable<T> task) {
+		return submit(image, new ImageTarget[0], task);
+	}
+
+	private <T> CompletableFuture<T> submit(File image, ImageTarget[] targets, Callable<T> task) {
+		long pixels;
+		try {
+			pixels = estimatePixels(image, targets);
+		} catch (IOException e) {
+			CompletableFuture<T> failed = new CompletableFuture<>();
+			failed.completeExceptionally(e);
+			return failed;
+		}
+		return submit(pixels, task);
+	}
+
+	/**
+	 * Estimates pixels decoded for an image file from its headers, as 4-byte
+	 * pixels of heap.
+	 * <p>
+	 * TIFF files are decoded in full by ImageJ, so every page is counted, at
+	 * the bytes ImageJ holds per pixel for the TIFF's bit depth. Other images
+	 * are decoded by {@link BoundedImageDecoder} subsampled to fit the largest
+	 * target, or in full if there are no targets.
+	 */
+	static long estimatePixels(File image, ImageTarget... targets) throws IOException {
+		Validate.notNull(image, "Image file cannot be null");
+		if (ImageUtils.isTiff(FilenameUtils.getExtension(image.getName()))) {
+			return estimateTiffPixels(image);
+		}
+		Optional<Dimension> size;
+		try (InputStream is = new FileInputStream(image)) {
+			size = BoundedImageDecoder.readDimensions(is);
+		}
+		if (!size.isPresent()) {
+			return 0;
+		}
+		int width = size.get().width;
+		int height = size.get().height;
+		if (targets.length == 0) {
+			return (long) width * height;
+		}
+		int maxWidth = 0;
+		int maxHeight = 0;
+		for (ImageTarget target : targets) {
+			maxWidth = Math.max(maxWidth, target.getMaxWidth());
+			maxHeight = Math.max(maxHeight, target.getMaxHeight());
+		}
+		return BoundedImageDecoder.decodedPixels(width, height, maxWidth, maxHeight);
+	}
+
+	private static long estimateTiffPixels(File tiff) throws IOException {
+		try (ImageInputStream iis = ImageIO.createImageInputStream(tiff)) {
+			Iterator<ImageReader> readers = iis == null ? Collections.emptyIterator() : ImageIO.getImageReaders(iis);
+			if (!readers.hasNext()) {
+				return 0;
+			}
+			ImageReader reader = readers.next();
+			try {
+				reader.setInput(iis, false, true);
+				long bytes = 0;
+				int pages = reader.getNumImages(true);
+				for (int i = 0; i < pages; i++) {
+					bytes += (long) reader.getWidth(i) * reader.getHeight(i) * bytesPerPixel(reader.getRawImageType(i));
+				}
+				return (bytes + 3) / 4;
+			} finally {
+				reader.dispose();
+			}
+		}
+	}
+
+	/**
+	 * Bytes ImageJ holds per pixel: 8, 16 and 32-bit images and RGB colour
+	 * images are stored in 1, 2, 4 and 4 bytes, and wider images as a stack
+	 * of 16-bit channels.
+	 */
+	private static int bytesPerPixel(ImageTypeSpecifier type) {
+		if (type == null) {
+			return 4;
+		}
+		int bits = 0;
+		for (int size : type.getSampleModel().getSampleSize()) {
+			bits += size;
+		}
+		if (bits <= 8) {
+			return 1;
+		}
+		if (bits <= 16) {
+			return 2;
+		}
+		if (bits <= 32) {
+			return 4;
+		}
+		return (bits + 7) / 8;
+	}
+
+	/**
+	 * Rejects new jobs, fails waiting jobs with a
+	 * {@link RejectedExecutionException} and lets running jobs finish.
+	 */
+	public void shutdown() {
+		List<Job<?>> waiting;
+		synchronized (this) {
+			shutdown = true;
+			waiting = new ArrayList<>(queue);
+			queue.clear();
+		}
+		waiting.forEach(job -> job.future
+				.completeExceptionally(new RejectedExecutionException("Image processing is shut down")));
+		executor.shutdown();
+	}
+
+	/**
+	 * Waits for running jobs to finish after {@link #shutdown()}.
+	 *
+	 * @return <code>true</code> if all jobs finished before the timeout
+	 * @throws InterruptedException
+	 */
+	public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+		return executor.awaitTermination(timeout, unit);
+	}
+
+	/**
+	 * @return the pixels reserved by running jobs
+	 */
+	public synchronized long getPixelsInFlight() {
+		return pixelsInFlight;
+	}
+
+	/**
+	 * @return the number of jobs waiting to start
+	 */
+	public synchronized int getQueuedCount() {
+		return queue.size();
+	}
+
+	public long getMaxPixelsInFlight() {
+		return maxPixelsInFlight;
+	}
+
+}
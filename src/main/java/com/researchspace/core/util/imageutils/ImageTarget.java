@@ -0,0 +1,95 @@
+package com.researchspace.core.util.imageutils;
+
+import java.util.Objects;
+
+import org.apache.commons.lang.Validate;
+
+/**
+ * A size and format to produce from an image, for
+ * {@link ImageUtils#scaleToTargets(java.io.InputStream, String, ImageTarget...)}.
+ * Images are scaled to fit within the maximum width and height, keeping their
+ * aspect ratio, and are not scaled up.
+ */
+public final class ImageTarget {
+
+	private final int maxWidth;
+	private final int maxHeight;
+	private final String outputFormat;
+
+	/**
+	 * @param maxWidth
+	 *            &gt; 0
+	 * @param maxHeight
+	 *            &gt; 0
+	 * @param outputFormat
+	 *            A standard image format - e.g., "png", "jpg" etc.,
+	 */
+	public ImageTarget(int maxWidth, int maxHeight, String outputFormat) {
+		Validate.isTrue(maxWidth > 0 && maxHeight > 0,
+				String.format("Dimensions must be > 0 but were [%d,%d]", maxWidth, maxHeight));
+		Validate.notEmpty(outputFormat, "Output format must be specified");
+		this.maxWidth = maxWidth;
+		this.maxHeight = maxHeight;
+		this.outputFormat = outputFormat;
+	}
+
+	/**
+	 * A thumbnail, fitting within {@link ImageUtils#DEFAULT_THUMBNAIL_DIMNSN}
+	 * pixels square
+	 */
+	public static ImageTarget thumbnail(String outputFormat) {
+		return new ImageTarget(ImageUtils.DEFAULT_THUMBNAIL_DIMNSN, ImageUtils.DEFAULT_THUMBNAIL_DIMNSN,
+				outputFormat);
+	}
+
+	/**
+	 * A preview no wider than {@link ImageUtils#MAX_PAGE_DISPLAY_WIDTH}
+	 */
+	public static ImageTarget pageWidth(String outputFormat) {
+		return width(ImageUtils.MAX_PAGE_DISPLAY_WIDTH, outputFormat);
+	}
+
+	/**
+	 * An image no wider than <code>maxWidth</code>, of any height
+	 */
+	public static ImageTarget width(int maxWidth, String outputFormat) {
+		return new ImageTarget(maxWidth, Integer.MAX_VALUE, outputFormat);
+	}
+
+	public int getMaxWidth() {
+		return maxWidth;
+	}
+
+	public int getMaxHeight() {
+		return maxHeight;
+	}
+
+	public String getOutputFormat() {
+		return outputFormat;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) {
+			return true;
+		}
+		if (!(o instanceof ImageTarget)) {
+			return false;
+		}
+		ImageTarget other = (ImageTarget) o;
+		return maxWidth == other.maxWidth && maxHeight == other.maxHeight
+				&& outputFormat.equals(other.outputFormat);
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(maxWidth, maxHeight, outputFormat);
+	}
+
+	@Override
+	public String toString() {
+		return "ImageTarget [maxWidth=" + maxWidth + ", maxHeight=" + maxHeight + ", outputFormat=" + outputFormat
+				+ "]";
+	}
+
+}
@@ -0,0 +1,34 @@
+package com.researchspace.core.util.imageutils;
+
+/**
+ * Thrown when decoding an image would need more pixels than allowed. Thrown
+ * before any pixels are decoded.
+ */
+public class ImageTooLargeException extends ImageProcessingFailureException {
+
+	private static final long serialVersionUID = 1L;
+
+	private final long requiredPixels;
+	private final long maxPixels;
+
+	public ImageTooLargeException(String msg, long requiredPixels, long maxPixels) {
+		super(msg);
+		this.requiredPixels = requiredPixels;
+		this.maxPixels = maxPixels;
+	}
+
+	/**
+	 * @return the number of pixels decoding would have needed
+	 */
+	public long getRequiredPixels() {
+		return requiredPixels;
+	}
+
+	/**
+	 * @return the number of pixels allowed
+	 */
+	public long getMaxPixels() {
+		return maxPixels;
+	}
+
+}
@@ -3,9 +3,12 @@ package com.researchspace.core.util.imageutils;
 import ij.IJ;
 import ij.ImagePlus;
 import ij.io.FileSaver;
+import ij.io.Opener;
 import net.coobird.thumbnailator.Thumbnails;
 import org.apache.commons.codec.binary.Base64;
 import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.BoundedInputStream;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.Validate;
 import org.slf4j.Logger;
@@ -18,14 +21,23 @@ import javax.imageio.ImageReader;
 import javax.imageio.stream.ImageInputStream;
 import java.awt.*;
 import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.regex.Pattern;
 
@@ -40,6 +52,12 @@ public class ImageUtils {
 	public static final int DEFAULT_THUMBNAIL_DIMNSN = 76;
 
 	public static final int MAX_PAGE_DISPLAY_WIDTH = 644;
+
+	/**
+	 * TIFF uploads up to this size are decoded in memory; larger ones are copied
+	 * to a temporary file first.
+	 */
+	public static final int TIFF_IN_MEMORY_THRESHOLD_BYTES = 32 * 1024 * 1024;
 	/**
 	 * Array of possible TIFF extensions ( without the initial '.')
 	 */
@@ -47,6 +65,8 @@ public class ImageUtils {
 
 	private static final Logger log = LoggerFactory.getLogger(ImageUtils.class);
 
+	private static final BoundedImageDecoder DECODER = new BoundedImageDecoder();
+
 	private ImageUtils() {
 
 	}
@@ -64,7 +84,10 @@ public class ImageUtils {
 	/**
 	 * Gets a buffered image from a standard image - jpeg, gif, png. NOT Tiff.
 	 * <br/> If there is any possibility that this image might be a TIFF image, then
-	 * use <code>getBufferedImageFromUploadedFile</code> instead.
+	 * use <code>getBufferedImageFromUploadedFile</code> instead. <br/>
+	 * The whole image is decoded at full resolution; to make a thumbnail or
+	 * preview, use <code>getThumbnailFromInputImageStream</code> or
+	 * <code>getPreviewFromInputImageStream</code> instead.
 	 * 
 	 * @param is
 	 *            an open {@link InputStream} to an image resource
@@ -84,6 +107,43 @@ public class ImageUtils {
 
 	}
 
+	/**
+	 * Gets a thumbnail-sized image from a standard image, decoding it at reduced
+	 * resolution with a {@link BoundedImageDecoder}. The image fits within
+	 * {@link #DEFAULT_THUMBNAIL_DIMNSN} pixels square and has any EXIF
+	 * orientation applied.
+	 * 
+	 * @param is
+	 *            an open {@link InputStream} to an image resource
+	 * @return the thumbnail, or <code>Optional.empty</code> if the image could
+	 *         not be read
+	 * @throws ImageTooLargeException
+	 *             if the image is too large to decode within the default pixel
+	 *             budget
+	 * @throws IOException
+	 */
+	public static Optional<BufferedImage> getThumbnailFromInputImageStream(InputStream is) throws IOException {
+		return DECODER.decode(is, DEFAULT_THUMBNAIL_DIMNSN, DEFAULT_THUMBNAIL_DIMNSN);
+	}
+
+	/**
+	 * Gets a page-width preview from a standard image, decoding it at reduced
+	 * resolution with a {@link BoundedImageDecoder}. The image is no wider than
+	 * {@link #MAX_PAGE_DISPLAY_WIDTH} and has any EXIF orientation applied.
+	 * 
+	 * @param is
+	 *            an open {@link InputStream} to an image resource
+	 * @return the preview, or <code>Optional.empty</code> if the image could not
+	 *         be read
+	 * @throws ImageTooLargeException
+	 *             if the image is too large to decode within the default pixel
+	 *             budget
+	 * @throws IOException
+	 */
+	public static Optional<BufferedImage> getPreviewFromInputImageStream(InputStream is) throws IOException {
+		return DECODER.decode(is, MAX_PAGE_DISPLAY_WIDTH, Integer.MAX_VALUE);
+	}
+
 	/**
 	 * Gets a buffered image from a tif file
 	 * 
@@ -121,10 +181,12 @@ public class ImageUtils {
 	}
 	
 	/**
-	 * Note- transfers file contents to new file, so file argument may be
-	 * unavailable after calling this method. This is a convenience method to
-	 * extract a BufferedImage from an uploaded image file. <br/>
-	 * This method assumes that the file really is an image file.
+	 * This is a convenience method to extract a BufferedImage from an uploaded
+	 * image file. <br/>
+	 * This method assumes that the file really is an image file. TIFF files are
+	 * decoded as for <code>getBufferedImageFromUploadedFile(String, InputStream)</code>,
+	 * in memory if {@link IMultipartFile#getSize()} is no more than
+	 * {@link #TIFF_IN_MEMORY_THRESHOLD_BYTES}.
 	 * 
 	 * @param file the file to extract the buffered image from
 	 * @return BufferedImage
@@ -135,9 +197,9 @@ public class ImageUtils {
 		String[] tempName = file.getOriginalFilename().split(Pattern.quote("."));
 		String extensionType = tempName[tempName.length - 1];
 		if (isTiff(extensionType)) {
-			File tempTiff = File.createTempFile("original", "tif");
-			file.transferTo(tempTiff);
-			return getBufferedImageFromTiffFile(tempTiff);
+			try (InputStream stream = file.getInputStream()) {
+				return getBufferedImageFromTiffStream(stream, file.getSize(), TIFF_IN_MEMORY_THRESHOLD_BYTES);
+			}
 		} else {
 			return getBufferedImageFromInputImageStream(file.getInputStream());
 		}
@@ -146,6 +208,9 @@ public class ImageUtils {
 	/**
 	 * This is a convenience method to extract a BufferedImage from an
 	 * InputStream object, whether jpeg,tiff, gif or png.  This method closes the InputSTream after reading.
+	 * <br/>
+	 * TIFF images of up to {@link #TIFF_IN_MEMORY_THRESHOLD_BYTES} are decoded in memory;
+	 * larger ones are copied to a temporary file, which is deleted after decoding.
 	 * 
 	 * @param extensionType
 	 * @param stream
@@ -156,22 +221,77 @@ public class ImageUtils {
 			InputStream stream)
 			throws IOException {
 		if (isTiff(extensionType)) {
-			File tempTiff = File.createTempFile("original", ".tif");		
-			try(FileOutputStream fos = new FileOutputStream(tempTiff)) {		
-				byte[] buff = new byte[1024];
-				while (stream.read(buff) != -1) {
-					fos.write(buff);
-				}
+			try {
+				return getBufferedImageFromTiffStream(stream, IMultipartFile.UNKNOWN_SIZE,
+						TIFF_IN_MEMORY_THRESHOLD_BYTES);
 			} finally {
 				stream.close();
 			}
-			// file.transferTo(tempTiff);
-			return getBufferedImageFromTiffFile(tempTiff);
 		} else {
 			return getBufferedImageFromInputImageStream(stream);
 		}
 	}
 
+	/**
+	 * Decodes a TIFF stream in memory if it is no larger than
+	 * <code>threshold</code>, otherwise from a temporary file. Does not close the
+	 * stream.
+	 * 
+	 * @param size
+	 *            the stream length if known, or &lt;= 0 if not
+	 */
+	static Optional<BufferedImage> getBufferedImageFromTiffStream(InputStream stream, long size, int threshold)
+			throws IOException {
+		return getBufferedImageFromTiffStream(stream, size, threshold, null);
+	}
+
+	/**
+	 * As {@link #getBufferedImageFromTiffStream(InputStream, long, int)}, with
+	 * any temporary file in <code>tempDir</code>, or in the default temporary
+	 * directory if <code>null</code>.
+	 */
+	static Optional<BufferedImage> getBufferedImageFromTiffStream(InputStream stream, long size, int threshold,
+			Path tempDir) throws IOException {
+		if (size > threshold) {
+			return getBufferedImageFromTempTiffFile(stream, tempDir);
+		}
+		if (size > 0) {
+			return getBufferedImageFromTiffBytes(IOUtils.toByteArray(stream, size));
+		}
+		byte[] head = IOUtils.toByteArray(new BoundedInputStream(stream, threshold + 1L));
+		if (head.length <= threshold) {
+			return getBufferedImageFromTiffBytes(head);
+		}
+		return getBufferedImageFromTempTiffFile(new SequenceInputStream(new ByteArrayInputStream(head), stream),
+				tempDir);
+	}
+
+	private static Optional<BufferedImage> getBufferedImageFromTiffBytes(byte[] tiff) {
+		ImagePlus imp = new Opener().openTiff(new ByteArrayInputStream(tiff), "original");
+		if (imp != null) {
+			return Optional.ofNullable(imp.getBufferedImage());
+		}
+		BufferedImage bi = null;
+		try {
+			bi = ImageIO.read(new ByteArrayInputStream(tiff));
+		} catch (IOException | IndexOutOfBoundsException e) {
+			log.warn("Couldn't parse tiff of {} bytes: {}", tiff.length, e.getMessage());
+		}
+		return Optional.ofNullable(bi);
+	}
+
+	private static Optional<BufferedImage> getBufferedImageFromTempTiffFile(InputStream stream, Path tempDir)
+			throws IOException {
+		Path tempTiff = tempDir != null ? Files.createTempFile(tempDir, "original", ".tif")
+				: Files.createTempFile("original", ".tif");
+		try {
+			Files.copy(stream, tempTiff, StandardCopyOption.REPLACE_EXISTING);
+			return getBufferedImageFromTiffFile(tempTiff.toFile());
+		} finally {
+			Files.deleteIfExists(tempTiff);
+		}
+	}
+
 	/**
 	 * Generates thumbnail of BufferedImage. Client is responsible to close the
 	 * ByteArrayOutputStream after this method returns.
@@ -249,6 +369,153 @@ public class ImageUtils {
 		}
 	}
 
+	/**
+	 * Scales an image down to fit within <code>maxWidth</code> x
+	 * <code>maxHeight</code>, maintaining aspect ratio. <br/>
+	 * Large reductions are made in steps, halving the size each time, before a
+	 * final bicubic step, which looks smoother than a single bicubic step.
+	 * 
+	 * @param image
+	 *            A non-null image
+	 * @param maxWidth
+	 *            &gt; 0
+	 * @param maxHeight
+	 *            &gt; 0
+	 * @return A new scaled image, or the original image if it already fits.
+	 * @throws IllegalArgumentException
+	 *             if <code>maxWidth</code> or <code>maxHeight</code> &lt; 1
+	 */
+	public static BufferedImage scaleToFit(BufferedImage image, int maxWidth, int maxHeight) {
+		Validate.notNull(image, "Image must not be null");
+		Validate.isTrue(maxWidth > 0 && maxHeight > 0,
+				format("Dimensions must be > 0 but were [%d,%d]", maxWidth, maxHeight));
+		double scale = Math.min((double) maxWidth / image.getWidth(), (double) maxHeight / image.getHeight());
+		if (scale >= 1) {
+			return image;
+		}
+		int width = Math.max(1, (int) Math.round(image.getWidth() * scale));
+		int height = Math.max(1, (int) Math.round(image.getHeight() * scale));
+		BufferedImage scaled = image;
+		while (scaled.getWidth() / 2 >= width && scaled.getHeight() / 2 >= height) {
+			scaled = resize(scaled, scaled.getWidth() / 2, scaled.getHeight() / 2,
+					RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+		}
+		if (scaled.getWidth() != width || scaled.getHeight() != height) {
+			scaled = resize(scaled, width, height, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+		}
+		return scaled;
+	}
+
+	private static BufferedImage resize(BufferedImage image, int width, int height, Object interpolation) {
+		int imageType = image.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+		BufferedImage resized = new BufferedImage(width, height, imageType);
+		Graphics2D g = resized.createGraphics();
+		g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, interpolation);
+		g.drawImage(image, 0, 0, width, height, null);
+		g.dispose();
+		return resized;
+	}
+
+	/**
+	 * Produces several sizes and formats of an image from one decode, e.g. a
+	 * thumbnail and a page-width preview of an upload. <br/>
+	 * Standard images are decoded once, at reduced resolution, to fit the
+	 * largest target; TIFF images are decoded once in full. Each target is then
+	 * scaled from the next largest, e.g. full -&gt; 644 -&gt; 76, and encoded.
+	 * This method does not close the stream.
+	 * 
+	 * @param is
+	 *            an open {@link InputStream} to an image resource
+	 * @param extension
+	 *            the image file extension, used to detect TIFF images
+	 * @param targets
+	 *            one or more sizes and formats to produce
+	 * @return encoded images in the order of <code>targets</code>, or an empty
+	 *         map if the image could not be read
+	 * @throws ImageTooLargeException
+	 *             if a standard image is too large to decode within the default
+	 *             pixel budget
+	 * @throws IOException
+	 */
+	public static Map<ImageTarget, byte[]> scaleToTargets(InputStream is, String extension, ImageTarget... targets)
+			throws IOException {
+		Validate.notEmpty(targets, "At least one target must be specified");
+		Optional<BufferedImage> decoded;
+		if (isTiff(extension)) {
+			decoded = getBufferedImageFromTiffStream(is, IMultipartFile.UNKNOWN_SIZE,
+					TIFF_IN_MEMORY_THRESHOLD_BYTES);
+		} else {
+			int maxWidth = 0;
+			int maxHeight = 0;
+			for (ImageTarget target : targets) {
+				maxWidth = Math.max(maxWidth, target.getMaxWidth());
+				maxHeight = Math.max(maxHeight, target.getMaxHeight());
+			}
+			decoded = DECODER.decode(is, maxWidth, maxHeight);
+		}
+		if (!decoded.isPresent()) {
+			return Collections.emptyMap();
+		}
+		return scaleToTargets(decoded.get(), targets);
+	}
+
+	/**
+	 * Produces several sizes and formats of an image, each scaled from the next
+	 * largest, judged by the size each target fits the image to.
+	 * 
+	 * @param image
+	 *            A non-null image
+	 * @param targets
+	 *            one or more sizes and formats to produce
+	 * @return encoded images in the order of <code>targets</code>
+	 * @throws IOException
+	 * @see #scaleToTargets(InputStream, String, ImageTarget...)
+	 */
+	public static Map<ImageTarget, byte[]> scaleToTargets(BufferedImage image, ImageTarget... targets)
+			throws IOException {
+		Validate.notNull(image, "Image must not be null");
+		Validate.notEmpty(targets, "At least one target must be specified");
+		// order by the size each target fits this image to, as boxes needn't nest
+		ImageTarget[] largestFirst = targets.clone();
+		Arrays.sort(largestFirst,
+				Comparator.comparingDouble((ImageTarget target) -> fitScale(image, target)).reversed());
+		Map<ImageTarget, byte[]> encoded = new HashMap<>();
+		BufferedImage scaled = image;
+		for (ImageTarget target : largestFirst) {
+			if (!encoded.containsKey(target)) {
+				scaled = scaleToFit(scaled, target.getMaxWidth(), target.getMaxHeight());
+				encoded.put(target, encode(scaled, target.getOutputFormat()));
+			}
+		}
+		Map<ImageTarget, byte[]> inTargetOrder = new LinkedHashMap<>();
+		for (ImageTarget target : targets) {
+			inTargetOrder.put(target, encoded.get(target));
+		}
+		return inTargetOrder;
+	}
+
+	private static double fitScale(BufferedImage image, ImageTarget target) {
+		return Math.min(1, Math.min((double) target.getMaxWidth() / image.getWidth(),
+				(double) target.getMaxHeight() / image.getHeight()));
+	}
+
+	private static byte[] encode(BufferedImage image, String outputFormat) throws IOException {
+		BufferedImage toWrite = image;
+		// JPEG writer can't write an alpha channel
+		boolean isJpeg = "jpg".equalsIgnoreCase(outputFormat) || "jpeg".equalsIgnoreCase(outputFormat);
+		if (isJpeg && image.getColorModel().hasAlpha()) {
+			toWrite = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+			Graphics2D g = toWrite.createGraphics();
+			g.drawImage(image, 0, 0, Color.WHITE, null);
+			g.dispose();
+		}
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		if (!ImageIO.write(toWrite, outputFormat, baos)) {
+			throw new ImageProcessingFailureException("No image writer for format " + outputFormat);
+		}
+		return baos.toByteArray();
+	}
+
 	/**
 	 * Produces a scaled image from an input stream to an {@link BufferedImage}
 	 * 
@@ -356,8 +623,22 @@ public class ImageUtils {
 	 *         <li> if destination folder is not a writeable folder
 	 *         <li> if tiff file is not a tiff file.
 	 *         </ul>
+	 * @see TiledTiffProcessor#convertTiffToPng(File, File, String) to convert large TIFFs in constant memory
 	 */
 	public static  File convertTiffToPng(File tiffFileToConvert, File destinationFolder, String newFileName) throws IOException {
+		validateTiffConversion(tiffFileToConvert, destinationFolder);
+		ImagePlus imp = IJ.openImage(tiffFileToConvert.getAbsolutePath()); 
+		FileSaver saver = new FileSaver(imp);
+		String path = getNewImageFileName(tiffFileToConvert, destinationFolder, newFileName);
+		boolean ok = saver.saveAsPng(path);
+		if(ok){
+			return new File(path);
+		} else {
+			throw new IOException("Could not convert " + tiffFileToConvert + " to  a png format");
+		}
+	}
+
+	static void validateTiffConversion(File tiffFileToConvert, File destinationFolder) {
 		if (tiffFileToConvert == null || destinationFolder == null) {
 			throw new IllegalArgumentException("files can't be null");
 		}
@@ -370,18 +651,9 @@ public class ImageUtils {
 		if(!isTiff(FilenameUtils.getExtension(tiffFileToConvert.getName()))) {
 			throw new IllegalArgumentException(tiffFileToConvert + "isn't a tiff file?");
 		}
-		ImagePlus imp = IJ.openImage(tiffFileToConvert.getAbsolutePath()); 
-		FileSaver saver = new FileSaver(imp);
-		String path = getNewImageFileName(tiffFileToConvert, destinationFolder, newFileName);
-		boolean ok = saver.saveAsPng(path);
-		if(ok){
-			return new File(path);
-		} else {
-			throw new IOException("Could not convert " + tiffFileToConvert + " to  a png format");
-		}
 	}
 
-	private static String getNewImageFileName(File tiffFileToConvert, File destinationFolder, String newFileName) {
+	static String getNewImageFileName(File tiffFileToConvert, File destinationFolder, String newFileName) {
 		String path = "";
 		if(StringUtils.isEmpty(newFileName) ) {
 			path = destinationFolder.getAbsolutePath() + File.separator
@@ -415,6 +687,7 @@ public class ImageUtils {
 	 *  will be modified to 'tif'.
 	 * @return <code>true</code> if the image was rotated and saved OK
 	 * @throws IllegalArgumentException if tiffFile does not exist or is unreadable
+	 * @see TiledTiffProcessor#rotateTiff(File, Integer, File) to rotate large TIFFs in constant memory
 	 */
 	public static boolean rotateTiff(File tiffFile, Integer rotation, File outfile) {
 		Validate.noNullElements(new Object [] {tiffFile, rotation, outfile},"No arguments can be null");
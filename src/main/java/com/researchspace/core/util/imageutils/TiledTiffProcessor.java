@@ -0,0 +1,449 @@
+package com.researchspace.core.util.imageutils;
+
+import java.awt.Image;
+import java.awt.Rectangle;
+import java.awt.image.ColorModel;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.util.Iterator;
+import java.util.Vector;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+
+import org.apache.commons.lang.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Converts and rotates TIFF images a region at a time, so that multi-gigabyte
+ * TIFFs can be processed in constant memory.
+ * <p>
+ * Unlike {@link ImageUtils#convertTiffToPng(File, File, String)} and
+ * {@link ImageUtils#rotateTiff(File, Integer, File)}, which load the whole
+ * image through ImageJ, TIFFs are read with ImageIO source regions a band of
+ * full-width rows at a time, aligned to the source strips or tiles, so each
+ * strip is decoded about once. Bands hold at most {@link #BAND_PIXELS}
+ * pixels, so memory use depends on the image width, not its size.
+ * <p>
+ * PNGs are written a band at a time. Rotated TIFFs are written as tiles that
+ * are each a rotated source band: a column of the output for quarter turns,
+ * or a band of rows for a half turn.
+ * <p>
+ * Only the first image of a multi-page TIFF is processed. Samples are copied
+ * unchanged, so e.g. 16-bit images stay 16-bit.
+ */
+public class TiledTiffProcessor {
+
+	private static final Logger log = LoggerFactory.getLogger(TiledTiffProcessor.class);
+
+	/** Most pixels decoded at once, unless the image is very wide */
+	public static final int BAND_PIXELS = 1 << 22;
+
+	// TIFF tile dimensions must be multiples of 16
+	private static final int TIFF_TILE_MULTIPLE = 16;
+
+	private TiledTiffProcessor() {
+
+	}
+
+	/**
+	 * Converts a TIFF file to a PNG file, decoding a band of rows at a time.
+	 *
+	 * @param tiffFileToConvert
+	 *            the TIFF file to convert
+	 * @param destinationFolder
+	 *            The folder that we want to put the converted png into
+	 * @param newFileName
+	 *            an optional file name (no extension needed) for the new png.
+	 *            If not supplied, the new name will be that of the TIFF file,
+	 *            with a 'png' extension.
+	 * @return The new png file
+	 * @throws IOException
+	 *             if the TIFF can't be read or the PNG can't be written
+	 * @throws IllegalArgumentException
+	 *             as for {@link ImageUtils#convertTiffToPng(File, File, String)}
+	 */
+	public static File convertTiffToPng(File tiffFileToConvert, File destinationFolder, String newFileName)
+			throws IOException {
+		return convertTiffToPng(tiffFileToConvert, destinationFolder, newFileName, BAND_PIXELS);
+	}
+
+	static File convertTiffToPng(File tiffFileToConvert, File destinationFolder, String newFileName, int bandPixels)
+			throws IOException {
+		ImageUtils.validateTiffConversion(tiffFileToConvert, destinationFolder);
+		File png = new File(ImageUtils.getNewImageFileName(tiffFileToConvert, destinationFolder, newFileName));
+		try (ImageInputStream iis = ImageIO.createImageInputStream(tiffFileToConvert)) {
+			ImageReader reader = getReader(iis);
+			if (reader == null) {
+				throw new IOException("Could not convert " + tiffFileToConvert + " to  a png format");
+			}
+			try {
+				RegionImage image = new RegionImage(reader, 0, bandRows(reader, bandPixels, 1));
+				write(image, "png", false, png);
+			} finally {
+				reader.dispose();
+			}
+		}
+		return png;
+	}
+
+	/**
+	 * Rotates a TIFF file by a multiple of Pi/2 radians (90 degrees) clockwise,
+	 * a band at a time. <br/>
+	 * The original file <code>tiffFile</code> is unchanged by this method.
+	 *
+	 * @param tiffFile
+	 *            A tiff file
+	 * @param rotation
+	 *            A multiple of Pi/2 to rotate by: 0,1,2 or 3. Other values
+	 *            will be calculated mod 4. If rotation is 0, this method does
+	 *            nothing and returns <code>false</code>.
+	 * @param outfile
+	 *            the file to write the rotated tiff to
+	 * @return <code>true</code> if the image was rotated and saved OK,
+	 *         <code>false</code> if there was nothing to do or the file could
+	 *         not be read as a TIFF
+	 * @throws IOException
+	 *             if reading or writing fails part way through
+	 * @throws IllegalArgumentException
+	 *             if tiffFile does not exist or is unreadable
+	 */
+	public static boolean rotateTiff(File tiffFile, Integer rotation, File outfile) throws IOException {
+		return rotateTiff(tiffFile, rotation, outfile, BAND_PIXELS);
+	}
+
+	static boolean rotateTiff(File tiffFile, Integer rotation, File outfile, int bandPixels) throws IOException {
+		Validate.noNullElements(new Object[] { tiffFile, rotation, outfile }, "No arguments can be null");
+		Validate.isTrue(tiffFile.exists() && tiffFile.canRead(),
+				String.format("tiff file %s is not a readable file", tiffFile.getAbsolutePath()));
+		int quarterTurns = Math.floorMod(rotation, 4);
+		if (quarterTurns == 0) {
+			return false;
+		}
+		try (ImageInputStream iis = ImageIO.createImageInputStream(tiffFile)) {
+			ImageReader reader = getReader(iis);
+			if (reader == null) {
+				log.error("Could not open tif file {} for reading - cannot rotate", tiffFile.getAbsolutePath());
+				return false;
+			}
+			try {
+				RegionImage image = new RegionImage(reader, quarterTurns,
+						bandRows(reader, bandPixels, TIFF_TILE_MULTIPLE));
+				write(image, "tiff", true, outfile);
+				return true;
+			} finally {
+				reader.dispose();
+			}
+		}
+	}
+
+	private static ImageReader getReader(ImageInputStream iis) {
+		if (iis == null) {
+			return null;
+		}
+		Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+		while (readers.hasNext()) {
+			ImageReader reader = readers.next();
+			try {
+				if ("tif".equalsIgnoreCase(reader.getFormatName()) || "tiff".equalsIgnoreCase(reader.getFormatName())) {
+					reader.setInput(iis, true, true);
+					return reader;
+				}
+			} catch (IOException e) {
+				log.debug("Couldn't get reader format: {}", e.getMessage());
+			}
+			reader.dispose();
+		}
+		return null;
+	}
+
+	/**
+	 * Rows of the source to decode at once: as many as fit in
+	 * <code>bandPixels</code>, rounded down to whole source strips or tiles
+	 * where possible, and to a multiple of <code>multiple</code>.
+	 */
+	private static int bandRows(ImageReader reader, int bandPixels, int multiple) throws IOException {
+		int rows = Math.max(1, bandPixels / reader.getWidth(0));
+		// the strip height for striped TIFFs
+		int sourceRows = reader.getTileHeight(0);
+		if (rows >= sourceRows) {
+			rows -= rows % sourceRows;
+		}
+		rows -= rows % multiple;
+		return Math.max(multiple, Math.min(rows, reader.getHeight(0)));
+	}
+
+	private static void write(RegionImage image, String format, boolean tiled, File outfile) throws IOException {
+		ImageWriter writer = ImageIO.getImageWritersByFormatName(format).next();
+		ImageWriteParam param = writer.getDefaultWriteParam();
+		if (tiled) {
+			// each tile is one band of the image, padded by the writer
+			param.setTilingMode(ImageWriteParam.MODE_EXPLICIT);
+			param.setTiling(roundUp(image.getTileWidth(), TIFF_TILE_MULTIPLE),
+					roundUp(image.getTileHeight(), TIFF_TILE_MULTIPLE), 0, 0);
+		}
+		// an existing file would not be truncated
+		if (outfile.exists() && !outfile.delete()) {
+			throw new IOException("Couldn't replace " + outfile.getAbsolutePath());
+		}
+		boolean written = false;
+		try (ImageOutputStream ios = ImageIO.createImageOutputStream(outfile)) {
+			writer.setOutput(ios);
+			writer.write(null, new IIOImage(image, null, null), param);
+			written = true;
+		} finally {
+			writer.dispose();
+			if (!written) {
+				outfile.delete();
+			}
+		}
+	}
+
+	private static int roundUp(int value, int multiple) {
+		return (value + multiple - 1) / multiple * multiple;
+	}
+
+	/**
+	 * Image, optionally rotated, whose pixels are read from the reader a tile
+	 * at a time when requested. Each tile is a rotated band of full-width
+	 * source rows. The most recently requested tile is cached, as writers may
+	 * request a tile a row at a time.
+	 */
+	private static final class RegionImage implements RenderedImage {
+
+		private final ImageReader reader;
+		private final int quarterTurns;
+		private final int sourceWidth;
+		private final int sourceHeight;
+		private final Rectangle bounds;
+		private final int tileWidth;
+		private final int tileHeight;
+		private final ColorModel colorModel;
+		private final SampleModel sampleModel;
+
+		private Rectangle cachedTile;
+		private Raster cached;
+
+		RegionImage(ImageReader reader, int quarterTurns, int bandRows) throws IOException {
+			this.reader = reader;
+			this.quarterTurns = quarterTurns;
+			this.sourceWidth = reader.getWidth(0);
+			this.sourceHeight = reader.getHeight(0);
+			boolean transposed = quarterTurns % 2 == 1;
+			if (transposed) {
+				this.bounds = new Rectangle(0, 0, sourceHeight, sourceWidth);
+				this.tileWidth = bandRows;
+				this.tileHeight = bounds.height;
+			} else {
+				this.bounds = new Rectangle(0, 0, sourceWidth, sourceHeight);
+				this.tileWidth = bounds.width;
+				this.tileHeight = bandRows;
+			}
+			// the reader decodes to its first image type by default
+			ImageTypeSpecifier type = reader.getImageTypes(0).next();
+			this.colorModel = type.getColorModel();
+			this.sampleModel = type.getSampleModel(tileWidth, tileHeight);
+		}
+
+		@Override
+		public synchronized Raster getData(Rectangle rect) {
+			Rectangle tile = getTileBounds(rect.x / tileWidth, rect.y / tileHeight);
+			if (!tile.contains(rect)) {
+				return read(rect.intersection(bounds));
+			}
+			if (!tile.equals(cachedTile)) {
+				// let the previous tile be collected while reading the next
+				cached = null;
+				cached = read(tile);
+				cachedTile = tile;
+			}
+			return cached.createChild(rect.x, rect.y, rect.width, rect.height, rect.x, rect.y, null);
+		}
+
+		private Rectangle getTileBounds(int tileX, int tileY) {
+			return new Rectangle(tileX * tileWidth, tileY * tileHeight, tileWidth, tileHeight).intersection(bounds);
+		}
+
+		/**
+		 * Reads the source region that is rotated to <code>rect</code>
+		 */
+		private Raster read(Rectangle rect) {
+			Rectangle source = toSource(rect);
+			ImageReadParam param = reader.getDefaultReadParam();
+			param.setSourceRegion(source);
+			Raster region;
+			try {
+				region = reader.read(0, param).getRaster();
+			} catch (IOException e) {
+				throw new ImageProcessingFailureException("Couldn't read TIFF region " + source, e);
+			}
+			if (quarterTurns == 0) {
+				return region.createTranslatedChild(rect.x, rect.y);
+			}
+			WritableRaster rotated = region.createCompatibleWritableRaster(rect.x, rect.y, rect.width, rect.height);
+			int minX = region.getMinX();
+			int minY = region.getMinY();
+			Object line = null;
+			if (quarterTurns == 1) {
+				// each source row, bottom up, is a column of the output
+				for (int dx = 0; dx < rect.width; dx++) {
+					line = region.getDataElements(minX, minY + source.height - 1 - dx, source.width, 1, line);
+					rotated.setDataElements(rect.x + dx, rect.y, 1, rect.height, line);
+				}
+			} else if (quarterTurns == 3) {
+				// each source column, right to left, is a row of the output
+				for (int dy = 0; dy < rect.height; dy++) {
+					line = region.getDataElements(minX + source.width - 1 - dy, minY, 1, source.height, line);
+					rotated.setDataElements(rect.x, rect.y + dy, rect.width, 1, line);
+				}
+			} else {
+				// each source row, bottom up, is reversed into a row of the output
+				int elements = region.getNumDataElements();
+				Object reversed = null;
+				for (int dy = 0; dy < rect.height; dy++) {
+					line = region.getDataElements(minX, minY + source.height - 1 - dy, source.width, 1, line);
+					if (reversed == null) {
+						reversed = Array.newInstance(line.getClass().getComponentType(), Array.getLength(line));
+					}
+					for (int dx = 0; dx < rect.width; dx++) {
+						System.arraycopy(line, (rect.width - 1 - dx) * elements, reversed, dx * elements, elements);
+					}
+					rotated.setDataElements(rect.x, rect.y + dy, rect.width, 1, reversed);
+				}
+			}
+			return rotated;
+		}
+
+		private Rectangle toSource(Rectangle rect) {
+			if (quarterTurns == 1) {
+				return new Rectangle(rect.y, sourceHeight - rect.x - rect.width, rect.height, rect.width);
+			} else if (quarterTurns == 2) {
+				return new Rectangle(sourceWidth - rect.x - rect.width, sourceHeight - rect.y - rect.height,
+						rect.width, rect.height);
+			} else if (quarterTurns == 3) {
+				return new Rectangle(sourceWidth - rect.y - rect.height, rect.x, rect.height, rect.width);
+			}
+			return new Rectangle(rect);
+		}
+
+		@Override
+		public Raster getTile(int tileX, int tileY) {
+			return getData(getTileBounds(tileX, tileY));
+		}
+
+		@Override
+		public Raster getData() {
+			return getData(bounds);
+		}
+
+		@Override
+		public WritableRaster copyData(WritableRaster raster) {
+			WritableRaster target = raster != null ? raster
+					: colorModel.createCompatibleWritableRaster(bounds.width, bounds.height);
+			Rectangle rect = target.getBounds().intersection(bounds);
+			if (!rect.isEmpty()) {
+				target.setRect(getData(rect));
+			}
+			return target;
+		}
+
+		@Override
+		public Vector<RenderedImage> getSources() {
+			return null;
+		}
+
+		@Override
+		public Object getProperty(String name) {
+			return Image.UndefinedProperty;
+		}
+
+		@Override
+		public String[] getPropertyNames() {
+			return null;
+		}
+
+		@Override
+		public ColorModel getColorModel() {
+			return colorModel;
+		}
+
+		@Override
+		public SampleModel getSampleModel() {
+			return sampleModel;
+		}
+
+		@Override
+		public int getWidth() {
+			return bounds.width;
+		}
+
+		@Override
+		public int getHeight() {
+			return bounds.height;
+		}
+
+		@Override
+		public int getMinX() {
+			return 0;
+		}
+
+		@Override
+		public int getMinY() {
+			return 0;
+		}
+
+		@Override
+		public int getNumXTiles() {
+			return (bounds.width + tileWidth - 1) / tileWidth;
+		}
+
+		@Override
+		public int getNumYTiles() {
+			return (bounds.height + tileHeight - 1) / tileHeight;
+		}
+
+		@Override
+		public int getMinTileX() {
+			return 0;
+		}
+
+		@Override
+		public int getMinTileY() {
+			return 0;
+		}
+
+		@Override
+		public int getTileWidth() {
+			return tileWidth;
+		}
+
+		@Override
+		public int getTileHeight() {
+			return tileHeight;
+		}
+
+		@Override
+		public int getTileGridXOffset() {
+			return 0;
+		}
+
+		@Override
+		public int getTileGridYOffset() {
+			return 0;
+		}
+	}
+
+}
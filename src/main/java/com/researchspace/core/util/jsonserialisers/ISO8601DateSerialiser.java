@@ -10,6 +10,8 @@ import com.fasterxml.jackson.databind.ser.std.StdSerializer;
 import com.researchspace.core.util.DateUtil;
 /**
  * Serialises a long millis-since-epoch to simple ISO date format with no time.
+ * <br/>
+ * Dates are written straight into the generator, without intermediate objects.
  */
 public class ISO8601DateSerialiser extends StdSerializer<Long> {
 	
@@ -31,11 +33,16 @@ public class ISO8601DateSerialiser extends StdSerializer<Long> {
 	@Override
 	public void serialize(Long value, JsonGenerator gen, SerializerProvider arg2)
 			throws IOException, JsonProcessingException {	
-		 String dateOnly = getDateString(value);
-		 gen.writeString(dateOnly);
+		if (!IsoDates.writeUtc(value, true, gen)) {
+			gen.writeString(getDateString(value));
+		}
 	}
 
 	 String getDateString(Long value) {
+		char[] buf = new char[IsoDates.DATE_LENGTH];
+		if (IsoDates.formatUtc(value, true, buf) > 0) {
+			return new String(buf);
+		}
 		String iso8601 = DateUtil.convertDateToISOFormat(value, TimeZone.getTimeZone("UTC"));
 		String dateOnly = iso8601.substring(0, iso8601.indexOf("T"));
 		return dateOnly;
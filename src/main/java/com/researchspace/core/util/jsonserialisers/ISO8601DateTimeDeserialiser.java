@@ -9,6 +9,10 @@ import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
 import com.researchspace.core.util.DateUtil;
 /**
  * Converts an ISO8601 date time into millis-since-epoch
+ * <br/>
+ * UTC date times as written by {@link ISO8601DateTimeSerialiser} are parsed
+ * without creating intermediate objects; other ISO8601 forms are parsed with
+ * {@link DateUtil#convertISO8601ToMillis(String)}.
  */
 public class ISO8601DateTimeDeserialiser extends StdDeserializer<Long> {
 
@@ -33,7 +37,8 @@ public class ISO8601DateTimeDeserialiser extends StdDeserializer<Long> {
 				|| p.getCurrentName().equals("lastLogin")
 				|| p.getCurrentName().equals("deletedDate")
 				|| p.getCurrentName().equals("lastMoveDate")) {
-			return DateUtil.convertISO8601ToMillis(p.getValueAsString());
+			long millis = IsoDates.parseUtcDateTime(p);
+			return millis != IsoDates.NOT_PARSED ? millis : DateUtil.convertISO8601ToMillis(p.getValueAsString());
         }
 		return null;
 	}
@@ -10,6 +10,8 @@ import com.fasterxml.jackson.databind.ser.std.StdSerializer;
 import com.researchspace.core.util.DateUtil;
 /**
  * Serialises a long millis-since-epoch into UTC timezone formatted IS0-8601 string
+ * <br/>
+ * Dates are written straight into the generator, without intermediate objects.
  */
 public class ISO8601DateTimeSerialiser extends StdSerializer<Long> {
 	
@@ -31,11 +33,16 @@ public class ISO8601DateTimeSerialiser extends StdSerializer<Long> {
 	@Override
 	public void serialize(Long value, JsonGenerator gen, SerializerProvider arg2)
 			throws IOException, JsonProcessingException {	
-		 String output = getDateTimeString(value);
-		 gen.writeString(output);
+		if (value == null || !IsoDates.writeUtc(value, false, gen)) {
+			gen.writeString(getDateTimeString(value));
+		}
 	}
 
 	 String getDateTimeString(Long value) {
+		char[] buf = new char[IsoDates.DATE_TIME_LENGTH];
+		if (value != null && IsoDates.formatUtc(value, false, buf) > 0) {
+			return new String(buf);
+		}
 		String output = value != null ? DateUtil.convertDateToISOFormat(value, TimeZone.getTimeZone("UTC")) : "";
 		return output;
 	}
@@ -0,0 +1,212 @@
+package com.researchspace.core.util.jsonserialisers;
+
+import java.io.IOException;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * Fixed-layout ISO-8601 formatting and parsing of UTC dates in
+ * <code>char[]</code>s, so serialisers can write dates straight into a
+ * {@link JsonGenerator} without creating intermediate <code>String</code>,
+ * <code>Date</code> or formatter objects.
+ * <p>
+ * Only years 0000 to 9999 are handled; callers fall back to a formatter for
+ * other years, and to a full ISO-8601 parser for input not in
+ * <code>yyyy-MM-ddTHH:mm:ss[.SSS]Z</code> or <code>yyyy-MM-dd</code> layout.
+ */
+final class IsoDates {
+
+	static final int DATE_LENGTH = 10;
+	static final int DATE_TIME_LENGTH = 24;
+	/** Returned by parse methods for input they can't handle */
+	static final long NOT_PARSED = Long.MIN_VALUE;
+
+	private static final long MILLIS_PER_DAY = 86_400_000L;
+	private static final int MAX_YEAR = 9999;
+	private static final ThreadLocal<char[]> BUFFER = ThreadLocal.withInitial(() -> new char[DATE_TIME_LENGTH]);
+
+	private IsoDates() {
+	}
+
+	/**
+	 * Writes <code>yyyy-MM-ddTHH:mm:ss.SSSZ</code>, or
+	 * <code>yyyy-MM-dd</code> if <code>dateOnly</code>, for a UTC instant.
+	 *
+	 * @return <code>false</code>, having written nothing, if the year is out
+	 *         of range
+	 */
+	static boolean writeUtc(long epochMillis, boolean dateOnly, JsonGenerator gen) throws IOException {
+		char[] buf = BUFFER.get();
+		int length = formatUtc(epochMillis, dateOnly, buf);
+		if (length < 0) {
+			return false;
+		}
+		gen.writeString(buf, 0, length);
+		return true;
+	}
+
+	/**
+	 * Writes <code>yyyy-MM-dd</code>.
+	 *
+	 * @return <code>false</code>, having written nothing, if the year is out
+	 *         of range
+	 */
+	static boolean writeDate(int year, int month, int day, JsonGenerator gen) throws IOException {
+		if (year < 0 || year > MAX_YEAR) {
+			return false;
+		}
+		char[] buf = BUFFER.get();
+		formatDate(year, month, day, buf);
+		gen.writeString(buf, 0, DATE_LENGTH);
+		return true;
+	}
+
+	/**
+	 * @return the number of chars written to <code>buf</code>, or -1 if the
+	 *         year is out of range
+	 */
+	static int formatUtc(long epochMillis, boolean dateOnly, char[] buf) {
+		long days = Math.floorDiv(epochMillis, MILLIS_PER_DAY);
+		int millisOfDay = (int) Math.floorMod(epochMillis, MILLIS_PER_DAY);
+		// civil-from-days, see http://howardhinnant.github.io/date_algorithms.html
+		long z = days + 719_468;
+		long era = Math.floorDiv(z, 146_097);
+		long dayOfEra = z - era * 146_097;
+		long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36_524 - dayOfEra / 146_096) / 365;
+		long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+		int mp = (int) ((5 * dayOfYear + 2) / 153);
+		int day = (int) (dayOfYear - (153 * mp + 2) / 5 + 1);
+		int month = mp < 10 ? mp + 3 : mp - 9;
+		long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+		if (year < 0 || year > MAX_YEAR) {
+			return -1;
+		}
+		formatDate((int) year, month, day, buf);
+		if (dateOnly) {
+			return DATE_LENGTH;
+		}
+		buf[10] = 'T';
+		write2(buf, 11, millisOfDay / 3_600_000);
+		buf[13] = ':';
+		write2(buf, 14, millisOfDay / 60_000 % 60);
+		buf[16] = ':';
+		write2(buf, 17, millisOfDay / 1000 % 60);
+		buf[19] = '.';
+		int millis = millisOfDay % 1000;
+		buf[20] = (char) ('0' + millis / 100);
+		write2(buf, 21, millis % 100);
+		buf[23] = 'Z';
+		return DATE_TIME_LENGTH;
+	}
+
+	private static void formatDate(int year, int month, int day, char[] buf) {
+		write2(buf, 0, year / 100);
+		write2(buf, 2, year % 100);
+		buf[4] = '-';
+		write2(buf, 5, month);
+		buf[7] = '-';
+		write2(buf, 8, day);
+	}
+
+	private static void write2(char[] buf, int offset, int value) {
+		buf[offset] = (char) ('0' + value / 10);
+		buf[offset + 1] = (char) ('0' + value % 10);
+	}
+
+	/**
+	 * Parses <code>yyyy-MM-ddTHH:mm:ss.SSSZ</code> or
+	 * <code>yyyy-MM-ddTHH:mm:ssZ</code> from the parser's current string
+	 * value, without creating a <code>String</code>.
+	 *
+	 * @return millis since epoch, or {@link #NOT_PARSED}
+	 */
+	static long parseUtcDateTime(JsonParser p) throws IOException {
+		if (p.currentToken() != JsonToken.VALUE_STRING) {
+			return NOT_PARSED;
+		}
+		return parseUtcDateTime(p.getTextCharacters(), p.getTextOffset(), p.getTextLength());
+	}
+
+	static long parseUtcDateTime(char[] chars, int offset, int length) {
+		if ((length != DATE_TIME_LENGTH && length != 20) || chars[offset + length - 1] != 'Z'
+				|| chars[offset + 10] != 'T' || chars[offset + 13] != ':' || chars[offset + 16] != ':') {
+			return NOT_PARSED;
+		}
+		long days = parseEpochDay(chars, offset);
+		int hour = read2(chars, offset + 11);
+		int minute = read2(chars, offset + 14);
+		int second = read2(chars, offset + 17);
+		int millis = 0;
+		if (length == DATE_TIME_LENGTH) {
+			if (chars[offset + 19] != '.') {
+				return NOT_PARSED;
+			}
+			int hundreds = digit(chars[offset + 20]);
+			int rest = read2(chars, offset + 21);
+			millis = hundreds < 0 || rest < 0 ? -1 : hundreds * 100 + rest;
+		}
+		if (days == NOT_PARSED || hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 59
+				|| millis < 0) {
+			return NOT_PARSED;
+		}
+		return days * MILLIS_PER_DAY + hour * 3_600_000L + minute * 60_000L + second * 1000L + millis;
+	}
+
+	/**
+	 * Parses <code>yyyy-MM-dd</code> from the parser's current string value.
+	 *
+	 * @return days since epoch, or {@link #NOT_PARSED}
+	 */
+	static long parseEpochDay(JsonParser p) throws IOException {
+		if (p.currentToken() != JsonToken.VALUE_STRING || p.getTextLength() != DATE_LENGTH) {
+			return NOT_PARSED;
+		}
+		return parseEpochDay(p.getTextCharacters(), p.getTextOffset());
+	}
+
+	private static long parseEpochDay(char[] chars, int offset) {
+		int century = read2(chars, offset);
+		int yearOfCentury = read2(chars, offset + 2);
+		int month = read2(chars, offset + 5);
+		int day = read2(chars, offset + 8);
+		if (century < 0 || yearOfCentury < 0 || chars[offset + 4] != '-' || chars[offset + 7] != '-' || month < 1
+				|| month > 12 || day < 1) {
+			return NOT_PARSED;
+		}
+		int year = century * 100 + yearOfCentury;
+		if (day > lengthOfMonth(year, month)) {
+			return NOT_PARSED;
+		}
+		// days-from-civil
+		int y = month <= 2 ? year - 1 : year;
+		long era = Math.floorDiv(y, 400);
+		long yearOfEra = y - era * 400;
+		long dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+		long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+		return era * 146_097 + dayOfEra - 719_468;
+	}
+
+	private static int lengthOfMonth(int year, int month) {
+		if (month == 2) {
+			boolean leap = (year % 4 == 0 && year % 100 != 0) || year % 400 == 0;
+			return leap ? 29 : 28;
+		}
+		return month == 4 || month == 6 || month == 9 || month == 11 ? 30 : 31;
+	}
+
+	/**
+	 * @return the 2-digit number at <code>offset</code>, or -1
+	 */
+	private static int read2(char[] chars, int offset) {
+		int tens = digit(chars[offset]);
+		int units = digit(chars[offset + 1]);
+		return tens < 0 || units < 0 ? -1 : tens * 10 + units;
+	}
+
+	private static int digit(char c) {
+		return c >= '0' && c <= '9' ? c - '0' : -1;
+	}
+
+}
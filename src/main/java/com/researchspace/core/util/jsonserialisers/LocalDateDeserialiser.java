@@ -37,7 +37,10 @@ public class LocalDateDeserialiser extends StdDeserializer<LocalDate> {
 	@Override
 	public LocalDate deserialize(JsonParser p, DeserializationContext ctxt) throws IOException, JsonProcessingException {
 		if (p.getCurrentName().equals("expiryDate") ) {		
-			if(StringUtils.isBlank(p.getValueAsString())) {
+			long epochDay = IsoDates.parseEpochDay(p);
+			if (epochDay != IsoDates.NOT_PARSED) {
+				return LocalDate.ofEpochDay(epochDay);
+			} else if(StringUtils.isBlank(p.getValueAsString())) {
 				return NULL_DATE;
 			} else {
 				return LocalDate.parse(p.getValueAsString());
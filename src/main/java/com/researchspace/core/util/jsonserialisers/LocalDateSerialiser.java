@@ -19,7 +19,8 @@ public class LocalDateSerialiser
 	 * 
 	 */
 	private static final long serialVersionUID = -8697511358648184418L;
-	private static DateTimeFormatter formatter = 
+	/** For years outside 0000-9999 */
+	private static final DateTimeFormatter formatter = 
       DateTimeFormatter.ofPattern("yyyy-MM-dd");
  
     public LocalDateSerialiser() {
@@ -36,6 +37,8 @@ public class LocalDateSerialiser
       JsonGenerator gen,
       SerializerProvider arg2)
       throws IOException, JsonProcessingException {
-        gen.writeString(formatter.format(value));
+        if (!IsoDates.writeDate(value.getYear(), value.getMonthValue(), value.getDayOfMonth(), gen)) {
+            gen.writeString(formatter.format(value));
+        }
     }
 }
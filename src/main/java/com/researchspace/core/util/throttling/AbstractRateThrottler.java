@@ -0,0 +1,213 @@
+package com.researchspace.core.util.throttling;
+
+import org.apache.commons.lang.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.researchspace.core.util.TimeSource;
+
+/**
+ * Base class for {@link Throttler}s that apply the limits of a
+ * {@link ThrottleDefinitionSet} to each client with some rate-limiting
+ * algorithm. Subclasses implement
+ * {@link #tryAcquire(String, double, long, ThrottleLimits)}, which must
+ * consume the requested units for all intervals or none.
+ * <p>
+ * Time is measured in nanoseconds from {@link TimeSource#nanoTime()},
+ * relative to when the throttler was created. Decisions are counted, see
+ * {@link #getStats()}.
+ */
+abstract class AbstractRateThrottler implements Throttler, ThrottleStatsProvider {
+
+	private static final Logger log = LoggerFactory.getLogger(AbstractRateThrottler.class);
+
+	private final String name;
+	private final TimeSource timeSource;
+	private final long originNanos;
+	private volatile ThrottleLimits limits;
+	private final ThrottleStatsRecorder stats = new ThrottleStatsRecorder();
+
+	/**
+	 * All args required
+	 *
+	 * @param name
+	 *            name of this throttler
+	 * @param timeSource
+	 *            source of monotonic time readings
+	 * @param throttleLimitDefinitions
+	 *            limits to apply; later changes to the set are not seen by
+	 *            this throttler
+	 * @throws IllegalArgumentException
+	 *             if any argument is null or
+	 *             <code>throttleLimitDefinitions</code> is empty
+	 */
+	protected AbstractRateThrottler(String name, TimeSource timeSource, ThrottleDefinitionSet throttleLimitDefinitions) {
+		Validate.notNull(name, "Name cannot be null");
+		Validate.notNull(timeSource, "Time source cannot be null");
+		Validate.notNull(throttleLimitDefinitions, "ThrottleDefinitionSet cannot be null");
+		Validate.isTrue(throttleLimitDefinitions.getDefinitionCount() > 0,
+				"ThrottleDefinitionSet must have >= 1 throttle definition set provided");
+		this.name = name;
+		this.timeSource = timeSource;
+		this.originNanos = timeSource.nanoTime();
+		this.limits = new ThrottleLimits(throttleLimitDefinitions);
+	}
+
+	@Override
+	public boolean proceed(String identifier, Double requestedResourceUnits) {
+		Validate.notNull(requestedResourceUnits, "Requested units cannot be null");
+		return proceed(identifier, requestedResourceUnits.doubleValue());
+	}
+
+	@Override
+	public boolean proceed(String identifier) {
+		return proceed(identifier, 1.0);
+	}
+
+	private boolean proceed(String identifier, double requestedResourceUnits) {
+		ThrottleLimits curr = limits;
+		ThrottleDecision decision = decide(identifier, requestedResourceUnits, curr, true);
+		if (decision.isAllowed()) {
+			return true;
+		}
+		log.debug("Request for {} {} by {} denied by {} limit", requestedResourceUnits, curr.units, identifier,
+				decision.getLimitingInterval());
+		ThrottleInterval interval = decision.getLimitingInterval();
+		return onDenied(identifier, interval, curr.limits[curr.indexOf(interval)]);
+	}
+
+	@Override
+	public ThrottleDecision decide(String identifier, double requestedResourceUnits) {
+		return decide(identifier, requestedResourceUnits, limits, true);
+	}
+
+	@Override
+	public ThrottleDecision recheck(String identifier, double requestedResourceUnits) {
+		return decide(identifier, requestedResourceUnits, limits, false);
+	}
+
+	private ThrottleDecision decide(String identifier, double requestedResourceUnits, ThrottleLimits curr,
+			boolean recordDenied) {
+		Validate.notEmpty(identifier, "Id cannot be empty");
+		Validate.isTrue(requestedResourceUnits >= 0, "Requested units must be >= 0");
+		ThrottleDecision decision = tryAcquire(identifier, requestedResourceUnits, nowNanos(), curr);
+		if (decision.isAllowed()) {
+			recordAllowed(decision, curr);
+		} else if (recordDenied) {
+			recordDenied(identifier, decision.getLimitingInterval());
+		}
+		return decision;
+	}
+
+	/**
+	 * Records an allowed request, and the client's utilisation of the
+	 * limiting interval after it.
+	 */
+	void recordAllowed(ThrottleDecision decision, ThrottleLimits curr) {
+		double utilisation = Double.NaN;
+		ThrottleInterval limiting = decision.getLimitingInterval();
+		if (limiting != null && !Double.isNaN(decision.getRemainingUnits())) {
+			int limit = curr.limits[curr.indexOf(limiting)];
+			utilisation = 1 - Math.max(0, decision.getRemainingUnits()) / limit;
+		}
+		recordAllowed(curr, utilisation);
+	}
+
+	/**
+	 * Records an allowed request, and the client's utilisation after it
+	 * unless it is <code>NaN</code>.
+	 */
+	void recordAllowed(ThrottleLimits curr, double utilisation) {
+		for (ThrottleInterval interval : curr.intervals) {
+			stats.recordAllowed(interval);
+		}
+		if (!Double.isNaN(utilisation)) {
+			stats.recordUtilisation(utilisation);
+		}
+	}
+
+	/**
+	 * Records a request denied by <code>interval</code>'s limit.
+	 */
+	void recordDenied(String identifier, ThrottleInterval interval) {
+		stats.recordDenied(interval, identifier);
+	}
+
+	/**
+	 * Consumes <code>units</code> from the client's allowance for every
+	 * interval in <code>limits</code>, or for none of them.
+	 *
+	 * @param identifier
+	 *            the client, not empty
+	 * @param units
+	 *            &ge; 0
+	 * @param nowNanos
+	 *            the current time
+	 * @param limits
+	 *            the limits to apply
+	 * @return the decision; if denied, its limiting interval must be one of
+	 *         <code>limits</code>
+	 */
+	abstract ThrottleDecision tryAcquire(String identifier, double units, long nowNanos,
+			ThrottleLimits limits);
+
+	/**
+	 * Removes the state of clients whose allowance is full, which is
+	 * equivalent to them not having made any requests. Call periodically to
+	 * bound memory use.
+	 *
+	 * @return the number of clients removed
+	 */
+	public abstract int evictIdle();
+
+	/**
+	 * Called when a request is denied. Subclasses may override.
+	 * <h5>Implementation</h5> Default implementation throws a
+	 * {@link TooManyRequestsException}.
+	 *
+	 * @param identifier
+	 *            the client whose request was denied
+	 * @param interval
+	 *            the interval whose limit would have been exceeded
+	 * @param limit
+	 *            the limit for <code>interval</code>
+	 * @return the value for {@link #proceed(String, Double)} to return
+	 */
+	protected boolean onDenied(String identifier, ThrottleInterval interval, int limit) {
+		throw new TooManyRequestsException(String.format("Limit of %d %s per %s exceeded for %s", limit,
+				limits.units, interval.name().toLowerCase(), name));
+	}
+
+	/**
+	 * Gets the current time, relative to when this throttler was created.
+	 *
+	 * @return
+	 */
+	protected long nowNanos() {
+		return timeSource.nanoTime() - originNanos;
+	}
+
+	@Override
+	public ThrottleStats getStats() {
+		return stats.snapshot();
+	}
+
+	ThrottleLimits getLimits() {
+		return limits;
+	}
+
+	/**
+	 * Replaces the limits, for subclasses whose state doesn't depend on them
+	 * being fixed. Requests already being checked complete against the
+	 * limits they started with.
+	 */
+	void setLimits(ThrottleLimits updated) {
+		limits = updated;
+	}
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+}
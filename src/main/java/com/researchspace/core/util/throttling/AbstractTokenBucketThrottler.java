@@ -1,5 +1,6 @@
 package com.researchspace.core.util.throttling;
 
+import java.util.AbstractMap;
 import java.util.Map;
 
 import org.apache.commons.lang.Validate;
@@ -12,13 +13,18 @@ import lombok.extern.slf4j.Slf4j;
 /**
  * Implementation of a Bucket Throttler that subclasses can customise.
  * See http://stackoverflow.com/questions/667508/whats-a-good-rate-limiting-algorithm
+ * <p>
+ * Decisions made by {@link #doProceed(AllowanceTracker, DateTime, long, Double)}
+ * and {@link #doDecide(AllowanceTracker, DateTime, long, Double)} are counted,
+ * see {@link #getStats()}.
  */
 @Slf4j
-public abstract class AbstractTokenBucketThrottler  {
+public abstract class AbstractTokenBucketThrottler implements ThrottleStatsProvider {
 	
 	protected TimeSource timeSource = null;
-	protected ThrottleDefinitionSet throttleLimitDefinitions;
+	protected volatile ThrottleDefinitionSet throttleLimitDefinitions;
 	protected AllowanceTrackerSource allowanceTrackerSource;
+	private final ThrottleStatsRecorder stats = new ThrottleStatsRecorder();
 	
 	/**
 	 * All args required
@@ -42,28 +48,108 @@ public abstract class AbstractTokenBucketThrottler  {
 		this.throttleLimitDefinitions = throttleLimitDefinitions;
 		this.allowanceTrackerSource = allowanceSource;
 	}
+
+	/**
+	 * Replaces the throttle definitions while requests are in progress. Each
+	 * client's allowances are rescaled to the new limits, in proportion to
+	 * their old limits, on its next request; requests already being checked
+	 * complete against the definitions they started with.
+	 * 
+	 * @param throttleLimitDefinitions
+	 *            the new definitions, which must not be modified afterwards
+	 * @throws IllegalArgumentException
+	 *             if <code>throttleLimitDefinitions</code> is null or empty
+	 */
+	public void setThrottleLimitDefinitions(ThrottleDefinitionSet throttleLimitDefinitions) {
+		Validate.notNull(throttleLimitDefinitions, "ThrottleDefinitionSet cannot be null");
+		Validate.isTrue(throttleLimitDefinitions.getDefinitionCount() > 0,
+				"ThrottleDefinitionSet must have >= 1 throttle definition set provided");
+		this.throttleLimitDefinitions = throttleLimitDefinitions;
+	}
 	/**
 	 * Template method for iterating over throttle limits and determinging if any throttle limits have been exceeded.
 	 */
 	protected final void doProceed(AllowanceTracker userTracker, DateTime current, long interval, Double requestedResourceUnits) {
-		for (Map.Entry<ThrottleInterval, ThrottleLimitDefinition> pair : throttleLimitDefinitions.getThrottleLimits()
+		ThrottleDefinitionSet definitions = throttleLimitDefinitions;
+		ThrottleDecision decision = doDecide(userTracker, current, interval, requestedResourceUnits, definitions);
+		if (!decision.isAllowed()) {
+			ThrottleInterval exceeded = decision.getLimitingInterval();
+			String msg = getThrottleLimitExceededMessage(new AbstractMap.SimpleImmutableEntry<>(exceeded,
+					definitions.getThrottleDefinition(exceeded)));
+			log.debug(msg);
+			throwThrottleException(msg);
+		}
+	}
+
+	/**
+	 * As {@link #doProceed(AllowanceTracker, DateTime, long, Double)}, but returns a {@link ThrottleDecision}
+	 * instead of throwing an exception if a throttle limit has been exceeded.
+	 */
+	protected final ThrottleDecision doDecide(AllowanceTracker userTracker, DateTime current, long interval,
+			Double requestedResourceUnits) {
+		return doDecide(userTracker, current, interval, requestedResourceUnits, throttleLimitDefinitions);
+	}
+
+	private ThrottleDecision doDecide(AllowanceTracker userTracker, DateTime current, long interval,
+			Double requestedResourceUnits, ThrottleDefinitionSet definitions) {
+		userTracker.applyDefinitions(definitions);
+		ThrottleInterval limiting = null;
+		double remaining = Double.MAX_VALUE;
+		for (Map.Entry<ThrottleInterval, ThrottleLimitDefinition> pair : definitions.getThrottleLimits()
 				.entrySet()) {
 			log.trace("interval (millis) between requests is: {} ms", interval);
 			userTracker.setLastCheck(current);
 			double allowance = calculateAllowance(current, interval, userTracker.getAllowance(pair.getKey()),
 					pair.getValue());
 			userTracker.getAllowances().put(pair.getKey(), allowance);
-			log.debug("allowance for  user {} for throttle definition {} is {} {}", userTracker.getUserId(), pair.getKey(),
-					String.format("%.4f", userTracker.getAllowance(pair.getKey())), pair.getValue().getUnits());
+			if (log.isDebugEnabled()) {
+				log.debug("allowance for  user {} for throttle definition {} is {} {}", userTracker.getUserId(),
+						pair.getKey(), String.format("%.4f", allowance), pair.getValue().getUnits());
+			}
 
 			if (!isAllowed(requestedResourceUnits, allowance, pair.getValue())) {
-				String msg = getThrottleLimitExceededMessage(pair);
-				log.warn(msg);
-				throwThrottleException(msg);
+				stats.recordDenied(pair.getKey(), userTracker.getUserId());
+				return ThrottleDecision.denied(pair.getKey(), allowance,
+						getRetryAfterMillis(requestedResourceUnits, allowance, pair.getValue()));
+			}
+			double left = userTracker.decrementAllowance(pair.getKey(), allowance, requestedResourceUnits);
+			if (left < remaining) {
+				remaining = left;
+				limiting = pair.getKey();
+			}
+		}
+		for (ThrottleInterval allowedInterval : definitions.getThrottleLimits().keySet()) {
+			stats.recordAllowed(allowedInterval);
+		}
+		if (limiting != null) {
+			stats.recordUtilisation(1 - Math.max(0, remaining) / definitions.getThrottleDefinition(limiting).getLimit());
+		}
+		return ThrottleDecision.allowed(limiting, remaining);
+	}
+
+	/**
+	 * Gets the time until {@link #isAllowed(Double, double, ThrottleLimitDefinition)}
+	 * would allow the request as the allowance refills, searching between now
+	 * and a full allowance, so that subclasses overriding it get a correct
+	 * retry-after time. Assumes that a larger allowance never allows less.
+	 */
+	private long getRetryAfterMillis(Double requestedResourceUnits, double allowance, ThrottleLimitDefinition value) {
+		if (!isAllowed(requestedResourceUnits, value.getLimit(), value)) {
+			return ThrottleDecision.NEVER;
+		}
+		double unitsPerMilli = value.getLimitPerRatio() / 1000d;
+		long low = 0;
+		long high = Math.max(1, (long) Math.ceil((value.getLimit() - allowance) / unitsPerMilli));
+		// not allowed after low millis, allowed after high millis
+		while (high - low > 1) {
+			long mid = (low + high) >>> 1;
+			if (isAllowed(requestedResourceUnits, Math.min(value.getLimit(), allowance + mid * unitsPerMilli), value)) {
+				high = mid;
 			} else {
-				userTracker.decrementAllowance(pair.getKey(), allowance, requestedResourceUnits);
+				low = mid;
 			}
 		}
+		return high;
 	}
 
 	/**
@@ -106,4 +192,9 @@ public abstract class AbstractTokenBucketThrottler  {
 		return current.getMillis() - lastCheck.getMillis();
 	}
 
+	@Override
+	public ThrottleStats getStats() {
+		return stats.snapshot();
+	}
+
 }
@@ -5,8 +5,11 @@ import java.util.concurrent.ConcurrentHashMap;
 
 import org.joda.time.DateTime;
 
+import lombok.AccessLevel;
 import lombok.Data;
 import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.Setter;
 import lombok.ToString;
 
 /**
@@ -21,11 +24,60 @@ public class AllowanceTracker {
 	private Map<ThrottleInterval, Double> allowances = new ConcurrentHashMap<>();
 	private boolean firstTime = true;
 	private String userId;
+	/** The definitions the allowances are relative to */
+	@Getter(AccessLevel.NONE)
+	@Setter(AccessLevel.NONE)
+	private volatile ThrottleDefinitionSet definitions;
 
 	void initialiseAllowance(ThrottleInterval throttleInterval, double rate) {
 		allowances.putIfAbsent(throttleInterval, rate);
 	}
 
+	/**
+	 * Makes the allowances relative to <code>newDefinitions</code>. Allowances
+	 * for intervals whose limit has changed are rescaled in proportion to the
+	 * new limit, allowances for new intervals start full, and allowances for
+	 * intervals no longer defined are removed. Does nothing if the
+	 * allowances are already relative to <code>newDefinitions</code>.
+	 */
+	void applyDefinitions(ThrottleDefinitionSet newDefinitions) {
+		if (definitions == newDefinitions) {
+			return;
+		}
+		synchronized (this) {
+			ThrottleDefinitionSet oldDefinitions = definitions;
+			if (oldDefinitions == newDefinitions) {
+				return;
+			}
+			Map<ThrottleInterval, ThrottleLimitDefinition> newLimits = newDefinitions.getThrottleLimits();
+			allowances.keySet().retainAll(newLimits.keySet());
+			for (Map.Entry<ThrottleInterval, ThrottleLimitDefinition> pair : newLimits.entrySet()) {
+				int limit = pair.getValue().getLimit();
+				ThrottleLimitDefinition old = oldDefinitions == null ? null
+						: oldDefinitions.getThrottleDefinition(pair.getKey());
+				Double curr = allowances.get(pair.getKey());
+				if (curr == null) {
+					allowances.put(pair.getKey(), (double) limit);
+				} else if (old != null && old.getLimit() != limit) {
+					allowances.put(pair.getKey(), curr * limit / old.getLimit());
+				}
+			}
+			definitions = newDefinitions;
+		}
+	}
+
+	/**
+	 * Gets how long after its last check the allowances are all full again:
+	 * the longest interval of the definitions last applied.
+	 *
+	 * @return the interval in milliseconds, or 0 if no definitions have been
+	 *         applied
+	 */
+	long getIdleMillis() {
+		ThrottleDefinitionSet current = definitions;
+		return current == null ? 0 : current.getLongestIntervalMillis();
+	}
+
 	/**
 	 * Decrements and stores the new allowance.
 	 * 
@@ -44,10 +44,7 @@ public class AllowanceTrackerSourceImpl implements AllowanceTrackerSource {
 		if(currValue != null) {
 			rt = currValue;
 		}
-		for (Map.Entry<ThrottleInterval, ThrottleLimitDefinition> pair : throttleDefinitions.getThrottleLimits()
-				.entrySet()) {
-			rt.initialiseAllowance(pair.getKey(), pair.getValue().getLimit());
-		}
+		rt.applyDefinitions(throttleDefinitions);
 		return rt;
 	}
 }
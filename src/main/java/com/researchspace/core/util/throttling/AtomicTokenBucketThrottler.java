@@ -0,0 +1,443 @@
+package com.researchspace.core.util.throttling;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Function;
+
+import org.apache.commons.lang.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.researchspace.core.util.TimeSource;
+
+/**
+ * Lock-free token bucket {@link Throttler} for use on hot request paths.
+ * <p>
+ * Each client's bucket for each {@link ThrottleInterval} is a single
+ * <code>long</code> in an {@link AtomicLongArray}, updated by compare-and-set
+ * (see {@link PackedTokenBucket}). A request is checked against every interval
+ * in the {@link ThrottleDefinitionSet}; if any interval denies it, units
+ * already taken from the other intervals are returned, so a denied request
+ * never consumes allowance. Once a client has been seen, an allowed request
+ * performs no allocation.
+ * <p>
+ * Unlike {@link AbstractTokenBucketThrottler}, a full bucket allows exactly
+ * <code>limit</code> whole units before denying, for limits up to
+ * {@link #MAX_LIMIT} per interval, and time is measured with
+ * {@link TimeSource#nanoTime()} so is unaffected by wall-clock changes. A
+ * denied decision's retry-after time is the wait until every interval could
+ * allow the request.
+ * <h5>Extension</h5> Override {@link #onDenied(String, ThrottleInterval, int)}
+ * to throw a different {@link ThrottlingException} or to return
+ * <code>false</code> instead.
+ * <p>
+ * Allowed and denied requests are counted, see {@link #getStats()},
+ * including those decided as a level of a {@link CompositeThrottler}.
+ */
+public class AtomicTokenBucketThrottler extends AbstractRateThrottler {
+
+	private static final Logger log = LoggerFactory.getLogger(AtomicTokenBucketThrottler.class);
+
+	/** The largest limit per interval, about 16.7 million */
+	public static final int MAX_LIMIT = PackedTokenBucket.MAX_LIMIT;
+
+	static final int ALLOWED = -1;
+	private static final int SLOT_COUNT = ThrottleInterval.values().length;
+	private static final Function<String, AtomicLongArray> NEW_BUCKETS = id -> new AtomicLongArray(SLOT_COUNT);
+	/**
+	 * Marks the slots of an array being replaced, see
+	 * {@link #replaceSlots(ThrottleLimits, ThrottleLimits)}
+	 */
+	private static final long RETIRED = -1L;
+
+	private final ConcurrentHashMap<String, AtomicLongArray> buckets = new ConcurrentHashMap<>();
+
+	/**
+	 * @see AbstractRateThrottler#AbstractRateThrottler(String, TimeSource,
+	 *      ThrottleDefinitionSet)
+	 * @see #setThrottleLimitDefinitions(ThrottleDefinitionSet)
+	 * @throws IllegalArgumentException
+	 *             also if a limit is over {@link #MAX_LIMIT}
+	 */
+	public AtomicTokenBucketThrottler(String name, TimeSource timeSource,
+			ThrottleDefinitionSet throttleLimitDefinitions) {
+		super(name, timeSource, throttleLimitDefinitions);
+		validateLimits(getLimits());
+	}
+
+	/**
+	 * Replaces the limits while requests are in progress, without locking.
+	 * Every client's remaining allowance is rescaled in proportion to the new
+	 * limits; intervals that are newly limited start with full allowances.
+	 * Requests already being checked complete against the limits they
+	 * started with.
+	 *
+	 * @param throttleLimitDefinitions
+	 *            the new limits; later changes to the set are not seen
+	 * @throws IllegalArgumentException
+	 *             if <code>throttleLimitDefinitions</code> is null or empty,
+	 *             or has a limit over {@link #MAX_LIMIT}
+	 */
+	public synchronized void setThrottleLimitDefinitions(ThrottleDefinitionSet throttleLimitDefinitions) {
+		Validate.notNull(throttleLimitDefinitions, "ThrottleDefinitionSet cannot be null");
+		Validate.isTrue(throttleLimitDefinitions.getDefinitionCount() > 0,
+				"ThrottleDefinitionSet must have >= 1 throttle definition set provided");
+		ThrottleLimits updated = new ThrottleLimits(throttleLimitDefinitions);
+		validateLimits(updated);
+		ThrottleLimits old = getLimits();
+		setLimits(updated);
+		if (changesBuckets(old, updated)) {
+			replaceSlots(old, updated);
+		}
+		log.info("Limits of {} changed", getName());
+	}
+
+	private static void validateLimits(ThrottleLimits limits) {
+		for (int i = 0; i < limits.size(); i++) {
+			Validate.isTrue(limits.limits[i] <= MAX_LIMIT,
+					String.format("Limit per %s must be <= %d but was %d", limits.intervals[i],
+							MAX_LIMIT, limits.limits[i]));
+		}
+	}
+
+	/**
+	 * @return <code>true</code> if an interval is no longer limited, or its
+	 *         buckets' capacity changes
+	 */
+	private static boolean changesBuckets(ThrottleLimits old, ThrottleLimits updated) {
+		for (int i = 0; i < old.size(); i++) {
+			int j = updated.indexOf(old.intervals[i]);
+			if (j < 0 || PackedTokenBucket.capacity(old.limits[i]) != PackedTokenBucket.capacity(updated.limits[j])) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Converts buckets to the new limits. Buckets for an interval that is no
+	 * longer limited are reset, so they are full if it is limited again, and
+	 * deficits are rescaled to the capacity for the new limit.
+	 * <p>
+	 * Each client's slots are replaced by a converted copy. Slots are copied
+	 * by swapping in {@link #RETIRED}, so an update in flight either lands
+	 * before it is copied, or fails and is retried on the copy once it is in
+	 * the map. Called holding this throttler's lock, so never at the same
+	 * time as {@link #evictIdle()}.
+	 */
+	private void replaceSlots(ThrottleLimits old, ThrottleLimits updated) {
+		for (Map.Entry<String, AtomicLongArray> entry : buckets.entrySet()) {
+			AtomicLongArray retired = entry.getValue();
+			AtomicLongArray fresh = new AtomicLongArray(SLOT_COUNT);
+			for (int slot = 0; slot < SLOT_COUNT; slot++) {
+				long bucket = retired.getAndSet(slot, RETIRED);
+				ThrottleInterval interval = ThrottleInterval.values()[slot];
+				int i = old.indexOf(interval);
+				int j = updated.indexOf(interval);
+				if (i >= 0 && j >= 0) {
+					long deficit = PackedTokenBucket.rescale(PackedTokenBucket.deficit(bucket), old.limits[i],
+							updated.limits[j]);
+					fresh.set(slot, PackedTokenBucket.withDeficit(bucket, deficit));
+				}
+			}
+			buckets.replace(entry.getKey(), retired, fresh);
+		}
+	}
+
+	/**
+	 * Removes clients whose buckets are all full, which is equivalent to them
+	 * not having made any requests. Each client's slots are first swapped for
+	 * {@link #RETIRED} by compare-and-set, so a request racing with eviction
+	 * either takes units first, keeping the client, or waits and uses new
+	 * slots.
+	 */
+	@Override
+	public synchronized int evictIdle() {
+		ThrottleLimits curr = getLimits();
+		long now = nowMillis();
+		int evicted = 0;
+		for (Map.Entry<String, AtomicLongArray> entry : buckets.entrySet()) {
+			AtomicLongArray slots = entry.getValue();
+			if (retireIfFull(slots, curr, now) && buckets.remove(entry.getKey(), slots)) {
+				evicted++;
+			}
+		}
+		return evicted;
+	}
+
+	private boolean retireIfFull(AtomicLongArray slots, ThrottleLimits curr, long now) {
+		long[] retired = new long[SLOT_COUNT];
+		for (int slot = 0; slot < SLOT_COUNT; slot++) {
+			retired[slot] = slots.get(slot);
+		}
+		for (int i = 0; i < curr.intervals.length; i++) {
+			long bucket = retired[curr.intervals[i].ordinal()];
+			if (bucket == RETIRED
+					|| PackedTokenBucket.deficit(PackedTokenBucket.refill(bucket, now, curr.periodMillis[i],
+							PackedTokenBucket.capacity(curr.limits[i]))) > 0) {
+				return false;
+			}
+		}
+		for (int slot = 0; slot < SLOT_COUNT; slot++) {
+			if (!slots.compareAndSet(slot, retired[slot], RETIRED)) {
+				// a request got in first: no one else updates retired slots
+				for (int j = 0; j < slot; j++) {
+					slots.set(j, retired[j]);
+				}
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Gets a client's slots after finding a {@link #RETIRED} slot, once they
+	 * have been replaced, or restored if the client was not evicted after all.
+	 */
+	private AtomicLongArray replacement(String identifier) {
+		Thread.yield();
+		return getBuckets(identifier);
+	}
+
+	/**
+	 * Allows a request without building a {@link ThrottleDecision}, so an
+	 * allowed request performs no allocation once the client has been seen.
+	 */
+	@Override
+	public boolean proceed(String identifier, Double requestedResourceUnits) {
+		Validate.notNull(requestedResourceUnits, "Requested units cannot be null");
+		return proceed(identifier, requestedResourceUnits.doubleValue());
+	}
+
+	@Override
+	public boolean proceed(String identifier) {
+		return proceed(identifier, 1.0);
+	}
+
+	private boolean proceed(String identifier, double units) {
+		validate(identifier, units);
+		ThrottleLimits curr = getLimits();
+		AtomicLongArray slots = getBuckets(identifier);
+		long now = nowMillis();
+		int denied = take(identifier, slots, units, curr, now);
+		if (denied == ALLOWED) {
+			recordAllowed(slots, curr, now);
+			return true;
+		}
+		ThrottleInterval interval = curr.intervals[denied];
+		recordDenied(identifier, interval);
+		if (log.isDebugEnabled()) {
+			log.debug("Request for {} {} by {} denied by {} limit", units, curr.units, identifier, interval);
+		}
+		return onDenied(identifier, interval, curr.limits[denied]);
+	}
+
+	@Override
+	ThrottleDecision tryAcquire(String identifier, double units, long nowNanos, ThrottleLimits limits) {
+		AtomicLongArray slots = getBuckets(identifier);
+		long now = TimeUnit.NANOSECONDS.toMillis(nowNanos);
+		return decision(slots, units, limits, take(identifier, slots, units, limits, now), now);
+	}
+
+	/**
+	 * Describes the outcome of {@link #take(String, double, ThrottleLimits)}.
+	 */
+	ThrottleDecision decision(String identifier, double requestedResourceUnits, ThrottleLimits curr, int denied) {
+		return decision(buckets.get(identifier), requestedResourceUnits, curr, denied, nowMillis());
+	}
+
+	private ThrottleDecision decision(AtomicLongArray slots, double requestedResourceUnits, ThrottleLimits curr,
+			int denied, long now) {
+		if (denied != ALLOWED) {
+			long retryAfter = 0;
+			for (int i = 0; i < curr.intervals.length && retryAfter != ThrottleDecision.NEVER; i++) {
+				long wait = PackedTokenBucket.millisUntilAvailable(deficit(slots, curr, i, now),
+						PackedTokenBucket.cost(requestedResourceUnits, curr.limits[i]), curr.periodMillis[i],
+						PackedTokenBucket.capacity(curr.limits[i]));
+				retryAfter = wait < 0 ? ThrottleDecision.NEVER : Math.max(retryAfter, wait);
+			}
+			return ThrottleDecision.denied(curr.intervals[denied], available(slots, curr, denied, now), retryAfter);
+		}
+		int limiting = leastAvailable(slots, curr, now);
+		return ThrottleDecision.allowed(curr.intervals[limiting], available(slots, curr, limiting, now));
+	}
+
+	/**
+	 * @return the index of the interval with the fewest units available
+	 */
+	private int leastAvailable(AtomicLongArray slots, ThrottleLimits curr, long now) {
+		int limiting = 0;
+		double remaining = Double.MAX_VALUE;
+		for (int i = 0; i < curr.intervals.length; i++) {
+			double available = available(slots, curr, i, now);
+			if (available < remaining) {
+				remaining = available;
+				limiting = i;
+			}
+		}
+		return limiting;
+	}
+
+	/**
+	 * Takes <code>units</code> from each of the client's buckets, or from none
+	 * of them, without recording statistics, for callers that only know later
+	 * whether the request is allowed.
+	 *
+	 * @return {@link #ALLOWED}, or the index of the interval that denied the
+	 *         request
+	 */
+	int take(String identifier, double units, ThrottleLimits curr) {
+		validate(identifier, units);
+		return take(identifier, getBuckets(identifier), units, curr, nowMillis());
+	}
+
+	/**
+	 * @param slots
+	 *            the client's slots, looked up once for the request; replaced
+	 *            if they are retired while taking units
+	 */
+	private int take(String identifier, AtomicLongArray slots, double units, ThrottleLimits curr, long now) {
+		for (int i = 0; i < curr.intervals.length; i++) {
+			AtomicLongArray taken = tryTake(identifier, slots, curr, i, units, now);
+			if (taken == null) {
+				for (int j = 0; j < i; j++) {
+					slots = giveBack(identifier, slots, curr, j, units, now);
+				}
+				return i;
+			}
+			slots = taken;
+		}
+		return ALLOWED;
+	}
+
+	private static void validate(String identifier, double units) {
+		Validate.notEmpty(identifier, "Id cannot be empty");
+		Validate.isTrue(units >= 0, "Requested units must be >= 0");
+	}
+
+	/**
+	 * Records an allowed request, and the client's utilisation after it.
+	 */
+	void recordAllowed(String identifier, ThrottleLimits curr) {
+		recordAllowed(buckets.get(identifier), curr, nowMillis());
+	}
+
+	private void recordAllowed(AtomicLongArray slots, ThrottleLimits curr, long now) {
+		int limiting = leastAvailable(slots, curr, now);
+		recordAllowed(curr, (double) deficit(slots, curr, limiting, now)
+				/ PackedTokenBucket.capacity(curr.limits[limiting]));
+	}
+
+	/**
+	 * Returns units taken by a successful
+	 * {@link #take(String, double, ThrottleLimits)}.
+	 */
+	void release(String identifier, double units, ThrottleLimits curr) {
+		AtomicLongArray slots = getBuckets(identifier);
+		long now = nowMillis();
+		for (int i = 0; i < curr.intervals.length; i++) {
+			slots = giveBack(identifier, slots, curr, i, units, now);
+		}
+	}
+
+	/**
+	 * @return the slots the units were taken from, or <code>null</code> if
+	 *         the bucket has too few units
+	 */
+	private AtomicLongArray tryTake(String identifier, AtomicLongArray slots, ThrottleLimits curr, int i,
+			double units, long now) {
+		int slot = curr.intervals[i].ordinal();
+		long capacity = PackedTokenBucket.capacity(curr.limits[i]);
+		long cost = PackedTokenBucket.cost(units, curr.limits[i]);
+		while (true) {
+			long bucket = slots.get(slot);
+			if (bucket == RETIRED) {
+				slots = replacement(identifier);
+				continue;
+			}
+			long refilled = PackedTokenBucket.refill(bucket, now, curr.periodMillis[i], capacity);
+			long deficit = PackedTokenBucket.deficit(refilled) + cost;
+			if (deficit > capacity) {
+				return null;
+			}
+			if (slots.compareAndSet(slot, bucket, PackedTokenBucket.withDeficit(refilled, deficit))) {
+				return slots;
+			}
+		}
+	}
+
+	/**
+	 * @return the slots the units were returned to
+	 */
+	private AtomicLongArray giveBack(String identifier, AtomicLongArray slots, ThrottleLimits curr, int i,
+			double units, long now) {
+		int slot = curr.intervals[i].ordinal();
+		long capacity = PackedTokenBucket.capacity(curr.limits[i]);
+		long cost = PackedTokenBucket.cost(units, curr.limits[i]);
+		while (true) {
+			long bucket = slots.get(slot);
+			if (bucket == RETIRED) {
+				slots = replacement(identifier);
+				continue;
+			}
+			long refilled = PackedTokenBucket.refill(bucket, now, curr.periodMillis[i], capacity);
+			long deficit = Math.max(0, PackedTokenBucket.deficit(refilled) - cost);
+			if (slots.compareAndSet(slot, bucket, PackedTokenBucket.withDeficit(refilled, deficit))) {
+				return slots;
+			}
+		}
+	}
+
+	/**
+	 * Gets the units currently available to a client for an interval.
+	 *
+	 * @param identifier
+	 * @param interval
+	 * @return the available units, or 0 if <code>interval</code> is not
+	 *         limited by this throttler
+	 */
+	public double getAvailableUnits(String identifier, ThrottleInterval interval) {
+		ThrottleLimits curr = getLimits();
+		int i = curr.indexOf(interval);
+		if (i < 0) {
+			return 0;
+		}
+		return available(buckets.get(identifier), curr, i, nowMillis());
+	}
+
+	private double available(AtomicLongArray slots, ThrottleLimits curr, int i, long now) {
+		return PackedTokenBucket.units(PackedTokenBucket.capacity(curr.limits[i]) - deficit(slots, curr, i, now),
+				curr.limits[i]);
+	}
+
+	private long deficit(AtomicLongArray slots, ThrottleLimits curr, int i, long now) {
+		long bucket = slots == null ? 0 : slots.get(curr.intervals[i].ordinal());
+		if (bucket == RETIRED) {
+			// being copied by replaceSlots; as this is only reported, not enforced, report it as full
+			return 0;
+		}
+		return PackedTokenBucket.deficit(PackedTokenBucket.refill(bucket, now, curr.periodMillis[i],
+				PackedTokenBucket.capacity(curr.limits[i])));
+	}
+
+	/**
+	 * Gets the number of clients currently tracked.
+	 *
+	 * @return
+	 */
+	public int getTrackedIdCount() {
+		return buckets.size();
+	}
+
+	private AtomicLongArray getBuckets(String identifier) {
+		AtomicLongArray slots = buckets.get(identifier);
+		return slots != null ? slots : buckets.computeIfAbsent(identifier, NEW_BUCKETS);
+	}
+
+	private long nowMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(nowNanos());
+	}
+
+}
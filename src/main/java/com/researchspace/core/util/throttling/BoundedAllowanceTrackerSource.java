@@ -0,0 +1,123 @@
+package com.researchspace.core.util.throttling;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.researchspace.core.util.TimeSource;
+import com.researchspace.core.util.cache.ConcurrentKeyedTimeLimitedCache;
+
+/**
+ * In-memory {@link AllowanceTrackerSource} that holds a bounded number of
+ * trackers, unlike {@link AllowanceTrackerSourceImpl}.
+ * <ul>
+ * <li>A tracker whose last check is older than the longest
+ * {@link ThrottleInterval} of the definitions last applied to it is idle: its
+ * allowances would all have refilled to their limits, so it is replaced by a
+ * new tracker when next requested, and removed by {@link #evictIdle()}. As
+ * throttlers apply their current definitions to trackers, a longer interval
+ * added later is taken into account. Idle trackers are swept at most once per
+ * longest interval of the definitions given to this source, as trackers are
+ * requested.
+ * <li>At most <code>maximumIds</code> trackers are held; beyond that, the
+ * least recently used are evicted. A client whose tracker was evicted gets a
+ * new tracker with full allowances.
+ * </ul>
+ */
+public class BoundedAllowanceTrackerSource implements AllowanceTrackerSource {
+
+	private static final Logger log = LoggerFactory.getLogger(BoundedAllowanceTrackerSource.class);
+
+	private final ConcurrentKeyedTimeLimitedCache<String, AllowanceTracker> trackers;
+	private final TimeSource timeSource;
+	private final ThrottleDefinitionSet throttleDefinitions;
+	private final long sweepMillis;
+	private final AtomicLong nextSweepNanos;
+
+	/**
+	 * @param timeSource
+	 *            source of time, used for tracker check times and idle sweeps
+	 * @param throttleDefinitions
+	 *            the definitions the trackers are used with; must not be
+	 *            empty
+	 * @param maximumIds
+	 *            maximum number of trackers to hold, &gt; 0
+	 * @throws IllegalArgumentException
+	 *             if any argument is null or out of range
+	 */
+	public BoundedAllowanceTrackerSource(TimeSource timeSource, ThrottleDefinitionSet throttleDefinitions,
+			int maximumIds) {
+		Validate.notNull(timeSource, "Time source cannot be null");
+		Validate.notNull(throttleDefinitions, "ThrottleDefinitionSet cannot be null");
+		Validate.isTrue(throttleDefinitions.getDefinitionCount() > 0,
+				"ThrottleDefinitionSet must have >= 1 throttle definition set provided");
+		Validate.isTrue(maximumIds > 0, "Maximum ids must be > 0 but was ", maximumIds);
+		this.timeSource = timeSource;
+		this.throttleDefinitions = throttleDefinitions;
+		this.sweepMillis = throttleDefinitions.getLongestIntervalMillis();
+		this.trackers = new ConcurrentKeyedTimeLimitedCache<>(timeSource, maximumIds, (k, v) -> 1);
+		this.trackers.setCacheTimeMillis(sweepMillis);
+		this.nextSweepNanos = new AtomicLong(timeSource.nanoTime() + TimeUnit.MILLISECONDS.toNanos(sweepMillis));
+	}
+
+	@Override
+	public AllowanceTracker getAllowance(String id) {
+		Validate.notEmpty(id, "Id cannot be empty");
+		long now = timeSource.now().getMillis();
+		AllowanceTracker rt = trackers.getOrPut(id, existing -> !isIdle(existing, now), this::newTracker);
+		sweepIfDue();
+		return rt;
+	}
+
+	private AllowanceTracker newTracker(String id) {
+		AllowanceTracker rt = new AllowanceTracker(id);
+		rt.setLastCheck(timeSource.now());
+		rt.applyDefinitions(throttleDefinitions);
+		return rt;
+	}
+
+	private void sweepIfDue() {
+		long now = timeSource.nanoTime();
+		long next = nextSweepNanos.get();
+		if (now - next >= 0
+				&& nextSweepNanos.compareAndSet(next, now + TimeUnit.MILLISECONDS.toNanos(sweepMillis))) {
+			int evicted = evictIdle();
+			log.debug("Evicted {} idle allowance trackers", evicted);
+		}
+	}
+
+	/**
+	 * Removes all idle trackers.
+	 *
+	 * @return the number of trackers removed
+	 */
+	public int evictIdle() {
+		long now = timeSource.now().getMillis();
+		AtomicInteger evicted = new AtomicInteger();
+		trackers.forEach((id, rt, remainingMillis) -> {
+			// the tracker may have been used or replaced since it was visited
+			if (isIdle(rt, now) && trackers.remove(id, rt, idle -> isIdle(idle, now))) {
+				evicted.incrementAndGet();
+			}
+		});
+		return evicted.get();
+	}
+
+	private boolean isIdle(AllowanceTracker rt, long nowMillis) {
+		return nowMillis - rt.getLastCheck().getMillis() > rt.getIdleMillis();
+	}
+
+	/**
+	 * Gets the number of trackers currently held.
+	 *
+	 * @return
+	 */
+	public long size() {
+		return trackers.size();
+	}
+
+}
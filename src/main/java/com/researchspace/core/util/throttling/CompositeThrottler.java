@@ -0,0 +1,207 @@
+package com.researchspace.core.util.throttling;
+
+import java.util.Arrays;
+import java.util.function.UnaryOperator;
+
+import org.apache.commons.lang.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link Throttler} that applies several levels of limits to each request,
+ * e.g. per user, per group and per instance, in one call.
+ * <p>
+ * Each level is an {@link AtomicTokenBucketThrottler} with its own
+ * {@link ThrottleDefinitionSet}, and a function mapping the request's
+ * identifier to the key to throttle at that level. Units are reserved at
+ * each level in the order added; if any level denies the request, the units
+ * reserved at earlier levels are returned, so a denied request consumes no
+ * allowance at any level. Statistics are recorded at each level once the
+ * request is decided, so a level doesn't count as allowed a request that a
+ * later level denies. Levels should not also be used directly for the same
+ * keys if their limits are meant to apply only through this throttler.
+ * <p>
+ * Example:
+ *
+ * <pre>
+ * new CompositeThrottler("api")
+ * 		.addLevel(perUser, id -&gt; id)
+ * 		.addLevel(perGroup, groupsByUser::get)
+ * 		.addLevel(perInstance, id -&gt; "instance");
+ * </pre>
+ */
+public class CompositeThrottler implements Throttler {
+
+	private static final Logger log = LoggerFactory.getLogger(CompositeThrottler.class);
+
+	private static final class Level {
+		final AtomicTokenBucketThrottler throttler;
+		final UnaryOperator<String> keyMapper;
+
+		Level(AtomicTokenBucketThrottler throttler, UnaryOperator<String> keyMapper) {
+			this.throttler = throttler;
+			this.keyMapper = keyMapper;
+		}
+	}
+
+	private final String name;
+	private volatile Level[] levels = new Level[0];
+
+	public CompositeThrottler(String name) {
+		Validate.notNull(name, "Name cannot be null");
+		this.name = name;
+	}
+
+	/**
+	 * Adds a level, checked after those already added.
+	 *
+	 * @param throttler
+	 *            applies this level's limits
+	 * @param keyMapper
+	 *            maps a request's identifier to this level's key; may return
+	 *            <code>null</code> if the level doesn't apply to the request
+	 * @return this throttler, for chaining
+	 */
+	public synchronized CompositeThrottler addLevel(AtomicTokenBucketThrottler throttler,
+			UnaryOperator<String> keyMapper) {
+		Validate.notNull(throttler, "Throttler cannot be null");
+		Validate.notNull(keyMapper, "Key mapper cannot be null");
+		Level[] updated = Arrays.copyOf(levels, levels.length + 1);
+		updated[levels.length] = new Level(throttler, keyMapper);
+		levels = updated;
+		return this;
+	}
+
+	public int getLevelCount() {
+		return levels.length;
+	}
+
+	@Override
+	public boolean proceed(String identifier, Double requestedResourceUnits) {
+		Validate.notNull(requestedResourceUnits, "Requested units cannot be null");
+		return proceed(identifier, requestedResourceUnits.doubleValue());
+	}
+
+	@Override
+	public boolean proceed(String identifier) {
+		return proceed(identifier, 1.0);
+	}
+
+	private boolean proceed(String identifier, double units) {
+		Level[] curr = levels;
+		String[] keys = new String[curr.length];
+		ThrottleLimits[] limits = new ThrottleLimits[curr.length];
+		for (int i = 0; i < curr.length; i++) {
+			String key = curr[i].keyMapper.apply(identifier);
+			if (key == null) {
+				continue;
+			}
+			keys[i] = key;
+			limits[i] = curr[i].throttler.getLimits();
+			int denied = curr[i].throttler.take(key, units, limits[i]);
+			if (denied != AtomicTokenBucketThrottler.ALLOWED) {
+				release(curr, keys, limits, i, units);
+				curr[i].throttler.recordDenied(key, limits[i].intervals[denied]);
+				log.debug("Request for {} {} by {} denied by {} limit of {}", units, limits[i].units, identifier,
+						limits[i].intervals[denied], curr[i].throttler.getName());
+				return onDenied(identifier, curr[i].throttler, limits[i].intervals[denied], limits[i].limits[denied],
+						limits[i].units);
+			}
+		}
+		recordAllowed(curr, keys, limits);
+		return true;
+	}
+
+	/**
+	 * Decides a request at all levels. An allowed decision is that of the
+	 * level with the least allowance remaining; a denied decision is that of
+	 * the level that denied the request.
+	 */
+	@Override
+	public ThrottleDecision decide(String identifier, double requestedResourceUnits) {
+		return decide(identifier, requestedResourceUnits, true);
+	}
+
+	@Override
+	public ThrottleDecision recheck(String identifier, double requestedResourceUnits) {
+		return decide(identifier, requestedResourceUnits, false);
+	}
+
+	private ThrottleDecision decide(String identifier, double requestedResourceUnits, boolean recordDenied) {
+		Level[] curr = levels;
+		String[] keys = new String[curr.length];
+		ThrottleLimits[] limits = new ThrottleLimits[curr.length];
+		ThrottleDecision limiting = null;
+		for (int i = 0; i < curr.length; i++) {
+			String key = curr[i].keyMapper.apply(identifier);
+			if (key == null) {
+				continue;
+			}
+			keys[i] = key;
+			limits[i] = curr[i].throttler.getLimits();
+			int denied = curr[i].throttler.take(key, requestedResourceUnits, limits[i]);
+			ThrottleDecision decision = curr[i].throttler.decision(key, requestedResourceUnits, limits[i], denied);
+			if (!decision.isAllowed()) {
+				release(curr, keys, limits, i, requestedResourceUnits);
+				if (recordDenied) {
+					curr[i].throttler.recordDenied(key, limits[i].intervals[denied]);
+				}
+				return decision;
+			}
+			if (limiting == null || decision.getRemainingUnits() < limiting.getRemainingUnits()) {
+				limiting = decision;
+			}
+		}
+		recordAllowed(curr, keys, limits);
+		return limiting != null ? limiting : ThrottleDecision.allowed(null, Double.NaN);
+	}
+
+	/**
+	 * Records an allowed request at each level it applied to, once every
+	 * level has allowed it.
+	 */
+	private void recordAllowed(Level[] curr, String[] keys, ThrottleLimits[] limits) {
+		for (int i = 0; i < curr.length; i++) {
+			if (keys[i] != null) {
+				curr[i].throttler.recordAllowed(keys[i], limits[i]);
+			}
+		}
+	}
+
+	private void release(Level[] curr, String[] keys, ThrottleLimits[] limits, int deniedLevel, double units) {
+		for (int j = 0; j < deniedLevel; j++) {
+			if (keys[j] != null) {
+				curr[j].throttler.release(keys[j], units, limits[j]);
+			}
+		}
+	}
+
+	/**
+	 * Called when a request is denied. Subclasses may override.
+	 * <h5>Implementation</h5> Default implementation throws a
+	 * {@link TooManyRequestsException}.
+	 *
+	 * @param identifier
+	 *            the client whose request was denied
+	 * @param level
+	 *            the level that denied the request
+	 * @param interval
+	 *            the interval whose limit would have been exceeded
+	 * @param limit
+	 *            the limit for <code>interval</code>
+	 * @param units
+	 *            the name of the units limited by <code>level</code>
+	 * @return the value for {@link #proceed(String, Double)} to return
+	 */
+	protected boolean onDenied(String identifier, Throttler level, ThrottleInterval interval, int limit,
+			String units) {
+		throw new TooManyRequestsException(String.format("Limit of %d %s per %s exceeded for %s",
+				limit, units, interval.name().toLowerCase(), level.getName()));
+	}
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+}
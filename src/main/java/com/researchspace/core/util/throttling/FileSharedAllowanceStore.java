@@ -0,0 +1,128 @@
+package com.researchspace.core.util.throttling;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+import org.apache.commons.lang.Validate;
+
+import com.researchspace.core.util.TimeSource;
+
+/**
+ * Reference {@link SharedAllowanceStore} that keeps allowances in a local
+ * file, so that throttlers in several processes on one host can share them.
+ * <p>
+ * Every call locks the file, then reads and rewrites all of it, so this is
+ * intended for testing cluster behaviour and for small deployments; larger
+ * clusters should implement the store over a shared database or cache.
+ * Processes must have synchronized wall clocks, as refill uses
+ * {@link TimeSource#now()}.
+ */
+public class FileSharedAllowanceStore implements SharedAllowanceStore {
+
+	// file locks are held per JVM, so instances for the same file in one JVM
+	// must also exclude each other
+	private static final ConcurrentHashMap<Path, Object> JVM_LOCKS = new ConcurrentHashMap<>();
+
+	private final Path file;
+	private final TimeSource timeSource;
+
+	/**
+	 * @param file
+	 *            the file to store allowances in, created if need be
+	 * @param timeSource
+	 *            source of wall-clock time
+	 */
+	public FileSharedAllowanceStore(Path file, TimeSource timeSource) {
+		Validate.notNull(file, "File cannot be null");
+		Validate.notNull(timeSource, "Time source cannot be null");
+		this.file = file.toAbsolutePath();
+		this.timeSource = timeSource;
+	}
+
+	/**
+	 * @throws UncheckedIOException
+	 *             if the file can't be read or written
+	 */
+	@Override
+	public double lease(String identifier, ThrottleInterval interval, int limit, double units) {
+		long now = timeSource.now().getMillis();
+		return update(buckets -> {
+			LeaseBucket bucket = buckets.computeIfAbsent(InMemorySharedAllowanceStore.key(identifier, interval),
+					k -> LeaseBucket.full(limit, now));
+			bucket.refill(now, limit, interval);
+			return bucket.take(units);
+		});
+	}
+
+	/**
+	 * @throws UncheckedIOException
+	 *             if the file can't be read or written
+	 */
+	@Override
+	public void giveBack(String identifier, ThrottleInterval interval, int limit, double units) {
+		update(buckets -> {
+			LeaseBucket bucket = buckets.get(InMemorySharedAllowanceStore.key(identifier, interval));
+			if (bucket != null) {
+				bucket.giveBack(units, limit);
+			}
+			return units;
+		});
+	}
+
+	private double update(Function<Map<String, LeaseBucket>, Double> action) {
+		synchronized (JVM_LOCKS.computeIfAbsent(file, f -> new Object())) {
+			try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+					StandardOpenOption.WRITE); FileLock lock = channel.lock()) {
+				Map<String, LeaseBucket> buckets = read(channel);
+				double result = action.apply(buckets);
+				write(channel, buckets);
+				return result;
+			} catch (IOException e) {
+				throw new UncheckedIOException("Could not update allowances in " + file, e);
+			}
+		}
+	}
+
+	private Map<String, LeaseBucket> read(FileChannel channel) throws IOException {
+		Map<String, LeaseBucket> buckets = new HashMap<>();
+		if (channel.size() == 0) {
+			return buckets;
+		}
+		channel.position(0);
+		DataInputStream in = new DataInputStream(Channels.newInputStream(channel));
+		int count = in.readInt();
+		for (int i = 0; i < count; i++) {
+			String key = in.readUTF();
+			buckets.put(key, new LeaseBucket(in.readDouble(), in.readLong()));
+		}
+		return buckets;
+	}
+
+	private void write(FileChannel channel, Map<String, LeaseBucket> buckets) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(buckets.size());
+		for (Map.Entry<String, LeaseBucket> entry : buckets.entrySet()) {
+			out.writeUTF(entry.getKey());
+			out.writeDouble(entry.getValue().tokens);
+			out.writeLong(entry.getValue().lastMillis);
+		}
+		out.flush();
+		channel.truncate(0);
+		channel.write(ByteBuffer.wrap(bytes.toByteArray()), 0);
+	}
+
+}
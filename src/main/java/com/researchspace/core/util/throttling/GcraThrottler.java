@@ -0,0 +1,152 @@
+package com.researchspace.core.util.throttling;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.researchspace.core.util.TimeSource;
+
+/**
+ * {@link Throttler} using the Generic Cell Rate Algorithm.
+ * <p>
+ * For each interval, a client's state is a single <code>long</code>: the
+ * theoretical arrival time (TAT) at which its allowance would be full again.
+ * Each unit requested moves the TAT forward by <code>interval / limit</code>;
+ * a request is denied if that would put the TAT more than one interval ahead
+ * of now. This allows the same bursts and long-term rate as a token bucket
+ * with <code>limit</code> tokens, but with integer arithmetic and one
+ * <code>long</code> per interval per client. State is updated by
+ * compare-and-set, and a request is allowed for all intervals or none.
+ */
+public class GcraThrottler extends AbstractRateThrottler {
+
+	/** Marks arrival times being removed by {@link #evictIdle()} */
+	private static final long RETIRED = Long.MIN_VALUE;
+
+	private final ConcurrentHashMap<String, AtomicLongArray> arrivalTimes = new ConcurrentHashMap<>();
+	private final long[] periodNanos;
+	private final double[] nanosPerUnit;
+
+	/**
+	 * @see AbstractRateThrottler#AbstractRateThrottler(String, TimeSource,
+	 *      ThrottleDefinitionSet)
+	 */
+	public GcraThrottler(String name, TimeSource timeSource, ThrottleDefinitionSet throttleLimitDefinitions) {
+		super(name, timeSource, throttleLimitDefinitions);
+		ThrottleLimits limits = getLimits();
+		periodNanos = new long[limits.size()];
+		nanosPerUnit = new double[limits.size()];
+		for (int i = 0; i < limits.size(); i++) {
+			periodNanos[i] = TimeUnit.MILLISECONDS.toNanos(limits.periodMillis[i]);
+			nanosPerUnit[i] = (double) periodNanos[i] / limits.limits[i];
+		}
+	}
+
+	@Override
+	ThrottleDecision tryAcquire(String identifier, double units, long nowNanos, ThrottleLimits limits) {
+		while (true) {
+			AtomicLongArray tats = arrivalTimes.computeIfAbsent(identifier, id -> new AtomicLongArray(limits.size()));
+			ThrottleDecision decision = tryAcquire(tats, units, nowNanos, limits);
+			if (decision != null) {
+				return decision;
+			}
+			// being evicted: wait until removed from the map, or restored
+			Thread.yield();
+		}
+	}
+
+	/**
+	 * @return the decision, or <code>null</code> if the arrival times were
+	 *         retired by {@link #evictIdle()}
+	 */
+	private ThrottleDecision tryAcquire(AtomicLongArray tats, double units, long nowNanos, ThrottleLimits limits) {
+		for (int i = 0; i < limits.size(); i++) {
+			long increment = (long) (units * nanosPerUnit[i]);
+			while (true) {
+				long stored = tats.get(i);
+				if (stored == RETIRED) {
+					giveBack(tats, units, i);
+					return null;
+				}
+				long tat = Math.max(stored, nowNanos);
+				long newTat = tat + increment;
+				if (newTat - nowNanos > periodNanos[i]) {
+					giveBack(tats, units, i);
+					long retryAfter = increment > periodNanos[i] ? ThrottleDecision.NEVER
+							: TimeUnit.NANOSECONDS.toMillis(newTat - nowNanos - periodNanos[i] + 999_999);
+					return ThrottleDecision.denied(limits.intervals[i], remainingUnits(tat, nowNanos, i), retryAfter);
+				}
+				if (tats.compareAndSet(i, stored, newTat)) {
+					break;
+				}
+			}
+		}
+		int limiting = 0;
+		double remaining = Double.MAX_VALUE;
+		for (int i = 0; i < limits.size(); i++) {
+			double left = remainingUnits(tats.get(i), nowNanos, i);
+			if (left < remaining) {
+				remaining = left;
+				limiting = i;
+			}
+		}
+		return ThrottleDecision.allowed(limits.intervals[limiting], remaining);
+	}
+
+	/** Moves back the arrival times taken for intervals before <code>end</code> */
+	private void giveBack(AtomicLongArray tats, double units, int end) {
+		for (int j = 0; j < end; j++) {
+			long increment = (long) (units * nanosPerUnit[j]);
+			long stored;
+			do {
+				stored = tats.get(j);
+			} while (stored != RETIRED && !tats.compareAndSet(j, stored, stored - increment));
+		}
+	}
+
+	private double remainingUnits(long tat, long nowNanos, int i) {
+		long used = Math.max(0, tat - nowNanos);
+		return Math.max(0, (periodNanos[i] - used) / nanosPerUnit[i]);
+	}
+
+	/**
+	 * Removes clients whose allowance is full in every interval. Each
+	 * client's arrival times are first retired by compare-and-set, so a
+	 * request racing with eviction either moves an arrival time forward first,
+	 * keeping the client, or waits and uses new arrival times.
+	 */
+	@Override
+	public int evictIdle() {
+		long now = nowNanos();
+		int evicted = 0;
+		for (Map.Entry<String, AtomicLongArray> entry : arrivalTimes.entrySet()) {
+			AtomicLongArray tats = entry.getValue();
+			if (retireIfIdle(tats, now) && arrivalTimes.remove(entry.getKey(), tats)) {
+				evicted++;
+			}
+		}
+		return evicted;
+	}
+
+	private boolean retireIfIdle(AtomicLongArray tats, long now) {
+		long[] retired = new long[tats.length()];
+		for (int i = 0; i < tats.length(); i++) {
+			retired[i] = tats.get(i);
+			if (retired[i] > now || retired[i] == RETIRED) {
+				return false;
+			}
+		}
+		for (int i = 0; i < tats.length(); i++) {
+			if (!tats.compareAndSet(i, retired[i], RETIRED)) {
+				// a request arrived: no one else updates retired values
+				for (int j = 0; j < i; j++) {
+					tats.set(j, retired[j]);
+				}
+				return false;
+			}
+		}
+		return true;
+	}
+
+}
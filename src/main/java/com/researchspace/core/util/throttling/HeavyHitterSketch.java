@@ -0,0 +1,84 @@
+package com.researchspace.core.util.throttling;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Space-saving sketch of the most frequent client ids, using a fixed number
+ * of counters.
+ * <p>
+ * Ids are spread over {@link #STRIPES} stripes by hash, each with its own
+ * lock and <code>capacity</code> counters, so threads recording different
+ * ids rarely wait for each other and no record is dropped. Within a stripe,
+ * an id that is not tracked replaces the tracked id with the lowest count,
+ * inheriting that count as its possible overestimate; an id occurring more
+ * than <code>n / capacity</code> times, where <code>n</code> is the number
+ * of ids recorded in its stripe, is tracked. {@link #top()} reports the
+ * <code>capacity</code> highest counts of all stripes.
+ */
+final class HeavyHitterSketch {
+
+	static final int STRIPES = 8;
+
+	private static final class Counter {
+		long count;
+		long error;
+	}
+
+	private final int capacity;
+	// guarded by the stripe's map
+	private final List<Map<String, Counter>> stripes = new ArrayList<>(STRIPES);
+
+	HeavyHitterSketch(int capacity) {
+		this.capacity = capacity;
+		for (int i = 0; i < STRIPES; i++) {
+			stripes.add(new HashMap<>(capacity * 2));
+		}
+	}
+
+	void record(String id) {
+		int h = id.hashCode();
+		Map<String, Counter> counters = stripes.get((h ^ (h >>> 16)) & (STRIPES - 1));
+		synchronized (counters) {
+			Counter counter = counters.get(id);
+			if (counter == null) {
+				counter = counters.size() < capacity ? new Counter() : evictMin(counters);
+				counters.put(id, counter);
+			}
+			counter.count++;
+		}
+	}
+
+	private static Counter evictMin(Map<String, Counter> counters) {
+		Map.Entry<String, Counter> min = null;
+		for (Map.Entry<String, Counter> entry : counters.entrySet()) {
+			if (min == null || entry.getValue().count < min.getValue().count) {
+				min = entry;
+			}
+		}
+		counters.remove(min.getKey());
+		Counter reused = min.getValue();
+		reused.error = reused.count;
+		return reused;
+	}
+
+	/**
+	 * @return up to <code>capacity</code> tracked ids, most frequent first
+	 */
+	List<ThrottleStats.HeavyHitter> top() {
+		List<ThrottleStats.HeavyHitter> rc = new ArrayList<>(capacity * STRIPES);
+		for (Map<String, Counter> counters : stripes) {
+			synchronized (counters) {
+				for (Map.Entry<String, Counter> entry : counters.entrySet()) {
+					rc.add(new ThrottleStats.HeavyHitter(entry.getKey(), entry.getValue().count,
+							entry.getValue().error));
+				}
+			}
+		}
+		rc.sort((a, b) -> Long.compare(b.getCount(), a.getCount()));
+		return rc.size() > capacity ? new ArrayList<>(rc.subList(0, capacity)) : rc;
+	}
+
+}
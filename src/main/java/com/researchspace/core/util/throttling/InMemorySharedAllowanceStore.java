@@ -0,0 +1,48 @@
+package com.researchspace.core.util.throttling;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.lang.Validate;
+
+import com.researchspace.core.util.TimeSource;
+
+/**
+ * {@link SharedAllowanceStore} held in memory, for sharing allowances
+ * between throttlers in one process, and as a stand-in for a shared store in
+ * tests.
+ */
+public class InMemorySharedAllowanceStore implements SharedAllowanceStore {
+
+	private final ConcurrentHashMap<String, LeaseBucket> buckets = new ConcurrentHashMap<>();
+	private final TimeSource timeSource;
+
+	public InMemorySharedAllowanceStore(TimeSource timeSource) {
+		Validate.notNull(timeSource, "Time source cannot be null");
+		this.timeSource = timeSource;
+	}
+
+	@Override
+	public double lease(String identifier, ThrottleInterval interval, int limit, double units) {
+		long now = timeSource.now().getMillis();
+		LeaseBucket bucket = buckets.computeIfAbsent(key(identifier, interval), k -> LeaseBucket.full(limit, now));
+		synchronized (bucket) {
+			bucket.refill(now, limit, interval);
+			return bucket.take(units);
+		}
+	}
+
+	@Override
+	public void giveBack(String identifier, ThrottleInterval interval, int limit, double units) {
+		LeaseBucket bucket = buckets.get(key(identifier, interval));
+		if (bucket != null) {
+			synchronized (bucket) {
+				bucket.giveBack(units, limit);
+			}
+		}
+	}
+
+	static String key(String identifier, ThrottleInterval interval) {
+		return interval.name() + ':' + identifier;
+	}
+
+}
@@ -0,0 +1,39 @@
+package com.researchspace.core.util.throttling;
+
+/**
+ * Mutable token bucket held by a {@link SharedAllowanceStore}. Not
+ * thread-safe.
+ */
+final class LeaseBucket {
+
+	double tokens;
+	long lastMillis;
+
+	LeaseBucket(double tokens, long lastMillis) {
+		this.tokens = tokens;
+		this.lastMillis = lastMillis;
+	}
+
+	static LeaseBucket full(int limit, long nowMillis) {
+		return new LeaseBucket(limit, nowMillis);
+	}
+
+	void refill(long nowMillis, int limit, ThrottleInterval interval) {
+		long elapsed = nowMillis - lastMillis;
+		if (elapsed > 0) {
+			tokens = Math.min(limit, tokens + elapsed * (double) limit / (interval.getSeconds() * 1000));
+			lastMillis = nowMillis;
+		}
+	}
+
+	double take(double units) {
+		double granted = Math.max(0, Math.min(units, tokens));
+		tokens -= granted;
+		return granted;
+	}
+
+	void giveBack(double units, int limit) {
+		tokens = Math.min(limit, tokens + units);
+	}
+
+}
@@ -0,0 +1,403 @@
+package com.researchspace.core.util.throttling;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.apache.commons.lang.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.researchspace.core.util.DefaultTimeSource;
+import com.researchspace.core.util.TimeSource;
+
+/**
+ * {@link Throttler} that enforces limits across several nodes by leasing
+ * allowance from a {@link SharedAllowanceStore}.
+ * <p>
+ * Each node leases a chunk of each client's allowance (by default a tenth of
+ * the limit) and decides requests against its local balance with
+ * compare-and-set, so most decisions take microseconds and don't call the
+ * store. When a balance falls below half a chunk, the next chunk is leased
+ * on the lease executor; only a client with no local balance waits for the
+ * store. When the store grants too little, the client is denied locally
+ * until the store has had time to refill, or until the next reconcile, so a
+ * throttled client doesn't call the store on every request. As with
+ * {@link AtomicTokenBucketThrottler}, a request is allowed for all intervals
+ * or none.
+ * <p>
+ * Leased units are spent or returned by {@link #reconcile()}, which returns
+ * the balances of clients that have made no requests since the previous
+ * reconcile. Units granted to a lease after it was returned, e.g. by a lease
+ * ahead still in progress, go back to the store. The global limit is
+ * exceeded by at most the units leased by each node but not yet spent;
+ * smaller chunks are more accurate but call the store more often.
+ * <p>
+ * Decisions made by this node are counted, see {@link #getStats()}. No
+ * utilisation is recorded, since a node only knows the units it has leased,
+ * not how much of a client's shared allowance is left.
+ */
+public class LeasingThrottler implements Throttler, ThrottleStatsProvider {
+
+	private static final Logger log = LoggerFactory.getLogger(LeasingThrottler.class);
+
+	private static final int ALLOWED = -1;
+	private static final double MICROS_PER_UNIT = 1_000_000;
+	private static final int SLOT_COUNT = ThrottleInterval.values().length;
+
+	/** Locally leased units of one client, in micro-units per interval */
+	static final class Lease {
+		final AtomicLongArray balances = new AtomicLongArray(SLOT_COUNT);
+		final AtomicIntegerArray leasing = new AtomicIntegerArray(SLOT_COUNT);
+		/** When the store may next grant units, if it last granted too few */
+		final AtomicLongArray deniedUntilNanos = new AtomicLongArray(SLOT_COUNT);
+		volatile boolean used = true;
+		/** Set once removed by reconcile; later grants go back to the store */
+		volatile boolean retired;
+	}
+
+	private final String name;
+	private final SharedAllowanceStore store;
+	private final Executor leaseExecutor;
+	private final TimeSource timeSource;
+	private final long originNanos;
+	private final ThrottleInterval[] intervals;
+	private final int[] limits;
+	private final long[] chunks;
+	private final long[] periodNanos;
+	private final String units;
+	private final ConcurrentHashMap<String, Lease> leases = new ConcurrentHashMap<>();
+	private final ThrottleStatsRecorder stats = new ThrottleStatsRecorder();
+
+	/**
+	 * Creates a throttler that leases a tenth of each limit at a time.
+	 *
+	 * @param name
+	 *            name of this throttler
+	 * @param throttleLimitDefinitions
+	 *            limits to apply across all nodes
+	 * @param store
+	 *            store shared by all nodes
+	 * @param leaseExecutor
+	 *            executor to lease the next chunk on
+	 * @throws IllegalArgumentException
+	 *             if any argument is null or
+	 *             <code>throttleLimitDefinitions</code> is empty
+	 */
+	public LeasingThrottler(String name, ThrottleDefinitionSet throttleLimitDefinitions, SharedAllowanceStore store,
+			Executor leaseExecutor) {
+		this(name, throttleLimitDefinitions, store, leaseExecutor, 0.1);
+	}
+
+	/**
+	 * @param leaseFraction
+	 *            the fraction of each limit to lease at a time, &gt; 0 and
+	 *            &le; 1
+	 * @see #LeasingThrottler(String, ThrottleDefinitionSet,
+	 *      SharedAllowanceStore, Executor)
+	 */
+	public LeasingThrottler(String name, ThrottleDefinitionSet throttleLimitDefinitions, SharedAllowanceStore store,
+			Executor leaseExecutor, double leaseFraction) {
+		this(name, new DefaultTimeSource(), throttleLimitDefinitions, store, leaseExecutor, leaseFraction);
+	}
+
+	/**
+	 * @param timeSource
+	 *            source of monotonic time readings, used to tell when the
+	 *            store may have refilled
+	 * @see #LeasingThrottler(String, ThrottleDefinitionSet,
+	 *      SharedAllowanceStore, Executor, double)
+	 */
+	public LeasingThrottler(String name, TimeSource timeSource, ThrottleDefinitionSet throttleLimitDefinitions,
+			SharedAllowanceStore store, Executor leaseExecutor, double leaseFraction) {
+		Validate.notNull(name, "Name cannot be null");
+		Validate.notNull(timeSource, "Time source cannot be null");
+		Validate.notNull(throttleLimitDefinitions, "ThrottleDefinitionSet cannot be null");
+		Validate.notNull(store, "Store cannot be null");
+		Validate.notNull(leaseExecutor, "Lease executor cannot be null");
+		Validate.isTrue(throttleLimitDefinitions.getDefinitionCount() > 0,
+				"ThrottleDefinitionSet must have >= 1 throttle definition set provided");
+		Validate.isTrue(leaseFraction > 0 && leaseFraction <= 1,
+				"Lease fraction must be > 0 and <= 1 but was ", leaseFraction);
+		this.name = name;
+		this.store = store;
+		this.leaseExecutor = leaseExecutor;
+		this.timeSource = timeSource;
+		this.originNanos = timeSource.nanoTime();
+		ThrottleLimits throttleLimits = new ThrottleLimits(throttleLimitDefinitions);
+		intervals = throttleLimits.intervals;
+		limits = throttleLimits.limits;
+		units = throttleLimits.units;
+		chunks = new long[intervals.length];
+		periodNanos = new long[intervals.length];
+		for (int i = 0; i < intervals.length; i++) {
+			periodNanos[i] = TimeUnit.SECONDS.toNanos(intervals[i].getSeconds());
+			chunks[i] = toMicros(Math.max(1, Math.round(limits[i] * leaseFraction)));
+		}
+	}
+
+	@Override
+	public boolean proceed(String identifier, Double requestedResourceUnits) {
+		Validate.notNull(requestedResourceUnits, "Requested units cannot be null");
+		return proceed(identifier, requestedResourceUnits.doubleValue());
+	}
+
+	@Override
+	public boolean proceed(String identifier) {
+		return proceed(identifier, 1.0);
+	}
+
+	private boolean proceed(String identifier, double units) {
+		int denied = acquire(identifier, units);
+		if (denied == ALLOWED) {
+			return true;
+		}
+		log.debug("Request for {} {} by {} denied by {} limit", units, this.units, identifier, intervals[denied]);
+		return onDenied(identifier, intervals[denied], limits[denied]);
+	}
+
+	/**
+	 * Decides a request without throwing. The remaining units are those
+	 * leased by this node; a denied decision's retry-after time is how long
+	 * the shared allowance takes to refill by the requested units.
+	 */
+	@Override
+	public ThrottleDecision decide(String identifier, double requestedResourceUnits) {
+		int denied = acquire(identifier, requestedResourceUnits);
+		if (denied != ALLOWED) {
+			long retryAfter = ThrottleDecision.NEVER;
+			if (requestedResourceUnits <= limits[denied]) {
+				retryAfter = (long) Math.ceil(requestedResourceUnits
+						* TimeUnit.SECONDS.toMillis(intervals[denied].getSeconds()) / limits[denied]);
+			}
+			return ThrottleDecision.denied(intervals[denied], getLeasedUnits(identifier, intervals[denied]),
+					retryAfter);
+		}
+		int limiting = 0;
+		for (int i = 1; i < intervals.length; i++) {
+			if (getLeasedUnits(identifier, intervals[i]) < getLeasedUnits(identifier, intervals[limiting])) {
+				limiting = i;
+			}
+		}
+		return ThrottleDecision.allowed(intervals[limiting], getLeasedUnits(identifier, intervals[limiting]));
+	}
+
+	/**
+	 * @return {@link #ALLOWED}, or the index of the interval that denied the
+	 *         request
+	 */
+	private int acquire(String identifier, double units) {
+		Validate.notEmpty(identifier, "Id cannot be empty");
+		Validate.isTrue(units >= 0, "Requested units must be >= 0");
+		Lease lease;
+		do {
+			lease = leases.computeIfAbsent(identifier, id -> new Lease());
+			lease.used = true;
+		} while (lease.retired);
+		long cost = toMicros(units);
+		for (int i = 0; i < intervals.length; i++) {
+			if (!tryTake(identifier, lease, i, cost)) {
+				for (int j = 0; j < i; j++) {
+					credit(identifier, lease, j, cost);
+				}
+				stats.recordDenied(intervals[i], identifier);
+				return i;
+			}
+		}
+		for (int i = 0; i < intervals.length; i++) {
+			stats.recordAllowed(intervals[i]);
+			if (lease.balances.get(intervals[i].ordinal()) < chunks[i] / 2) {
+				leaseAhead(identifier, lease, i);
+			}
+		}
+		return ALLOWED;
+	}
+
+	private boolean tryTake(String identifier, Lease lease, int i, long cost) {
+		int slot = intervals[i].ordinal();
+		if (take(lease, slot, cost)) {
+			return true;
+		}
+		long now = nowNanos();
+		if (now < lease.deniedUntilNanos.get(slot)) {
+			return false;
+		}
+		// no local balance: wait for the store
+		long wanted = Math.max(cost, chunks[i]);
+		credit(identifier, lease, i, toMicros(store.lease(identifier, intervals[i], limits[i], toUnits(wanted))));
+		if (take(lease, slot, cost)) {
+			return true;
+		}
+		// the store is empty, so it can't grant the shortfall until it refills
+		long shortfall = Math.max(0, cost - lease.balances.get(slot));
+		long refillNanos = (long) Math.ceil((double) shortfall * periodNanos[i] / toMicros(limits[i]));
+		lease.deniedUntilNanos.set(slot, now + refillNanos);
+		return false;
+	}
+
+	/**
+	 * Adds units to a lease. If the lease was returned meanwhile, whatever
+	 * reconcile didn't return is given back to the store: either reconcile
+	 * sees the added units, or this sees the lease is retired.
+	 */
+	private void credit(String identifier, Lease lease, int i, long micros) {
+		if (micros <= 0) {
+			return;
+		}
+		lease.balances.addAndGet(intervals[i].ordinal(), micros);
+		if (lease.retired) {
+			giveBack(identifier, lease, i);
+		}
+	}
+
+	private void giveBack(String identifier, Lease lease, int i) {
+		long balance = lease.balances.getAndSet(intervals[i].ordinal(), 0);
+		if (balance > 0) {
+			store.giveBack(identifier, intervals[i], limits[i], toUnits(balance));
+		}
+	}
+
+	private boolean take(Lease lease, int slot, long cost) {
+		while (true) {
+			long balance = lease.balances.get(slot);
+			if (balance < cost) {
+				return false;
+			}
+			if (lease.balances.compareAndSet(slot, balance, balance - cost)) {
+				return true;
+			}
+		}
+	}
+
+	private void leaseAhead(String identifier, Lease lease, int i) {
+		int slot = intervals[i].ordinal();
+		if (!lease.leasing.compareAndSet(slot, 0, 1)) {
+			return;
+		}
+		try {
+			leaseExecutor.execute(() -> {
+				try {
+					double granted = store.lease(identifier, intervals[i], limits[i], toUnits(chunks[i]));
+					credit(identifier, lease, i, toMicros(granted));
+				} catch (RuntimeException e) {
+					log.warn("Leasing allowance for {} failed: {}", identifier, e.getMessage());
+				} finally {
+					lease.leasing.set(slot, 0);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			log.warn("Lease for {} rejected by executor: {}", identifier, e.getMessage());
+			lease.leasing.set(slot, 0);
+		}
+	}
+
+	/**
+	 * Called when a request is denied. Subclasses may override.
+	 * <h5>Implementation</h5> Default implementation throws a
+	 * {@link TooManyRequestsException}.
+	 *
+	 * @param identifier
+	 *            the client whose request was denied
+	 * @param interval
+	 *            the first interval whose limit would have been exceeded
+	 * @param limit
+	 *            the limit for <code>interval</code>
+	 * @return the value for {@link #proceed(String, Double)} to return
+	 */
+	protected boolean onDenied(String identifier, ThrottleInterval interval, int limit) {
+		throw new TooManyRequestsException(String.format("Limit of %d %s per %s exceeded for %s", limit, units,
+				interval.name().toLowerCase(), name));
+	}
+
+	/**
+	 * Returns the leased units of clients that have made no requests since
+	 * the previous reconcile, and forgets them. Other clients that were
+	 * denied by the store may call it again.
+	 *
+	 * @return the number of clients whose leases were returned
+	 */
+	public int reconcile() {
+		int returned = 0;
+		for (Map.Entry<String, Lease> entry : leases.entrySet()) {
+			Lease lease = entry.getValue();
+			if (lease.used) {
+				lease.used = false;
+				for (int i = 0; i < intervals.length; i++) {
+					lease.deniedUntilNanos.set(intervals[i].ordinal(), 0);
+				}
+				continue;
+			}
+			if (!leases.remove(entry.getKey(), lease)) {
+				continue;
+			}
+			lease.retired = true;
+			returned++;
+			for (int i = 0; i < intervals.length; i++) {
+				giveBack(entry.getKey(), lease, i);
+			}
+		}
+		return returned;
+	}
+
+	/**
+	 * Calls {@link #reconcile()} periodically. Failures are logged and don't
+	 * stop later reconciles.
+	 *
+	 * @param scheduler
+	 * @param periodMillis
+	 *            &gt; 0
+	 * @return the scheduled task, which can be cancelled
+	 */
+	public ScheduledFuture<?> scheduleReconcile(ScheduledExecutorService scheduler, long periodMillis) {
+		Validate.notNull(scheduler, "Scheduler cannot be null");
+		Validate.isTrue(periodMillis > 0, "Period must be > 0 but was ", periodMillis);
+		return scheduler.scheduleAtFixedRate(() -> {
+			try {
+				reconcile();
+			} catch (RuntimeException e) {
+				log.warn("Reconciling leases of {} failed: {}", name, e.getMessage());
+			}
+		}, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Gets the units leased locally for a client and not yet spent.
+	 *
+	 * @param identifier
+	 * @param interval
+	 * @return
+	 */
+	public double getLeasedUnits(String identifier, ThrottleInterval interval) {
+		Lease lease = leases.get(identifier);
+		return lease == null ? 0 : toUnits(lease.balances.get(interval.ordinal()));
+	}
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public ThrottleStats getStats() {
+		return stats.snapshot();
+	}
+
+	private long nowNanos() {
+		return timeSource.nanoTime() - originNanos;
+	}
+
+	private static long toMicros(double units) {
+		return Math.round(units * MICROS_PER_UNIT);
+	}
+
+	private static double toUnits(long micros) {
+		return micros / MICROS_PER_UNIT;
+	}
+
+}
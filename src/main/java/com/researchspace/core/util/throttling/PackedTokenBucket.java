@@ -0,0 +1,123 @@
+package com.researchspace.core.util.throttling;
+
+/**
+ * Arithmetic for a token bucket packed into a single <code>long</code>, so it
+ * can be updated with one compare-and-set.
+ * <p>
+ * The high bits hold the time, in millis since some origin, at which the
+ * bucket was last updated. The low {@link #DEFICIT_BITS} bits hold the
+ * bucket's <em>deficit</em>: how much of its capacity has been used. Each
+ * unit of a limit costs a whole number of deficit ticks, so the capacity
+ * for a limit, see {@link #capacity(int)}, is the largest multiple of the
+ * limit up to {@link #MAX_CAPACITY}, and exactly <code>limit</code> units fit
+ * in a full bucket. Limits up to {@link #MAX_LIMIT} can be represented. A
+ * deficit of 0 is a full bucket; as a freshly zeroed slot represents a full
+ * bucket, no initialisation is needed. The time field holds about 17 years of
+ * millis.
+ */
+final class PackedTokenBucket {
+
+	static final int DEFICIT_BITS = 25;
+	/** Upper bound on the deficit of an empty bucket */
+	static final long MAX_CAPACITY = 1L << (DEFICIT_BITS - 1);
+	/** The largest limit that can be represented, with one tick per unit */
+	static final int MAX_LIMIT = (int) MAX_CAPACITY;
+	private static final long DEFICIT_MASK = (1L << DEFICIT_BITS) - 1;
+
+	private PackedTokenBucket() {
+	}
+
+	static long pack(long timeMillis, long deficit) {
+		return (timeMillis << DEFICIT_BITS) | deficit;
+	}
+
+	/**
+	 * Gets the deficit of an empty bucket for <code>limit</code>.
+	 */
+	static long capacity(int limit) {
+		return ticksPerUnit(limit) * limit;
+	}
+
+	private static long ticksPerUnit(int limit) {
+		return MAX_CAPACITY / limit;
+	}
+
+	static long timeMillis(long bucket) {
+		return bucket >>> DEFICIT_BITS;
+	}
+
+	static long deficit(long bucket) {
+		return bucket & DEFICIT_MASK;
+	}
+
+	/**
+	 * Refills <code>bucket</code> for the time elapsed until
+	 * <code>nowMillis</code>. Only the time that has been credited as refill
+	 * is consumed, so frequent updates of a bucket with a long period don't
+	 * lose refill to rounding.
+	 *
+	 * @return the refilled bucket
+	 */
+	static long refill(long bucket, long nowMillis, long periodMillis, long capacity) {
+		long lastMillis = timeMillis(bucket);
+		long elapsed = nowMillis - lastMillis;
+		if (elapsed <= 0) {
+			return bucket;
+		}
+		long deficit = deficit(bucket);
+		long refill = elapsed >= periodMillis ? capacity : elapsed * capacity / periodMillis;
+		if (refill >= deficit) {
+			return pack(nowMillis, 0);
+		}
+		return pack(lastMillis + refill * periodMillis / capacity, deficit - refill);
+	}
+
+	static long withDeficit(long bucket, long deficit) {
+		return pack(timeMillis(bucket), deficit);
+	}
+
+	/**
+	 * Converts resource units to a deficit. Whole units are exact; fractions
+	 * of a tick are rounded up, so a limit is never exceeded.
+	 */
+	static long cost(double units, int limit) {
+		if (units <= 0) {
+			return 0;
+		}
+		return (long) Math.min(capacity(limit) + 1, Math.ceil(units * ticksPerUnit(limit)));
+	}
+
+	/**
+	 * Converts a deficit to resource units.
+	 */
+	static double units(long deficit, int limit) {
+		return (double) deficit / ticksPerUnit(limit);
+	}
+
+	/**
+	 * Converts a deficit for one limit to the same fraction of the capacity
+	 * for another.
+	 */
+	static long rescale(long deficit, int fromLimit, int toLimit) {
+		return Math.round((double) deficit * capacity(toLimit) / capacity(fromLimit));
+	}
+
+	/**
+	 * Gets the time until a bucket with <code>deficit</code> has refilled
+	 * enough to take <code>cost</code>.
+	 *
+	 * @return the wait in millis, or -1 if <code>cost</code> exceeds a full
+	 *         bucket
+	 */
+	static long millisUntilAvailable(long deficit, long cost, long periodMillis, long capacity) {
+		if (cost > capacity) {
+			return -1;
+		}
+		long shortfall = deficit + cost - capacity;
+		if (shortfall <= 0) {
+			return 0;
+		}
+		return (shortfall * periodMillis + capacity - 1) / capacity;
+	}
+
+}
@@ -0,0 +1,282 @@
+package com.researchspace.core.util.throttling;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.commons.lang.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link Throttler} that lets callers wait for allowance rather than be
+ * denied, e.g. for background exports or imports that should run at exactly
+ * the configured rate.
+ * <p>
+ * Requests made with {@link #acquire(String, double, long, TimeUnit)} or
+ * {@link #acquireAsync(String, double)} join a first-in, first-out queue per
+ * client. The request at the head of a queue is checked with
+ * {@link Throttler#decide(String, double)} on the wrapped throttler; if
+ * denied, the queue is checked again after the decision's retry-after time,
+ * on the scheduler, so no thread polls or blocks while waiting for refill.
+ * If the wrapped throttler gives no retry-after time, the queue is checked
+ * every {@link #UNKNOWN_RETRY_MILLIS} millis.
+ * Checks again use {@link Throttler#recheck(String, double)}, so a waiting
+ * request is counted as denied at most once. One thread at a time checks a
+ * client's queue, without holding a lock while the wrapped throttler
+ * decides.
+ * <p>
+ * A request can be withdrawn, e.g. by timing out, after the wrapped throttler
+ * allowed it but before it completed. Its units are then offered to the
+ * requests queued behind it, which ask the wrapped throttler only for any
+ * shortfall. Units not taken before the queue empties or a request is denied
+ * are lost, as a {@link Throttler} can't be given units back.
+ * <p>
+ * {@link #proceed(String, Double)} and {@link #decide(String, double)} are
+ * passed to the wrapped throttler and don't wait for queued requests.
+ */
+public class QueueingThrottler implements Throttler {
+
+	private static final Logger log = LoggerFactory.getLogger(QueueingThrottler.class);
+
+	public static final long UNKNOWN_RETRY_MILLIS = 100;
+
+	private static final class Waiter {
+		final double units;
+		final CompletableFuture<Void> future = new CompletableFuture<>();
+		boolean checked;
+
+		Waiter(double units) {
+			this.units = units;
+		}
+	}
+
+	private static final class WaitQueue {
+		final ArrayDeque<Waiter> waiters = new ArrayDeque<>();
+		/** A thread is checking the queue, or a check is scheduled */
+		boolean checking;
+	}
+
+	private final Throttler delegate;
+	private final ScheduledExecutorService scheduler;
+	private final ConcurrentHashMap<String, WaitQueue> queues = new ConcurrentHashMap<>();
+
+	/**
+	 * @param delegate
+	 *            the throttler that decides requests
+	 * @param scheduler
+	 *            runs checks of waiting requests
+	 */
+	public QueueingThrottler(Throttler delegate, ScheduledExecutorService scheduler) {
+		Validate.notNull(delegate, "Delegate throttler cannot be null");
+		Validate.notNull(scheduler, "Scheduler cannot be null");
+		this.delegate = delegate;
+		this.scheduler = scheduler;
+	}
+
+	/**
+	 * Waits until a request is allowed, or the timeout elapses.
+	 *
+	 * @param identifier
+	 *            An identifier for the client making the request
+	 * @param requestedResourceUnits
+	 * @param timeout
+	 * @param unit
+	 * @return <code>true</code> if the request was allowed,
+	 *         <code>false</code> if the timeout elapsed first
+	 * @throws TooManyRequestsException
+	 *             if the request can never be allowed, as it exceeds a limit
+	 * @throws InterruptedException
+	 *             if interrupted while waiting; the request is withdrawn
+	 */
+	public boolean acquire(String identifier, double requestedResourceUnits, long timeout, TimeUnit unit)
+			throws InterruptedException {
+		CompletableFuture<Void> pending = acquireAsync(identifier, requestedResourceUnits);
+		try {
+			pending.get(timeout, unit);
+			return true;
+		} catch (TimeoutException e) {
+			if (pending.cancel(false)) {
+				return false;
+			}
+			// allowed or failed since timing out
+			return awaitCompleted(pending);
+		} catch (InterruptedException e) {
+			pending.cancel(false);
+			throw e;
+		} catch (ExecutionException e) {
+			throw rethrow(e);
+		}
+	}
+
+	private boolean awaitCompleted(CompletableFuture<Void> completed) {
+		try {
+			completed.get();
+			return true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for a completed request", e);
+		} catch (ExecutionException e) {
+			throw rethrow(e);
+		}
+	}
+
+	private RuntimeException rethrow(Exception e) {
+		if (e.getCause() instanceof RuntimeException) {
+			return (RuntimeException) e.getCause();
+		}
+		return new IllegalStateException(e.getCause());
+	}
+
+	/**
+	 * Queues a request, to complete when it is allowed.
+	 *
+	 * @param identifier
+	 *            An identifier for the client making the request
+	 * @param requestedResourceUnits
+	 * @return a future that completes when the request is allowed, or
+	 *         completes exceptionally with a {@link TooManyRequestsException}
+	 *         if it can never be allowed. Cancelling the future withdraws the
+	 *         request.
+	 */
+	public CompletableFuture<Void> acquireAsync(String identifier, double requestedResourceUnits) {
+		Validate.notEmpty(identifier, "Id cannot be empty");
+		Validate.isTrue(requestedResourceUnits >= 0, "Requested units must be >= 0");
+		Waiter waiter = new Waiter(requestedResourceUnits);
+		boolean[] startCheck = { false };
+		queues.compute(identifier, (id, curr) -> {
+			WaitQueue q = curr != null ? curr : new WaitQueue();
+			q.waiters.add(waiter);
+			if (!q.checking) {
+				q.checking = true;
+				startCheck[0] = true;
+			}
+			return q;
+		});
+		if (startCheck[0]) {
+			check(identifier);
+		}
+		return waiter.future;
+	}
+
+	/**
+	 * Allows waiting requests from the head of a client's queue until one is
+	 * denied, then schedules the next check. Must only be called by the
+	 * thread that set {@link WaitQueue#checking}, or by the scheduled check.
+	 */
+	private void check(String identifier) {
+		// units allowed for requests withdrawn before they completed
+		double credit = 0;
+		Waiter head;
+		while ((head = nextWaiter(identifier)) != null) {
+			double needed = Math.max(0, head.units - credit);
+			if (needed > 0) {
+				ThrottleDecision decision;
+				try {
+					decision = head.checked ? delegate.recheck(identifier, needed)
+							: delegate.decide(identifier, needed);
+				} catch (RuntimeException e) {
+					head.future.completeExceptionally(e);
+					continue;
+				}
+				head.checked = true;
+				if (!decision.isAllowed()) {
+					if (decision.getRetryAfterMillis() == ThrottleDecision.NEVER) {
+						head.future.completeExceptionally(new TooManyRequestsException(String.format(
+								"Request for %.2f units by %s exceeds a limit of %s", head.units, identifier,
+								getName())));
+						continue;
+					}
+					schedule(identifier, decision.getRetryAfterMillis() > 0 ? decision.getRetryAfterMillis()
+							: UNKNOWN_RETRY_MILLIS);
+					return;
+				}
+			}
+			credit -= head.units - needed;
+			if (!head.future.complete(null)) {
+				// withdrawn after being allowed
+				credit += head.units;
+			}
+		}
+	}
+
+	/**
+	 * Removes completed and cancelled requests from the head of a client's
+	 * queue.
+	 *
+	 * @return the request now at the head, or <code>null</code> if the queue
+	 *         is empty, in which case it is removed and no longer being
+	 *         checked
+	 */
+	private Waiter nextWaiter(String identifier) {
+		Waiter[] head = { null };
+		queues.computeIfPresent(identifier, (id, q) -> {
+			while (!q.waiters.isEmpty() && q.waiters.peek().future.isDone()) {
+				q.waiters.poll();
+			}
+			head[0] = q.waiters.peek();
+			return head[0] != null ? q : null;
+		});
+		return head[0];
+	}
+
+	private void schedule(String identifier, long delayMillis) {
+		try {
+			scheduler.schedule(() -> check(identifier), delayMillis, TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException e) {
+			log.warn("Check of waiting requests for {} rejected by scheduler: {}", identifier, e.getMessage());
+			WaitQueue queue = queues.remove(identifier);
+			if (queue != null) {
+				queue.waiters.forEach(waiter -> waiter.future.completeExceptionally(e));
+			}
+		}
+	}
+
+	/**
+	 * Gets the number of requests waiting for a client. Requests that have
+	 * been allowed, failed or withdrawn are not counted, even if not yet
+	 * removed from the queue.
+	 *
+	 * @param identifier
+	 * @return
+	 */
+	public int getWaitingCount(String identifier) {
+		int[] count = { 0 };
+		queues.computeIfPresent(identifier, (id, q) -> {
+			count[0] = (int) q.waiters.stream().filter(waiter -> !waiter.future.isDone()).count();
+			return q;
+		});
+		return count[0];
+	}
+
+	@Override
+	public boolean proceed(String identifier, Double requestedResourceUnits) {
+		return delegate.proceed(identifier, requestedResourceUnits);
+	}
+
+	@Override
+	public boolean proceed(String identifier) {
+		return delegate.proceed(identifier);
+	}
+
+	@Override
+	public ThrottleDecision decide(String identifier, double requestedResourceUnits) {
+		return delegate.decide(identifier, requestedResourceUnits);
+	}
+
+	@Override
+	public ThrottleDecision recheck(String identifier, double requestedResourceUnits) {
+		return delegate.recheck(identifier, requestedResourceUnits);
+	}
+
+	@Override
+	public String getName() {
+		return delegate.getName();
+	}
+
+}
@@ -0,0 +1,44 @@
+package com.researchspace.core.util.throttling;
+
+/**
+ * Store of per-client allowances shared by several application nodes, used
+ * by a {@link LeasingThrottler} so that limits apply across a cluster rather
+ * than per node.
+ * <p>
+ * The store holds a token bucket for each client and {@link ThrottleInterval}
+ * that refills at <code>limit</code> units per interval. Nodes lease units
+ * from it in chunks and spend them locally, so most throttling decisions
+ * don't need to call the store.
+ * <h5>Implementation</h5> Implementations must be safe to call concurrently,
+ * and all nodes must pass the same limits for the same interval.
+ */
+public interface SharedAllowanceStore {
+
+	/**
+	 * Takes up to <code>units</code> from a client's bucket.
+	 * 
+	 * @param identifier
+	 *            the client
+	 * @param interval
+	 * @param limit
+	 *            units allowed per interval
+	 * @param units
+	 *            units wanted, &gt; 0
+	 * @return the units granted, between 0 and <code>units</code>
+	 */
+	double lease(String identifier, ThrottleInterval interval, int limit, double units);
+
+	/**
+	 * Returns unspent leased units to a client's bucket.
+	 * 
+	 * @param identifier
+	 *            the client
+	 * @param interval
+	 * @param limit
+	 *            units allowed per interval
+	 * @param units
+	 *            units to return, &gt; 0
+	 */
+	void giveBack(String identifier, ThrottleInterval interval, int limit, double units);
+
+}
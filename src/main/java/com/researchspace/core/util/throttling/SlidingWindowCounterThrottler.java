@@ -0,0 +1,163 @@
+package com.researchspace.core.util.throttling;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import com.researchspace.core.util.TimeSource;
+
+/**
+ * {@link Throttler} that counts the units allowed in fixed windows of each
+ * interval, and estimates the units in the sliding interval ending now as
+ * the current window's count plus the previous window's count weighted by
+ * how much of it the sliding interval overlaps.
+ * <p>
+ * This needs constant space per client, and avoids the double-size bursts
+ * of fixed windows. The estimate assumes requests in the previous window
+ * were evenly spread, so it can be out in either direction when they were
+ * not; use {@link SlidingWindowLogThrottler} for an exact limit.
+ */
+public class SlidingWindowCounterThrottler extends AbstractRateThrottler {
+
+	/** Counts for one client, with three values per interval */
+	static final class WindowCounts {
+		final long[] windowStarts;
+		final double[] previous;
+		final double[] current;
+		/** Removed from the map, so requests must use new counts */
+		boolean evicted;
+
+		WindowCounts(int count) {
+			windowStarts = new long[count];
+			previous = new double[count];
+			current = new double[count];
+		}
+
+		void roll(int i, long nowNanos, long periodNanos) {
+			long windowStart = nowNanos - Math.floorMod(nowNanos, periodNanos);
+			long windowsPassed = (windowStart - windowStarts[i]) / periodNanos;
+			if (windowsPassed > 0) {
+				previous[i] = windowsPassed == 1 ? current[i] : 0;
+				current[i] = 0;
+				windowStarts[i] = windowStart;
+			}
+		}
+
+		double estimate(int i, long nowNanos, long periodNanos) {
+			double previousWeight = 1 - (double) (nowNanos - windowStarts[i]) / periodNanos;
+			return previous[i] * previousWeight + current[i];
+		}
+
+		boolean isEmpty() {
+			for (int i = 0; i < current.length; i++) {
+				if (previous[i] > 0 || current[i] > 0) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	private final ConcurrentHashMap<String, WindowCounts> counts = new ConcurrentHashMap<>();
+	private final long[] periodNanos;
+
+	/**
+	 * @see AbstractRateThrottler#AbstractRateThrottler(String, TimeSource,
+	 *      ThrottleDefinitionSet)
+	 */
+	public SlidingWindowCounterThrottler(String name, TimeSource timeSource,
+			ThrottleDefinitionSet throttleLimitDefinitions) {
+		super(name, timeSource, throttleLimitDefinitions);
+		ThrottleLimits limits = getLimits();
+		periodNanos = new long[limits.size()];
+		for (int i = 0; i < limits.size(); i++) {
+			periodNanos[i] = TimeUnit.MILLISECONDS.toNanos(limits.periodMillis[i]);
+		}
+	}
+
+	@Override
+	ThrottleDecision tryAcquire(String identifier, double units, long nowNanos, ThrottleLimits limits) {
+		while (true) {
+			WindowCounts client = counts.computeIfAbsent(identifier, id -> new WindowCounts(limits.size()));
+			synchronized (client) {
+				if (!client.evicted) {
+					return tryAcquire(client, units, nowNanos, limits);
+				}
+			}
+		}
+	}
+
+	private ThrottleDecision tryAcquire(WindowCounts client, double units, long nowNanos, ThrottleLimits limits) {
+		int limiting = 0;
+		double remaining = Double.MAX_VALUE;
+		for (int i = 0; i < limits.size(); i++) {
+			client.roll(i, nowNanos, periodNanos[i]);
+			double estimate = client.estimate(i, nowNanos, periodNanos[i]);
+			if (estimate + units > limits.limits[i]) {
+				return ThrottleDecision.denied(limits.intervals[i], Math.max(0, limits.limits[i] - estimate),
+						retryAfterMillis(client, i, units, limits.limits[i], nowNanos));
+			}
+			if (limits.limits[i] - estimate < remaining) {
+				remaining = limits.limits[i] - estimate;
+				limiting = i;
+			}
+		}
+		for (int i = 0; i < limits.size(); i++) {
+			client.current[i] += units;
+		}
+		return ThrottleDecision.allowed(limits.intervals[limiting], remaining - units);
+	}
+
+	/**
+	 * Estimates when the request could be allowed if no others are made,
+	 * from when the weighted previous count falls enough.
+	 */
+	private long retryAfterMillis(WindowCounts client, int i, double units, int limit, long nowNanos) {
+		if (units > limit) {
+			return ThrottleDecision.NEVER;
+		}
+		long period = periodNanos[i];
+		long nextWindow = client.windowStarts[i] + period;
+		double room = limit - units;
+		long waitNanos;
+		if (client.current[i] <= room && client.previous[i] > 0) {
+			// within this window, as the previous window's weight falls
+			double excess = client.estimate(i, nowNanos, period) - room;
+			waitNanos = (long) Math.ceil(excess * period / client.previous[i]);
+		} else if (client.current[i] > room) {
+			// in the next window, as this window's weight falls
+			waitNanos = nextWindow - nowNanos + (long) Math.ceil(period * (1 - room / client.current[i]));
+		} else {
+			waitNanos = 0;
+		}
+		return TimeUnit.NANOSECONDS.toMillis(waitNanos + 999_999);
+	}
+
+	/**
+	 * Removes clients with no units counted in any window. A client's counts
+	 * are marked as evicted under its lock, so a request that already holds
+	 * them uses new counts rather than ones no longer in the map.
+	 */
+	@Override
+	public int evictIdle() {
+		long now = nowNanos();
+		int evicted = 0;
+		for (Map.Entry<String, WindowCounts> entry : counts.entrySet()) {
+			WindowCounts client = entry.getValue();
+			synchronized (client) {
+				for (int i = 0; i < client.current.length; i++) {
+					client.roll(i, now, periodNanos[i]);
+				}
+				if (!client.isEmpty() || client.evicted) {
+					continue;
+				}
+				client.evicted = true;
+			}
+			if (counts.remove(entry.getKey(), client)) {
+				evicted++;
+			}
+		}
+		return evicted;
+	}
+
+}
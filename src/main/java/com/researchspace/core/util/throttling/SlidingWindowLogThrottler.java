@@ -0,0 +1,183 @@
+package com.researchspace.core.util.throttling;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import com.researchspace.core.util.TimeSource;
+
+/**
+ * {@link Throttler} that logs the time and size of each allowed request, and
+ * allows a request only if the units logged in the interval ending now, plus
+ * those requested, are within the limit.
+ * <p>
+ * This is exact, with no bursts at window boundaries, but holds an entry for
+ * every request allowed in the longest interval, so suits low limits. Each
+ * client has one log, with a running count of the units in each interval's
+ * window. See {@link SlidingWindowCounterThrottler} for an approximation in
+ * constant space.
+ */
+public class SlidingWindowLogThrottler extends AbstractRateThrottler {
+
+	/**
+	 * Ring buffer of the requests allowed for one client in the longest
+	 * interval, in time order, with the units in each interval's window.
+	 */
+	static final class RequestLog {
+		long[] times = new long[4];
+		double[] units = new double[4];
+		int head;
+		int size;
+		/** For each interval, the logged requests before its window starts */
+		final int[] expired;
+		/** For each interval, the units in its window */
+		final double[] totals;
+		/** Removed from the map, so requests must use a new log */
+		boolean evicted;
+
+		RequestLog(int intervals) {
+			expired = new int[intervals];
+			totals = new double[intervals];
+		}
+
+		private int index(int offset) {
+			return (head + offset) % times.length;
+		}
+
+		/**
+		 * Moves each interval's window to end now, and drops requests that
+		 * are outside all of them.
+		 */
+		void expire(long nowNanos, long[] periodNanos) {
+			int outsideAll = size;
+			for (int i = 0; i < periodNanos.length; i++) {
+				long windowStart = nowNanos - periodNanos[i];
+				while (expired[i] < size && times[index(expired[i])] <= windowStart) {
+					totals[i] -= units[index(expired[i])];
+					expired[i]++;
+				}
+				if (expired[i] == size) {
+					totals[i] = 0; // drop accumulated rounding
+				}
+				outsideAll = Math.min(outsideAll, expired[i]);
+			}
+			head = index(outsideAll);
+			size -= outsideAll;
+			for (int i = 0; i < expired.length; i++) {
+				expired[i] -= outsideAll;
+			}
+		}
+
+		void add(long time, double amount) {
+			if (size == times.length) {
+				long[] newTimes = new long[size * 2];
+				double[] newUnits = new double[size * 2];
+				for (int i = 0; i < size; i++) {
+					newTimes[i] = times[index(i)];
+					newUnits[i] = units[index(i)];
+				}
+				times = newTimes;
+				units = newUnits;
+				head = 0;
+			}
+			int tail = index(size);
+			times[tail] = time;
+			units[tail] = amount;
+			size++;
+			for (int i = 0; i < totals.length; i++) {
+				totals[i] += amount;
+			}
+		}
+
+		/**
+		 * @return the time at which enough requests will have left interval
+		 *         <code>i</code>'s window to leave room for
+		 *         <code>amount</code> more
+		 */
+		long timeWhenAvailable(int i, double amount, int limit, long periodNanos) {
+			double excess = totals[i] + amount - limit;
+			for (int offset = expired[i]; offset < size && excess > 0; offset++) {
+				excess -= units[index(offset)];
+				if (excess <= 0) {
+					return times[index(offset)] + periodNanos;
+				}
+			}
+			return times[index(size - 1)] + periodNanos;
+		}
+	}
+
+	private final ConcurrentHashMap<String, RequestLog> logs = new ConcurrentHashMap<>();
+	private final long[] periodNanos;
+
+	/**
+	 * @see AbstractRateThrottler#AbstractRateThrottler(String, TimeSource,
+	 *      ThrottleDefinitionSet)
+	 */
+	public SlidingWindowLogThrottler(String name, TimeSource timeSource,
+			ThrottleDefinitionSet throttleLimitDefinitions) {
+		super(name, timeSource, throttleLimitDefinitions);
+		ThrottleLimits limits = getLimits();
+		periodNanos = new long[limits.size()];
+		for (int i = 0; i < limits.size(); i++) {
+			periodNanos[i] = TimeUnit.MILLISECONDS.toNanos(limits.periodMillis[i]);
+		}
+	}
+
+	@Override
+	ThrottleDecision tryAcquire(String identifier, double units, long nowNanos, ThrottleLimits limits) {
+		while (true) {
+			RequestLog requests = logs.computeIfAbsent(identifier, id -> new RequestLog(limits.size()));
+			synchronized (requests) {
+				if (!requests.evicted) {
+					return tryAcquire(requests, units, nowNanos, limits);
+				}
+			}
+		}
+	}
+
+	private ThrottleDecision tryAcquire(RequestLog requests, double units, long nowNanos, ThrottleLimits limits) {
+		requests.expire(nowNanos, periodNanos);
+		int limiting = 0;
+		for (int i = 0; i < limits.size(); i++) {
+			if (requests.totals[i] + units > limits.limits[i]) {
+				long retryAfter = units > limits.limits[i] ? ThrottleDecision.NEVER
+						: TimeUnit.NANOSECONDS.toMillis(
+								requests.timeWhenAvailable(i, units, limits.limits[i], periodNanos[i]) - nowNanos
+										+ 999_999);
+				return ThrottleDecision.denied(limits.intervals[i], limits.limits[i] - requests.totals[i], retryAfter);
+			}
+			if (limits.limits[i] - requests.totals[i] < limits.limits[limiting] - requests.totals[limiting]) {
+				limiting = i;
+			}
+		}
+		requests.add(nowNanos, units);
+		return ThrottleDecision.allowed(limits.intervals[limiting],
+				limits.limits[limiting] - requests.totals[limiting]);
+	}
+
+	/**
+	 * Removes clients with no requests in any interval. A client's log is
+	 * marked as evicted under its lock, so a request that already holds it
+	 * uses a new log rather than one no longer in the map.
+	 */
+	@Override
+	public int evictIdle() {
+		long now = nowNanos();
+		int evicted = 0;
+		for (Map.Entry<String, RequestLog> entry : logs.entrySet()) {
+			RequestLog requests = entry.getValue();
+			synchronized (requests) {
+				requests.expire(now, periodNanos);
+				if (requests.size > 0 || requests.evicted) {
+					continue;
+				}
+				requests.evicted = true;
+			}
+			if (logs.remove(entry.getKey(), requests)) {
+				evicted++;
+			}
+		}
+		return evicted;
+	}
+
+}
@@ -0,0 +1,113 @@
+package com.researchspace.core.util.throttling;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Outcome of a throttling check, returned by
+ * {@link Throttler#decide(String, double)} so that callers can reject
+ * requests without an exception being thrown, and set
+ * <code>Retry-After</code> or remaining-allowance headers.
+ */
+public final class ThrottleDecision {
+
+	/** Retry-after value of a request that can never be allowed */
+	public static final long NEVER = -1;
+
+	private final boolean allowed;
+	private final ThrottleInterval limitingInterval;
+	private final double remainingUnits;
+	private final long retryAfterMillis;
+
+	private ThrottleDecision(boolean allowed, ThrottleInterval limitingInterval, double remainingUnits,
+			long retryAfterMillis) {
+		this.allowed = allowed;
+		this.limitingInterval = limitingInterval;
+		this.remainingUnits = remainingUnits;
+		this.retryAfterMillis = retryAfterMillis;
+	}
+
+	/**
+	 * @param limitingInterval
+	 *            the interval with the least allowance remaining, or
+	 *            <code>null</code> if unknown
+	 * @param remainingUnits
+	 *            units remaining for <code>limitingInterval</code>, or
+	 *            {@link Double#NaN} if unknown
+	 * @return
+	 */
+	public static ThrottleDecision allowed(ThrottleInterval limitingInterval, double remainingUnits) {
+		return new ThrottleDecision(true, limitingInterval, remainingUnits, 0);
+	}
+
+	/**
+	 * @param limitingInterval
+	 *            the interval whose limit would have been exceeded, or
+	 *            <code>null</code> if unknown
+	 * @param remainingUnits
+	 *            units remaining for <code>limitingInterval</code>, or
+	 *            {@link Double#NaN} if unknown
+	 * @param retryAfterMillis
+	 *            time until the request could be allowed, 0 if unknown, or
+	 *            {@link #NEVER}
+	 * @return
+	 */
+	public static ThrottleDecision denied(ThrottleInterval limitingInterval, double remainingUnits,
+			long retryAfterMillis) {
+		return new ThrottleDecision(false, limitingInterval, remainingUnits, retryAfterMillis);
+	}
+
+	public boolean isAllowed() {
+		return allowed;
+	}
+
+	/**
+	 * Gets the interval that limited the request: for a denied request, the
+	 * one whose limit would have been exceeded, otherwise the one with the
+	 * least allowance remaining.
+	 * 
+	 * @return the interval, or <code>null</code> if unknown
+	 */
+	public ThrottleInterval getLimitingInterval() {
+		return limitingInterval;
+	}
+
+	/**
+	 * Gets the units remaining for the limiting interval.
+	 * 
+	 * @return the units, or {@link Double#NaN} if unknown
+	 */
+	public double getRemainingUnits() {
+		return remainingUnits;
+	}
+
+	/**
+	 * Gets the time after which the same request could be allowed, if no
+	 * other requests are made meanwhile.
+	 * 
+	 * @return 0 if allowed or unknown, or {@link #NEVER} if the request
+	 *         exceeds the limit itself
+	 */
+	public long getRetryAfterMillis() {
+		return retryAfterMillis;
+	}
+
+	/**
+	 * Gets the retry-after time rounded up to whole seconds, as used by the
+	 * HTTP <code>Retry-After</code> header.
+	 * 
+	 * @return
+	 */
+	public long getRetryAfterSeconds() {
+		if (retryAfterMillis <= 0) {
+			return retryAfterMillis;
+		}
+		return (retryAfterMillis + TimeUnit.SECONDS.toMillis(1) - 1) / TimeUnit.SECONDS.toMillis(1);
+	}
+
+	@Override
+	public String toString() {
+		return "ThrottleDecision [allowed=" + allowed + ", limitingInterval=" + limitingInterval + ", remainingUnits="
+				+ remainingUnits + ", retryAfterMillis=" + retryAfterMillis + "]";
+	}
+
+}
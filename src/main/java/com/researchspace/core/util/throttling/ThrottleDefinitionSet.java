@@ -3,6 +3,7 @@ package com.researchspace.core.util.throttling;
 import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.lang.Validate;
 
@@ -45,4 +46,16 @@ public class ThrottleDefinitionSet {
 		return throttleRates.size();
 	}
 
+	/**
+	 * @return the longest interval with a definition, in milliseconds, or 0 if
+	 *         there are none
+	 */
+	long getLongestIntervalMillis() {
+		long longestSeconds = 0;
+		for (ThrottleInterval interval : throttleRates.keySet()) {
+			longestSeconds = Math.max(longestSeconds, interval.getSeconds());
+		}
+		return TimeUnit.SECONDS.toMillis(longestSeconds);
+	}
+
 }
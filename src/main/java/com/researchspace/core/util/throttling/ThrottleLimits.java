@@ -0,0 +1,48 @@
+package com.researchspace.core.util.throttling;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Immutable copy of a {@link ThrottleDefinitionSet}, as parallel arrays
+ * indexed by definition, for throttlers to read without allocation.
+ */
+final class ThrottleLimits {
+
+	final ThrottleInterval[] intervals;
+	final int[] limits;
+	final long[] periodMillis;
+	final String units;
+
+	ThrottleLimits(ThrottleDefinitionSet definitions) {
+		Map<ThrottleInterval, ThrottleLimitDefinition> throttleLimits = definitions.getThrottleLimits();
+		int count = throttleLimits.size();
+		intervals = new ThrottleInterval[count];
+		limits = new int[count];
+		periodMillis = new long[count];
+		String unitName = "units";
+		int i = 0;
+		for (Map.Entry<ThrottleInterval, ThrottleLimitDefinition> pair : throttleLimits.entrySet()) {
+			intervals[i] = pair.getKey();
+			limits[i] = pair.getValue().getLimit();
+			periodMillis[i] = TimeUnit.SECONDS.toMillis(pair.getKey().getSeconds());
+			unitName = pair.getValue().getUnits();
+			i++;
+		}
+		units = unitName;
+	}
+
+	int size() {
+		return intervals.length;
+	}
+
+	int indexOf(ThrottleInterval interval) {
+		for (int i = 0; i < intervals.length; i++) {
+			if (intervals[i] == interval) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+}
@@ -0,0 +1,161 @@
+package com.researchspace.core.util.throttling;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable snapshot of the statistics of a throttler, obtained from a
+ * {@link ThrottleStatsProvider}.
+ * <p>
+ * Counts are cumulative since the throttler was created. An allowed request
+ * is counted for every interval it was checked against; a denied request only
+ * for the interval that denied it. Allowance utilisation after each allowed
+ * request is grouped into buckets with upper bounds given by
+ * {@link #getUtilisationBucketBoundsPercent()}, plus a final bucket for
+ * requests that used the whole allowance.
+ */
+public final class ThrottleStats {
+
+	static final int[] UTILISATION_BUCKET_BOUNDS_PERCENT = { 50, 75, 90, 100 };
+
+	/**
+	 * Estimated number of denied requests for a client, from a space-saving
+	 * sketch. The true count is between <code>count - error</code> and
+	 * <code>count</code>.
+	 */
+	public static final class HeavyHitter {
+		private final String identifier;
+		private final long count;
+		private final long error;
+
+		HeavyHitter(String identifier, long count, long error) {
+			this.identifier = identifier;
+			this.count = count;
+			this.error = error;
+		}
+
+		public String getIdentifier() {
+			return identifier;
+		}
+
+		/**
+		 * Upper bound of the number of denied requests
+		 */
+		public long getCount() {
+			return count;
+		}
+
+		/**
+		 * Maximum overestimate of {@link #getCount()}
+		 */
+		public long getError() {
+			return error;
+		}
+
+		@Override
+		public String toString() {
+			return identifier + "=" + count + (error > 0 ? "(±" + error + ")" : "");
+		}
+	}
+
+	private final long[] allowedCounts;
+	private final long[] deniedCounts;
+	private final long[] utilisationHistogram;
+	private final List<HeavyHitter> topDeniedIdentifiers;
+
+	/**
+	 * Gets the exclusive upper bounds, in percent of the limit, of the
+	 * utilisation histogram buckets.
+	 * 
+	 * @return
+	 */
+	public static int[] getUtilisationBucketBoundsPercent() {
+		return UTILISATION_BUCKET_BOUNDS_PERCENT.clone();
+	}
+
+	ThrottleStats(long[] allowedCounts, long[] deniedCounts, long[] utilisationHistogram,
+			List<HeavyHitter> topDeniedIdentifiers) {
+		this.allowedCounts = allowedCounts;
+		this.deniedCounts = deniedCounts;
+		this.utilisationHistogram = utilisationHistogram;
+		this.topDeniedIdentifiers = Collections.unmodifiableList(topDeniedIdentifiers);
+	}
+
+	/**
+	 * Number of requests allowed by the limit for an interval
+	 */
+	public long getAllowedCount(ThrottleInterval interval) {
+		return allowedCounts[interval.ordinal()];
+	}
+
+	/**
+	 * Number of requests denied by the limit for an interval
+	 */
+	public long getDeniedCount(ThrottleInterval interval) {
+		return deniedCounts[interval.ordinal()];
+	}
+
+	/**
+	 * Total number of denied requests, for all intervals
+	 */
+	public long getTotalDeniedCount() {
+		long rc = 0;
+		for (long count : deniedCounts) {
+			rc += count;
+		}
+		return rc;
+	}
+
+	/**
+	 * Gets the number of allowed requests in each utilisation bucket
+	 * 
+	 * @return an array one longer than
+	 *         {@link #getUtilisationBucketBoundsPercent()}
+	 */
+	public long[] getUtilisationHistogram() {
+		return utilisationHistogram.clone();
+	}
+
+	/**
+	 * Gets the clients with the most denied requests, most first. The number
+	 * of clients listed is bounded by the recorder's capacity.
+	 * 
+	 * @return an unmodifiable list
+	 */
+	public List<HeavyHitter> getTopDeniedIdentifiers() {
+		return topDeniedIdentifiers;
+	}
+
+	/**
+	 * Flattens these statistics to name-value pairs, e.g. for export to a
+	 * metrics or monitoring system. Client ids are not included.
+	 * 
+	 * @return an ordered map of statistic names to values
+	 */
+	public Map<String, Number> toMap() {
+		Map<String, Number> rc = new LinkedHashMap<>();
+		for (ThrottleInterval interval : ThrottleInterval.values()) {
+			String suffix = interval.name().toLowerCase();
+			rc.put("allowed." + suffix, allowedCounts[interval.ordinal()]);
+			rc.put("denied." + suffix, deniedCounts[interval.ordinal()]);
+		}
+		for (int i = 0; i < utilisationHistogram.length; i++) {
+			String bucket = i < UTILISATION_BUCKET_BOUNDS_PERCENT.length
+					? "utilisationUnder" + UTILISATION_BUCKET_BOUNDS_PERCENT[i] + "pc"
+					: "utilisationFull";
+			rc.put(bucket, utilisationHistogram[i]);
+		}
+		return rc;
+	}
+
+	@Override
+	public String toString() {
+		return "ThrottleStats [allowed=" + Arrays.toString(allowedCounts) + ", denied="
+				+ Arrays.toString(deniedCounts) + ", utilisationHistogram=" + Arrays.toString(utilisationHistogram)
+				+ ", topDenied=" + topDeniedIdentifiers + "]";
+	}
+
+}
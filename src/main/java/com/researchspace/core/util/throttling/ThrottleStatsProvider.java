@@ -0,0 +1,28 @@
+package com.researchspace.core.util.throttling;
+
+import java.util.function.Consumer;
+
+/**
+ * Mixin interface for a throttler that records statistics of its decisions.
+ */
+public interface ThrottleStatsProvider {
+
+	/**
+	 * Gets a snapshot of this throttler's statistics.
+	 * 
+	 * @return
+	 */
+	ThrottleStats getStats();
+
+	/**
+	 * Passes a snapshot of this throttler's statistics to
+	 * <code>exporter</code>, e.g. to publish to a metrics system on a
+	 * schedule.
+	 * 
+	 * @param exporter
+	 */
+	default void exportStats(Consumer<ThrottleStats> exporter) {
+		exporter.accept(getStats());
+	}
+
+}
@@ -0,0 +1,103 @@
+package com.researchspace.core.util.throttling;
+
+import static com.researchspace.core.util.throttling.ThrottleStats.UTILISATION_BUCKET_BOUNDS_PERCENT;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.commons.lang.Validate;
+
+/**
+ * Accumulates throttling statistics. Counters are {@link LongAdder}s, so
+ * recording is cheap and does not contend between threads; reading a
+ * {@link #snapshot()} is comparatively expensive.
+ */
+public final class ThrottleStatsRecorder {
+
+	public static final int DEFAULT_HEAVY_HITTER_CAPACITY = 32;
+
+	private static final int INTERVAL_COUNT = ThrottleInterval.values().length;
+
+	private final LongAdder[] allowed = newAdders(INTERVAL_COUNT);
+	private final LongAdder[] denied = newAdders(INTERVAL_COUNT);
+	private final LongAdder[] utilisationBuckets = newAdders(UTILISATION_BUCKET_BOUNDS_PERCENT.length + 1);
+	private final HeavyHitterSketch deniedIds;
+
+	public ThrottleStatsRecorder() {
+		this(DEFAULT_HEAVY_HITTER_CAPACITY);
+	}
+
+	/**
+	 * @param heavyHitterCapacity
+	 *            the number of denied client ids to track, &gt; 0
+	 */
+	public ThrottleStatsRecorder(int heavyHitterCapacity) {
+		Validate.isTrue(heavyHitterCapacity > 0, "Heavy hitter capacity must be > 0 but was ", heavyHitterCapacity);
+		deniedIds = new HeavyHitterSketch(heavyHitterCapacity);
+	}
+
+	private static LongAdder[] newAdders(int count) {
+		LongAdder[] adders = new LongAdder[count];
+		for (int i = 0; i < count; i++) {
+			adders[i] = new LongAdder();
+		}
+		return adders;
+	}
+
+	/**
+	 * Records that a request was within the limit for an interval.
+	 * 
+	 * @param interval
+	 */
+	public void recordAllowed(ThrottleInterval interval) {
+		allowed[interval.ordinal()].increment();
+	}
+
+	/**
+	 * Records how much of a client's allowance was used after a request was
+	 * allowed, for the interval with the least allowance remaining.
+	 * 
+	 * @param utilisation
+	 *            fraction of the limit used, from 0 to 1
+	 */
+	public void recordUtilisation(double utilisation) {
+		double percent = utilisation * 100;
+		int i = 0;
+		while (i < UTILISATION_BUCKET_BOUNDS_PERCENT.length && percent >= UTILISATION_BUCKET_BOUNDS_PERCENT[i]) {
+			i++;
+		}
+		utilisationBuckets[i].increment();
+	}
+
+	/**
+	 * Records that a request was denied.
+	 * 
+	 * @param interval
+	 *            the interval whose limit would have been exceeded
+	 * @param identifier
+	 *            the client
+	 */
+	public void recordDenied(ThrottleInterval interval, String identifier) {
+		denied[interval.ordinal()].increment();
+		deniedIds.record(identifier);
+	}
+
+	/**
+	 * Takes a snapshot of the current statistics. Counters are read
+	 * individually, so a snapshot taken while the throttler is in use may
+	 * not be exactly consistent.
+	 * 
+	 * @return
+	 */
+	public ThrottleStats snapshot() {
+		return new ThrottleStats(sums(allowed), sums(denied), sums(utilisationBuckets), deniedIds.top());
+	}
+
+	private static long[] sums(LongAdder[] adders) {
+		long[] rc = new long[adders.length];
+		for (int i = 0; i < rc.length; i++) {
+			rc[i] = adders[i].sum();
+		}
+		return rc;
+	}
+
+}
@@ -37,6 +37,46 @@ public interface Throttler    {
 		return true;
 	}
 	
+	/**
+	 * Determines whether a request should be allowed to proceed, without
+	 * throwing an exception if it cannot. If allowed, the requested units are
+	 * consumed as for {@link #proceed(String, Double)}.
+	 * <h5>Implementation</h5> Default implementation calls
+	 * {@link #proceed(String, Double)} and converts a
+	 * {@link TooManyRequestsException} to a denied decision, with no
+	 * remaining units or retry-after time. Implementations should override this to avoid the
+	 * exception.
+	 * 
+	 * @param identifier
+	 *            An identifier for the client making the request
+	 * @param requestedResourceUnits
+	 * @return the decision, not <code>null</code>
+	 */
+	default ThrottleDecision decide(String identifier, double requestedResourceUnits) {
+		try {
+			return proceed(identifier, requestedResourceUnits) ? ThrottleDecision.allowed(null, Double.NaN)
+					: ThrottleDecision.denied(null, Double.NaN, 0);
+		} catch (TooManyRequestsException e) {
+			return ThrottleDecision.denied(null, Double.NaN, 0);
+		}
+	}
+
+	/**
+	 * As {@link #decide(String, double)}, for a request that was denied and
+	 * is being checked again, e.g. while it waits in a queue. If denied again
+	 * it is not counted as another denied request in statistics.
+	 * <h5>Implementation</h5> Default implementation calls
+	 * {@link #decide(String, double)}.
+	 * 
+	 * @param identifier
+	 *            An identifier for the client making the request
+	 * @param requestedResourceUnits
+	 * @return the decision, not <code>null</code>
+	 */
+	default ThrottleDecision recheck(String identifier, double requestedResourceUnits) {
+		return decide(identifier, requestedResourceUnits);
+	}
+
 	/**
 	 * The name of the throttler.
 	 * @return
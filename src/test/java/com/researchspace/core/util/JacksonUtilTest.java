@@ -2,11 +2,22 @@ package com.researchspace.core.util;
 
 import static com.researchspace.core.util.JacksonUtil.fromJson;
 import static com.researchspace.core.util.JacksonUtil.fromJsonOpt;
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import java.util.function.UnaryOperator;
 
 import org.junit.jupiter.api.Test;
@@ -56,4 +67,97 @@ class JacksonUtilTest {
 		
 	}
 
+	@Test
+	void testConfiguredMapperIsKeptByCaller() {
+		AtomicInteger applied = new AtomicInteger();
+		ObjectMapper lenient = JacksonUtil.newMapper(objMapper -> {
+			applied.incrementAndGet();
+			return objMapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+		});
+		String jsonString = "{\"id\":\"23\", \"unknown\":\"somevalue\"}";
+		for (int i = 0; i < 3; i++) {
+			assertEquals(23, JacksonUtil.tryFromJson(jsonString, TestObject.class, lenient).getValue().getId());
+		}
+		assertEquals(1, applied.get());
+		// shared default mapper is not affected by configurers
+		assertNull(fromJson(jsonString, TestObject.class));
+	}
+
+	@Test
+	void testMapperIsKeptPerConfigurer() {
+		AtomicInteger applied = new AtomicInteger();
+		UnaryOperator<ObjectMapper> lenient = objMapper -> {
+			applied.incrementAndGet();
+			return objMapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+		};
+		String jsonString = "{\"id\":\"23\", \"unknown\":\"somevalue\"}";
+		for (int i = 0; i < 3; i++) {
+			assertEquals(23, JacksonUtil.tryFromJson(jsonString, TestObject.class, lenient).getValue().getId());
+		}
+		assertEquals(1, applied.get());
+	}
+
+	@Test
+	void testSharedWritersHandleAnyType() {
+		assertEquals("null", JacksonUtil.toJson(null));
+		assertEquals("[1,2]", JacksonUtil.toJson(new int[] { 1, 2 }));
+		assertEquals("{\"id\":1,\"name\":\"a\",\"empty\":null}", JacksonUtil.toJson(new TestObject(1L, "a", null)));
+		assertEquals("{\"id\":1,\"name\":\"a\"}", JacksonUtil.toJsonWithoutEmptyFields(new TestObject(1L, "a", null)));
+		assertEquals("{}", JacksonUtil.createObjectNode().toString());
+	}
+
+	@Test
+	void testStreamingRoundTrip() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		JacksonUtil.toJson(new TestObject(1L, "a", ""), out);
+		byte[] json = out.toByteArray();
+		assertEquals("a", JacksonUtil.fromJson(new ByteArrayInputStream(json), TestObject.class).getName());
+		assertEquals("a", JacksonUtil.fromJson(json, TestObject.class).getName());
+		assertNull(JacksonUtil.fromJson("{".getBytes(StandardCharsets.UTF_8), TestObject.class));
+	}
+
+	@Test
+	void testSequencesAreReadLazily() throws IOException {
+		List<TestObject> objects = Arrays.asList(new TestObject(1L, "a", ""), new TestObject(2L, "b", ""));
+		ByteArrayOutputStream array = new ByteArrayOutputStream();
+		JacksonUtil.toJsonArray(objects.iterator(), array);
+		ByteArrayOutputStream lines = new ByteArrayOutputStream();
+		JacksonUtil.toJsonLines(objects.iterator(), lines);
+		assertTrue(array.toString("UTF-8").startsWith("[{"));
+		assertEquals(2, lines.toString("UTF-8").split("\n").length);
+
+		for (ByteArrayOutputStream out : Arrays.asList(array, lines)) {
+			try (Stream<TestObject> read = JacksonUtil
+					.fromJsonSequence(new ByteArrayInputStream(out.toByteArray()), TestObject.class)) {
+				assertEquals(Arrays.asList("a", "b"), read.map(TestObject::getName).collect(Collectors.toList()));
+			}
+		}
+	}
+
+	@Test
+	void testTryFromJsonReportsLocationAndPath() {
+		JsonResult<TestObject> ok = JacksonUtil.tryFromJson("{\"id\":1}", TestObject.class);
+		assertTrue(ok.isSuccess());
+		assertEquals(1, ok.getValue().getId());
+
+		JsonResult<TestObject> malformed = JacksonUtil.tryFromJson("{\n\"id\":1,\n\"name\" \"x\"}", TestObject.class);
+		assertFalse(malformed.isSuccess());
+		assertEquals(3, malformed.getError().getLine());
+		assertNull(malformed.orElse(null));
+
+		JsonResult<TestObject> badType = JacksonUtil.tryFromJson("{\"id\":\"abc\"}", TestObject.class);
+		assertTrue(badType.getError().getPath().contains("\"id\""), badType.getError().getPath());
+		assertThrows(IllegalStateException.class, badType::getValue);
+	}
+
+	@Test
+	void testTryToJsonReportsError() {
+		assertEquals("{\"id\":1,\"name\":null,\"empty\":null}",
+				JacksonUtil.tryToJson(new TestObject(1L, null, null)).getValue());
+		JsonResult<String> failed = JacksonUtil.tryToJson(new Object());
+		assertFalse(failed.isSuccess());
+		assertNotNull(failed.getError().getMessage());
+		assertEquals("", JacksonUtil.toJson(new Object()));
+	}
+
 }
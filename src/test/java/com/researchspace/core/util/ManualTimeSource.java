@@ -0,0 +1,42 @@
+package com.researchspace.core.util;
+
+import java.util.concurrent.TimeUnit;
+
+import org.joda.time.DateTime;
+
+/**
+ * {@link TimeSource} for tests whose clock only moves when advanced
+ * explicitly. Wall-clock and monotonic readings advance together.
+ */
+public class ManualTimeSource implements TimeSource {
+
+	private volatile long nanos;
+	private final long startMillis;
+
+	public ManualTimeSource() {
+		this(new DateTime(2020, 1, 1, 0, 0).getMillis());
+	}
+
+	public ManualTimeSource(long startMillis) {
+		this.startMillis = startMillis;
+	}
+
+	@Override
+	public DateTime now() {
+		return new DateTime(startMillis + TimeUnit.NANOSECONDS.toMillis(nanos));
+	}
+
+	@Override
+	public long nanoTime() {
+		return nanos;
+	}
+
+	public synchronized void advance(long amount, TimeUnit unit) {
+		nanos += unit.toNanos(amount);
+	}
+
+	public void advanceMillis(long millis) {
+		advance(millis, TimeUnit.MILLISECONDS);
+	}
+
+}
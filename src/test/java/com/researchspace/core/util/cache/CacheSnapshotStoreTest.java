@@ -0,0 +1,118 @@
+package com.researchspace.core.util.cache;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.researchspace.core.util.ManualTimeSource;
+
+public class CacheSnapshotStoreTest {
+
+	ManualTimeSource timeSource;
+	Path snapshotFile;
+	CacheSnapshotStore<String, String> store;
+
+	@BeforeEach
+	public void setUp() throws Exception {
+		timeSource = new ManualTimeSource();
+		snapshotFile = File.createTempFile("cacheSnapshot", ".bin").toPath();
+		Files.delete(snapshotFile);
+		store = new CacheSnapshotStore<>(snapshotFile, CacheEntrySerializer.strings(), CacheEntrySerializer.strings(),
+				timeSource);
+	}
+
+	@AfterEach
+	public void tearDown() throws Exception {
+		Files.deleteIfExists(snapshotFile);
+	}
+
+	@Test
+	public void restoresUnexpiredEntriesWithRemainingTime() throws IOException {
+		ConcurrentKeyedTimeLimitedCache<String, String> cache = newCache();
+		cache.put("short", "S", 1000);
+		cache.put("long", "L", 5000);
+		cache.put("stale", "X", 10);
+		timeSource.advanceMillis(100);
+		assertEquals(2, store.save(cache));
+
+		// 'restart' 2 seconds later
+		timeSource.advanceMillis(2000);
+		ConcurrentKeyedTimeLimitedCache<String, String> restarted = newCache();
+		assertEquals(1, store.load(restarted));
+		assertNull(restarted.get("short"));
+		assertNull(restarted.get("stale"));
+		assertEquals(CacheState.VALID, restarted.getState("long"));
+		timeSource.advanceMillis(2901);
+		assertEquals(CacheState.STALE, restarted.getState("long"));
+	}
+
+	@Test
+	public void byteArrayValuesAndAsyncLoad() throws Exception {
+		CacheSnapshotStore<String, byte[]> bytesStore = new CacheSnapshotStore<>(snapshotFile,
+				CacheEntrySerializer.strings(), CacheEntrySerializer.byteArrays(), timeSource);
+		ConcurrentKeyedTimeLimitedCache<String, byte[]> cache = new ConcurrentKeyedTimeLimitedCache<>(timeSource, 10,
+				(k, v) -> 1);
+		cache.put("thumb", new byte[] { 1, 2, 3 });
+		bytesStore.save(cache);
+
+		ConcurrentKeyedTimeLimitedCache<String, byte[]> restarted = new ConcurrentKeyedTimeLimitedCache<>(timeSource,
+				10, (k, v) -> 1);
+		assertEquals(1, bytesStore.loadAsync(restarted, Runnable::run).get().intValue());
+		assertArrayEquals(new byte[] { 1, 2, 3 }, restarted.get("thumb"));
+	}
+
+	@Test
+	public void missingFileLoadsNothing() throws IOException {
+		assertEquals(0, store.load(newCache()));
+	}
+
+	@Test
+	public void invalidFileRejected() throws IOException {
+		Files.write(snapshotFile, new byte[] { 1, 2, 3, 4, 5 });
+		assertThrows(IOException.class, () -> store.load(newCache()));
+	}
+
+	@Test
+	public void corruptLengthRejected() throws IOException {
+		ConcurrentKeyedTimeLimitedCache<String, String> cache = newCache();
+		cache.put("a", "A");
+		store.save(cache);
+		byte[] snapshot = Files.readAllBytes(snapshotFile);
+		// the key's length follows the header, a 'more entries' flag and the expiry time
+		for (int length : new int[] { -1, Integer.MAX_VALUE }) {
+			ByteBuffer.wrap(snapshot).putInt(14, length);
+			Files.write(snapshotFile, snapshot);
+			assertThrows(IOException.class, () -> store.load(newCache()));
+		}
+	}
+
+	@Test
+	public void byteArraysLargerThanReadChunk() throws IOException {
+		byte[] value = new byte[CacheEntrySerializer.READ_CHUNK_BYTES * 5 / 2];
+		value[value.length - 1] = 7;
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		CacheEntrySerializer.byteArrays().write(value, new DataOutputStream(bytes));
+		assertArrayEquals(value, CacheEntrySerializer.byteArrays()
+				.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()))));
+	}
+
+	private ConcurrentKeyedTimeLimitedCache<String, String> newCache() {
+		return new ConcurrentKeyedTimeLimitedCache<>(timeSource, 10, (k, v) -> 1);
+	}
+
+}
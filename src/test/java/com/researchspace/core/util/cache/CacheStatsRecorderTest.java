@@ -0,0 +1,102 @@
+package com.researchspace.core.util.cache;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.researchspace.core.util.ManualTimeSource;
+import com.researchspace.core.util.NullCache;
+
+public class CacheStatsRecorderTest {
+
+	CacheStatsRecorder recorder;
+
+	@BeforeEach
+	public void setUp() throws Exception {
+		recorder = new CacheStatsRecorder();
+	}
+
+	@Test
+	public void lookupsAndLoadsRecorded() {
+		recorder.recordLookup(CacheState.VALID);
+		recorder.recordLookup(CacheState.VALID);
+		recorder.recordLookup(CacheState.STALE);
+		recorder.recordLookup(CacheState.EMPTY);
+		recorder.recordLoad(TimeUnit.MICROSECONDS.toNanos(500), true);
+		recorder.recordLoad(TimeUnit.MILLISECONDS.toNanos(50), true);
+		recorder.recordLoad(TimeUnit.SECONDS.toNanos(20), false);
+		recorder.recordEviction();
+
+		CacheStats stats = recorder.snapshot(3);
+		assertEquals(2, stats.getHitCount());
+		assertEquals(1, stats.getStaleHitCount());
+		assertEquals(1, stats.getMissCount());
+		assertEquals(0.5, stats.getHitRate(), 0.0001);
+		assertEquals(3, stats.getLoadCount());
+		assertEquals(1, stats.getLoadFailureCount());
+		assertArrayEquals(new long[] { 1, 0, 1, 0, 0, 1 }, stats.getLoadLatencyHistogram());
+		assertEquals(1, stats.getEvictionCount());
+		assertEquals(3, stats.getSize());
+
+		Map<String, Number> exported = stats.toMap();
+		assertEquals(2L, exported.get("hits"));
+		assertEquals(1L, exported.get("loadsOver10000ms"));
+	}
+
+	@Test
+	public void cachesRecordStats() {
+		ManualTimeSource timeSource = new ManualTimeSource();
+		ConcurrentTimeLimitedMemoryCache<String> cache = new ConcurrentTimeLimitedMemoryCache<>(timeSource);
+		cache.setCacheTimeMillis(1000L);
+		cache.getCachedItem();
+		cache.cache("item");
+		cache.getCachedItem();
+		timeSource.advanceMillis(1001);
+		cache.getCachedItem();
+		CacheStats stats = cache.getStats();
+		assertEquals(1, stats.getMissCount());
+		assertEquals(1, stats.getHitCount());
+		assertEquals(1, stats.getStaleHitCount());
+		assertEquals(1, stats.getSize());
+
+		NullCache<String> nullCache = new NullCache<>();
+		nullCache.getCachedItem();
+		assertEquals(1, nullCache.getStats().getMissCount());
+
+		ConcurrentKeyedTimeLimitedCache<String, String> keyed = new ConcurrentKeyedTimeLimitedCache<>(timeSource,
+				2, (k, v) -> 1);
+		keyed.put("a", "A");
+		keyed.put("b", "B");
+		keyed.put("c", "C");
+		keyed.get("a");
+		keyed.get("c");
+		stats = keyed.getStats();
+		assertEquals(1, stats.getEvictionCount());
+		assertEquals(1, stats.getMissCount());
+		assertEquals(1, stats.getHitCount());
+		assertEquals(2, stats.getSize());
+	}
+
+	@Test
+	public void loadingCacheRecordsLoads() {
+		ManualTimeSource timeSource = new ManualTimeSource();
+		LoadingTimeLimitedMemoryCache<String> cache = new LoadingTimeLimitedMemoryCache<>(timeSource, Runnable::run);
+		cache.getOrLoad(() -> {
+			timeSource.advanceMillis(20);
+			return "item";
+		});
+		cache.getOrLoad(() -> "unused");
+		CacheStats stats = cache.getStats();
+		assertEquals(1, stats.getLoadCount());
+		assertEquals(TimeUnit.MILLISECONDS.toNanos(20), stats.getTotalLoadTimeNanos());
+		assertEquals(1, stats.getLoadLatencyHistogram()[2]);
+		assertEquals(1, stats.getMissCount());
+		assertEquals(1, stats.getHitCount());
+	}
+
+}
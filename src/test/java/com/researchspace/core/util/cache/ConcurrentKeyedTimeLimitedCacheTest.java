@@ -0,0 +1,156 @@
+package com.researchspace.core.util.cache;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.researchspace.core.util.ManualTimeSource;
+
+public class ConcurrentKeyedTimeLimitedCacheTest {
+
+	ManualTimeSource timeSource;
+	ConcurrentKeyedTimeLimitedCache<String, String> cache;
+
+	@BeforeEach
+	public void setUp() throws Exception {
+		timeSource = new ManualTimeSource();
+		cache = new ConcurrentKeyedTimeLimitedCache<>(timeSource, 10, (k, v) -> 1);
+		cache.setCacheTimeMillis(1000L);
+	}
+
+	@Test
+	public void perEntryCacheState() {
+		assertEquals(CacheState.EMPTY, cache.getState("a"));
+		cache.put("a", "A");
+		cache.put("b", "B", 5000);
+		assertEquals(CacheState.VALID, cache.getState("a"));
+
+		timeSource.advanceMillis(1001);
+		assertEquals(CacheState.STALE, cache.getState("a"));
+		assertEquals("A", cache.get("a"), "stale item is still retrievable");
+		assertNull(cache.getIfValid("a"));
+		assertEquals("B", cache.getIfValid("b"));
+
+		cache.remove("b");
+		assertEquals(CacheState.EMPTY, cache.getState("b"));
+		cache.put("a", null);
+		assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void veryLongCacheTimeNeverExpires() {
+		timeSource.advanceMillis(1);
+		cache.put("a", "A", Long.MAX_VALUE);
+		timeSource.advance(100 * 365, TimeUnit.DAYS);
+		assertEquals(CacheState.VALID, cache.getState("a"));
+		List<Long> remaining = new ArrayList<>();
+		cache.forEach((key, value, remainingMillis) -> remaining.add(remainingMillis));
+		assertTrue(remaining.get(0) > TimeUnit.DAYS.toMillis(100 * 365));
+	}
+
+	@Test
+	public void sizeIsBounded() {
+		for (int i = 0; i < 100; i++) {
+			cache.put("key" + i, "value" + i);
+		}
+		assertEquals(10, cache.size());
+		assertEquals(10, cache.weight());
+		assertEquals("value99", cache.get("key99"));
+	}
+
+	@Test
+	public void frequentlyReadEntriesSurviveScan() {
+		for (int i = 0; i < 5; i++) {
+			cache.put("hot" + i, "value");
+			cache.get("hot" + i);
+		}
+		// one-off entries pass through probation without displacing hot entries
+		for (int i = 0; i < 50; i++) {
+			cache.put("scan" + i, "value");
+		}
+		for (int i = 0; i < 5; i++) {
+			assertEquals("value", cache.get("hot" + i));
+		}
+	}
+
+	@Test
+	public void weightBoundsCache() {
+		ConcurrentKeyedTimeLimitedCache<String, byte[]> bytesCache = new ConcurrentKeyedTimeLimitedCache<>(
+				timeSource, 100, (k, v) -> v.length);
+		bytesCache.put("a", new byte[60]);
+		bytesCache.put("b", new byte[30]);
+		assertEquals(2, bytesCache.size());
+		bytesCache.put("c", new byte[30]);
+		assertEquals(2, bytesCache.size());
+		assertNull(bytesCache.get("a"));
+		assertTrue(bytesCache.weight() <= 100);
+
+		// too big to ever be cached
+		bytesCache.put("b", new byte[101]);
+		assertNull(bytesCache.get("b"));
+	}
+
+	@Test
+	public void getOrPutCreatesOnlyWhenUnusable() {
+		assertEquals("A1", cache.getOrPut("a", v -> true, k -> "A1"));
+		assertEquals("A1", cache.getOrPut("a", v -> true, k -> "A2"));
+		assertEquals("A3", cache.getOrPut("a", v -> !v.equals("A1"), k -> "A3"));
+		assertEquals("A3", cache.get("a"));
+		assertThrows(IllegalArgumentException.class, () -> cache.getOrPut("b", v -> true, k -> null));
+	}
+
+	@Test
+	public void conditionalRemove() {
+		String value = new String("A");
+		cache.put("a", value);
+		assertFalse(cache.remove("a", new String("A"), v -> true), "not the same instance");
+		assertFalse(cache.remove("a", value, v -> false));
+		assertTrue(cache.remove("a", value, v -> true));
+		assertEquals(0, cache.size());
+		assertFalse(cache.remove("a", value, v -> true));
+	}
+
+	@Test
+	public void invalidArgumentsRejected() {
+		assertThrows(IllegalArgumentException.class,
+				() -> new ConcurrentKeyedTimeLimitedCache<String, String>(timeSource, 0, (k, v) -> 1));
+		assertThrows(IllegalArgumentException.class, () -> cache.put(null, "value"));
+	}
+
+	@Test
+	public void concurrentAccessKeepsBound() throws InterruptedException {
+		ConcurrentKeyedTimeLimitedCache<Integer, Integer> shared = new ConcurrentKeyedTimeLimitedCache<>(1000);
+		List<Thread> threads = new ArrayList<>();
+		for (int i = 0; i < 8; i++) {
+			Thread t = new Thread(() -> {
+				for (int j = 0; j < 20000; j++) {
+					int key = ThreadLocalRandom.current().nextInt(5000);
+					if (shared.get(key) == null) {
+						shared.put(key, key);
+					}
+					if (j % 1000 == 0) {
+						shared.remove(key);
+					}
+				}
+			});
+			threads.add(t);
+			t.start();
+		}
+		for (Thread t : threads) {
+			t.join();
+		}
+		assertTrue(shared.size() <= 1000);
+		assertEquals(shared.size(), shared.weight());
+	}
+
+}
@@ -0,0 +1,124 @@
+package com.researchspace.core.util.cache;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.researchspace.core.util.ManualTimeSource;
+
+public class ConcurrentTimeLimitedMemoryCacheTest {
+
+	ManualTimeSource timeSource;
+	ConcurrentTimeLimitedMemoryCache<String> cache;
+
+	@BeforeEach
+	public void setUp() throws Exception {
+		timeSource = new ManualTimeSource();
+		cache = new ConcurrentTimeLimitedMemoryCache<>(timeSource);
+		cache.setCacheTimeMillis(1000L);
+	}
+
+	@Test
+	public void emptyValidStaleLifecycle() {
+		assertTrue(cache.isEmpty());
+		assertEquals(CacheState.EMPTY, cache.getState());
+		assertNull(cache.getCachedItem());
+
+		cache.cache("license");
+		assertTrue(cache.isValid());
+		assertEquals("license", cache.getCachedItem());
+
+		timeSource.advanceMillis(1000);
+		assertTrue(cache.isValid(), "still valid at the deadline");
+		timeSource.advanceMillis(1);
+		assertTrue(cache.isStale());
+		assertEquals("license", cache.getCachedItem(), "stale item is still retrievable");
+
+		cache.clear();
+		assertTrue(cache.isEmpty());
+		assertNull(cache.getCachedItem());
+	}
+
+	@Test
+	public void changingCacheTimeAppliesToCachedItem() {
+		cache.cache("license");
+		timeSource.advanceMillis(500);
+		cache.setCacheTimeMillis(100L);
+		assertTrue(cache.isStale());
+		cache.setCacheTimeMillis(10000L);
+		assertTrue(cache.isValid());
+		assertEquals(10000L, cache.getCacheTimeMillis());
+	}
+
+	@Test
+	public void veryLongCacheTimeNeverExpires() {
+		timeSource.advanceMillis(1);
+		cache.setCacheTimeMillis(Long.MAX_VALUE);
+		cache.cache("license");
+		assertTrue(cache.isValid());
+		timeSource.advance(100 * 365, TimeUnit.DAYS);
+		assertTrue(cache.isValid());
+	}
+
+	@Test
+	public void cachingNullClearsCache() {
+		cache.cache("license");
+		cache.cache(null);
+		assertTrue(cache.isEmpty());
+	}
+
+	@Test
+	public void nullTimeSourceRejected() {
+		assertThrows(IllegalArgumentException.class, () -> new ConcurrentTimeLimitedMemoryCache<>(null));
+	}
+
+	@Test
+	public void concurrentReadersAlwaysSeeConsistentItem() throws InterruptedException {
+		final int threads = 8;
+		CountDownLatch start = new CountDownLatch(1);
+		AtomicInteger errors = new AtomicInteger();
+		List<Thread> readers = new ArrayList<>();
+		for (int i = 0; i < threads; i++) {
+			Thread t = new Thread(() -> {
+				try {
+					start.await();
+					for (int j = 0; j < 10000; j++) {
+						String item = cache.getCachedItem();
+						if (item != null && !item.startsWith("item")) {
+							errors.incrementAndGet();
+						}
+						cache.getState();
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			});
+			readers.add(t);
+			t.start();
+		}
+		start.countDown();
+		for (int j = 0; j < 10000; j++) {
+			cache.cache("item" + j);
+			if (j % 100 == 0) {
+				cache.clear();
+			}
+		}
+		for (Thread t : readers) {
+			t.join();
+		}
+		assertEquals(0, errors.get());
+		assertFalse(cache.isStale());
+	}
+
+}
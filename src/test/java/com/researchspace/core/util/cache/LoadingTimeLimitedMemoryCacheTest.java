@@ -0,0 +1,185 @@
+package com.researchspace.core.util.cache;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.researchspace.core.util.ManualTimeSource;
+
+public class LoadingTimeLimitedMemoryCacheTest {
+
+	ManualTimeSource timeSource;
+	List<Runnable> queuedRefreshes;
+	LoadingTimeLimitedMemoryCache<String> cache;
+	AtomicInteger loadCount;
+	Supplier<String> loader;
+
+	@BeforeEach
+	public void setUp() throws Exception {
+		timeSource = new ManualTimeSource();
+		queuedRefreshes = new ArrayList<>();
+		cache = new LoadingTimeLimitedMemoryCache<>(timeSource, queuedRefreshes::add);
+		cache.setCacheTimeMillis(1000L);
+		loadCount = new AtomicInteger();
+		loader = () -> "value" + loadCount.incrementAndGet();
+	}
+
+	@Test
+	public void emptyCacheLoadsInCallingThread() {
+		assertEquals("value1", cache.getOrLoad(loader));
+		assertTrue(cache.isValid());
+		assertEquals("value1", cache.getOrLoad(loader));
+		assertEquals(1, loadCount.get());
+		assertTrue(queuedRefreshes.isEmpty());
+	}
+
+	@Test
+	public void staleItemServedWhileSingleRefreshInFlight() {
+		cache.getOrLoad(loader);
+		timeSource.advanceMillis(1001);
+		assertEquals(CacheState.STALE, cache.getState());
+
+		assertEquals("value1", cache.getOrLoad(loader));
+		assertEquals("value1", cache.getOrLoad(loader));
+		assertTrue(cache.isRefreshing());
+		assertEquals(1, queuedRefreshes.size(), "only one reload is scheduled");
+
+		queuedRefreshes.get(0).run();
+		assertFalse(cache.isRefreshing());
+		assertTrue(cache.isValid());
+		assertEquals("value2", cache.getOrLoad(loader));
+	}
+
+	@Test
+	public void refreshAheadReloadsBeforeItemIsStale() {
+		cache.setRefreshAheadFraction(0.75);
+		cache.getOrLoad(loader);
+		timeSource.advanceMillis(700);
+		cache.getOrLoad(loader);
+		assertTrue(queuedRefreshes.isEmpty());
+
+		timeSource.advanceMillis(100);
+		assertEquals("value1", cache.getOrLoad(loader));
+		assertTrue(cache.isValid());
+		assertEquals(1, queuedRefreshes.size());
+		queuedRefreshes.get(0).run();
+		assertEquals("value2", cache.getOrLoad(loader));
+	}
+
+	@Test
+	public void failedRefreshKeepsStaleItemAndRetries() {
+		cache.getOrLoad(loader);
+		timeSource.advanceMillis(1001);
+		cache.getOrLoad(() -> {
+			throw new IllegalStateException("license server down");
+		});
+		queuedRefreshes.remove(0).run();
+		assertFalse(cache.isRefreshing());
+		assertEquals("value1", cache.getOrLoad(loader));
+		assertEquals(1, queuedRefreshes.size(), "a new reload is scheduled");
+	}
+
+	@Test
+	public void failedInitialLoadPropagates() {
+		assertThrows(IllegalStateException.class, () -> cache.getOrLoad(() -> {
+			throw new IllegalStateException("license server down");
+		}));
+		assertTrue(cache.isEmpty());
+		assertFalse(cache.isRefreshing());
+	}
+
+	@Test
+	public void loaderErrorIsPassedToWaitingCallers() throws InterruptedException {
+		CountDownLatch loaderStarted = new CountDownLatch(1);
+		CountDownLatch releaseLoader = new CountDownLatch(1);
+		Supplier<String> failingLoader = () -> {
+			loaderStarted.countDown();
+			try {
+				releaseLoader.await(5, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			throw new ExceptionInInitializerError("license client failed to initialise");
+		};
+		List<Throwable> thrown = new ArrayList<>();
+		List<Thread> callers = new ArrayList<>();
+		for (int i = 0; i < 2; i++) {
+			Thread t = new Thread(() -> {
+				try {
+					cache.getOrLoad(failingLoader);
+				} catch (Throwable e) {
+					synchronized (thrown) {
+						thrown.add(e);
+					}
+				}
+			});
+			callers.add(t);
+			t.start();
+			if (i == 0) {
+				loaderStarted.await(5, TimeUnit.SECONDS);
+			}
+		}
+		releaseLoader.countDown();
+		for (Thread t : callers) {
+			t.join(5000);
+			assertFalse(t.isAlive(), "caller is still waiting for the failed load");
+		}
+		assertEquals(2, thrown.size());
+		assertTrue(thrown.stream().allMatch(ExceptionInInitializerError.class::isInstance));
+		assertFalse(cache.isRefreshing());
+		assertEquals("value1", cache.getOrLoad(loader));
+	}
+
+	@Test
+	public void refreshAheadFractionValidated() {
+		assertThrows(IllegalArgumentException.class, () -> cache.setRefreshAheadFraction(0));
+		assertThrows(IllegalArgumentException.class, () -> cache.setRefreshAheadFraction(1.1));
+	}
+
+	@Test
+	public void concurrentCallersOnEmptyCacheShareOneLoad() throws InterruptedException {
+		CountDownLatch loaderStarted = new CountDownLatch(1);
+		CountDownLatch releaseLoader = new CountDownLatch(1);
+		Supplier<String> slowLoader = () -> {
+			loaderStarted.countDown();
+			try {
+				releaseLoader.await(5, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return "value" + loadCount.incrementAndGet();
+		};
+		List<Thread> callers = new ArrayList<>();
+		List<String> results = new ArrayList<>();
+		for (int i = 0; i < 4; i++) {
+			Thread t = new Thread(() -> {
+				String rc = cache.getOrLoad(slowLoader);
+				synchronized (results) {
+					results.add(rc);
+				}
+			});
+			callers.add(t);
+			t.start();
+		}
+		loaderStarted.await(5, TimeUnit.SECONDS);
+		releaseLoader.countDown();
+		for (Thread t : callers) {
+			t.join();
+		}
+		assertEquals(1, loadCount.get());
+		assertEquals(4, results.size());
+		assertTrue(results.stream().allMatch("value1"::equals));
+	}
+
+}
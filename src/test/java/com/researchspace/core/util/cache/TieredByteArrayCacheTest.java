@@ -0,0 +1,198 @@
+package com.researchspace.core.util.cache;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.researchspace.core.util.ManualTimeSource;
+
+public class TieredByteArrayCacheTest {
+
+	ManualTimeSource timeSource;
+	OffHeapByteArrayCache<String> offHeap;
+
+	@BeforeEach
+	public void setUp() throws Exception {
+		timeSource = new ManualTimeSource();
+		offHeap = OffHeapByteArrayCache.allocateDirect(timeSource, 1024, 64);
+		offHeap.setCacheTimeMillis(1000L);
+	}
+
+	@Test
+	public void offHeapRoundTripAcrossPages() {
+		byte[] value = bytes(150, 7);
+		offHeap.put("a", value);
+		offHeap.put("empty", new byte[0]);
+		assertArrayEquals(value, offHeap.get("a"));
+		assertArrayEquals(new byte[0], offHeap.get("empty"));
+		assertEquals(192, offHeap.usedBytes());
+
+		timeSource.advanceMillis(1001);
+		assertEquals(CacheState.STALE, offHeap.getState("a"));
+		assertNull(offHeap.getIfValid("a"));
+
+		offHeap.remove("a");
+		assertEquals(0, offHeap.usedBytes());
+	}
+
+	@Test
+	public void offHeapEvictsLeastRecentlyUsed() {
+		for (int i = 0; i < 4; i++) {
+			offHeap.put("k" + i, bytes(256, i));
+		}
+		offHeap.get("k0");
+		offHeap.put("k4", bytes(256, 4));
+		assertNull(offHeap.get("k1"));
+		assertArrayEquals(bytes(256, 0), offHeap.get("k0"));
+		assertEquals(1, offHeap.getStats().getEvictionCount());
+
+		// too big to ever store
+		offHeap.put("huge", bytes(2000, 1));
+		assertNull(offHeap.get("huge"));
+	}
+
+	@Test
+	public void offHeapVeryLongCacheTimeNeverExpires() {
+		timeSource.advanceMillis(1);
+		offHeap.put("a", bytes(10, 1), Long.MAX_VALUE);
+		timeSource.advance(100 * 365, TimeUnit.DAYS);
+		assertEquals(CacheState.VALID, offHeap.getState("a"));
+	}
+
+	@Test
+	public void memoryMappedFileBacking() throws IOException {
+		File file = File.createTempFile("offheap", ".cache");
+		file.deleteOnExit();
+		try (OffHeapByteArrayCache<String> mapped = OffHeapByteArrayCache.mapFile(timeSource, file.toPath(), 1024,
+				OffHeapByteArrayCache.DEFAULT_PAGE_SIZE / 8)) {
+			mapped.put("a", bytes(300, 3));
+			assertArrayEquals(bytes(300, 3), mapped.get("a"));
+		}
+	}
+
+	@Test
+	public void invalidSizesRejected() {
+		assertThrows(IllegalArgumentException.class, () -> OffHeapByteArrayCache.allocateDirect(timeSource, 10, 64));
+		assertThrows(IllegalArgumentException.class, () -> OffHeapByteArrayCache.allocateDirect(timeSource, 10, 0));
+	}
+
+	@Test
+	public void evictedHeapEntriesMoveOffHeapAndBack() {
+		ConcurrentKeyedTimeLimitedCache<String, byte[]> heap = new ConcurrentKeyedTimeLimitedCache<>(timeSource, 2,
+				(k, v) -> 1);
+		TieredByteArrayCache<String> tiered = new TieredByteArrayCache<>(heap, offHeap);
+		tiered.put("a", bytes(10, 1), 500);
+		tiered.put("b", bytes(10, 2));
+		tiered.put("c", bytes(10, 3));
+		assertEquals(2, heap.size());
+		assertEquals(1, offHeap.size());
+		assertEquals(3, tiered.size());
+
+		timeSource.advanceMillis(100);
+		assertEquals(CacheState.VALID, tiered.getState("a"));
+		assertArrayEquals(bytes(10, 1), tiered.getIfValid("a"));
+		assertArrayEquals(bytes(10, 1), heap.get("a"), "promoted to heap");
+		assertEquals(3, tiered.size(), "each entry is in only one tier");
+
+		// remaining cache time is kept when moving between tiers
+		timeSource.advanceMillis(401);
+		assertEquals(CacheState.STALE, tiered.getState("a"));
+
+		tiered.remove("a");
+		tiered.clear();
+		assertEquals(0, tiered.size());
+	}
+
+	@Test
+	public void promotionDoesNotOverwriteConcurrentPut() throws Exception {
+		CountDownLatch promoting = new CountDownLatch(1);
+		// pauses while promoting, after the value was taken from off-heap
+		ConcurrentKeyedTimeLimitedCache<String, byte[]> heap = new ConcurrentKeyedTimeLimitedCache<String, byte[]>(
+				timeSource, 1, (k, v) -> 1) {
+			@Override
+			public void put(String key, byte[] item, long cacheTimeMillis) {
+				promoting.countDown();
+				sleepQuietly(100);
+				super.put(key, item, cacheTimeMillis);
+			}
+		};
+		TieredByteArrayCache<String> tiered = new TieredByteArrayCache<>(heap, offHeap);
+		tiered.put("a", bytes(10, 1));
+		tiered.put("b", bytes(10, 2));
+		assertEquals(1, offHeap.size(), "'a' was moved off-heap");
+
+		Thread reader = new Thread(() -> tiered.get("a"));
+		reader.start();
+		promoting.await();
+		tiered.put("a", bytes(10, 3));
+		reader.join();
+		assertArrayEquals(bytes(10, 3), tiered.get("a"));
+	}
+
+	@Test
+	public void evictedValueIsNotMovedOffHeapWhileNewerIsPut() throws Exception {
+		Thread[] writer = { null };
+		CountDownLatch putting = new CountDownLatch(1);
+		CountDownLatch evicted = new CountDownLatch(1);
+		// pauses the writer's put of 'a' after its off-heap copy was removed
+		ConcurrentKeyedTimeLimitedCache<String, byte[]> heap = new ConcurrentKeyedTimeLimitedCache<String, byte[]>(
+				timeSource, 1, (k, v) -> 1) {
+			@Override
+			public void put(String key, byte[] item) {
+				if (Thread.currentThread() == writer[0]) {
+					putting.countDown();
+					awaitQuietly(evicted);
+				}
+				super.put(key, item);
+			}
+		};
+		TieredByteArrayCache<String> tiered = new TieredByteArrayCache<>(heap, offHeap);
+		tiered.put("a", bytes(10, 1));
+
+		writer[0] = new Thread(() -> tiered.put("a", bytes(10, 2)));
+		writer[0].start();
+		putting.await();
+		// evicts the old value of 'a' while the newer one is being put
+		tiered.put("b", bytes(10, 3));
+		evicted.countDown();
+		writer[0].join();
+
+		assertEquals(CacheState.EMPTY, offHeap.getState("a"), "no stale copy off-heap");
+		assertEquals(2, tiered.size());
+		assertArrayEquals(bytes(10, 2), tiered.get("a"));
+	}
+
+	private void awaitQuietly(CountDownLatch latch) {
+		try {
+			latch.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void sleepQuietly(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private byte[] bytes(int length, int seed) {
+		byte[] rc = new byte[length];
+		Arrays.fill(rc, (byte) seed);
+		rc[length - 1] = (byte) (seed + length);
+		return rc;
+	}
+
+}
@@ -0,0 +1,129 @@
+package com.researchspace.core.util.imageutils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class BoundedImageDecoderTest {
+
+	byte[] png;
+
+	/** 2000x1500, left half red and right half blue */
+	@BeforeEach
+	public void setUp() throws IOException {
+		BufferedImage image = new BufferedImage(2000, 1500, BufferedImage.TYPE_INT_RGB);
+		Graphics2D g = image.createGraphics();
+		g.setColor(Color.RED);
+		g.fillRect(0, 0, 1000, 1500);
+		g.setColor(Color.BLUE);
+		g.fillRect(1000, 0, 1000, 1500);
+		g.dispose();
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		ImageIO.write(image, "png", baos);
+		png = baos.toByteArray();
+	}
+
+	@Test
+	public void imageIsDecodedAtReducedResolution() throws IOException {
+		assertEquals(13, BoundedImageDecoder.calculateSampling(2000, 1500, 76, 76));
+		// 154 x 116 pixels are decoded
+		BoundedImageDecoder decoder = new BoundedImageDecoder(154 * 116);
+		BufferedImage thumbnail = decoder.decode(new ByteArrayInputStream(png), 76, 76).get();
+		assertEquals(76, thumbnail.getWidth());
+		assertEquals(57, thumbnail.getHeight());
+
+		assertEquals(new Dimension(2000, 1500),
+				BoundedImageDecoder.readDimensions(new ByteArrayInputStream(png)).get());
+	}
+
+	@Test
+	public void imageOverBudgetFailsBeforeDecoding() {
+		BoundedImageDecoder decoder = new BoundedImageDecoder(100_000);
+		ImageTooLargeException e = assertThrows(ImageTooLargeException.class,
+				() -> decoder.decode(new ByteArrayInputStream(png), 1000, 1000));
+		assertEquals(2000L * 1500, e.getRequiredPixels());
+		assertEquals(100_000, e.getMaxPixels());
+	}
+
+	@Test
+	public void onlyRegionIsDecoded() throws IOException {
+		BoundedImageDecoder decoder = new BoundedImageDecoder(100_000);
+		BufferedImage region = decoder
+				.decode(new ByteArrayInputStream(png), new Rectangle(1500, 0, 1000, 1500), 100, 100).get();
+		assertEquals(33, region.getWidth(), "region is clipped to the image");
+		assertEquals(100, region.getHeight());
+		assertEquals(Color.BLUE.getRGB(), region.getRGB(0, 0));
+	}
+
+	@Test
+	public void nonImageIsNotDecoded() throws IOException {
+		byte[] notAnImage = "not an image".getBytes();
+		assertFalse(new BoundedImageDecoder().decode(new ByteArrayInputStream(notAnImage), 76, 76).isPresent());
+		assertFalse(BoundedImageDecoder.readDimensions(new ByteArrayInputStream(notAnImage)).isPresent());
+		assertThrows(IllegalArgumentException.class,
+				() -> new BoundedImageDecoder().decode(new ByteArrayInputStream(png), 0, 76));
+	}
+
+	@Test
+	public void imageIsRotatedByExifOrientation() throws IOException {
+		// stored as in setUp, to be rotated 90 degrees clockwise for display
+		byte[] jpeg = withExifOrientation(toJpeg(ImageIO.read(new ByteArrayInputStream(png))), 6);
+		// decoded at 1/10 to 200 x 150 in stored orientation
+		BoundedImageDecoder decoder = new BoundedImageDecoder(200 * 150);
+		BufferedImage thumbnail = decoder.decode(new ByteArrayInputStream(jpeg), 75, 100).get();
+		assertEquals(75, thumbnail.getWidth());
+		assertEquals(100, thumbnail.getHeight());
+		// the red left half is now at the top
+		assertTrue(isMostlyRed(thumbnail.getRGB(37, 10)));
+		assertFalse(isMostlyRed(thumbnail.getRGB(37, 90)));
+	}
+
+	private byte[] toJpeg(BufferedImage image) throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		ImageIO.write(image, "jpg", baos);
+		return baos.toByteArray();
+	}
+
+	/**
+	 * Adds an APP1 segment with a single EXIF orientation tag after the
+	 * JFIF APP0 segment.
+	 */
+	private byte[] withExifOrientation(byte[] jpeg, int orientation) {
+		byte[] exif = { 'E', 'x', 'i', 'f', 0, 0,
+				// big-endian TIFF header, first IFD at offset 8
+				'M', 'M', 0, 42, 0, 0, 0, 8,
+				// one entry: orientation, SHORT, count 1, value
+				0, 1, 0x01, 0x12, 0, 3, 0, 0, 0, 1, 0, (byte) orientation, 0, 0,
+				// no next IFD
+				0, 0, 0, 0 };
+		int app0End = 4 + ((jpeg[4] & 0xff) << 8 | (jpeg[5] & 0xff));
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		baos.write(jpeg, 0, app0End);
+		int length = exif.length + 2;
+		baos.write(new byte[] { (byte) 0xff, (byte) 0xe1, (byte) (length >> 8), (byte) length }, 0, 4);
+		baos.write(exif, 0, exif.length);
+		baos.write(jpeg, app0End, jpeg.length - app0End);
+		return baos.toByteArray();
+	}
+
+	private boolean isMostlyRed(int rgb) {
+		Color color = new Color(rgb);
+		return color.getRed() > 200 && color.getBlue() < 50;
+	}
+
+}
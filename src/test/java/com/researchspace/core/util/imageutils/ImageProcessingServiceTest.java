@@ -0,0 +1,167 @@
+package com.researchspace.core.util.imageutils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class ImageProcessingServiceTest {
+
+	ImageProcessingService service;
+	CountDownLatch release;
+
+	@BeforeEach
+	public void setUp() throws Exception {
+		service = new ImageProcessingService(2, 100, 1);
+		release = new CountDownLatch(1);
+	}
+
+	@AfterEach
+	public void tearDown() throws Exception {
+		release.countDown();
+		service.shutdown();
+	}
+
+	CompletableFuture<String> blockingJob(long pixels, String result) {
+		return service.submit(pixels, () -> {
+			release.await();
+			return result;
+		});
+	}
+
+	Throwable failure(CompletableFuture<?> future) throws InterruptedException {
+		try {
+			future.get(5, TimeUnit.SECONDS);
+			return null;
+		} catch (ExecutionException e) {
+			return e.getCause();
+		} catch (Exception e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	@Test
+	public void jobWaitsUntilPixelsAreReleased() throws Exception {
+		CompletableFuture<String> first = blockingJob(60, "first");
+		CompletableFuture<String> second = blockingJob(60, "second");
+		assertEquals(60, service.getPixelsInFlight());
+		assertEquals(1, service.getQueuedCount(), "second job doesn't fit the budget");
+
+		release.countDown();
+		assertEquals("first", first.get(5, TimeUnit.SECONDS));
+		assertEquals("second", second.get(5, TimeUnit.SECONDS));
+		assertEquals(0, service.getQueuedCount());
+	}
+
+	@Test
+	public void jobsAreShedWhenQueueIsFull() throws Exception {
+		blockingJob(60, "running");
+		blockingJob(60, "queued");
+		assertTrue(failure(blockingJob(10, "shed")) instanceof RejectedExecutionException);
+		assertTrue(failure(blockingJob(101, "too large")) instanceof ImageTooLargeException);
+	}
+
+	@Test
+	public void cancelledJobIsWithdrawn() throws Exception {
+		CompletableFuture<String> running = blockingJob(60, "running");
+		CompletableFuture<String> cancelled = blockingJob(60, "cancelled");
+		assertTrue(cancelled.cancel(false));
+		assertEquals("next", service.submit(40, () -> "next").get(5, TimeUnit.SECONDS));
+		release.countDown();
+		assertEquals("running", running.get(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void cancelledJobBehindBlockedHeadFreesItsPlace() throws Exception {
+		ImageProcessingService queueOfTwo = new ImageProcessingService(2, 100, 2);
+		try {
+			queueOfTwo.submit(60, () -> {
+				release.await();
+				return "running";
+			});
+			CompletableFuture<String> blocked = queueOfTwo.submit(60, () -> "blocked");
+			CompletableFuture<String> cancelled = queueOfTwo.submit(10, () -> "cancelled");
+			assertEquals(2, queueOfTwo.getQueuedCount());
+			assertTrue(cancelled.cancel(false));
+			assertEquals(1, queueOfTwo.getQueuedCount());
+			CompletableFuture<String> next = queueOfTwo.submit(10, () -> "next");
+			assertFalse(next.isCompletedExceptionally(), "not shed");
+
+			release.countDown();
+			assertEquals("blocked", blocked.get(5, TimeUnit.SECONDS));
+			assertEquals("next", next.get(5, TimeUnit.SECONDS));
+		} finally {
+			queueOfTwo.shutdown();
+		}
+	}
+
+	@Test
+	public void failedJobReleasesPixels() throws Exception {
+		IOException thrown = new IOException("unreadable");
+		assertSame(thrown, failure(service.submit(100, () -> {
+			throw thrown;
+		})));
+		assertEquals("ok", service.submit(100, () -> "ok").get(5, TimeUnit.SECONDS));
+		assertEquals(0, service.getPixelsInFlight());
+	}
+
+	@Test
+	public void tiffEstimateCountsPagesAndBitDepth() throws Exception {
+		File tiff = File.createTempFile("pages", ".tif");
+		try {
+			ImageWriter writer = ImageIO.getImageWritersByFormatName("tiff").next();
+			try (ImageOutputStream ios = ImageIO.createImageOutputStream(tiff)) {
+				writer.setOutput(ios);
+				writer.prepareWriteSequence(null);
+				for (int i = 0; i < 3; i++) {
+					writer.writeToSequence(new IIOImage(new BufferedImage(100, 50, BufferedImage.TYPE_USHORT_GRAY),
+							null, null), null);
+				}
+				writer.endWriteSequence();
+			} finally {
+				writer.dispose();
+			}
+			// 3 pages of 2 bytes per pixel
+			assertEquals(100 * 50 * 3 * 2 / 4, ImageProcessingService.estimatePixels(tiff));
+		} finally {
+			tiff.delete();
+		}
+	}
+
+	@Test
+	public void imageIsScaledOnPool() throws Exception {
+		File png = new File("src/test/resources/Picture1.png");
+		assertEquals(722 * 445, ImageProcessingService.estimatePixels(png));
+		// decoded at 1/4 resolution for a thumbnail
+		assertEquals(181 * 112, ImageProcessingService.estimatePixels(png, ImageTarget.thumbnail("png")));
+		ImageProcessingService pool = new ImageProcessingService();
+		try {
+			Map<ImageTarget, byte[]> scaled = pool.scaleToTargets(png, ImageTarget.thumbnail("png"))
+					.get(5, TimeUnit.SECONDS);
+			assertEquals(1, scaled.size());
+		} finally {
+			pool.shutdown();
+		}
+		assertTrue(failure(pool.submit(1, () -> "after shutdown")) instanceof RejectedExecutionException);
+	}
+
+}
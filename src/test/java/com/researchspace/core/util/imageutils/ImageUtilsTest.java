@@ -7,17 +7,29 @@ import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.mockito.Mock;
 
 import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static com.researchspace.core.testutil.CoreTestUtils.assertIllegalArgumentException;
+import static com.researchspace.core.util.TransformerUtils.toList;
 import static com.researchspace.core.util.imageutils.ImageUtils.canScaleBySampling;
 import static com.researchspace.core.util.imageutils.ImageUtils.convertTiffToPng;
 import static com.researchspace.core.util.imageutils.ImageUtils.createThumbnail;
@@ -34,7 +46,9 @@ import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.mockito.MockitoAnnotations.initMocks;
@@ -60,6 +74,55 @@ public class ImageUtilsTest {
 		assertNotNull(getBufferedImageFromUploadedFile("tiff", is));
 	}
 	
+	@Test
+	public void tiffIsDecodedInMemoryOrFromTempFile(@TempDir Path tempDir) throws IOException {
+		byte[] tiff = FileUtils.readFileToByteArray(new File(tiffFile));
+		int size = tiff.length;
+		// in memory, with known and unknown size
+		assertTrue(ImageUtils.getBufferedImageFromTiffStream(new ByteArrayInputStream(tiff), size, size, tempDir)
+				.isPresent());
+		assertTrue(ImageUtils.getBufferedImageFromTiffStream(new ByteArrayInputStream(tiff),
+				IMultipartFile.UNKNOWN_SIZE, size, tempDir).isPresent());
+		// over threshold, copied to a temp file
+		assertTrue(ImageUtils.getBufferedImageFromTiffStream(new ByteArrayInputStream(tiff), size, size - 1, tempDir)
+				.isPresent());
+		assertTrue(ImageUtils.getBufferedImageFromTiffStream(new ByteArrayInputStream(tiff),
+				IMultipartFile.UNKNOWN_SIZE, size - 1, tempDir).isPresent());
+		assertNoTempTiffs(tempDir);
+
+		// stream fails while being copied
+		InputStream failing = new SequenceInputStream(new ByteArrayInputStream(tiff, 0, size / 2), new InputStream() {
+			@Override
+			public int read() throws IOException {
+				throw new IOException("connection reset");
+			}
+		});
+		assertThrows(IOException.class,
+				() -> ImageUtils.getBufferedImageFromTiffStream(failing, size, size - 1, tempDir));
+		// not a tiff
+		byte[] garbage = new byte[size];
+		assertFalse(ImageUtils.getBufferedImageFromTiffStream(new ByteArrayInputStream(garbage),
+				IMultipartFile.UNKNOWN_SIZE, size - 1, tempDir).isPresent());
+		assertNoTempTiffs(tempDir);
+	}
+
+	private void assertNoTempTiffs(Path dir) throws IOException {
+		try (Stream<Path> files = Files.list(dir)) {
+			List<String> left = files.map(file -> file.getFileName().toString())
+					.filter(name -> name.startsWith("original") && name.endsWith(".tif")).collect(Collectors.toList());
+			assertTrue(left.isEmpty(), "temp files left: " + left);
+		}
+	}
+
+	@Test
+	public void getImageFromTiffMultipartFile() throws IOException {
+		when(multipartFile.getInputStream()).thenReturn(openInputStream(new File(tiffFile)));
+		when(multipartFile.getOriginalFilename()).thenReturn("Picture1.tiff");
+		when(multipartFile.getSize()).thenReturn(new File(tiffFile).length());
+		assertTrue(getBufferedImageFromUploadedFile(multipartFile).isPresent());
+		verify(multipartFile, never()).transferTo(any(File.class));
+	}
+
 	@Test
 	public void nullHandlingOfInputStreamsThrowsIAE () throws IOException {
 		assertThrows(IllegalArgumentException.class, ()->ImageIO.createImageInputStream(null));
@@ -115,6 +178,66 @@ public class ImageUtilsTest {
 		assertTrue(baos.toByteArray().length > 0);
 	}
 
+	@Test
+	public void thumbnailAndPreviewFromStream() throws IOException {
+		try (InputStream is = getInputStreamToResource("Picture1.png")) {
+			BufferedImage thumbnail = ImageUtils.getThumbnailFromInputImageStream(is).get();
+			assertTrue(thumbnail.getWidth() <= ImageUtils.DEFAULT_THUMBNAIL_DIMNSN);
+			assertTrue(thumbnail.getHeight() <= ImageUtils.DEFAULT_THUMBNAIL_DIMNSN);
+		}
+		try (InputStream is = getInputStreamToResource("Picture1.png")) {
+			BufferedImage preview = ImageUtils.getPreviewFromInputImageStream(is).get();
+			assertTrue(preview.getWidth() <= ImageUtils.MAX_PAGE_DISPLAY_WIDTH);
+		}
+	}
+
+	@Test
+	public void scaleToSeveralTargetsFromOneDecode() throws IOException {
+		ImageTarget thumbnail = ImageTarget.thumbnail("png");
+		ImageTarget preview = ImageTarget.width(300, "jpg");
+		Map<ImageTarget, byte[]> scaled;
+		try (InputStream is = getInputStreamToResource("Picture1.png")) {
+			scaled = ImageUtils.scaleToTargets(is, "png", thumbnail, preview);
+		}
+		assertEquals(toList(thumbnail, preview), new ArrayList<>(scaled.keySet()));
+		BufferedImage thumbnailImage = ImageIO.read(new ByteArrayInputStream(scaled.get(thumbnail)));
+		assertTrue(thumbnailImage.getWidth() <= ImageUtils.DEFAULT_THUMBNAIL_DIMNSN);
+		assertTrue(thumbnailImage.getHeight() <= ImageUtils.DEFAULT_THUMBNAIL_DIMNSN);
+		assertEquals(300, ImageIO.read(new ByteArrayInputStream(scaled.get(preview))).getWidth());
+	}
+
+	@Test
+	public void scaleTiffToTargetsLeavesStreamOpen() throws IOException {
+		boolean[] closed = { false };
+		ImageTarget thumbnail = ImageTarget.thumbnail("png");
+		try (InputStream is = new FilterInputStream(openInputStream(new File(tiffFile))) {
+			@Override
+			public void close() throws IOException {
+				closed[0] = true;
+				super.close();
+			}
+		}) {
+			assertFalse(ImageUtils.scaleToTargets(is, "tiff", thumbnail).isEmpty());
+			assertFalse(closed[0]);
+		}
+		assertTrue(closed[0]);
+	}
+
+	@Test
+	public void scaleToTargetsThatDontNest() throws IOException {
+		BufferedImage square = new BufferedImage(1000, 1000, BufferedImage.TYPE_INT_RGB);
+		// the narrow box has the larger area but fits the image smaller
+		ImageTarget narrow = new ImageTarget(100, 1000, "png");
+		ImageTarget small = new ImageTarget(200, 200, "png");
+		Map<ImageTarget, byte[]> scaled = ImageUtils.scaleToTargets(square, narrow, small);
+		BufferedImage narrowImage = ImageIO.read(new ByteArrayInputStream(scaled.get(narrow)));
+		BufferedImage smallImage = ImageIO.read(new ByteArrayInputStream(scaled.get(small)));
+		assertEquals(100, narrowImage.getWidth());
+		assertEquals(100, narrowImage.getHeight());
+		assertEquals(200, smallImage.getWidth());
+		assertEquals(200, smallImage.getHeight());
+	}
+
 	@Test
 	public void isTiffByName() {
 		assertTrue(isTiff("tiff"));
@@ -0,0 +1,115 @@
+package com.researchspace.core.util.imageutils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class TiledTiffProcessorTest {
+
+	File folder;
+	File tiff;
+	BufferedImage original;
+
+	@BeforeEach
+	public void setUp() throws Exception {
+		folder = File.createTempFile("tiles", "");
+		folder.delete();
+		folder.mkdir();
+		original = new BufferedImage(150, 100, BufferedImage.TYPE_INT_RGB);
+		for (int y = 0; y < original.getHeight(); y++) {
+			for (int x = 0; x < original.getWidth(); x++) {
+				original.setRGB(x, y, (x << 16) | (y << 8) | ((x * y) & 0xff));
+			}
+		}
+		tiff = new File(folder, "striped.tif");
+		ImageIO.write(original, "tiff", tiff);
+	}
+
+	@AfterEach
+	public void tearDown() throws Exception {
+		FileUtils.deleteDirectory(folder);
+	}
+
+	@Test
+	public void convertToPngInBands() throws IOException {
+		// 7 rows per band
+		File png = TiledTiffProcessor.convertTiffToPng(tiff, folder, "converted", 150 * 7);
+		assertEquals("converted.png", png.getName());
+		BufferedImage converted = ImageIO.read(png);
+		for (int y = 0; y < original.getHeight(); y++) {
+			for (int x = 0; x < original.getWidth(); x++) {
+				assertEquals(original.getRGB(x, y), converted.getRGB(x, y));
+			}
+		}
+	}
+
+	@Test
+	public void rotateByBands() throws IOException {
+		// 16 source rows per band
+		assertRotated(tiff, 150 * 16);
+		assertFalse(TiledTiffProcessor.rotateTiff(tiff, 4, new File(folder, "rotated.tif")));
+	}
+
+	@Test
+	public void rotateTiledSource() throws IOException {
+		File tiled = new File(folder, "tiled.tif");
+		ImageWriter writer = ImageIO.getImageWritersByFormatName("tiff").next();
+		ImageWriteParam param = writer.getDefaultWriteParam();
+		param.setTilingMode(ImageWriteParam.MODE_EXPLICIT);
+		param.setTiling(32, 32, 0, 0);
+		try (ImageOutputStream ios = ImageIO.createImageOutputStream(tiled)) {
+			writer.setOutput(ios);
+			writer.write(null, new IIOImage(original, null, null), param);
+		} finally {
+			writer.dispose();
+		}
+		// bands of 40 rows are rounded down to whole source tiles
+		assertRotated(tiled, 150 * 40);
+	}
+
+	private void assertRotated(File source, int bandPixels) throws IOException {
+		int w = original.getWidth();
+		int h = original.getHeight();
+		File out = new File(folder, "rotated.tif");
+		for (int turns = 1; turns <= 3; turns++) {
+			assertTrue(TiledTiffProcessor.rotateTiff(source, turns, out, bandPixels));
+			BufferedImage rotated = ImageIO.read(out);
+			assertEquals(turns == 2 ? w : h, rotated.getWidth());
+			for (int y = 0; y < h; y++) {
+				for (int x = 0; x < w; x++) {
+					int expected = original.getRGB(x, y);
+					if (turns == 1) {
+						assertEquals(expected, rotated.getRGB(h - 1 - y, x));
+					} else if (turns == 2) {
+						assertEquals(expected, rotated.getRGB(w - 1 - x, h - 1 - y));
+					} else {
+						assertEquals(expected, rotated.getRGB(y, w - 1 - x));
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	public void nonTiffIsNotRotated() throws IOException {
+		File png = new File(folder, "image.png");
+		ImageIO.write(original, "png", png);
+		assertFalse(TiledTiffProcessor.rotateTiff(png, 1, new File(folder, "rotated.tif")));
+	}
+
+}
@@ -0,0 +1,87 @@
+package com.researchspace.core.util.jsonserialisers;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.researchspace.core.util.JacksonUtil;
+
+public class IsoDatesTest {
+
+	static final DateTimeFormatter DATE_TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'")
+			.withZone(ZoneOffset.UTC);
+
+	public static class Dated {
+		@JsonSerialize(using = ISO8601DateTimeSerialiser.class)
+		@JsonDeserialize(using = ISO8601DateTimeDeserialiser.class)
+		public Long created;
+		@JsonSerialize(using = ISO8601DateSerialiser.class)
+		public Long day;
+	}
+
+	@Test
+	public void formatMatchesJavaTime() {
+		Random random = new Random(42);
+		char[] buf = new char[IsoDates.DATE_TIME_LENGTH];
+		for (int i = 0; i < 10_000; i++) {
+			// 0000 to 9999
+			long millis = -62_167_219_200_000L + (long) (random.nextDouble() * 315_537_897_599_999L);
+			String expected = DATE_TIME.format(Instant.ofEpochMilli(millis));
+			assertEquals(IsoDates.DATE_TIME_LENGTH, IsoDates.formatUtc(millis, false, buf));
+			assertEquals(expected, new String(buf), "millis " + millis);
+			assertEquals(millis, IsoDates.parseUtcDateTime(buf, 0, buf.length));
+		}
+		assertEquals(-1, IsoDates.formatUtc(Long.MAX_VALUE / 2, false, buf));
+	}
+
+	@Test
+	public void invalidDateTimesAreNotParsed() {
+		for (String invalid : new String[] { "2018-02-29T00:00:00.000Z", "2018-13-01T00:00:00.000Z",
+				"2018-03-21T24:00:00.000Z", "2018-03-21T00:00:00.000+01:00", "2018-03-21 00:00:00.000Z",
+				"2018-03-2aT00:00:00.000Z" }) {
+			assertEquals(IsoDates.NOT_PARSED, IsoDates.parseUtcDateTime(invalid.toCharArray(), 0, invalid.length()),
+					invalid);
+		}
+		String leapDay = "x2020-02-29T23:59:59Z";
+		assertEquals(Instant.parse("2020-02-29T23:59:59Z").toEpochMilli(),
+				IsoDates.parseUtcDateTime(leapDay.toCharArray(), 1, leapDay.length() - 1));
+	}
+
+	@Test
+	public void serialisersRoundTrip() {
+		Dated dated = new Dated();
+		dated.created = 1521590400123L;
+		dated.day = 1521590400123L;
+		String json = JacksonUtil.toJson(dated);
+		assertEquals("{\"created\":\"2018-03-21T00:00:00.123Z\",\"day\":\"2018-03-21\"}", json);
+		assertEquals(dated.created, JacksonUtil.fromJson(json.replace(",\"day\":\"2018-03-21\"", ""), Dated.class).created);
+		String withOffset = "{\"created\":\"2018-03-21T01:00:00.123+01:00\"}";
+		assertEquals(dated.created, JacksonUtil.fromJson(withOffset, Dated.class).created);
+	}
+
+	@Test
+	public void localDateOutsideFourDigitYearsUsesFormatter() {
+		LocalDateSerialisationTestBean bean = new LocalDateSerialisationTestBean();
+		bean.expiryDate = LocalDate.of(10_000, 1, 1);
+		assertEquals("{\"expiryDate\":\"+10000-01-01\"}", JacksonUtil.toJson(bean));
+		bean.expiryDate = LocalDate.of(2020, 1, 29);
+		String json = JacksonUtil.toJson(bean);
+		assertEquals("{\"expiryDate\":\"2020-01-29\"}", json);
+		assertEquals(bean.expiryDate, JacksonUtil.fromJson(json, LocalDateSerialisationTestBean.class).expiryDate);
+	}
+
+	public static class LocalDateSerialisationTestBean {
+		@JsonSerialize(using = LocalDateSerialiser.class)
+		@JsonDeserialize(using = LocalDateDeserialiser.class)
+		public LocalDate expiryDate;
+	}
+
+}
@@ -0,0 +1,146 @@
+package com.researchspace.core.util.throttling;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Map;
+
+import org.joda.time.DateTime;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.researchspace.core.util.ManualTimeSource;
+import com.researchspace.core.util.TimeSource;
+
+public class AbstractTokenBucketThrottlerTest {
+
+	/** Concrete throttler, implemented as clients of the base class do */
+	static class TestThrottler extends AbstractTokenBucketThrottler implements Throttler {
+
+		TestThrottler(TimeSource timeSource, ThrottleDefinitionSet definitions) {
+			super(timeSource, definitions, new AllowanceTrackerSourceImpl(timeSource, definitions));
+		}
+
+		@Override
+		public boolean proceed(String identifier, Double requestedResourceUnits) {
+			AllowanceTracker tracker = getAllowanceTrackerById(identifier);
+			DateTime current = timeSource.now();
+			doProceed(tracker, current, getIntervalSinceLastRequest(tracker.getLastCheck(), current),
+					requestedResourceUnits);
+			return true;
+		}
+
+		@Override
+		public ThrottleDecision decide(String identifier, double requestedResourceUnits) {
+			AllowanceTracker tracker = getAllowanceTrackerById(identifier);
+			DateTime current = timeSource.now();
+			return doDecide(tracker, current, getIntervalSinceLastRequest(tracker.getLastCheck(), current),
+					requestedResourceUnits);
+		}
+
+		@Override
+		protected void throwThrottleException(String msg) {
+			throw new TooManyRequestsException(msg);
+		}
+
+		@Override
+		protected String getThrottleLimitExceededMessage(Map.Entry<ThrottleInterval, ThrottleLimitDefinition> pair) {
+			return "Limit of " + pair.getValue().getLimit() + " per " + pair.getKey() + " exceeded";
+		}
+
+		@Override
+		public String getName() {
+			return "test";
+		}
+	}
+
+	ManualTimeSource timeSource;
+
+	@BeforeEach
+	public void setUp() throws Exception {
+		timeSource = new ManualTimeSource();
+	}
+
+	@Test
+	public void decisionsAreCounted() {
+		TestThrottler throttler = new TestThrottler(timeSource,
+				new ThrottleDefinitionSet().addDefinition(ThrottleInterval.QUARTER_MIN, 3));
+		throttler.proceed("client", 2.0);
+		assertThrows(TooManyRequestsException.class, () -> throttler.proceed("client", 1.0));
+		assertFalse(throttler.decide("client", 1).isAllowed());
+
+		ThrottleStats stats = throttler.getStats();
+		assertEquals(1, stats.getAllowedCount(ThrottleInterval.QUARTER_MIN));
+		assertEquals(2, stats.getDeniedCount(ThrottleInterval.QUARTER_MIN));
+		assertEquals("client", stats.getTopDeniedIdentifiers().get(0).getIdentifier());
+		// 2 of 3 units used
+		assertEquals(1, stats.getUtilisationHistogram()[1]);
+	}
+
+	@Test
+	public void decisionHasRemainingUnitsAndRetryAfter() {
+		// refills 0.2 units a second
+		TestThrottler throttler = new TestThrottler(timeSource,
+				new ThrottleDefinitionSet().addDefinition(ThrottleInterval.QUARTER_MIN, 3));
+		ThrottleDecision decision = throttler.decide("client", 1);
+		assertTrue(decision.isAllowed());
+		assertEquals(ThrottleInterval.QUARTER_MIN, decision.getLimitingInterval());
+		assertEquals(2, decision.getRemainingUnits(), 0.001);
+		assertTrue(throttler.decide("client", 1).isAllowed());
+
+		// the allowance must exceed the request, so 1 unit left allows nothing
+		decision = throttler.decide("client", 2);
+		assertFalse(decision.isAllowed());
+		assertEquals(1, decision.getRemainingUnits(), 0.001);
+		assertEquals(5000, decision.getRetryAfterMillis(), 1);
+		assertEquals(ThrottleDecision.NEVER, throttler.decide("client", 3).getRetryAfterMillis());
+
+		timeSource.advanceMillis(decision.getRetryAfterMillis() + 1);
+		assertTrue(throttler.decide("client", 2).isAllowed());
+	}
+
+	@Test
+	public void retryAfterFollowsOverriddenIsAllowed() {
+		TestThrottler throttler = new TestThrottler(timeSource,
+				new ThrottleDefinitionSet().addDefinition(ThrottleInterval.QUARTER_MIN, 4)) {
+			// keeps half the limit in reserve
+			@Override
+			protected boolean isAllowed(Double requestedResourceUnits, double allowance,
+					ThrottleLimitDefinition value) {
+				return allowance - requestedResourceUnits >= value.getLimit() / 2;
+			}
+		};
+		assertTrue(throttler.decide("client", 1).isAllowed());
+		assertTrue(throttler.decide("client", 1).isAllowed());
+		ThrottleDecision decision = throttler.decide("client", 1);
+		assertFalse(decision.isAllowed());
+		// allowance must refill from 2 to 3 units, at 4 units per 15 seconds
+		assertEquals(3750, decision.getRetryAfterMillis(), 1);
+		assertEquals(ThrottleDecision.NEVER, throttler.decide("client", 3).getRetryAfterMillis());
+
+		timeSource.advanceMillis(decision.getRetryAfterMillis());
+		assertTrue(throttler.decide("client", 1).isAllowed());
+	}
+
+	@Test
+	public void swappedDefinitionsApplyThroughProceed() {
+		TestThrottler throttler = new TestThrottler(timeSource,
+				new ThrottleDefinitionSet().addDefinition(ThrottleInterval.HOUR, 10));
+		assertTrue(throttler.proceed("client", 5.0));
+
+		// 5 of 10 left is rescaled to 10 of 20
+		throttler.setThrottleLimitDefinitions(new ThrottleDefinitionSet().addDefinition(ThrottleInterval.HOUR, 20));
+		assertTrue(throttler.proceed("client", 9.0));
+		TooManyRequestsException e = assertThrows(TooManyRequestsException.class,
+				() -> throttler.proceed("client", 1.0));
+		assertEquals("Limit of 20 per HOUR exceeded", e.getMessage());
+
+		throttler.setThrottleLimitDefinitions(new ThrottleDefinitionSet().addDefinition(ThrottleInterval.DAY, 5));
+		assertTrue(throttler.proceed("client", 4.0), "new interval starts full");
+		assertThrows(IllegalArgumentException.class,
+				() -> throttler.setThrottleLimitDefinitions(new ThrottleDefinitionSet()));
+	}
+
+}
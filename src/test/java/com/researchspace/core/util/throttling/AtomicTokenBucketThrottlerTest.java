@@ -0,0 +1,277 @@
+package com.researchspace.core.util.throttling;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.researchspace.core.util.ManualTimeSource;
+
+public class AtomicTokenBucketThrottlerTest {
+
+	ManualTimeSource timeSource;
+	ThrottleDefinitionSet definitions;
+
+	@BeforeEach
+	public void setUp() throws Exception {
+		timeSource = new ManualTimeSource();
+		definitions = new ThrottleDefinitionSet("requests").addDefinition(ThrottleInterval.QUARTER_MIN, 3)
+				.addDefinition(ThrottleInterval.HOUR, 5);
+	}
+
+	@Test
+	public void allowsExactlyLimitThenThrows() {
+		AtomicTokenBucketThrottler throttler = new AtomicTokenBucketThrottler("api", timeSource, definitions);
+		for (int i = 0; i < 3; i++) {
+			assertTrue(throttler.proceed("client"));
+		}
+		TooManyRequestsException e = assertThrows(TooManyRequestsException.class,
+				() -> throttler.proceed("client"));
+		assertTrue(e.getMessage().contains("quarter_min"));
+		assertTrue(throttler.proceed("other"), "clients are throttled independently");
+	}
+
+	@Test
+	public void bucketRefillsOverInterval() {
+		AtomicTokenBucketThrottler throttler = new AtomicTokenBucketThrottler("api", timeSource,
+				new ThrottleDefinitionSet().addDefinition(ThrottleInterval.QUARTER_MIN, 3));
+		throttler.proceed("client", 3.0);
+		assertEquals(0, throttler.getAvailableUnits("client", ThrottleInterval.QUARTER_MIN), 0.001);
+		timeSource.advanceMillis(5000);
+		assertEquals(1, throttler.getAvailableUnits("client", ThrottleInterval.QUARTER_MIN), 0.001);
+		assertTrue(throttler.proceed("client"));
+		timeSource.advanceMillis(60_000);
+		assertEquals(3, throttler.getAvailableUnits("client", ThrottleInterval.QUARTER_MIN), 0.001);
+	}
+
+	@Test
+	public void frequentRequestsDontLoseRefill() {
+		AtomicTokenBucketThrottler throttler = new AtomicTokenBucketThrottler("api", timeSource,
+				new ThrottleDefinitionSet().addDefinition(ThrottleInterval.DAY, 10));
+		throttler.proceed("client", 10.0);
+		// one unit refills every 8640 seconds; update the bucket every second
+		for (int i = 0; i < 8640; i++) {
+			timeSource.advanceMillis(1000);
+			throttler.proceed("client", 0.0);
+		}
+		assertEquals(1, throttler.getAvailableUnits("client", ThrottleInterval.DAY), 0.001);
+	}
+
+	@Test
+	public void proceedRecordsStatsWithoutDecisions() {
+		AtomicTokenBucketThrottler throttler = new AtomicTokenBucketThrottler("api", timeSource, definitions) {
+			@Override
+			ThrottleDecision tryAcquire(String identifier, double units, long nowNanos, ThrottleLimits limits) {
+				throw new AssertionError("proceed should not build a decision");
+			}
+
+			@Override
+			protected boolean onDenied(String identifier, ThrottleInterval interval, int limit) {
+				return false;
+			}
+		};
+		for (int i = 0; i < 3; i++) {
+			assertTrue(throttler.proceed("client"));
+		}
+		assertFalse(throttler.proceed("client"));
+		ThrottleStats stats = throttler.getStats();
+		assertEquals(3, stats.getAllowedCount(ThrottleInterval.HOUR));
+		assertEquals(1, stats.getDeniedCount(ThrottleInterval.QUARTER_MIN));
+		assertEquals("client", stats.getTopDeniedIdentifiers().get(0).getIdentifier());
+		// the last allowed request left the quarter-minute bucket empty
+		long[] utilisation = stats.getUtilisationHistogram();
+		assertEquals(1, utilisation[utilisation.length - 1]);
+	}
+
+	@Test
+	public void deniedRequestDoesNotConsumeOtherIntervals() {
+		AtomicTokenBucketThrottler throttler = new AtomicTokenBucketThrottler("api", timeSource, definitions) {
+			@Override
+			protected boolean onDenied(String identifier, ThrottleInterval interval, int limit) {
+				return false;
+			}
+		};
+		assertTrue(throttler.proceed("client", 3.0));
+		assertFalse(throttler.proceed("client", 1.0));
+		assertEquals(2, throttler.getAvailableUnits("client", ThrottleInterval.HOUR), 0.001);
+		timeSource.advanceMillis(15_000);
+		assertTrue(throttler.proceed("client", 2.0));
+		// hourly limit denies, quarter-minute allowance is returned
+		assertFalse(throttler.proceed("client", 1.0));
+		assertEquals(1, throttler.getAvailableUnits("client", ThrottleInterval.QUARTER_MIN), 0.001);
+	}
+
+	@Test
+	public void decideReportsRemainingUnitsAndRetryAfter() {
+		AtomicTokenBucketThrottler throttler = new AtomicTokenBucketThrottler("api", timeSource, definitions);
+		ThrottleDecision decision = throttler.decide("client", 2.0);
+		assertTrue(decision.isAllowed());
+		assertEquals(ThrottleInterval.QUARTER_MIN, decision.getLimitingInterval());
+		assertEquals(1, decision.getRemainingUnits(), 0.001);
+
+		decision = throttler.decide("client", 2.0);
+		assertFalse(decision.isAllowed());
+		assertEquals(ThrottleInterval.QUARTER_MIN, decision.getLimitingInterval());
+		// 1 more unit refills in 5s
+		assertEquals(5000, decision.getRetryAfterMillis(), 1);
+		assertEquals(5, decision.getRetryAfterSeconds());
+		timeSource.advanceMillis(decision.getRetryAfterMillis());
+		assertTrue(throttler.decide("client", 2.0).isAllowed());
+
+		assertEquals(ThrottleDecision.NEVER, throttler.decide("client", 4.0).getRetryAfterMillis());
+	}
+
+	@Test
+	public void defaultDecideConvertsException() {
+		Throttler throttler = new Throttler() {
+			@Override
+			public boolean proceed(String identifier, Double requestedResourceUnits) {
+				throw new TooManyRequestsException("denied");
+			}
+
+			@Override
+			public String getName() {
+				return "test";
+			}
+		};
+		assertFalse(throttler.decide("client", 1.0).isAllowed());
+	}
+
+	@Test
+	public void swappedLimitsRescaleRemainingAllowance() {
+		AtomicTokenBucketThrottler throttler = new AtomicTokenBucketThrottler("api", timeSource,
+				new ThrottleDefinitionSet().addDefinition(ThrottleInterval.HOUR, 100));
+		throttler.proceed("client", 50.0);
+
+		throttler.setThrottleLimitDefinitions(new ThrottleDefinitionSet().addDefinition(ThrottleInterval.HOUR, 200)
+				.addDefinition(ThrottleInterval.QUARTER_MIN, 10));
+		assertEquals(100, throttler.getAvailableUnits("client", ThrottleInterval.HOUR), 0.001);
+		assertEquals(10, throttler.getAvailableUnits("client", ThrottleInterval.QUARTER_MIN), 0.001);
+		assertTrue(throttler.decide("client", 10.0).isAllowed());
+		assertFalse(throttler.decide("client", 1.0).isAllowed());
+
+		throttler.setThrottleLimitDefinitions(new ThrottleDefinitionSet().addDefinition(ThrottleInterval.HOUR, 200));
+		assertEquals(0, throttler.getAvailableUnits("client", ThrottleInterval.QUARTER_MIN), 0.001);
+		assertTrue(throttler.decide("client", 1.0).isAllowed());
+	}
+
+	@Test
+	public void largeLimitIsEnforcedExactly() {
+		AtomicTokenBucketThrottler throttler = new AtomicTokenBucketThrottler("api", timeSource,
+				new ThrottleDefinitionSet().addDefinition(ThrottleInterval.HOUR, 1_000_000)) {
+			@Override
+			protected boolean onDenied(String identifier, ThrottleInterval interval, int limit) {
+				return false;
+			}
+		};
+		int allowed = 0;
+		while (throttler.proceed("client") && allowed <= 1_000_000) {
+			allowed++;
+		}
+		assertEquals(1_000_000, allowed);
+
+		// half used is rescaled to half of a limit with a different capacity
+		timeSource.advanceMillis(1_800_000);
+		throttler.setThrottleLimitDefinitions(
+				new ThrottleDefinitionSet().addDefinition(ThrottleInterval.HOUR, 5_000_000));
+		assertEquals(2_500_000, throttler.getAvailableUnits("client", ThrottleInterval.HOUR), 1);
+	}
+
+	@Test
+	public void invalidArguments() {
+		assertThrows(IllegalArgumentException.class,
+				() -> new AtomicTokenBucketThrottler("api", timeSource, new ThrottleDefinitionSet()));
+		assertThrows(IllegalArgumentException.class, () -> new AtomicTokenBucketThrottler("api", timeSource,
+				new ThrottleDefinitionSet().addDefinition(ThrottleInterval.DAY, AtomicTokenBucketThrottler.MAX_LIMIT + 1)));
+		AtomicTokenBucketThrottler throttler = new AtomicTokenBucketThrottler("api", timeSource, definitions);
+		assertThrows(IllegalArgumentException.class, () -> throttler.proceed(""));
+		assertThrows(IllegalArgumentException.class, () -> throttler.proceed("client", -1.0));
+	}
+
+	@Test
+	public void concurrentRequestsNeverExceedLimit() throws InterruptedException {
+		AtomicTokenBucketThrottler throttler = new AtomicTokenBucketThrottler("api", timeSource,
+				new ThrottleDefinitionSet().addDefinition(ThrottleInterval.HOUR, 1000)
+						.addDefinition(ThrottleInterval.DAY, 5000)) {
+			@Override
+			protected boolean onDenied(String identifier, ThrottleInterval interval, int limit) {
+				return false;
+			}
+		};
+		AtomicInteger allowed = new AtomicInteger();
+		List<Thread> threads = new ArrayList<>();
+		for (int t = 0; t < 8; t++) {
+			threads.add(new Thread(() -> {
+				for (int i = 0; i < 500; i++) {
+					if (throttler.proceed("client")) {
+						allowed.incrementAndGet();
+					}
+				}
+			}));
+		}
+		threads.forEach(Thread::start);
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(1000, allowed.get());
+		assertEquals(4000, throttler.getAvailableUnits("client", ThrottleInterval.DAY), 0.001);
+	}
+
+	@Test
+	public void limitsChangedDuringRequestsKeepOtherIntervals() throws InterruptedException {
+		ThrottleDefinitionSet withDay = new ThrottleDefinitionSet().addDefinition(ThrottleInterval.HOUR, 1000)
+				.addDefinition(ThrottleInterval.DAY, 5000);
+		ThrottleDefinitionSet withoutDay = new ThrottleDefinitionSet().addDefinition(ThrottleInterval.HOUR, 1000);
+		AtomicTokenBucketThrottler throttler = new AtomicTokenBucketThrottler("api", timeSource, withDay) {
+			@Override
+			protected boolean onDenied(String identifier, ThrottleInterval interval, int limit) {
+				return false;
+			}
+		};
+		AtomicInteger allowed = new AtomicInteger();
+		List<Thread> threads = new ArrayList<>();
+		for (int t = 0; t < 4; t++) {
+			threads.add(new Thread(() -> {
+				for (int i = 0; i < 500; i++) {
+					if (throttler.proceed("client")) {
+						allowed.incrementAndGet();
+					}
+				}
+			}));
+		}
+		threads.forEach(Thread::start);
+		// DAY's buckets are cleared each time it is removed
+		for (int i = 0; i < 200; i++) {
+			throttler.setThrottleLimitDefinitions(i % 2 == 0 ? withoutDay : withDay);
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(1000, allowed.get(), "no update to HOUR is lost");
+		assertEquals(0, throttler.getAvailableUnits("client", ThrottleInterval.HOUR), 0.5);
+	}
+
+	@Test
+	public void clientsWithFullBucketsAreEvicted() throws InterruptedException {
+		AtomicTokenBucketThrottler throttler = new AtomicTokenBucketThrottler("api", timeSource, definitions);
+		throttler.proceed("a");
+		throttler.proceed("b");
+		timeSource.advanceMillis(15_000);
+		assertEquals(0, throttler.evictIdle(), "hourly buckets not yet full");
+		timeSource.advanceMillis(3_600_000);
+		assertEquals(2, throttler.evictIdle());
+		assertEquals(0, throttler.getTrackedIdCount());
+
+		SlidingWindowThrottlerTest.assertRequestsOutliveEviction(new AtomicTokenBucketThrottler("api", timeSource,
+				new ThrottleDefinitionSet().addDefinition(ThrottleInterval.QUARTER_MIN, 1)
+						.addDefinition(ThrottleInterval.HOUR, 1)));
+	}
+
+}
@@ -0,0 +1,123 @@
+package com.researchspace.core.util.throttling;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.researchspace.core.util.ManualTimeSource;
+
+public class BoundedAllowanceTrackerSourceTest {
+
+	ManualTimeSource timeSource;
+	ThrottleDefinitionSet definitions;
+
+	@BeforeEach
+	public void setUp() throws Exception {
+		timeSource = new ManualTimeSource();
+		definitions = new ThrottleDefinitionSet().addDefinition(ThrottleInterval.QUARTER_MIN, 5)
+				.addDefinition(ThrottleInterval.HOUR, 100);
+	}
+
+	@Test
+	public void newTrackerHasFullAllowances() {
+		BoundedAllowanceTrackerSource source = new BoundedAllowanceTrackerSource(timeSource, definitions, 10);
+		AllowanceTracker tracker = source.getAllowance("client");
+		assertEquals(5, tracker.getAllowance(ThrottleInterval.QUARTER_MIN), 0.001);
+		assertEquals(100, tracker.getAllowance(ThrottleInterval.HOUR), 0.001);
+		assertSame(tracker, source.getAllowance("client"));
+		assertThrows(IllegalArgumentException.class, () -> source.getAllowance(""));
+	}
+
+	@Test
+	public void idleTrackerIsReplacedWithFullAllowances() {
+		BoundedAllowanceTrackerSource source = new BoundedAllowanceTrackerSource(timeSource, definitions, 10);
+		AllowanceTracker tracker = source.getAllowance("client");
+		tracker.decrementAllowance(ThrottleInterval.HOUR, 100, 50);
+
+		timeSource.advanceMillis(3_600_000);
+		assertSame(tracker, source.getAllowance("client"), "not idle until longest interval has passed");
+		timeSource.advanceMillis(1);
+		AllowanceTracker replaced = source.getAllowance("client");
+		assertNotSame(tracker, replaced);
+		assertEquals(100, replaced.getAllowance(ThrottleInterval.HOUR), 0.001);
+	}
+
+	@Test
+	public void trackerIsRescaledToNewDefinitions() {
+		BoundedAllowanceTrackerSource source = new BoundedAllowanceTrackerSource(timeSource, definitions, 10);
+		AllowanceTracker tracker = source.getAllowance("client");
+		tracker.decrementAllowance(ThrottleInterval.HOUR, 100, 50);
+
+		tracker.applyDefinitions(new ThrottleDefinitionSet().addDefinition(ThrottleInterval.HOUR, 200)
+				.addDefinition(ThrottleInterval.DAY, 1000));
+		assertEquals(100, tracker.getAllowance(ThrottleInterval.HOUR), 0.001);
+		assertEquals(1000, tracker.getAllowance(ThrottleInterval.DAY), 0.001);
+		assertFalse(tracker.getAllowances().containsKey(ThrottleInterval.QUARTER_MIN));
+	}
+
+	@Test
+	public void idlenessFollowsDefinitionsAppliedLater() {
+		BoundedAllowanceTrackerSource source = new BoundedAllowanceTrackerSource(timeSource, definitions, 10);
+		AllowanceTracker tracker = source.getAllowance("client");
+		tracker.applyDefinitions(new ThrottleDefinitionSet().addDefinition(ThrottleInterval.DAY, 1000));
+		tracker.decrementAllowance(ThrottleInterval.DAY, 1000, 500);
+
+		timeSource.advanceMillis(3_600_001);
+		assertSame(tracker, source.getAllowance("client"), "daily allowance hasn't refilled");
+		assertEquals(0, source.evictIdle());
+		timeSource.advanceMillis(86_400_000);
+		assertEquals(1, source.evictIdle());
+	}
+
+	@Test
+	public void idleTrackersAreSwept() {
+		BoundedAllowanceTrackerSource source = new BoundedAllowanceTrackerSource(timeSource, definitions, 100);
+		for (int i = 0; i < 20; i++) {
+			source.getAllowance("client" + i);
+		}
+		timeSource.advanceMillis(3_600_001);
+		source.getAllowance("active");
+		assertEquals(1, source.size());
+		assertEquals(0, source.evictIdle());
+	}
+
+	@Test
+	public void concurrentRequestsShareOneTracker() throws Exception {
+		BoundedAllowanceTrackerSource source = new BoundedAllowanceTrackerSource(timeSource, definitions, 10);
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<AllowanceTracker>> trackers = new ArrayList<>();
+			for (int i = 0; i < 100; i++) {
+				trackers.add(executor.submit(() -> source.getAllowance("client")));
+			}
+			AllowanceTracker first = trackers.get(0).get();
+			for (Future<AllowanceTracker> tracker : trackers) {
+				assertSame(first, tracker.get());
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void numberOfTrackersIsBounded() {
+		BoundedAllowanceTrackerSource source = new BoundedAllowanceTrackerSource(timeSource, definitions, 10);
+		for (int i = 0; i < 1000; i++) {
+			source.getAllowance("client" + i);
+		}
+		assertTrue(source.size() <= 10);
+	}
+
+}
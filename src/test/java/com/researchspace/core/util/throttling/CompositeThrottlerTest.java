@@ -0,0 +1,86 @@
+package com.researchspace.core.util.throttling;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Map;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.researchspace.core.util.ManualTimeSource;
+
+public class CompositeThrottlerTest {
+
+	ManualTimeSource timeSource;
+	AtomicTokenBucketThrottler perUser;
+	AtomicTokenBucketThrottler perGroup;
+	AtomicTokenBucketThrottler global;
+	CompositeThrottler throttler;
+
+	@BeforeEach
+	public void setUp() throws Exception {
+		timeSource = new ManualTimeSource();
+		perUser = new AtomicTokenBucketThrottler("user", timeSource,
+				new ThrottleDefinitionSet("requests").addDefinition(ThrottleInterval.HOUR, 5));
+		perGroup = new AtomicTokenBucketThrottler("group", timeSource,
+				new ThrottleDefinitionSet().addDefinition(ThrottleInterval.HOUR, 8));
+		global = new AtomicTokenBucketThrottler("global", timeSource,
+				new ThrottleDefinitionSet().addDefinition(ThrottleInterval.HOUR, 10));
+		Map<String, String> groups = Map.of("u1", "g1", "u2", "g1");
+		throttler = new CompositeThrottler("api").addLevel(perUser, id -> id).addLevel(perGroup, groups::get)
+				.addLevel(global, id -> "all");
+	}
+
+	@Test
+	public void eachLevelIsEnforced() {
+		assertTrue(throttler.proceed("u1", 5.0));
+		TooManyRequestsException e = assertThrows(TooManyRequestsException.class, () -> throttler.proceed("u1"));
+		assertEquals("Limit of 5 requests per hour exceeded for user", e.getMessage());
+
+		assertTrue(throttler.proceed("u2", 3.0));
+		e = assertThrows(TooManyRequestsException.class, () -> throttler.proceed("u2"));
+		assertTrue(e.getMessage().contains("group"));
+
+		// u3 is in no group
+		assertTrue(throttler.proceed("u3", 2.0));
+		e = assertThrows(TooManyRequestsException.class, () -> throttler.proceed("u3"));
+		assertTrue(e.getMessage().contains("global"));
+	}
+
+	@Test
+	public void deniedRequestIsRolledBackAtEveryLevel() {
+		assertTrue(throttler.proceed("u3", 5.0));
+		assertTrue(throttler.proceed("u1", 4.0));
+		// user and group allow 2 more for u2, global doesn't
+		ThrottleDecision decision = throttler.decide("u2", 2);
+		assertFalse(decision.isAllowed());
+		assertEquals(1, decision.getRemainingUnits(), 0.001);
+		assertEquals(5, perUser.getAvailableUnits("u2", ThrottleInterval.HOUR), 0.001);
+		assertEquals(4, perGroup.getAvailableUnits("g1", ThrottleInterval.HOUR), 0.001);
+
+		decision = throttler.decide("u2", 1);
+		assertTrue(decision.isAllowed());
+		assertEquals(0, decision.getRemainingUnits(), 0.001);
+	}
+
+	@Test
+	public void levelsRecordOnlyFinalDecision() {
+		assertTrue(throttler.proceed("u3", 5.0));
+		assertTrue(throttler.proceed("u1", 4.0));
+		// allowed by user and group, denied by global
+		assertFalse(throttler.decide("u2", 2).isAllowed());
+		assertEquals(0, perUser.getStats().getDeniedCount(ThrottleInterval.HOUR));
+		assertEquals(2, perUser.getStats().getAllowedCount(ThrottleInterval.HOUR), "u3 and u1 only");
+		assertEquals(1, perGroup.getStats().getAllowedCount(ThrottleInterval.HOUR), "u1 only");
+		assertEquals(1, global.getStats().getDeniedCount(ThrottleInterval.HOUR));
+		assertEquals(2, global.getStats().getAllowedCount(ThrottleInterval.HOUR));
+
+		assertThrows(TooManyRequestsException.class, () -> throttler.proceed("u2", 2.0));
+		assertEquals(2, perUser.getStats().getAllowedCount(ThrottleInterval.HOUR));
+		assertEquals(2, global.getStats().getDeniedCount(ThrottleInterval.HOUR));
+	}
+
+}
@@ -0,0 +1,76 @@
+package com.researchspace.core.util.throttling;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.researchspace.core.util.ManualTimeSource;
+
+public class GcraThrottlerTest {
+
+	ManualTimeSource timeSource;
+	GcraThrottler throttler;
+
+	@BeforeEach
+	public void setUp() throws Exception {
+		timeSource = new ManualTimeSource();
+		throttler = new GcraThrottler("api", timeSource, new ThrottleDefinitionSet()
+				.addDefinition(ThrottleInterval.QUARTER_MIN, 3).addDefinition(ThrottleInterval.DAY, 5));
+	}
+
+	@Test
+	public void allowsBurstOfLimitThenSpacesRequests() {
+		for (int i = 0; i < 3; i++) {
+			assertTrue(throttler.decide("client", 1).isAllowed());
+		}
+		ThrottleDecision denied = throttler.decide("client", 1);
+		assertFalse(denied.isAllowed());
+		assertEquals(ThrottleInterval.QUARTER_MIN, denied.getLimitingInterval());
+		assertEquals(5000, denied.getRetryAfterMillis());
+		assertThrows(TooManyRequestsException.class, () -> throttler.proceed("client"));
+
+		timeSource.advanceMillis(4999);
+		assertFalse(throttler.decide("client", 1).isAllowed());
+		timeSource.advanceMillis(1);
+		assertTrue(throttler.decide("client", 1).isAllowed());
+	}
+
+	@Test
+	public void deniedRequestIsRolledBack() {
+		GcraThrottler dailyFirst = new GcraThrottler("api", timeSource, new ThrottleDefinitionSet()
+				.addDefinition(ThrottleInterval.DAY, 5).addDefinition(ThrottleInterval.QUARTER_MIN, 3));
+		assertTrue(dailyFirst.decide("client", 3).isAllowed());
+		// takes from the daily allowance, then is denied by the quarter-minute limit
+		assertEquals(ThrottleInterval.QUARTER_MIN, dailyFirst.decide("client", 1).getLimitingInterval());
+		timeSource.advanceMillis(15_000);
+		assertTrue(dailyFirst.decide("client", 2).isAllowed(), "daily allowance was returned");
+	}
+
+	@Test
+	public void requestOverLimitCanNeverProceed() {
+		assertEquals(ThrottleDecision.NEVER, throttler.decide("client", 6).getRetryAfterMillis());
+	}
+
+	@Test
+	public void clientsWithFullAllowanceAreEvicted() {
+		throttler.proceed("a");
+		throttler.proceed("b");
+		timeSource.advanceMillis(15_000);
+		throttler.proceed("c");
+		assertEquals(0, throttler.evictIdle(), "daily allowance not yet full");
+		timeSource.advanceMillis(86_400_000);
+		assertEquals(3, throttler.evictIdle());
+	}
+
+	@Test
+	public void evictionRacingWithRequestsKeepsAllowedRequests() throws InterruptedException {
+		SlidingWindowThrottlerTest.assertRequestsOutliveEviction(new GcraThrottler("api", timeSource,
+				new ThrottleDefinitionSet().addDefinition(ThrottleInterval.QUARTER_MIN, 1)
+						.addDefinition(ThrottleInterval.HOUR, 1)));
+	}
+
+}
@@ -0,0 +1,178 @@
+package com.researchspace.core.util.throttling;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.researchspace.core.util.ManualTimeSource;
+
+public class LeasingThrottlerTest {
+
+	ManualTimeSource timeSource;
+	ThrottleDefinitionSet definitions;
+
+	@BeforeEach
+	public void setUp() throws Exception {
+		timeSource = new ManualTimeSource();
+		definitions = new ThrottleDefinitionSet().addDefinition(ThrottleInterval.HOUR, 100);
+	}
+
+	LeasingThrottler nonThrowingThrottler(SharedAllowanceStore store) {
+		return new LeasingThrottler("api", timeSource, definitions, store, Runnable::run, 0.1) {
+			@Override
+			protected boolean onDenied(String identifier, ThrottleInterval interval, int limit) {
+				return false;
+			}
+		};
+	}
+
+	int requestsAllowed(LeasingThrottler node1, LeasingThrottler node2, int attempts) {
+		int allowed = 0;
+		for (int i = 0; i < attempts; i++) {
+			allowed += node1.proceed("client") ? 1 : 0;
+			allowed += node2.proceed("client") ? 1 : 0;
+		}
+		return allowed;
+	}
+
+	@Test
+	public void limitIsSharedBetweenNodes() {
+		SharedAllowanceStore store = new InMemorySharedAllowanceStore(timeSource);
+		assertEquals(100, requestsAllowed(nonThrowingThrottler(store), nonThrowingThrottler(store), 100));
+	}
+
+	@Test
+	public void decisionsAreCounted() {
+		LeasingThrottler throttler = nonThrowingThrottler(new InMemorySharedAllowanceStore(timeSource));
+		assertTrue(throttler.proceed("client", 100.0));
+		assertFalse(throttler.proceed("client"));
+		assertFalse(throttler.decide("client", 1).isAllowed());
+
+		ThrottleStats stats = throttler.getStats();
+		assertEquals(1, stats.getAllowedCount(ThrottleInterval.HOUR));
+		assertEquals(2, stats.getDeniedCount(ThrottleInterval.HOUR));
+		assertEquals("client", stats.getTopDeniedIdentifiers().get(0).getIdentifier());
+	}
+
+	@Test
+	public void deniedRequestThrowsByDefault() {
+		LeasingThrottler throttler = new LeasingThrottler("api", definitions,
+				new InMemorySharedAllowanceStore(timeSource), Runnable::run);
+		throttler.proceed("client", 100.0);
+		assertThrows(TooManyRequestsException.class, () -> throttler.proceed("client"));
+	}
+
+	@Test
+	public void decideDoesNotThrow() {
+		LeasingThrottler throttler = new LeasingThrottler("api", definitions,
+				new InMemorySharedAllowanceStore(timeSource), Runnable::run);
+		assertTrue(throttler.decide("client", 100.0).isAllowed());
+		ThrottleDecision decision = throttler.decide("client", 2.0);
+		assertFalse(decision.isAllowed());
+		assertEquals(ThrottleInterval.HOUR, decision.getLimitingInterval());
+		assertEquals(72_000, decision.getRetryAfterMillis());
+	}
+
+	@Test
+	public void deniedClientDoesNotCallStoreUntilRefill() {
+		AtomicInteger leaseCalls = new AtomicInteger();
+		SharedAllowanceStore inMemory = new InMemorySharedAllowanceStore(timeSource);
+		SharedAllowanceStore store = new SharedAllowanceStore() {
+			@Override
+			public double lease(String identifier, ThrottleInterval interval, int limit, double units) {
+				leaseCalls.incrementAndGet();
+				return inMemory.lease(identifier, interval, limit, units);
+			}
+
+			@Override
+			public void giveBack(String identifier, ThrottleInterval interval, int limit, double units) {
+				inMemory.giveBack(identifier, interval, limit, units);
+			}
+		};
+		LeasingThrottler throttler = nonThrowingThrottler(store);
+		assertTrue(throttler.proceed("client", 100.0));
+		int calls = leaseCalls.get();
+		for (int i = 0; i < 10; i++) {
+			assertFalse(throttler.proceed("client"));
+		}
+		assertEquals(calls + 1, leaseCalls.get(), "only the first denial calls the store");
+
+		// 1 unit refills in 36s
+		timeSource.advanceMillis(36_000);
+		assertTrue(throttler.proceed("client"));
+		assertFalse(throttler.proceed("client"));
+		calls = leaseCalls.get();
+		assertFalse(throttler.proceed("client"));
+		assertEquals(calls, leaseCalls.get());
+		throttler.reconcile();
+		assertFalse(throttler.proceed("client"));
+		assertEquals(calls + 1, leaseCalls.get(), "reconcile forgets denials");
+	}
+
+	@Test
+	public void reconcileReturnsUnusedLeases() {
+		SharedAllowanceStore store = new InMemorySharedAllowanceStore(timeSource);
+		LeasingThrottler node1 = nonThrowingThrottler(store);
+		LeasingThrottler node2 = nonThrowingThrottler(store);
+		node1.proceed("client");
+		assertEquals(9, node1.getLeasedUnits("client", ThrottleInterval.HOUR), 0.001);
+
+		assertEquals(0, node1.reconcile(), "client was active since last reconcile");
+		assertEquals(1, node1.reconcile());
+		assertEquals(0, node1.getLeasedUnits("client", ThrottleInterval.HOUR), 0.001);
+		assertEquals(99, requestsAllowed(node2, node2, 100));
+	}
+
+	@Test
+	public void lateGrantToReturnedLeaseGoesBackToStore() {
+		SharedAllowanceStore store = new InMemorySharedAllowanceStore(timeSource);
+		List<Runnable> deferred = new ArrayList<>();
+		LeasingThrottler node1 = new LeasingThrottler("api", timeSource, definitions, store, deferred::add, 0.1);
+		assertTrue(node1.proceed("client", 6.0));
+		assertEquals(1, deferred.size(), "leasing ahead");
+
+		node1.reconcile();
+		assertEquals(1, node1.reconcile());
+		deferred.forEach(Runnable::run);
+		assertEquals(0, node1.getLeasedUnits("client", ThrottleInterval.HOUR), 0.001);
+		LeasingThrottler node2 = nonThrowingThrottler(store);
+		assertEquals(94, requestsAllowed(node2, node2, 100));
+	}
+
+	@Test
+	public void deniedMessageUsesUnitName() {
+		ThrottleDefinitionSet bytes = new ThrottleDefinitionSet("bytes").addDefinition(ThrottleInterval.HOUR, 100);
+		LeasingThrottler throttler = new LeasingThrottler("upload", bytes,
+				new InMemorySharedAllowanceStore(timeSource), Runnable::run);
+		TooManyRequestsException e = assertThrows(TooManyRequestsException.class,
+				() -> throttler.proceed("client", 101.0));
+		assertEquals("Limit of 100 bytes per hour exceeded for upload", e.getMessage());
+	}
+
+	@Test
+	public void fileStoreIsSharedBetweenInstances() throws Exception {
+		Path file = File.createTempFile("allowances", ".bin").toPath();
+		try {
+			LeasingThrottler node1 = nonThrowingThrottler(new FileSharedAllowanceStore(file, timeSource));
+			LeasingThrottler node2 = nonThrowingThrottler(new FileSharedAllowanceStore(file, timeSource));
+			assertEquals(100, requestsAllowed(node1, node2, 100));
+
+			timeSource.advanceMillis(360_000);
+			assertEquals(10, requestsAllowed(node1, node2, 100), "10 units refill in a tenth of an hour");
+		} finally {
+			Files.deleteIfExists(file);
+		}
+	}
+
+}
@@ -0,0 +1,177 @@
+package com.researchspace.core.util.throttling;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.researchspace.core.util.ManualTimeSource;
+
+public class QueueingThrottlerTest {
+
+	ScheduledExecutorService scheduler;
+	AtomicInteger tokens;
+	AtomicInteger checks;
+
+	// allows a request only when a token has been added
+	Throttler tokenThrottler = new Throttler() {
+		@Override
+		public ThrottleDecision decide(String identifier, double requestedResourceUnits) {
+			checks.incrementAndGet();
+			if (requestedResourceUnits > 10) {
+				return ThrottleDecision.denied(ThrottleInterval.HOUR, 0, ThrottleDecision.NEVER);
+			}
+			if (tokens.get() > 0) {
+				tokens.decrementAndGet();
+				return ThrottleDecision.allowed(ThrottleInterval.HOUR, tokens.get());
+			}
+			return ThrottleDecision.denied(ThrottleInterval.HOUR, 0, 20);
+		}
+
+		@Override
+		public String getName() {
+			return "tokens";
+		}
+	};
+
+	@BeforeEach
+	public void setUp() throws Exception {
+		scheduler = Executors.newSingleThreadScheduledExecutor();
+		tokens = new AtomicInteger();
+		checks = new AtomicInteger();
+	}
+
+	@AfterEach
+	public void tearDown() throws Exception {
+		scheduler.shutdownNow();
+	}
+
+	@Test
+	public void waitersAreAllowedInOrder() throws Exception {
+		QueueingThrottler throttler = new QueueingThrottler(tokenThrottler, scheduler);
+		List<Integer> order = new ArrayList<>();
+		List<CompletableFuture<Void>> futures = new ArrayList<>();
+		for (int i = 0; i < 3; i++) {
+			int n = i;
+			futures.add(throttler.acquireAsync("client", 1).thenRun(() -> {
+				synchronized (order) {
+					order.add(n);
+				}
+			}));
+		}
+		assertEquals(3, throttler.getWaitingCount("client"));
+		tokens.set(3);
+		CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(5, TimeUnit.SECONDS);
+		assertEquals(List.of(0, 1, 2), order);
+		assertEquals(0, throttler.getWaitingCount("client"));
+	}
+
+	@Test
+	public void onlyHeadOfQueueIsCheckedWhileWaiting() throws Exception {
+		QueueingThrottler throttler = new QueueingThrottler(tokenThrottler, scheduler);
+		for (int i = 0; i < 10; i++) {
+			throttler.acquireAsync("client", 1);
+		}
+		Thread.sleep(100);
+		// one check per retry-after interval, not one per waiter
+		assertTrue(checks.get() < 10, "checks: " + checks.get());
+	}
+
+	@Test
+	public void acquireTimesOutAndWithdrawsRequest() throws Exception {
+		QueueingThrottler throttler = new QueueingThrottler(tokenThrottler, scheduler);
+		assertFalse(throttler.acquire("client", 1, 50, TimeUnit.MILLISECONDS));
+		tokens.set(1);
+		assertTrue(throttler.acquire("client", 1, 5, TimeUnit.SECONDS));
+		assertEquals(0, tokens.get(), "timed out request did not consume a token");
+	}
+
+	@Test
+	public void unitsOfRequestWithdrawnAfterAllowedGoToNextWaiter() throws Exception {
+		List<CompletableFuture<Void>> futures = new ArrayList<>();
+		// the first request is withdrawn while it is being allowed
+		Throttler withdrawing = new Throttler() {
+			@Override
+			public ThrottleDecision decide(String identifier, double requestedResourceUnits) {
+				ThrottleDecision decision = tokenThrottler.decide(identifier, requestedResourceUnits);
+				if (decision.isAllowed()) {
+					futures.get(0).cancel(false);
+				}
+				return decision;
+			}
+
+			@Override
+			public String getName() {
+				return "withdrawing";
+			}
+		};
+		QueueingThrottler throttler = new QueueingThrottler(withdrawing, scheduler);
+		futures.add(throttler.acquireAsync("client", 1));
+		futures.add(throttler.acquireAsync("client", 1));
+		tokens.set(1);
+		futures.get(1).get(5, TimeUnit.SECONDS);
+		assertTrue(futures.get(0).isCancelled());
+		assertEquals(0, tokens.get());
+	}
+
+	@Test
+	public void requestOverLimitFails() {
+		QueueingThrottler throttler = new QueueingThrottler(tokenThrottler, scheduler);
+		assertThrows(TooManyRequestsException.class,
+				() -> throttler.acquire("client", 11, 1, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void waitingRequestIsCountedAsDeniedOnce() throws Exception {
+		ManualTimeSource timeSource = new ManualTimeSource();
+		AtomicTokenBucketThrottler buckets = new AtomicTokenBucketThrottler("api", timeSource,
+				new ThrottleDefinitionSet().addDefinition(ThrottleInterval.QUARTER_MIN, 1));
+		// checks again every 10ms rather than after the real retry-after time
+		Throttler fastRetry = new Throttler() {
+			@Override
+			public ThrottleDecision decide(String identifier, double requestedResourceUnits) {
+				return fastRetry(buckets.decide(identifier, requestedResourceUnits));
+			}
+
+			@Override
+			public ThrottleDecision recheck(String identifier, double requestedResourceUnits) {
+				checks.incrementAndGet();
+				return fastRetry(buckets.recheck(identifier, requestedResourceUnits));
+			}
+
+			private ThrottleDecision fastRetry(ThrottleDecision decision) {
+				return decision.isAllowed() ? decision
+						: ThrottleDecision.denied(decision.getLimitingInterval(), decision.getRemainingUnits(), 10);
+			}
+
+			@Override
+			public String getName() {
+				return "api";
+			}
+		};
+		QueueingThrottler throttler = new QueueingThrottler(fastRetry, scheduler);
+		assertTrue(buckets.proceed("client"));
+		CompletableFuture<Void> waiting = throttler.acquireAsync("client", 1);
+		Thread.sleep(100);
+		assertTrue(checks.get() > 1, "checks: " + checks.get());
+		assertEquals(1, buckets.getStats().getDeniedCount(ThrottleInterval.QUARTER_MIN));
+
+		timeSource.advanceMillis(15_000);
+		waiting.get(5, TimeUnit.SECONDS);
+		assertEquals(1, buckets.getStats().getDeniedCount(ThrottleInterval.QUARTER_MIN));
+		assertEquals(2, buckets.getStats().getAllowedCount(ThrottleInterval.QUARTER_MIN));
+	}
+
+}
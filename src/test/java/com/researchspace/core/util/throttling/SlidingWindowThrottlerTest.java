@@ -0,0 +1,110 @@
+package com.researchspace.core.util.throttling;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.researchspace.core.util.ManualTimeSource;
+
+public class SlidingWindowThrottlerTest {
+
+	ManualTimeSource timeSource;
+	ThrottleDefinitionSet definitions;
+
+	@BeforeEach
+	public void setUp() throws Exception {
+		timeSource = new ManualTimeSource();
+		definitions = new ThrottleDefinitionSet().addDefinition(ThrottleInterval.QUARTER_MIN, 4)
+				.addDefinition(ThrottleInterval.HOUR, 6);
+	}
+
+	@Test
+	public void logAllowsLimitInAnySlidingInterval() {
+		SlidingWindowLogThrottler throttler = new SlidingWindowLogThrottler("api", timeSource, definitions);
+		assertTrue(throttler.decide("client", 1).isAllowed());
+		timeSource.advanceMillis(10_000);
+		for (int i = 0; i < 3; i++) {
+			assertTrue(throttler.decide("client", 1).isAllowed());
+		}
+		ThrottleDecision denied = throttler.decide("client", 1);
+		assertFalse(denied.isAllowed());
+		// the first request leaves the window 15s after it was made
+		assertEquals(5000, denied.getRetryAfterMillis());
+		timeSource.advanceMillis(5000);
+		assertTrue(throttler.decide("client", 1).isAllowed());
+		assertFalse(throttler.decide("client", 1).isAllowed());
+	}
+
+	@Test
+	public void logDeniedRequestIsNotLogged() {
+		SlidingWindowLogThrottler throttler = new SlidingWindowLogThrottler("api", timeSource,
+				new ThrottleDefinitionSet().addDefinition(ThrottleInterval.HOUR, 6)
+						.addDefinition(ThrottleInterval.QUARTER_MIN, 4));
+		assertTrue(throttler.decide("client", 4).isAllowed());
+		assertEquals(ThrottleInterval.QUARTER_MIN, throttler.decide("client", 1).getLimitingInterval());
+		timeSource.advanceMillis(15_001);
+		assertTrue(throttler.decide("client", 2).isAllowed(), "denied request was not logged for the hour");
+		assertEquals(0, throttler.decide("client", 0).getRemainingUnits(), 0.001);
+
+		timeSource.advanceMillis(3_600_000);
+		assertEquals(1, throttler.evictIdle());
+	}
+
+	@Test
+	public void counterWeightsPreviousWindow() {
+		SlidingWindowCounterThrottler throttler = new SlidingWindowCounterThrottler("api", timeSource,
+				new ThrottleDefinitionSet().addDefinition(ThrottleInterval.QUARTER_MIN, 4));
+		assertTrue(throttler.decide("client", 4).isAllowed());
+		assertFalse(throttler.decide("client", 1).isAllowed());
+		// a quarter into the next window, 3 of the previous 4 still count
+		timeSource.advanceMillis(15_000 + 3750);
+		assertTrue(throttler.decide("client", 1).isAllowed());
+		ThrottleDecision denied = throttler.decide("client", 1);
+		assertFalse(denied.isAllowed());
+		assertEquals(3750, denied.getRetryAfterMillis(), 1);
+		timeSource.advanceMillis(denied.getRetryAfterMillis());
+		assertTrue(throttler.decide("client", 1).isAllowed());
+	}
+
+	@Test
+	public void counterEvictsClientsWithNoRecentRequests() {
+		SlidingWindowCounterThrottler throttler = new SlidingWindowCounterThrottler("api", timeSource, definitions);
+		throttler.proceed("client");
+		timeSource.advanceMillis(3_600_000);
+		assertEquals(0, throttler.evictIdle(), "previous hourly window still counts");
+		timeSource.advanceMillis(3_600_000);
+		assertEquals(1, throttler.evictIdle());
+	}
+
+	@Test
+	public void evictionRacingWithRequestsKeepsAllowedRequests() throws InterruptedException {
+		ThrottleDefinitionSet onePerHour = new ThrottleDefinitionSet().addDefinition(ThrottleInterval.HOUR, 1);
+		assertRequestsOutliveEviction(new SlidingWindowLogThrottler("api", timeSource, onePerHour));
+		assertRequestsOutliveEviction(new SlidingWindowCounterThrottler("api", timeSource, onePerHour));
+	}
+
+	static void assertRequestsOutliveEviction(AbstractRateThrottler throttler) throws InterruptedException {
+		int clients = 20_000;
+		AtomicBoolean requesting = new AtomicBoolean(true);
+		Thread evictor = new Thread(() -> {
+			while (requesting.get()) {
+				throttler.evictIdle();
+			}
+		});
+		evictor.start();
+		for (int i = 0; i < clients; i++) {
+			throttler.decide("client" + i, 1);
+		}
+		requesting.set(false);
+		evictor.join();
+		for (int i = 0; i < clients; i++) {
+			assertFalse(throttler.decide("client" + i, 1).isAllowed(), "allowed request was evicted");
+		}
+	}
+
+}
@@ -0,0 +1,102 @@
+package com.researchspace.core.util.throttling;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import com.researchspace.core.util.ManualTimeSource;
+
+public class ThrottleStatsRecorderTest {
+
+	@Test
+	public void utilisationIsBucketed() {
+		ThrottleStatsRecorder recorder = new ThrottleStatsRecorder();
+		recorder.recordUtilisation(0.1);
+		recorder.recordUtilisation(0.5);
+		recorder.recordUtilisation(0.8);
+		recorder.recordUtilisation(0.99);
+		recorder.recordUtilisation(1.0);
+		recorder.recordUtilisation(1.0);
+		assertArrayEquals(new long[] { 1, 1, 1, 1, 2 }, recorder.snapshot().getUtilisationHistogram());
+	}
+
+	@Test
+	public void heavyHittersAreTrackedWithinCapacity() {
+		ThrottleStatsRecorder recorder = new ThrottleStatsRecorder(3);
+		for (int i = 0; i < 100; i++) {
+			recorder.recordDenied(ThrottleInterval.HOUR, "noisy");
+			recorder.recordDenied(ThrottleInterval.HOUR, "client" + i);
+		}
+		List<ThrottleStats.HeavyHitter> top = recorder.snapshot().getTopDeniedIdentifiers();
+		assertEquals(3, top.size());
+		assertEquals("noisy", top.get(0).getIdentifier());
+		assertEquals(100, top.get(0).getCount());
+		assertEquals(200, recorder.snapshot().getDeniedCount(ThrottleInterval.HOUR));
+	}
+
+	@Test
+	public void concurrentDenialsAreAllCounted() throws Exception {
+		ThrottleStatsRecorder recorder = new ThrottleStatsRecorder(3);
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<?>> futures = new ArrayList<>();
+			for (int t = 0; t < 4; t++) {
+				futures.add(executor.submit(() -> {
+					for (int i = 0; i < 10_000; i++) {
+						recorder.recordDenied(ThrottleInterval.HOUR, "noisy");
+					}
+				}));
+			}
+			for (Future<?> future : futures) {
+				future.get(10, TimeUnit.SECONDS);
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		assertEquals(40_000, recorder.snapshot().getTopDeniedIdentifiers().get(0).getCount());
+		assertThrows(IllegalArgumentException.class, () -> new ThrottleStatsRecorder(0));
+	}
+
+	@Test
+	public void throttlerRecordsDecisions() {
+		ThrottleDefinitionSet definitions = new ThrottleDefinitionSet().addDefinition(ThrottleInterval.QUARTER_MIN, 4)
+				.addDefinition(ThrottleInterval.HOUR, 100);
+		AtomicTokenBucketThrottler throttler = new AtomicTokenBucketThrottler("api", new ManualTimeSource(),
+				definitions);
+		for (int i = 0; i < 5; i++) {
+			throttler.decide("client", 1.0);
+		}
+		ThrottleStats stats = throttler.getStats();
+		assertEquals(4, stats.getAllowedCount(ThrottleInterval.QUARTER_MIN));
+		assertEquals(4, stats.getAllowedCount(ThrottleInterval.HOUR));
+		assertEquals(1, stats.getDeniedCount(ThrottleInterval.QUARTER_MIN));
+		assertEquals(0, stats.getDeniedCount(ThrottleInterval.HOUR));
+		assertArrayEquals(new long[] { 1, 1, 1, 0, 1 }, stats.getUtilisationHistogram());
+		assertEquals("client", stats.getTopDeniedIdentifiers().get(0).getIdentifier());
+		assertEquals(1L, stats.toMap().get("denied.quarter_min"));
+	}
+
+	@Test
+	public void rateThrottlerRecordsDecisions() {
+		GcraThrottler throttler = new GcraThrottler("api", new ManualTimeSource(),
+				new ThrottleDefinitionSet().addDefinition(ThrottleInterval.HOUR, 2));
+		assertTrue(throttler.decide("client", 1.0).isAllowed());
+		assertTrue(throttler.decide("client", 1.0).isAllowed());
+		assertFalse(throttler.decide("client", 1.0).isAllowed());
+		ThrottleStats stats = throttler.getStats();
+		assertEquals(2, stats.getAllowedCount(ThrottleInterval.HOUR));
+		assertEquals(1, stats.getTotalDeniedCount());
+	}
+
+}